@@ -0,0 +1,198 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.core;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The fields that the field wise equals and match of GenericObject, SIPObject
+ * and NetObject compare, computed once per class. The fields are listed in the
+ * order the comparisons visit them: the fields declared by the class first and
+ * then those of its superclasses up to the stop class. Private fields and the
+ * book-keeping fields stringRepresentation and indentation are left out and
+ * the fields are made accessible once so that no introspection of the class
+ * and no type name comparison is done on each call.
+ *
+ * @author M. Ranganathan
+ */
+public final class FieldLayout {
+
+    public static final int INT = 0;
+
+    public static final int SHORT = 1;
+
+    public static final int CHAR = 2;
+
+    public static final int LONG = 3;
+
+    public static final int BOOLEAN = 4;
+
+    public static final int DOUBLE = 5;
+
+    public static final int FLOAT = 6;
+
+    /** A primitive type other than the above (byte), never compared. */
+    public static final int OTHER = 7;
+
+    public static final int OBJECT = 8;
+
+    private final Field[] fields;
+
+    private final int[] kinds;
+
+    private FieldLayout(Field[] fields, int[] kinds) {
+        this.fields = fields;
+        this.kinds = kinds;
+    }
+
+    public int size() {
+        return fields.length;
+    }
+
+    public Field getField(int i) {
+        return fields[i];
+    }
+
+    public int getKind(int i) {
+        return kinds[i];
+    }
+
+    /**
+     * Compare the primitive field i of two objects of the same class.
+     *
+     * @return false if the field is of a compared primitive type and the
+     *         values differ.
+     */
+    public boolean primitiveEquals(int i, Object a, Object b)
+            throws IllegalAccessException {
+        Field f = fields[i];
+        switch (kinds[i]) {
+        case INT:
+            return f.getInt(a) == f.getInt(b);
+        case SHORT:
+            return f.getShort(a) == f.getShort(b);
+        case CHAR:
+            return f.getChar(a) == f.getChar(b);
+        case LONG:
+            return f.getLong(a) == f.getLong(b);
+        case BOOLEAN:
+            return f.getBoolean(a) == f.getBoolean(b);
+        case DOUBLE:
+            return f.getDouble(a) == f.getDouble(b);
+        case FLOAT:
+            return f.getFloat(a) == f.getFloat(b);
+        default:
+            return true;
+        }
+    }
+
+    private static int kindOf(Class<?> type) {
+        if (!type.isPrimitive())
+            return OBJECT;
+        else if (type == Integer.TYPE)
+            return INT;
+        else if (type == Short.TYPE)
+            return SHORT;
+        else if (type == Character.TYPE)
+            return CHAR;
+        else if (type == Long.TYPE)
+            return LONG;
+        else if (type == Boolean.TYPE)
+            return BOOLEAN;
+        else if (type == Double.TYPE)
+            return DOUBLE;
+        else if (type == Float.TYPE)
+            return FLOAT;
+        else
+            return OTHER;
+    }
+
+    private static FieldLayout compute(Class<?> clazz, Class<?> stopClass) {
+        ArrayList<Field> list = new ArrayList<Field>();
+        Class<?> c = clazz;
+        while (c != null) {
+            Field[] declared = c.getDeclaredFields();
+            for (int i = 0; i < declared.length; i++) {
+                Field f = declared[i];
+                if (Modifier.isPrivate(f.getModifiers()))
+                    continue;
+                String name = f.getName();
+                if (name.equals("stringRepresentation")
+                        || name.equals("indentation"))
+                    continue;
+                try {
+                    f.setAccessible(true);
+                } catch (SecurityException ex) {
+                    // compared with the access checks then
+                }
+                list.add(f);
+            }
+            if (stopClass == null || c.equals(stopClass))
+                break;
+            c = c.getSuperclass();
+        }
+        Field[] fields = list.toArray(new Field[list.size()]);
+        int[] kinds = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            kinds[i] = kindOf(fields[i].getType());
+        }
+        return new FieldLayout(fields, kinds);
+    }
+
+    /**
+     * The layouts of the classes compared by one equals or match
+     * implementation.
+     */
+    public static final class Cache {
+
+        private final Class<?> stopClass;
+
+        private final ConcurrentHashMap<Class<?>, FieldLayout> layouts =
+            new ConcurrentHashMap<Class<?>, FieldLayout>();
+
+        /**
+         * @param stopClass the last superclass whose fields are listed, or
+         *        null to list only the fields declared by the class itself.
+         */
+        public Cache(Class<?> stopClass) {
+            this.stopClass = stopClass;
+        }
+
+        public FieldLayout getLayout(Class<?> clazz) {
+            FieldLayout layout = layouts.get(clazz);
+            if (layout == null) {
+                layout = compute(clazz, stopClass);
+                FieldLayout previous = layouts.putIfAbsent(clazz, layout);
+                if (previous != null)
+                    layout = previous;
+            }
+            return layout;
+        }
+    }
+}
@@ -77,6 +77,14 @@ public abstract class GenericObject implements Serializable, Cloneable {
         "Float", "Double"
         };
 
+    /** Fields compared by equals, up to those of GenericObject. */
+    private static final FieldLayout.Cache equalsLayouts =
+        new FieldLayout.Cache(GenericObject.class);
+
+    /** Fields compared by match, those declared by the class itself. */
+    private static final FieldLayout.Cache matchLayouts =
+        new FieldLayout.Cache(null);
+
     protected int indentation;
     protected String stringRepresentation;
     protected Match matchExpression; // Pattern matcher.
@@ -410,73 +418,26 @@ public abstract class GenericObject implements Serializable, Cloneable {
         if ( that == null ) return false;
         if (!this.getClass().equals(that.getClass()))
             return false;
-        Class<?> myclass = this.getClass();
-        Class<?> hisclass = that.getClass();
-        while (true) {
-            Field[] fields = myclass.getDeclaredFields();
-            Field[] hisfields = hisclass.getDeclaredFields();
-            for (int i = 0; i < fields.length; i++) {
-                Field f = fields[i];
-                Field g = hisfields[i];
-                // Only print protected and public members.
-                int modifier = f.getModifiers();
-                if ((modifier & Modifier.PRIVATE) == Modifier.PRIVATE)
-                    continue;
-                Class<?> fieldType = f.getType();
-                String fieldName = f.getName();
-                if (fieldName.compareTo("stringRepresentation") == 0) {
-                    continue;
-                }
-                if (fieldName.compareTo("indentation") == 0) {
-                    continue;
-                }
-                try {
-                    // Primitive fields are printed with type: value
-                    if (fieldType.isPrimitive()) {
-                        String fname = fieldType.toString();
-                        if (fname.compareTo("int") == 0) {
-                            if (f.getInt(this) != g.getInt(that))
-                                return false;
-                        } else if (fname.compareTo("short") == 0) {
-                            if (f.getShort(this) != g.getShort(that))
-                                return false;
-                        } else if (fname.compareTo("char") == 0) {
-                            if (f.getChar(this) != g.getChar(that))
-                                return false;
-                        } else if (fname.compareTo("long") == 0) {
-                            if (f.getLong(this) != g.getLong(that))
-                                return false;
-                        } else if (fname.compareTo("boolean") == 0) {
-                            if (f.getBoolean(this) != g.getBoolean(that))
-                                return false;
-                        } else if (fname.compareTo("double") == 0) {
-                            if (f.getDouble(this) != g.getDouble(that))
-                                return false;
-                        } else if (fname.compareTo("float") == 0) {
-                            if (f.getFloat(this) != g.getFloat(that))
-                                return false;
-                        }
-                    } else if (g.get(that) == f.get(this))
-                        return true;
-                    else if (f.get(this) == null)
-                        return false;
-                    else if (g.get(that) == null)
-                        return false;
-                    else if (g.get(that) == null && f.get(this) != null)
-                        return false;
-                    else if (!f.get(this).equals(g.get(that)))
+        FieldLayout layout = equalsLayouts.getLayout(this.getClass());
+        try {
+            for (int i = 0; i < layout.size(); i++) {
+                if (layout.getKind(i) != FieldLayout.OBJECT) {
+                    if (!layout.primitiveEquals(i, this, that))
                         return false;
-                } catch (IllegalAccessException ex1) {
-                    InternalErrorHandler.handleException(ex1);
+                    continue;
                 }
+                Field f = layout.getField(i);
+                Object myObj = f.get(this);
+                Object hisObj = f.get(that);
+                if (hisObj == myObj)
+                    return true;
+                else if (myObj == null || hisObj == null)
+                    return false;
+                else if (!myObj.equals(hisObj))
+                    return false;
             }
-            if (myclass.equals(GenericObject.class))
-                break;
-            else {
-                myclass = myclass.getSuperclass();
-                hisclass = hisclass.getSuperclass();
-            }
-
+        } catch (IllegalAccessException ex1) {
+            InternalErrorHandler.handleException(ex1);
         }
         return true;
     }
@@ -496,82 +457,41 @@ public abstract class GenericObject implements Serializable, Cloneable {
         if (!this.getClass().equals(other.getClass()))
             return false;
         GenericObject that = (GenericObject) other;
-        Class<?> myclass = this.getClass();
-        Field[] fields = myclass.getDeclaredFields();
-        Class<?> hisclass = other.getClass();
-        Field[] hisfields = hisclass.getDeclaredFields();
-        for (int i = 0; i < fields.length; i++) {
-            Field f = fields[i];
-            Field g = hisfields[i];
-            // Only print protected and public members.
-            int modifier = f.getModifiers();
-            if ((modifier & Modifier.PRIVATE) == Modifier.PRIVATE)
-                continue;
-            Class<?> fieldType = f.getType();
-            String fieldName = f.getName();
-            if (fieldName.compareTo("stringRepresentation") == 0) {
-                continue;
-            }
-            if (fieldName.compareTo("indentation") == 0) {
-                continue;
-            }
-            try {
-                // Primitive fields are printed with type: value
-                if (fieldType.isPrimitive()) {
-                    String fname = fieldType.toString();
-                    if (fname.compareTo("int") == 0) {
-                        if (f.getInt(this) != g.getInt(that))
-                            return false;
-                    } else if (fname.compareTo("short") == 0) {
-                        if (f.getShort(this) != g.getShort(that))
-                            return false;
-                    } else if (fname.compareTo("char") == 0) {
-                        if (f.getChar(this) != g.getChar(that))
-                            return false;
-                    } else if (fname.compareTo("long") == 0) {
-                        if (f.getLong(this) != g.getLong(that))
-                            return false;
-                    } else if (fname.compareTo("boolean") == 0) {
-                        if (f.getBoolean(this) != g.getBoolean(that))
-                            return false;
-                    } else if (fname.compareTo("double") == 0) {
-                        if (f.getDouble(this) != g.getDouble(that))
-                            return false;
-                    } else if (fname.compareTo("float") == 0) {
-                        if (f.getFloat(this) != g.getFloat(that))
-                            return false;
-                    }
-                } else {
-                    Object myObj = f.get(this);
-                    Object hisObj = g.get(that);
-                    if (hisObj != null && myObj == null)
+        FieldLayout layout = matchLayouts.getLayout(this.getClass());
+        try {
+            for (int i = 0; i < layout.size(); i++) {
+                if (layout.getKind(i) != FieldLayout.OBJECT) {
+                    if (!layout.primitiveEquals(i, this, that))
                         return false;
-                    else if (hisObj == null && myObj != null)
-                        continue;
-                    else if (hisObj == null && myObj == null)
+                    continue;
+                }
+                Field f = layout.getField(i);
+                Object myObj = f.get(this);
+                Object hisObj = f.get(that);
+                if (hisObj != null && myObj == null)
+                    return false;
+                else if (hisObj == null)
+                    continue;
+                else if (
+                    hisObj instanceof java.lang.String
+                        && myObj instanceof java.lang.String) {
+                    if ((((String) hisObj).trim()).equals(""))
                         continue;
-                    else if (
-                        hisObj instanceof java.lang.String
-                            && myObj instanceof java.lang.String) {
-                        if ((((String) hisObj).trim()).equals(""))
-                            continue;
-                        if (((String) myObj)
-                            .compareToIgnoreCase((String) hisObj)
-                            != 0)
-                            return false;
-                    } else if (
-                        GenericObject.isMySubclass(myObj.getClass())
-                            && !((GenericObject) myObj).match(hisObj))
-                        return false;
-                    else if (
-                        GenericObjectList.isMySubclass(myObj.getClass())
-                            && !((GenericObjectList) myObj).match(hisObj))
+                    if (((String) myObj)
+                        .compareToIgnoreCase((String) hisObj)
+                        != 0)
                         return false;
-
-                }
-            } catch (IllegalAccessException ex1) {
-                InternalErrorHandler.handleException(ex1);
+                } else if (
+                    myObj instanceof GenericObject
+                        && !((GenericObject) myObj).match(hisObj))
+                    return false;
+                else if (
+                    myObj instanceof GenericObjectList
+                        && !((GenericObjectList) myObj).match(hisObj))
+                    return false;
             }
+        } catch (IllegalAccessException ex1) {
+            InternalErrorHandler.handleException(ex1);
         }
         return true;
     }
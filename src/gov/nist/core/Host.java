@@ -274,6 +274,16 @@ public class Host extends GenericObject {
 
     }
 
+    /**
+     * Set the address that the host name resolves to, so that
+     * {@link #getInetAddress()} does not look it up again.
+     *
+     *@param inetAddress the resolved address of the host name.
+     */
+    public void setInetAddress(InetAddress inetAddress) {
+        this.inetAddress = inetAddress;
+    }
+
     //----- IPv6
     /**
      * Verifies whether the <code>address</code> could
@@ -0,0 +1,190 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.core;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with a bounded relative error, laid out like an
+ * HdrHistogram. Values below 32 have a bucket each. Above that every power of
+ * two is split in 32 buckets of equal width, so a value is known within about
+ * 3% whatever its magnitude, and values up to 2^40 fit in about 1200 buckets.
+ * <p>
+ * Recording a value is an increment of its bucket and an add to a striped
+ * sum, there is no lock and no allocation, so the histogram can stay on
+ * in the message path. The unit of the values is up to the caller.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int SUM = 0;
+
+    private final long highestTrackableValue;
+
+    private final AtomicLongArray buckets;
+
+    private final StripedCounters totals = new StripedCounters(1);
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param highestTrackableValue values above this are recorded as this
+     *            value, at most 2^62.
+     */
+    public LatencyHistogram(long highestTrackableValue) {
+        if (highestTrackableValue < 1 || highestTrackableValue > (1L << 62)) {
+            throw new IllegalArgumentException("Bad highest trackable value "
+                    + highestTrackableValue);
+        }
+        this.highestTrackableValue = highestTrackableValue;
+        this.buckets = new AtomicLongArray(bucketIndex(highestTrackableValue) + 1);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS * (shift + 1) + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return the largest value recorded in the bucket.
+     */
+    static long highestValueInBucket(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > highestTrackableValue) {
+            value = highestTrackableValue;
+        }
+        buckets.incrementAndGet(bucketIndex(value));
+        totals.add(SUM, value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public long getHighestTrackableValue() {
+        return highestTrackableValue;
+    }
+
+    /**
+     * Copy the recorded values. Values recorded while the copy is made may
+     * be left out of some of the figures of the snapshot.
+     */
+    public Snapshot getSnapshot() {
+        long[] counts = new long[buckets.length()];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, totals.get(SUM), max.get());
+    }
+
+    /**
+     * The values of a histogram at one point in time.
+     */
+    public static final class Snapshot implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long[] counts;
+
+        private final long count;
+
+        private final long sum;
+
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return the number of recorded values.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param percentile between 0 and 100.
+         * @return a value that the given percentage of the recorded values do
+         *         not exceed, within the precision of the histogram, 0 if
+         *         nothing was recorded.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Bad percentile " + percentile);
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueInBucket(i), max);
+                }
+            }
+            return max;
+        }
+
+        public String toString() {
+            return "count=" + count + " mean=" + getMean() + " p50="
+                    + getValueAtPercentile(50) + " p99=" + getValueAtPercentile(99)
+                    + " max=" + max;
+        }
+    }
+}
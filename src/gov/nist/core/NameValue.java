@@ -222,7 +222,11 @@ public class NameValue extends GenericObject implements Entry<String,String> {
 
     public Object clone() {
         NameValue retval = (NameValue) super.clone();
-        if (value != null)
+        if (value instanceof String)
+            retval.value = value;
+        else if (value instanceof GenericObject)
+            retval.value = ((GenericObject) value).clone();
+        else if (value != null)
             retval.value = makeClone(value);
         return retval;
     }
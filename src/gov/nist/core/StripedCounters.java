@@ -0,0 +1,113 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed number of counters that many threads can add to without contending
+ * with each other. Every counter is kept in several stripes and a thread only
+ * ever adds to the stripe picked from its id, so threads running on different
+ * processors mostly write to different cache lines. Reading a counter sums its
+ * stripes, it is meant for statistics that are written very often and read
+ * rarely.
+ * <p>
+ * The value read while other threads add is not a point in time snapshot of
+ * all the counters, each counter is exact once the writers are done.
+ */
+public final class StripedCounters {
+
+    // Longs in a cache line.
+    private static final int LINE = 8;
+
+    private static final int STRIPES = stripeCount();
+
+    private final AtomicLongArray cells;
+
+    private final int size;
+
+    // Distance between the stripes of a counter, a whole number of lines.
+    private final int stride;
+
+    /**
+     * @param size the number of counters.
+     */
+    public StripedCounters(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Bad counter count " + size);
+        }
+        this.size = size;
+        this.stride = ((size + LINE - 1) / LINE) * LINE;
+        // One line in front so that the first stripe does not share its
+        // line with the array header.
+        this.cells = new AtomicLongArray(LINE + STRIPES * stride);
+    }
+
+    private static int stripeCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < processors * 2 && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    private int stripeOffset() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return LINE + (hash & (STRIPES - 1)) * stride;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void increment(int counter) {
+        add(counter, 1);
+    }
+
+    public void add(int counter, long delta) {
+        if (counter < 0 || counter >= size) {
+            throw new IndexOutOfBoundsException("No counter " + counter);
+        }
+        cells.getAndAdd(stripeOffset() + counter, delta);
+    }
+
+    /**
+     * @return the sum of the stripes of the counter.
+     */
+    public long get(int counter) {
+        if (counter < 0 || counter >= size) {
+            throw new IndexOutOfBoundsException("No counter " + counter);
+        }
+        long sum = 0;
+        for (int offset = LINE + counter; offset < cells.length(); offset += stride) {
+            sum += cells.get(offset);
+        }
+        return sum;
+    }
+}
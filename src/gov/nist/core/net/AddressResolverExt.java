@@ -0,0 +1,62 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.core.net;
+
+import java.util.List;
+
+import javax.sip.address.Hop;
+
+/**
+ * An {@link AddressResolver} that resolves a hop to several addresses, in the
+ * order in which they should be tried, as done by the RFC 3263 procedures
+ * with NAPTR and SRV records. The router of the stack asks it for the hops of
+ * a request and tells it about the hops that timed out.
+ *
+ * @see gov.nist.javax.sip.DnsAddressResolver
+ * @see gov.nist.javax.sip.address.RouterExt
+ */
+public interface AddressResolverExt extends AddressResolver {
+
+    /**
+     * Resolve a hop to the addresses to try, best first.
+     *
+     * @param hop -- the hop to resolve. The port is -1 if the URI has none.
+     * @param transportSpecified -- false if the transport of the hop is only
+     *            the preferred one, the resolver may then select another
+     *            transport.
+     * @return the hops to try, an empty list if the hop does not resolve.
+     */
+    public List<Hop> resolveAddresses(Hop hop, boolean transportSpecified);
+
+    /**
+     * Record that a transaction sent to a hop returned by this resolver timed
+     * out, so that the other addresses are tried first for a while.
+     *
+     * @param hop -- the hop that timed out.
+     */
+    public void transactionTimeout(Hop hop);
+
+}
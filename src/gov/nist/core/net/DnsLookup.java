@@ -0,0 +1,58 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.core.net;
+
+import java.io.IOException;
+
+/**
+ * Where the {@link gov.nist.javax.sip.DnsAddressResolver} looks the NAPTR and
+ * SRV records of RFC 3263 up. The default lookup queries DNS through JNDI.
+ * Another lookup can be registered, for example a fake zone in tests.
+ *
+ * @see gov.nist.javax.sip.SipStackImpl
+ */
+public interface DnsLookup {
+
+    /**
+     * Look up the NAPTR records of a domain. This may block.
+     *
+     * @param domain -- the domain to look up.
+     * @return the records of the domain, an empty array if there are none.
+     * @throws IOException if the query failed.
+     */
+    public NaptrRecord[] lookupNaptr(String domain) throws IOException;
+
+    /**
+     * Look up the SRV records of a service name such as _sip._udp.example.com.
+     * This may block.
+     *
+     * @param name -- the service name to look up.
+     * @return the records of the name, an empty array if there are none.
+     * @throws IOException if the query failed.
+     */
+    public SrvRecord[] lookupSrv(String name) throws IOException;
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.core.net;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+/**
+ * The default {@link DnsLookup}, which queries DNS with the JNDI DNS service
+ * provider of the JRE. The name servers of the system are used unless a
+ * provider URL such as "dns://10.0.0.1" is given.
+ */
+public class JndiDnsLookup implements DnsLookup {
+
+    private final String providerUrl;
+
+    public JndiDnsLookup() {
+        this(null);
+    }
+
+    /**
+     * @param providerUrl -- the name servers to query, for example
+     *            "dns://10.0.0.1 dns://10.0.0.2", or null for the system ones.
+     */
+    public JndiDnsLookup(String providerUrl) {
+        this.providerUrl = providerUrl;
+    }
+
+    public NaptrRecord[] lookupNaptr(String domain) throws IOException {
+        List<String> values = lookup(domain, "NAPTR");
+        List<NaptrRecord> records = new ArrayList<NaptrRecord>(values.size());
+        for (String value : values) {
+            List<String> fields = split(value);
+            if (fields.size() != 6) {
+                continue;
+            }
+            try {
+                records.add(new NaptrRecord(Integer.parseInt(fields.get(0)),
+                        Integer.parseInt(fields.get(1)), fields.get(2),
+                        fields.get(3), fields.get(4), stripDot(fields.get(5))));
+            } catch (NumberFormatException ex) {
+                // skip the malformed record
+            }
+        }
+        return records.toArray(new NaptrRecord[records.size()]);
+    }
+
+    public SrvRecord[] lookupSrv(String name) throws IOException {
+        List<String> values = lookup(name, "SRV");
+        List<SrvRecord> records = new ArrayList<SrvRecord>(values.size());
+        for (String value : values) {
+            List<String> fields = split(value);
+            if (fields.size() != 4) {
+                continue;
+            }
+            try {
+                records.add(new SrvRecord(Integer.parseInt(fields.get(0)),
+                        Integer.parseInt(fields.get(1)),
+                        Integer.parseInt(fields.get(2)), stripDot(fields.get(3))));
+            } catch (NumberFormatException ex) {
+                // skip the malformed record
+            }
+        }
+        return records.toArray(new SrvRecord[records.size()]);
+    }
+
+    private List<String> lookup(String name, String type) throws IOException {
+        Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put("java.naming.factory.initial", "com.sun.jndi.dns.DnsContextFactory");
+        if (providerUrl != null) {
+            env.put("java.naming.provider.url", providerUrl);
+        }
+        List<String> values = new ArrayList<String>();
+        DirContext context = null;
+        try {
+            context = new InitialDirContext(env);
+            Attributes attributes = context.getAttributes(name, new String[] { type });
+            Attribute attribute = attributes.get(type);
+            if (attribute != null) {
+                NamingEnumeration<?> e = attribute.getAll();
+                while (e.hasMore()) {
+                    values.add(e.next().toString());
+                }
+            }
+            return values;
+        } catch (NameNotFoundException ex) {
+            return values;
+        } catch (NamingException ex) {
+            IOException ioe = new IOException(type + " lookup of " + name + " failed");
+            ioe.initCause(ex);
+            throw ioe;
+        } finally {
+            if (context != null) {
+                try {
+                    context.close();
+                } catch (NamingException ex) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Split a record into its fields, with the quotes of the character
+     * strings removed.
+     */
+    private static List<String> split(String value) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean inField = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inField = true;
+            } else if (c == ' ' && !quoted) {
+                if (inField) {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                    inField = false;
+                }
+            } else {
+                field.append(c);
+                inField = true;
+            }
+        }
+        if (inField) {
+            fields.add(field.toString());
+        }
+        return fields;
+    }
+
+    private static String stripDot(String name) {
+        if (name.length() > 1 && name.endsWith(".")) {
+            return name.substring(0, name.length() - 1);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.core.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Callback for a name looked up in the background by the {@link NameResolver}.
+ * It is called from a resolver thread, or from the calling thread when the
+ * answer is already known.
+ */
+public interface NameResolutionListener {
+
+    /**
+     * The name resolved.
+     *
+     * @param hostName -- the name that was looked up.
+     * @param address -- the first address of the name.
+     */
+    public void nameResolved(String hostName, InetAddress address);
+
+    /**
+     * The name did not resolve.
+     *
+     * @param hostName -- the name that was looked up.
+     * @param ex -- why the lookup failed.
+     */
+    public void nameResolutionFailed(String hostName, UnknownHostException ex);
+
+}
@@ -0,0 +1,420 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.core.net;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogWriter;
+import gov.nist.core.StackLogger;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Host name resolution for the stack, with a cache. The names are looked up in
+ * a {@link NameSource}. Successful lookups are kept for the positive time to
+ * live and failed ones for the negative time to live. Concurrent lookups of the
+ * same name are coalesced into one query of the name source.
+ * <p>
+ * Names can be resolved in the calling thread with {@link #resolve(String)}, or
+ * in the background with {@link #resolve(String, NameResolutionListener)} so
+ * that stack threads such as the timer never wait for the name source. IP
+ * addresses are never looked up.
+ *
+ * @see gov.nist.javax.sip.SipStackImpl
+ */
+public class NameResolver {
+
+    private static StackLogger logger = CommonLogger.getLogger(NameResolver.class);
+
+    /**
+     * Default time a resolved name is kept, in milliseconds.
+     */
+    public static final long DEFAULT_TTL = 30000;
+
+    /**
+     * Default time a name that failed to resolve is kept, in milliseconds.
+     */
+    public static final long DEFAULT_NEGATIVE_TTL = 10000;
+
+    private static final int DEFAULT_THREADS = 2;
+
+    // Expired entries are purged when the cache grows past this size.
+    private static final int PURGE_SIZE = 10000;
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+
+    private final ConcurrentHashMap<String, Lookup> pendingLookups = new ConcurrentHashMap<String, Lookup>();
+
+    private volatile NameSource nameSource = new DefaultNameSource();
+
+    private volatile long ttl = DEFAULT_TTL;
+
+    private volatile long negativeTtl = DEFAULT_NEGATIVE_TTL;
+
+    private int threads = DEFAULT_THREADS;
+
+    private ExecutorService executor;
+
+    /**
+     * A cached answer. Either addresses or exception is set.
+     */
+    static class Entry {
+        final InetAddress[] addresses;
+
+        final UnknownHostException exception;
+
+        final long expires;
+
+        Entry(InetAddress[] addresses, UnknownHostException exception, long expires) {
+            this.addresses = addresses;
+            this.exception = exception;
+            this.expires = expires;
+        }
+
+        InetAddress[] getAddresses() throws UnknownHostException {
+            if (exception != null) {
+                throw exception;
+            }
+            return addresses;
+        }
+    }
+
+    /**
+     * A lookup in progress, that the callers of the same name wait for.
+     */
+    class Lookup implements Runnable {
+        final String hostName;
+
+        final String key;
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        private List<NameResolutionListener> listeners;
+
+        private Entry entry;
+
+        Lookup(String hostName, String key) {
+            this.hostName = hostName;
+            this.key = key;
+        }
+
+        public void run() {
+            Entry result;
+            try {
+                InetAddress[] addresses = nameSource.lookup(hostName);
+                if (addresses == null || addresses.length == 0) {
+                    throw new UnknownHostException(hostName);
+                }
+                result = new Entry(addresses, null, System.currentTimeMillis() + ttl);
+            } catch (UnknownHostException ex) {
+                if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                    logger.logDebug("Could not resolve " + hostName);
+                }
+                result = new Entry(null, ex, System.currentTimeMillis() + negativeTtl);
+            } catch (RuntimeException ex) {
+                result = new Entry(null, new UnknownHostException(hostName + " : " + ex),
+                        System.currentTimeMillis() + negativeTtl);
+            }
+            putEntry(key, result);
+            pendingLookups.remove(key, this);
+            complete(result);
+        }
+
+        void complete(Entry result) {
+            List<NameResolutionListener> toNotify;
+            synchronized (this) {
+                entry = result;
+                toNotify = listeners;
+                listeners = null;
+            }
+            done.countDown();
+            if (toNotify != null) {
+                for (NameResolutionListener listener : toNotify) {
+                    notifyListener(hostName, result, listener);
+                }
+            }
+        }
+
+        void addListener(NameResolutionListener listener) {
+            Entry result;
+            synchronized (this) {
+                result = entry;
+                if (result == null) {
+                    if (listeners == null) {
+                        listeners = new ArrayList<NameResolutionListener>(2);
+                    }
+                    listeners.add(listener);
+                    return;
+                }
+            }
+            notifyListener(hostName, result, listener);
+        }
+
+        Entry await() throws UnknownHostException {
+            try {
+                done.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new UnknownHostException(hostName + " : interrupted");
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Set where the names are looked up. The cache is cleared.
+     */
+    public void setNameSource(NameSource nameSource) {
+        if (nameSource == null) {
+            throw new NullPointerException("null name source");
+        }
+        this.nameSource = nameSource;
+        cache.clear();
+    }
+
+    public NameSource getNameSource() {
+        return nameSource;
+    }
+
+    /**
+     * @param ttl -- time in milliseconds a resolved name is kept. 0 disables
+     *        the caching of resolved names.
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @param negativeTtl -- time in milliseconds a name that did not resolve
+     *        is kept. 0 disables the caching of failures.
+     */
+    public void setNegativeTtl(long negativeTtl) {
+        this.negativeTtl = negativeTtl;
+    }
+
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    /**
+     * @param threads -- number of threads for the background lookups.
+     */
+    public synchronized void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Resolve a name, waiting for the name source if the answer is not cached.
+     *
+     * @param hostName -- a host name or an IP address.
+     * @return the first address of the name.
+     * @throws UnknownHostException if the name does not resolve.
+     */
+    public InetAddress resolve(String hostName) throws UnknownHostException {
+        return resolveAll(hostName)[0];
+    }
+
+    /**
+     * Resolve a name to all its addresses, waiting for the name source if the
+     * answer is not cached.
+     *
+     * @param hostName -- a host name or an IP address.
+     * @return the addresses of the name.
+     * @throws UnknownHostException if the name does not resolve.
+     */
+    public InetAddress[] resolveAll(String hostName) throws UnknownHostException {
+        if (isIpAddress(hostName)) {
+            return new InetAddress[] { InetAddress.getByName(hostName) };
+        }
+        String key = hostName.toLowerCase();
+        Entry entry = getEntry(key);
+        if (entry != null) {
+            return entry.getAddresses();
+        }
+        Lookup lookup = new Lookup(hostName, key);
+        Lookup pending = pendingLookups.putIfAbsent(key, lookup);
+        if (pending != null) {
+            return pending.await().getAddresses();
+        }
+        lookup.run();
+        return lookup.entry.getAddresses();
+    }
+
+    /**
+     * Resolve a name without blocking. The listener is called right away if
+     * the answer is known, or from a resolver thread once the name source
+     * answered.
+     *
+     * @param hostName -- a host name or an IP address.
+     * @param listener -- called with the result.
+     */
+    public void resolve(String hostName, NameResolutionListener listener) {
+        if (isIpAddress(hostName)) {
+            try {
+                listener.nameResolved(hostName, InetAddress.getByName(hostName));
+            } catch (UnknownHostException ex) {
+                listener.nameResolutionFailed(hostName, ex);
+            }
+            return;
+        }
+        String key = hostName.toLowerCase();
+        Entry entry = getEntry(key);
+        if (entry != null) {
+            notifyListener(hostName, entry, listener);
+            return;
+        }
+        Lookup lookup = new Lookup(hostName, key);
+        Lookup pending = pendingLookups.putIfAbsent(key, lookup);
+        if (pending != null) {
+            pending.addListener(listener);
+            return;
+        }
+        lookup.addListener(listener);
+        try {
+            getExecutor().execute(lookup);
+        } catch (RejectedExecutionException ex) {
+            // Stopped, look it up here rather than losing the callback.
+            lookup.run();
+        }
+    }
+
+    /**
+     * Tells if the answer for a name is known, that is if {@link #resolve(String)}
+     * would not have to wait for the name source.
+     */
+    public boolean isCached(String hostName) {
+        return isIpAddress(hostName) || getEntry(hostName.toLowerCase()) != null;
+    }
+
+    /**
+     * Forget all the cached answers.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Stop the resolver threads. They are started again on the next background
+     * lookup.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        cache.clear();
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private int threadCount = 0;
+
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "NameResolverThread-" + threadCount++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private Entry getEntry(String key) {
+        Entry entry = cache.get(key);
+        if (entry != null && entry.expires <= System.currentTimeMillis()) {
+            cache.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private void putEntry(String key, Entry entry) {
+        long now = System.currentTimeMillis();
+        if (entry.expires <= now) {
+            return;
+        }
+        if (cache.size() >= PURGE_SIZE) {
+            for (Iterator<Entry> it = cache.values().iterator(); it.hasNext();) {
+                if (it.next().expires <= now) {
+                    it.remove();
+                }
+            }
+        }
+        cache.put(key, entry);
+    }
+
+    private static void notifyListener(String hostName, Entry entry,
+            NameResolutionListener listener) {
+        try {
+            if (entry.exception != null) {
+                listener.nameResolutionFailed(hostName, entry.exception);
+            } else {
+                listener.nameResolved(hostName, entry.addresses[0]);
+            }
+        } catch (RuntimeException ex) {
+            logger.logError("Name resolution listener failed for " + hostName, ex);
+        }
+    }
+
+    /**
+     * Tells if the string is an IPv4 or IPv6 address, which is parsed without
+     * asking the name source.
+     */
+    public static boolean isIpAddress(String hostName) {
+        if (hostName.indexOf(':') != -1) {
+            return true;
+        }
+        int length = hostName.length();
+        if (length == 0) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = hostName.charAt(i);
+            if ((c < '0' || c > '9') && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
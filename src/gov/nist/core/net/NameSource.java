@@ -0,0 +1,49 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.core.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Where the {@link NameResolver} of the stack looks host names up. The default
+ * source asks the system resolver. Another source can be registered, for
+ * example a local hosts table, or a fake zone in tests.
+ *
+ * @see gov.nist.javax.sip.SipStackImpl
+ */
+public interface NameSource {
+
+    /**
+     * Look up the addresses of a host name. This may block.
+     *
+     * @param hostName -- the name to look up, never an IP address.
+     * @return the addresses of the name, at least one.
+     * @throws UnknownHostException if the name does not resolve.
+     */
+    public InetAddress[] lookup(String hostName) throws UnknownHostException;
+
+}
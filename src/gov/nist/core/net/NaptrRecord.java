@@ -0,0 +1,90 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.core.net;
+
+/**
+ * A DNS NAPTR record (RFC 3403), as used by RFC 3263 to select the transport
+ * of a SIP domain.
+ */
+public final class NaptrRecord {
+
+    private final int order;
+
+    private final int preference;
+
+    private final String flags;
+
+    private final String service;
+
+    private final String regexp;
+
+    private final String replacement;
+
+    public NaptrRecord(int order, int preference, String flags,
+            String service, String regexp, String replacement) {
+        this.order = order;
+        this.preference = preference;
+        this.flags = flags;
+        this.service = service;
+        this.regexp = regexp;
+        this.replacement = replacement;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public int getPreference() {
+        return preference;
+    }
+
+    public String getFlags() {
+        return flags;
+    }
+
+    /**
+     * @return the service field, for example SIP+D2U or SIPS+D2T.
+     */
+    public String getService() {
+        return service;
+    }
+
+    public String getRegexp() {
+        return regexp;
+    }
+
+    /**
+     * @return the name to look up next, the SRV name for SIP.
+     */
+    public String getReplacement() {
+        return replacement;
+    }
+
+    public String toString() {
+        return order + " " + preference + " \"" + flags + "\" \"" + service
+                + "\" \"" + regexp + "\" " + replacement;
+    }
+}
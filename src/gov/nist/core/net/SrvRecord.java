@@ -0,0 +1,71 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.core.net;
+
+/**
+ * A DNS SRV record (RFC 2782).
+ */
+public final class SrvRecord {
+
+    private final int priority;
+
+    private final int weight;
+
+    private final int port;
+
+    private final String target;
+
+    public SrvRecord(int priority, int weight, int port, String target) {
+        this.priority = priority;
+        this.weight = weight;
+        this.port = port;
+        this.target = target;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the host name of the target, "." if the service is not
+     *         available in the domain.
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    public String toString() {
+        return priority + " " + weight + " " + port + " " + target;
+    }
+}
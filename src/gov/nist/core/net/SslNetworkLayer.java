@@ -61,13 +61,14 @@ public class SslNetworkLayer implements NetworkLayer {
 
     private SSLServerSocketFactory sslServerSocketFactory;
 
+    private SSLContext sslContext;
+
     public SslNetworkLayer(
             String trustStoreFile,
             String keyStoreFile,
             char[] keyStorePassword,
             String keyStoreType) throws GeneralSecurityException, FileNotFoundException, IOException
     {
-        SSLContext sslContext;
         sslContext = SSLContext.getInstance("TLS");
         String algorithm = KeyManagerFactory.getDefaultAlgorithm();
         TrustManagerFactory tmFactory = TrustManagerFactory.getInstance(algorithm);
@@ -87,6 +88,14 @@ public class SslNetworkLayer implements NetworkLayer {
         sslSocketFactory = sslContext.getSocketFactory();
     }
 
+    /**
+     * @return the SSL context built from the configured key and trust stores,
+     *         for the transports that drive an SSLEngine themselves.
+     */
+    public SSLContext getSSLContext() {
+        return sslContext;
+    }
+
     public ServerSocket createServerSocket(int port, int backlog,
             InetAddress bindAddress) throws IOException {
         return new ServerSocket(port, backlog, bindAddress);
@@ -330,7 +330,7 @@ class DialogFilter implements ServerRequestInterface, ServerResponseInterface {
                         "transaction state = " + transaction.getState());
         }
         final String dialogId = sipRequest.getDialogId(true);
-        SIPDialog dialog = sipStack.getDialog(dialogId);
+        SIPDialog dialog = sipStack.getDialog(sipRequest.getDialogKey(true));
         /*
          * Check if we got this request on the contact address of the dialog If
          * not the dialog does not belong to this request. We check this
@@ -1508,7 +1508,7 @@ class DialogFilter implements ServerRequestInterface, ServerResponseInterface {
     public void processResponse(SIPResponse sipResponse,
             MessageChannel incomingChannel) {
         String dialogID = sipResponse.getDialogId(false);
-        SIPDialog sipDialog = this.sipStack.getDialog(dialogID);
+        SIPDialog sipDialog = this.sipStack.getDialog(sipResponse.getDialogKey(false));
 
         String method = sipResponse.getCSeq().getMethod();
         if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
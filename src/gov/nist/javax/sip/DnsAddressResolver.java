@@ -0,0 +1,476 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogWriter;
+import gov.nist.core.StackLogger;
+import gov.nist.core.net.AddressResolverExt;
+import gov.nist.core.net.DnsLookup;
+import gov.nist.core.net.JndiDnsLookup;
+import gov.nist.core.net.NaptrRecord;
+import gov.nist.core.net.NameResolver;
+import gov.nist.core.net.SrvRecord;
+import gov.nist.javax.sip.stack.HopImpl;
+import gov.nist.javax.sip.stack.MessageProcessor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sip.address.Hop;
+
+/**
+ * An address resolver that locates SIP servers as described in RFC 3263. The
+ * transport is selected with the NAPTR records of the domain when the URI does
+ * not specify it, the servers with the SRV records of the transport, ordered by
+ * priority and then by a weighted random selection (RFC 2782), and their
+ * addresses with the A and AAAA records. Numeric hosts and hosts with a port
+ * are only resolved to their addresses.
+ * <p>
+ * The NAPTR and SRV answers are kept in a cache shared by all the requests of
+ * the stack. When a transaction to a hop times out (timer B or F), or fails
+ * with a transport error, the hop is blacklisted for a while: it is then only
+ * tried after the other hops. Register it with
+ * <code>gov.nist.javax.sip.ADDRESS_RESOLVER=gov.nist.javax.sip.DnsAddressResolver</code>;
+ * the records are looked up through a pluggable {@link DnsLookup}, by default
+ * with JNDI, and the addresses through the name resolver of the stack.
+ *
+ * @see gov.nist.javax.sip.stack.DefaultRouter#getNextHops(javax.sip.message.Request)
+ * @see gov.nist.javax.sip.SipStackImpl
+ */
+public class DnsAddressResolver implements AddressResolverExt {
+
+    private static StackLogger logger = CommonLogger.getLogger(DnsAddressResolver.class);
+
+    /**
+     * Default time the NAPTR and SRV answers are kept, in milliseconds.
+     */
+    public static final long DEFAULT_TTL = 30000;
+
+    /**
+     * Default time a hop that timed out is blacklisted, in milliseconds. This
+     * is the duration of timer B with the default T1.
+     */
+    public static final long DEFAULT_BLACKLIST_TIME = 32000;
+
+    // Expired entries are purged when the cache grows past this size.
+    private static final int PURGE_SIZE = 10000;
+
+    private static final String[] TRANSPORTS = { "UDP", "TCP", "TLS", "SCTP" };
+
+    private static final Comparator<NaptrRecord> NAPTR_ORDER = new Comparator<NaptrRecord>() {
+        public int compare(NaptrRecord r1, NaptrRecord r2) {
+            if (r1.getOrder() != r2.getOrder()) {
+                return r1.getOrder() < r2.getOrder() ? -1 : 1;
+            }
+            if (r1.getPreference() != r2.getPreference()) {
+                return r1.getPreference() < r2.getPreference() ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    private static final Comparator<SrvRecord> SRV_ORDER = new Comparator<SrvRecord>() {
+        public int compare(SrvRecord r1, SrvRecord r2) {
+            if (r1.getPriority() != r2.getPriority()) {
+                return r1.getPriority() < r2.getPriority() ? -1 : 1;
+            }
+            // zero weights first, as required by the selection of RFC 2782
+            if ((r1.getWeight() == 0) != (r2.getWeight() == 0)) {
+                return r1.getWeight() == 0 ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+
+    private final Map<String, Long> blacklist = new ConcurrentHashMap<String, Long>();
+
+    private final Random random = new Random();
+
+    private volatile DnsLookup dnsLookup = new JndiDnsLookup();
+
+    private volatile NameResolver nameResolver;
+
+    private volatile long ttl = DEFAULT_TTL;
+
+    private volatile long blacklistTime = DEFAULT_BLACKLIST_TIME;
+
+    /**
+     * Cached answer of a NAPTR or SRV query.
+     */
+    static class Entry {
+        final Object[] records;
+
+        final long expires;
+
+        Entry(Object[] records, long expires) {
+            this.records = records;
+            this.expires = expires;
+        }
+    }
+
+    public DnsAddressResolver() {
+
+    }
+
+    public void setDnsLookup(DnsLookup dnsLookup) {
+        if (dnsLookup == null) {
+            throw new NullPointerException("null dnsLookup");
+        }
+        this.dnsLookup = dnsLookup;
+        this.cache.clear();
+    }
+
+    public DnsLookup getDnsLookup() {
+        return dnsLookup;
+    }
+
+    /**
+     * Set the name resolver that resolves the SRV targets to addresses. The
+     * stack sets its own one.
+     */
+    public void setNameResolver(NameResolver nameResolver) {
+        this.nameResolver = nameResolver;
+    }
+
+    public NameResolver getNameResolver() {
+        NameResolver resolver = this.nameResolver;
+        if (resolver == null) {
+            synchronized (this) {
+                if (this.nameResolver == null) {
+                    this.nameResolver = new NameResolver();
+                }
+                resolver = this.nameResolver;
+            }
+        }
+        return resolver;
+    }
+
+    /**
+     * Set the time the NAPTR and SRV answers are kept, in milliseconds. 0
+     * disables the cache.
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Set the time a hop that timed out is tried after the others, in
+     * milliseconds. 0 disables the blacklist.
+     */
+    public void setBlacklistTime(long blacklistTime) {
+        this.blacklistTime = blacklistTime;
+    }
+
+    public long getBlacklistTime() {
+        return blacklistTime;
+    }
+
+    /**
+     * Forget the cached answers and the blacklisted hops.
+     */
+    public void clear() {
+        cache.clear();
+        blacklist.clear();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see gov.nist.core.net.AddressResolver#resolveAddress(javax.sip.address.Hop)
+     */
+    public Hop resolveAddress(Hop hop) {
+        List<Hop> hops = resolveAddresses(hop, true);
+        if (!hops.isEmpty()) {
+            return hops.get(0);
+        }
+        if (hop.getPort() != -1) {
+            return hop;
+        }
+        return new HopImpl(hop.getHost(),
+                MessageProcessor.getDefaultPort(hop.getTransport()), hop.getTransport());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see gov.nist.core.net.AddressResolverExt#resolveAddresses(javax.sip.address.Hop, boolean)
+     */
+    public List<Hop> resolveAddresses(Hop hop, boolean transportSpecified) {
+        String host = hop.getHost();
+        String transport = hop.getTransport() == null ? "UDP" : hop.getTransport().toUpperCase();
+        List<Hop> hops = new ArrayList<Hop>();
+
+        if (NameResolver.isIpAddress(host)) {
+            int port = hop.getPort() != -1 ? hop.getPort() : MessageProcessor.getDefaultPort(transport);
+            hops.add(new HopImpl(host, port, transport));
+            return hops;
+        }
+        if (hop.getPort() != -1) {
+            addAddresses(hops, host, hop.getPort(), transport);
+            return orderBlacklisted(hops);
+        }
+
+        if (!transportSpecified) {
+            addNaptrHops(hops, host, transport);
+        }
+        if (hops.isEmpty()) {
+            // No usable NAPTR records: query the SRV records of the preferred
+            // transport, then of the others, and use the first answer.
+            if (addSrvHops(hops, srvName(host, transport), transport) == 0
+                    && !transportSpecified) {
+                for (int i = 0; i < TRANSPORTS.length; i++) {
+                    if (!TRANSPORTS[i].equals(transport)
+                            && addSrvHops(hops, srvName(host, TRANSPORTS[i]), TRANSPORTS[i]) > 0) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (hops.isEmpty()) {
+            addAddresses(hops, host, MessageProcessor.getDefaultPort(transport), transport);
+        }
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug("Resolved " + hop + " to " + hops);
+        }
+        return orderBlacklisted(hops);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see gov.nist.core.net.AddressResolverExt#transactionTimeout(javax.sip.address.Hop)
+     */
+    public void transactionTimeout(Hop hop) {
+        if (hop == null || blacklistTime <= 0) {
+            return;
+        }
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug("Blacklisting " + hop + " for " + blacklistTime + " ms");
+        }
+        blacklist.put(hopKey(hop), Long.valueOf(System.currentTimeMillis() + blacklistTime));
+    }
+
+    /**
+     * Tells if a hop timed out recently.
+     */
+    public boolean isBlacklisted(Hop hop) {
+        String key = hopKey(hop);
+        Long until = blacklist.get(key);
+        if (until == null) {
+            return false;
+        }
+        if (until.longValue() <= System.currentTimeMillis()) {
+            blacklist.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    private void addNaptrHops(List<Hop> hops, String domain, String transport) {
+        NaptrRecord[] records = (NaptrRecord[]) query(domain, true);
+        if (records.length == 0) {
+            return;
+        }
+        records = records.clone();
+        Arrays.sort(records, NAPTR_ORDER);
+        for (int i = 0; i < records.length; i++) {
+            NaptrRecord record = records[i];
+            String naptrTransport = getTransport(record.getService());
+            if (naptrTransport == null || !"s".equalsIgnoreCase(record.getFlags())) {
+                continue;
+            }
+            if (transport.equals("TLS") && !naptrTransport.equals("TLS")) {
+                continue;
+            }
+            addSrvHops(hops, record.getReplacement(), naptrTransport);
+        }
+    }
+
+    private int addSrvHops(List<Hop> hops, String name, String transport) {
+        SrvRecord[] records = (SrvRecord[]) query(name, false);
+        int count = 0;
+        List<SrvRecord> ordered = orderSrv(records);
+        for (Iterator<SrvRecord> it = ordered.iterator(); it.hasNext();) {
+            SrvRecord record = it.next();
+            if (".".equals(record.getTarget())) {
+                continue;
+            }
+            count += addAddresses(hops, record.getTarget(), record.getPort(), transport);
+        }
+        return count;
+    }
+
+    private int addAddresses(List<Hop> hops, String host, int port, String transport) {
+        try {
+            InetAddress[] addresses = getNameResolver().resolveAll(host);
+            for (int i = 0; i < addresses.length; i++) {
+                hops.add(new HopImpl(addresses[i].getHostAddress(), port, transport));
+            }
+            return addresses.length;
+        } catch (UnknownHostException ex) {
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                logger.logDebug("Could not resolve " + host);
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Order SRV records by priority, and the records of a priority by the
+     * weighted random selection of RFC 2782.
+     */
+    List<SrvRecord> orderSrv(SrvRecord[] records) {
+        List<SrvRecord> remaining = new ArrayList<SrvRecord>(Arrays.asList(records));
+        Collections.sort(remaining, SRV_ORDER);
+        List<SrvRecord> ordered = new ArrayList<SrvRecord>(records.length);
+        while (!remaining.isEmpty()) {
+            int priority = remaining.get(0).getPriority();
+            int end = 1;
+            int sum = remaining.get(0).getWeight();
+            while (end < remaining.size() && remaining.get(end).getPriority() == priority) {
+                sum += remaining.get(end).getWeight();
+                end++;
+            }
+            int selected = 0;
+            int pick;
+            synchronized (random) {
+                pick = random.nextInt(sum + 1);
+            }
+            int running = 0;
+            for (int i = 0; i < end; i++) {
+                running += remaining.get(i).getWeight();
+                if (running >= pick) {
+                    selected = i;
+                    break;
+                }
+            }
+            ordered.add(remaining.remove(selected));
+        }
+        return ordered;
+    }
+
+    private List<Hop> orderBlacklisted(List<Hop> hops) {
+        if (blacklist.isEmpty() || hops.size() < 2) {
+            return hops;
+        }
+        List<Hop> ordered = new ArrayList<Hop>(hops.size());
+        List<Hop> blacklisted = new ArrayList<Hop>();
+        for (Hop hop : hops) {
+            if (isBlacklisted(hop)) {
+                blacklisted.add(hop);
+            } else {
+                ordered.add(hop);
+            }
+        }
+        ordered.addAll(blacklisted);
+        return ordered;
+    }
+
+    private Object[] query(String name, boolean naptr) {
+        String key = (naptr ? "NAPTR " : "SRV ") + name.toLowerCase();
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(key);
+        if (entry != null && entry.expires > now) {
+            return entry.records;
+        }
+        Object[] records;
+        try {
+            records = naptr ? (Object[]) dnsLookup.lookupNaptr(name)
+                    : (Object[]) dnsLookup.lookupSrv(name);
+        } catch (IOException ex) {
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                logger.logDebug("DNS query failed: " + ex.getMessage());
+            }
+            records = null;
+        }
+        if (records == null) {
+            records = naptr ? (Object[]) new NaptrRecord[0] : new SrvRecord[0];
+        }
+        if (ttl > 0) {
+            if (cache.size() > PURGE_SIZE) {
+                purge(now);
+            }
+            cache.put(key, new Entry(records, now + ttl));
+        }
+        return records;
+    }
+
+    private void purge(long now) {
+        for (Iterator<Entry> it = cache.values().iterator(); it.hasNext();) {
+            if (it.next().expires <= now) {
+                it.remove();
+            }
+        }
+        for (Iterator<Long> it = blacklist.values().iterator(); it.hasNext();) {
+            if (it.next().longValue() <= now) {
+                it.remove();
+            }
+        }
+    }
+
+    private static String getTransport(String service) {
+        if (service == null) {
+            return null;
+        }
+        service = service.toUpperCase();
+        if (service.equals("SIP+D2U")) {
+            return "UDP";
+        } else if (service.equals("SIP+D2T")) {
+            return "TCP";
+        } else if (service.equals("SIPS+D2T")) {
+            return "TLS";
+        } else if (service.equals("SIP+D2S")) {
+            return "SCTP";
+        }
+        return null;
+    }
+
+    private static String srvName(String host, String transport) {
+        if (transport.equals("TLS")) {
+            return "_sips._tcp." + host;
+        }
+        return "_sip._" + transport.toLowerCase() + "." + host;
+    }
+
+    private static String hopKey(Hop hop) {
+        return hop.getHost().toLowerCase() + ":" + hop.getPort() + "/"
+                + (hop.getTransport() == null ? "" : hop.getTransport().toUpperCase());
+    }
+}
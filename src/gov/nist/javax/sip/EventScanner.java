@@ -26,6 +26,9 @@
 package gov.nist.javax.sip;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
 import gov.nist.javax.sip.stack.*;
 import gov.nist.javax.sip.message.*;
 import javax.sip.message.*;
@@ -40,7 +43,11 @@ import gov.nist.core.ThreadAuditor;
 /* bug fixes SIPQuest communications and Shu-Lin Chen. */
 
 /**
- * Event Scanner to deliver events to the Listener.
+ * Event Scanner to deliver events to the Listener. By default a single thread
+ * delivers all the events of a non re-entrant listener. When configured with
+ * more than one thread the events are hashed by Call-ID onto single threaded
+ * lanes, so that the events of a call are still delivered one at a time and in
+ * order while different calls are delivered in parallel.
  *
  * @version 1.2 $Revision: 1.47 $ $Date: 2010/12/02 22:04:18 $
  *
@@ -52,7 +59,7 @@ class EventScanner implements Runnable {
 	
 	private static StackLogger logger = CommonLogger.getLogger(EventScanner.class);
 
-    private boolean isStopped;
+    private volatile boolean isStopped;
 
     private int refCount;
 
@@ -63,6 +70,9 @@ class EventScanner implements Runnable {
 
     private SipStackImpl sipStack;
 
+    // Delivery lanes, null when a single thread delivers from pendingEvents.
+    private Lane[] lanes;
+
     public void incrementRefcount() {
         synchronized (eventMutex) {
             this.refCount++;
@@ -70,7 +80,29 @@ class EventScanner implements Runnable {
     }
 
     public EventScanner(SipStackImpl sipStackImpl) {
+        this(sipStackImpl, 1);
+    }
+
+    /**
+     * Create an event scanner delivering events with the given number of
+     * threads.
+     *
+     * @param sipStackImpl -- the stack.
+     * @param threads -- number of delivery lanes, 1 for the single scanner thread.
+     */
+    public EventScanner(SipStackImpl sipStackImpl, int threads) {
         this.pendingEvents = new LinkedList();
+        if (threads > 1) {
+            this.sipStack = sipStackImpl;
+            this.lanes = new Lane[threads];
+            for (int i = 0; i < threads; i++) {
+                this.lanes[i] = new Lane("EventScannerThread-" + i);
+            }
+            for (int i = 0; i < threads; i++) {
+                this.lanes[i].thread.start();
+            }
+            return;
+        }
         Thread myThread = new Thread(this);
         // This needs to be set to false else the
         // main thread mysteriously exits.
@@ -87,6 +119,10 @@ class EventScanner implements Runnable {
     public void addEvent(EventWrapper eventWrapper) {
     	if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG))
     		logger.logDebug("addEvent " + eventWrapper);
+        if (lanes != null) {
+            lanes[getLaneIndex(eventWrapper)].add(eventWrapper);
+            return;
+        }
         synchronized (this.eventMutex) {
 
             pendingEvents.add(eventWrapper);
@@ -112,7 +148,7 @@ class EventScanner implements Runnable {
             if (this.refCount == 0) {
                 isStopped = true;
                 eventMutex.notify();
-
+                wakeLanes();
             }
         }
     }
@@ -127,11 +163,102 @@ class EventScanner implements Runnable {
             this.isStopped = true;
             this.refCount = 0;
             this.eventMutex.notify();
+            wakeLanes();
         }
 
     }
 
+    /**
+     * @return the number of events waiting to be delivered.
+     */
+    public int getQueueDepth() {
+        if (lanes != null) {
+            int depth = 0;
+            for (int i = 0; i < lanes.length; i++) {
+                depth += lanes[i].queue.size();
+            }
+            return depth;
+        }
+        synchronized (this.eventMutex) {
+            return pendingEvents.size();
+        }
+    }
+
+    private void wakeLanes() {
+        if (lanes != null) {
+            for (int i = 0; i < lanes.length; i++) {
+                LockSupport.unpark(lanes[i].thread);
+            }
+        }
+    }
+
+    /**
+     * Pick the lane of an event from the Call-ID of the call it belongs to.
+     * Events that are not related to a call all go to the first lane.
+     */
+    private int getLaneIndex(EventWrapper eventWrapper) {
+        String callId = null;
+        try {
+            callId = getCallId(eventWrapper);
+        } catch (RuntimeException ex) {
+            if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG))
+                logger.logDebug("no call id for " + eventWrapper.sipEvent);
+        }
+        if (callId == null)
+            return 0;
+        // Call-IDs are matched case insensitively by the stack.
+        int hash = 0;
+        for (int i = 0; i < callId.length(); i++) {
+            hash = 31 * hash + Character.toLowerCase(callId.charAt(i));
+        }
+        hash ^= (hash >>> 16);
+        return (hash & 0x7fffffff) % lanes.length;
+    }
+
+    private static String getCallId(EventWrapper eventWrapper) {
+        EventObject sipEvent = eventWrapper.sipEvent;
+        SIPDialog dialog = null;
+        if (sipEvent instanceof RequestEvent) {
+            return ((SIPRequest) ((RequestEvent) sipEvent).getRequest())
+                    .getCallId().getCallId();
+        } else if (sipEvent instanceof ResponseEvent) {
+            return ((SIPResponse) ((ResponseEvent) sipEvent).getResponse())
+                    .getCallId().getCallId();
+        } else if (sipEvent instanceof DialogTerminatedEvent) {
+            dialog = (SIPDialog) ((DialogTerminatedEvent) sipEvent).getDialog();
+        } else if (sipEvent instanceof DialogTimeoutEvent) {
+            dialog = (SIPDialog) ((DialogTimeoutEvent) sipEvent).getDialog();
+        } else if (eventWrapper.transaction != null) {
+            SIPTransaction transaction = eventWrapper.transaction;
+            if (transaction instanceof SIPClientTransaction) {
+                String callId = ((SIPClientTransaction) transaction)
+                        .getOriginalRequestCallId();
+                if (callId != null)
+                    return callId;
+            } else if (transaction.getOriginalRequest() != null) {
+                return transaction.getOriginalRequest().getCallId().getCallId();
+            }
+            dialog = (SIPDialog) transaction.getDialog();
+        }
+        if (dialog != null && dialog.getCallId() != null)
+            return dialog.getCallId().getCallId();
+        return null;
+    }
+
+    /**
+     * Deliver an event to the listener, counting the time the listener took
+     * in the statistics of the stack.
+     */
     public void deliverEvent(EventWrapper eventWrapper) {
+        long startTime = System.nanoTime();
+        try {
+            deliverEventToListener(eventWrapper);
+        } finally {
+            sipStack.getStackMetrics().recordListenerTime(System.nanoTime() - startTime);
+        }
+    }
+
+    private void deliverEventToListener(EventWrapper eventWrapper) {
         EventObject sipEvent = eventWrapper.sipEvent;
         if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG))
             logger.logDebug(
@@ -199,7 +326,7 @@ class EventScanner implements Runnable {
                                     "transaction already exists! " + tx);
                         return;
                     }
-                } else if (sipStack.findPendingTransaction(sipRequest.getTransactionId()) != null) {
+                } else if (sipStack.findPendingTransaction(sipRequest.getTransactionKey()) != null) {
                     if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG))
                         logger.logDebug(
                                 "transaction already exists!!");
@@ -226,8 +353,14 @@ class EventScanner implements Runnable {
                         logger.logDebug(
                                 "Calling listener " + eventWrapper.transaction);
                     }
-                    if (sipListener != null)
+                    if (sipListener != null) {
+                        long start = System.currentTimeMillis();
                         sipListener.processRequest((RequestEvent) sipEvent);
+                        if (sipStack.sipMessageValve instanceof SIPMessageValveExt) {
+                            ((SIPMessageValveExt) sipStack.sipMessageValve).requestProcessed(
+                                    sipRequest, System.currentTimeMillis() - start);
+                        }
+                    }
 
                     if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
                         logger.logDebug(
@@ -543,4 +676,84 @@ class EventScanner implements Runnable {
         }
     }
 
+    /**
+     * A single threaded delivery lane. Events are queued without locking and
+     * the lane thread is parked while its queue is empty.
+     */
+    class Lane implements Runnable {
+
+        private final ConcurrentLinkedQueue<EventWrapper> queue = new ConcurrentLinkedQueue<EventWrapper>();
+
+        private final Thread thread;
+
+        // Set while the lane thread is about to park or is parked.
+        private volatile boolean waiting;
+
+        Lane(String name) {
+            this.thread = new Thread(this);
+            // Same as the single scanner thread.
+            this.thread.setDaemon(false);
+            this.thread.setName(name);
+        }
+
+        void add(EventWrapper eventWrapper) {
+            queue.offer(eventWrapper);
+            if (waiting)
+                LockSupport.unpark(thread);
+        }
+
+        public void run() {
+            try {
+                // Ask the auditor to monitor this thread
+                ThreadAuditor.ThreadHandle threadHandle = sipStack.getThreadAuditor().addCurrentThread();
+
+                while (true) {
+                    EventWrapper eventWrapper = queue.poll();
+                    if (eventWrapper == null) {
+                        if (isStopped) {
+                            if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG))
+                                logger.logDebug(
+                                        "Stopped event scanner lane " + thread.getName());
+                            return;
+                        }
+                        // Send a heartbeat to the thread auditor
+                        threadHandle.ping();
+                        waiting = true;
+                        // Check again so that an event added before the flag
+                        // was seen is not left waiting for the next wake up.
+                        if (queue.isEmpty() && !isStopped) {
+                            long interval = threadHandle.getPingIntervalInMillisecs();
+                            if (interval > 0)
+                                LockSupport.parkNanos(interval * 1000000L);
+                            else
+                                LockSupport.park();
+                        }
+                        waiting = false;
+                        if (Thread.interrupted()) {
+                            // Let the thread die a normal death
+                            if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG))
+                                logger.logDebug("Interrupted!");
+                            return;
+                        }
+                        continue;
+                    }
+                    try {
+                        deliverEvent(eventWrapper);
+                    } catch (Exception e) {
+                        if (logger.isLoggingEnabled()) {
+                            logger.logError(
+                                    "Unexpected exception caught while delivering event -- carrying on bravely", e);
+                        }
+                    }
+                }
+            } finally {
+                if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
+                    if (!isStopped) {
+                        logger.logFatalError("Event scanner lane exited abnormally");
+                    }
+                }
+            }
+        }
+    }
+
 }
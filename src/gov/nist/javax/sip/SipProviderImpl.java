@@ -360,8 +360,7 @@ public class SipProviderImpl implements javax.sip.SipProvider, gov.nist.javax.si
         ListeningPointImpl listeningPoint = (ListeningPointImpl) this
                 .getListeningPoint(transport);
 
-        String dialogId = sipRequest.getDialogId(false);
-        SIPDialog dialog = sipStack.getDialog(dialogId);
+        SIPDialog dialog = sipStack.getDialog(sipRequest.getDialogKey(false));
         if (dialog != null && dialog.getState() == DialogState.TERMINATED) {
 
             // throw new TransactionUnavailableException
@@ -515,8 +514,7 @@ public class SipProviderImpl implements javax.sip.SipProvider, gov.nist.javax.si
                 if (isAutomaticDialogSupportEnabled()) {
                     // If automatic dialog support is enabled then
                     // this tx gets his own dialog.
-                    String dialogId = sipRequest.getDialogId(true);
-                    SIPDialog dialog = sipStack.getDialog(dialogId);
+                    SIPDialog dialog = sipStack.getDialog(sipRequest.getDialogKey(true));
                     if (dialog == null) {
                         dialog = sipStack.createDialog(transaction);
 
@@ -561,8 +559,7 @@ public class SipProviderImpl implements javax.sip.SipProvider, gov.nist.javax.si
 
                     // If there is a dialog already assigned then just update the
                     // dialog state.
-                    String dialogId = sipRequest.getDialogId(true);
-                    SIPDialog dialog = sipStack.getDialog(dialogId);
+                    SIPDialog dialog = sipStack.getDialog(sipRequest.getDialogKey(true));
                     if (dialog != null) {
                         dialog.addTransaction(transaction);
                         dialog.addRoute(sipRequest);
@@ -585,8 +582,7 @@ public class SipProviderImpl implements javax.sip.SipProvider, gov.nist.javax.si
 
                         // If there is a dialog already assigned then just
                         // assign the dialog to the transaction.
-                        String dialogId = sipRequest.getDialogId(true);
-                        SIPDialog dialog = sipStack.getDialog(dialogId);
+                        SIPDialog dialog = sipStack.getDialog(sipRequest.getDialogKey(true));
                         if (dialog != null) {
                             dialog.addTransaction(transaction);
                             dialog.addRoute(sipRequest);
@@ -610,8 +606,7 @@ public class SipProviderImpl implements javax.sip.SipProvider, gov.nist.javax.si
 
                         // If there is a dialog already assigned then just
                         // assign the dialog to the transaction.
-                        String dialogId = sipRequest.getDialogId(true);
-                        SIPDialog dialog = sipStack.getDialog(dialogId);
+                        SIPDialog dialog = sipStack.getDialog(sipRequest.getDialogKey(true));
                         if (dialog != null) {
                             dialog.addTransaction(transaction);
                             dialog.addRoute(sipRequest);
@@ -676,7 +671,7 @@ public class SipProviderImpl implements javax.sip.SipProvider, gov.nist.javax.si
         if (((SIPRequest) request).getRequestLine() != null
                 && request.getMethod().equals(Request.ACK)) {
             Dialog dialog = sipStack.getDialog(((SIPRequest) request)
-                    .getDialogId(false));
+                    .getDialogKey(false));
             if (dialog != null && dialog.getState() != null) {
             	if (logger.isLoggingEnabled())
             		logger.logWarning(
@@ -711,7 +706,9 @@ public class SipProviderImpl implements javax.sip.SipProvider, gov.nist.javax.si
                     .toUpperCase()))
                 messageChannel = sipStack.createRawMessageChannel(
                         this.getListeningPoint(hop.getTransport()).getIPAddress(),
-                        this.getListeningPoint(hop.getTransport()).getPort(), hop);
+                        this.getListeningPoint(hop.getTransport()).getPort(), hop,
+                        sipRequest.getCallId() == null ? null : sipRequest.getCallId()
+                                .getCallId());
             if (messageChannel != null) {
                 messageChannel.sendMessage((SIPMessage) sipRequest,hop);
             } else {
@@ -850,8 +847,7 @@ public class SipProviderImpl implements javax.sip.SipProvider, gov.nist.javax.si
                             "Cannot set dialog after response has been sent");
             }
             SIPRequest sipRequest = (SIPRequest) transaction.getRequest();
-            String dialogId = sipRequest.getDialogId(true);
-            dialog = sipStack.getDialog(dialogId);
+            dialog = sipStack.getDialog(sipRequest.getDialogKey(true));
             if (dialog == null) {
                 dialog = sipStack.createDialog((SIPTransaction) transaction);
                 // create and register the dialog and add the inital route set.
@@ -876,8 +872,7 @@ public class SipProviderImpl implements javax.sip.SipProvider, gov.nist.javax.si
                 // default dialog.
                 SIPRequest request = (SIPRequest) sipClientTx.getRequest();
 
-                String dialogId = request.getDialogId(false);
-                dialog = sipStack.getDialog(dialogId);
+                dialog = sipStack.getDialog(request.getDialogKey(false));
                 if (dialog != null) {
                     throw new SipException("Dialog already exists!");
                 } else {
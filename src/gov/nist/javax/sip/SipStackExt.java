@@ -1,6 +1,7 @@
 package gov.nist.javax.sip;
 
 import gov.nist.core.net.AddressResolver;
+import gov.nist.javax.sip.stack.StackMetricsSnapshot;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -94,4 +95,18 @@ public interface SipStackExt extends SipStack {
                     InetAddress localAddress)
         throws IOException;
 
+    /**
+     * Get the statistics of the stack: the requests and responses received and
+     * sent, retransmissions, transaction timeouts, transactions and dialogs,
+     * queue depths, connections and the time spent in the listener. This is a
+     * NIST-SIP only extension.
+     *
+     * @return the current values of the statistics.
+     *
+     * @see gov.nist.javax.sip.stack.StackMetricsMXBean
+     *
+     * @since 2.0
+     */
+    public StackMetricsSnapshot getMetricsSnapshot();
+
 }
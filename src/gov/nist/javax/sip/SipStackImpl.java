@@ -30,11 +30,12 @@ import gov.nist.core.LogLevels;
 import gov.nist.core.ServerLogger;
 import gov.nist.core.StackLogger;
 import gov.nist.core.net.AddressResolver;
+import gov.nist.core.net.DnsLookup;
+import gov.nist.core.net.NameSource;
 import gov.nist.core.net.NetworkLayer;
 import gov.nist.core.net.SslNetworkLayer;
 import gov.nist.javax.sip.clientauthutils.AuthenticationHelperImpl;
 import gov.nist.javax.sip.parser.MessageParserFactory;
-import gov.nist.javax.sip.parser.PipelinedMsgParser;
 import gov.nist.javax.sip.parser.StringMsgParser;
 import gov.nist.javax.sip.parser.StringMsgParserFactory;
 import gov.nist.javax.sip.stack.DefaultMessageLogFactory;
@@ -45,6 +46,7 @@ import gov.nist.javax.sip.stack.OIOMessageProcessorFactory;
 import gov.nist.javax.sip.stack.SIPEventInterceptor;
 import gov.nist.javax.sip.stack.SIPMessageValve;
 import gov.nist.javax.sip.stack.SIPTransactionStack;
+import gov.nist.javax.sip.stack.StackMetricsSnapshot;
 import gov.nist.javax.sip.stack.timers.DefaultSipTimer;
 import gov.nist.javax.sip.stack.timers.SipTimer;
 
@@ -172,6 +174,21 @@ import javax.sip.message.Request;
  * stack. If this property is not defined, the default sip stack ServerLog will
  * be used for logging</li>
  * 
+ * <li><b>gov.nist.javax.sip.SERVER_LOG_BUFFER_SIZE = integer </b><br/>
+ * Default is <it>8192</it>. Used by gov.nist.javax.sip.stack.BinaryServerLog,
+ * a SERVER_LOGGER that writes a binary message trace from a background thread.
+ * Number of messages waiting to be written; when it is reached further
+ * messages are dropped and counted instead of slowing the stack down.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.SERVER_LOG_MAX_FILE_SIZE = long </b><br/>
+ * Default is <it>10485760</it>. Size in bytes at which BinaryServerLog moves
+ * the trace file to SERVER_LOG.1 (and older ones to .2, .3 ...) and starts a
+ * new one. 0 disables the rotation.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.SERVER_LOG_MAX_FILES = integer </b><br/>
+ * Default is <it>5</it>. Number of trace files, including the current one,
+ * kept by BinaryServerLog.</li>
+ * 
  * <li><b>gov.nist.javax.sip.AUTOMATIC_DIALOG_ERROR_HANDLING = [true|false] </b>
  * <br/>
  * Default is <it>true</it>. This is also settable on a per-provider basis. This
@@ -258,8 +275,44 @@ import javax.sip.message.Request;
  * multithreaded machine write your listener to be re-entrant and set this
  * property to be true </b></li>
  * 
+ * <li><b>gov.nist.javax.sip.EVENT_SCANNER_THREADS = integer </b> <br/>
+ * Default is <it>1</it>. Only used when the listener is not re-entrant. By
+ * default all the events of a non re-entrant listener are delivered by a single
+ * thread. When set to more than one the events are hashed by Call-ID onto that
+ * many delivery threads, each with its own queue. The events of a given call
+ * (and therefore of its dialogs and transactions) are still delivered one at a
+ * time and in order, but the listener may be called concurrently for different
+ * calls, so it must not assume that only one thread runs in it.</li>
+ * 
  * <li><b>gov.nist.javax.sip.MAX_CONNECTIONS = integer </b> <br/>
- * Max number of simultaneous TCP connections handled by stack.</li>
+ * Max number of simultaneous TCP connections handled by stack. The limit applies
+ * separately to the connections the stack accepts and to the connections it
+ * opens to send messages. When the latter reach the limit, the least recently
+ * used idle connection is closed to open a new one.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.MAX_CONNECTIONS_PER_DESTINATION = integer </b> <br/>
+ * Max number of parallel TCP connections the stack opens to a destination,
+ * default 1. With more than one, the calls to the destination are spread over
+ * the connections by Call-ID, which is useful for high volume trunks. All the
+ * messages of a call are sent on the same connection. Connect times and
+ * failures are reported per destination by
+ * SIPTransactionStack.getClientConnectionManager().</li>
+ * 
+ * <li><b>gov.nist.javax.sip.CONNECTION_FAILURE_BACKOFF = integer </b> <br/>
+ * Time in milliseconds during which the messages to a destination fail right
+ * away after a connect to it failed, instead of waiting for another connect to
+ * time out. Default 0, every message tries to connect. The messages sent while
+ * a connect is in progress are queued and sent once it completes.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.CONNECTION_WAIT_TIMEOUT = integer </b> <br/>
+ * Max time in milliseconds a message waits for the connect to its
+ * destination, TLS handshake included, before the send fails. Giving up counts
+ * as a connect failure for CONNECTION_FAILURE_BACKOFF. Default 0, the message
+ * waits until the connect completes or fails.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.CONNECTOR_THREADS = integer </b> <br/>
+ * Number of threads opening TCP and TLS connections, default 8. The connects
+ * above that wait for a thread.</li>
  * 
  * <li><b>gov.nist.javax.sip.MAX_SERVER_TRANSACTIONS = integer </b> <br/>
  * Maximum size of server transaction table. The low water mark is 80% of the
@@ -301,7 +354,20 @@ import javax.sip.message.Request;
  * headers must be delivered in this interval and each successive buffer must be
  * of the content delivered in this interval. Default value is -1 (ie. the stack
  * is wide open to starvation attacks) and the client can be as slow as it wants
- * to be.</li>
+ * to be. The stack checks the connections periodically, a connection that
+ * stalls in the middle of a message is closed within about a quarter of the
+ * timeout after it expired. A message that keeps arriving is not limited in
+ * total time.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.SERVER_CONNECTION_IDLE_TIMEOUT = integer </b> <br/>
+ * Time in milliseconds after which a TCP or TLS connection opened by a peer is
+ * closed if nothing has been received on it. This is useful when
+ * gov.nist.javax.sip.CACHE_SERVER_CONNECTIONS is true, to get rid of the
+ * connections of peers that went away. Peers that want to keep their
+ * connection open should send CRLF keep alives. Default value is -1, the
+ * connections are kept until the peer closes them. The connections closed
+ * because of this timeout or of READ_TIMEOUT are counted by
+ * {@link gov.nist.javax.sip.stack.ConnectionActivityMonitor}.</li>
  * 
  * <li><b>gov.nist.javax.sip.NETWORK_LAYER = classpath </b> <br/>
  * This is an EXPERIMENTAL property (still under active devlopment). Defines a
@@ -319,7 +385,46 @@ import javax.sip.message.Request;
  * getHostByName. Specifying your own address resolver allows you to customize
  * address lookup. The default address resolver is a pass-through address
  * resolver (i.e. just returns the input string without doing a resolution). See
- * gov.nist.javax.sip.DefaultAddressResolver.</li>
+ * gov.nist.javax.sip.DefaultAddressResolver. Set it to
+ * gov.nist.javax.sip.DnsAddressResolver to locate the next hops with the
+ * NAPTR and SRV records of RFC 3263. The default router then orders the hops
+ * by SRV priority and weight, and tries the hops that timed out last.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.DNS_LOOKUP = classpath </b><br/>
+ * The fully qualified class path for an implementation of the
+ * gov.nist.core.net.DnsLookup interface, where the DnsAddressResolver looks
+ * NAPTR and SRV records up. The default lookup queries DNS through JNDI. A
+ * lookup can serve records from a local zone, for example in tests.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.DNS_CACHE_TTL = integer </b><br/>
+ * Default is <it>30</it>. Number of seconds that the NAPTR and SRV answers
+ * are cached by the DnsAddressResolver. 0 disables the cache.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.DNS_BLACKLIST_TIME = integer </b><br/>
+ * Default is <it>32</it>. Number of seconds that a hop is tried after the
+ * other hops of its domain once a transaction to it timed out (timer B or F)
+ * or failed with a transport error. 0 disables the blacklist.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.NAME_SOURCE = classpath </b><br/>
+ * The fully qualified class path for an implementation of the
+ * gov.nist.core.net.NameSource interface, where the stack looks host names up.
+ * The default name source uses the system resolver. A name source can serve
+ * names from a local table, for example in tests.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.NAME_CACHE_TTL = integer </b><br/>
+ * Default is <it>30</it>. Number of seconds that a resolved host name is
+ * cached by the stack. 0 disables the cache.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.NAME_CACHE_NEGATIVE_TTL = integer </b><br/>
+ * Default is <it>10</it>. Number of seconds that a host name that failed to
+ * resolve is cached by the stack, so that sends to it fail right away.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.NAME_RESOLVER_THREADS = integer </b><br/>
+ * Default is <it>2</it>. Number of threads that look host names up in the
+ * background. The stack resolves a name in the background when a response is
+ * retransmitted by a timer to a host whose address is not cached, and sends it
+ * once the name is resolved rather than blocking the timer thread. Concurrent
+ * lookups of the same name are done once.</li>
  * 
  * <li><b>gov.nist.javax.sip.AUTO_GENERATE_TIMESTAMP= [true| false] </b><br/>
  * (default is false) Automatically generate a getTimeOfDay timestamp for a
@@ -348,6 +453,13 @@ import javax.sip.message.Request;
  * parameter in the Message. Otherwise, it will use the content length supplied
  * and generate a parse exception if the content is truncated.
  * 
+ * <li><b>gov.nist.javax.sip.LOCK_FREE_ID_GENERATION = [true|false] </b> <br/>
+ * Default is <it>false</it>. If set to <it>true</it>, the tags, call
+ * identifiers and branch identifiers are generated from per thread random
+ * generators and counters instead of a shared random and a pool of
+ * synchronized MD5 digesters. The branch identifiers keep the magic cookie and
+ * the stack signature. This setting applies to all the stacks of the JVM.
+ * 
  * <li><b>gov.nist.javax.sip.CANCEL_CLIENT_TRANSACTION_CHECKED = [true|false]
  * </b> <br/>
  * Default is <it>true</it>. This flag is added in support of load balancers or
@@ -388,6 +500,21 @@ import javax.sip.message.Request;
  * causing even more retransmissions. Good values to this property for servers
  * is a big number in the order of 8*8*1024 or higher.</li>
  * 
+ * <li><b>gov.nist.javax.sip.UDP_RECEIVER_THREADS = int </b> <br/>
+ * Default is <it>1</it>. Number of threads reading datagrams from the socket of
+ * each UDP listening point. The datagrams are received into a pool of buffers
+ * that is recycled once the message is parsed. With a single receiver thread
+ * the receive rate of a listening point is bounded by what one thread can read,
+ * raise this on servers with a high UDP message rate.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.UDP_REUSE_PORT = [true|false] </b> <br/>
+ * Default is <it>false</it>. If true and UDP_RECEIVER_THREADS is greater than one,
+ * each receiver thread gets its own socket, all bound to the listening point with
+ * SO_REUSEPORT so that the kernel spreads the datagrams over them. These sockets
+ * are created directly rather than through the network layer. Requires Java 9 or
+ * later and an OS that supports SO_REUSEPORT; otherwise the receiver threads share
+ * a single socket.</li>
+ * 
  * <li><b>gov.nist.javax.sip.CONGESTION_CONTROL_TIMEOUT = int </b> How 
  * much time messages are allowed to wait in queue before being dropped due to
  * stack being too slow to respond. Default value is 8000 ms. The value is in
@@ -424,6 +551,13 @@ import javax.sip.message.Request;
  * With this option also we avoid closing the TCP socket when something fails, because
  * we must keep processing other messages for other calls.
  * 
+ * The Call-ID of a message selects one of the threads, so the messages of a call
+ * are always processed in order, by one thread at a time, without a lock shared
+ * by all the calls. The same threads process the messages read from TLS and SCTP
+ * associations and by the NIO transports. UDP messages are not affected: use
+ * THREAD_POOL_SIZE for them. Messages waiting longer than
+ * gov.nist.javax.sip.CONGESTION_CONTROL_TIMEOUT are dropped.
+ * 
  * Note: This option relies on accurate Content-Length headers in the SIP messages. It
  * cannot recover once a malformed message is processed, because the stream iterator
  * will not be aligned any more. Eventually the connection will be closed.
@@ -457,15 +591,33 @@ import javax.sip.message.Request;
  * 
  * <li><b>gov.nist.javax.sip.MESSAGE_PARSER_FACTORY =  name of the class implementing gov.nist.javax.sip.parser.MessageParserFactory</b>
  * This factory allows pluggable implementations of the MessageParser that will take care of parsing the incoming messages.
- * By example one could plug a lazy parser through this factory.</li>
+ * By example one could plug a lazy parser through this factory.
+ * <b>gov.nist.javax.sip.parser.ByteMsgParserFactory</b> parses messages directly from the
+ * received bytes, without building a String per line, and reads UDP datagrams without copying them first.</li>
  * 
  * <li><b>gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY =  name of the class implementing gov.nist.javax.sip.parser.MessageProcessorFactory</b>
  * This factory allows pluggable implementations of the MessageProcessor that will take care of incoming messages.
- * By example one could plug a NIO Processor through this factory.</li>
+ * By example one could plug a NIO Processor through this factory.
+ * <b>gov.nist.javax.sip.stack.NioMessageProcessorFactory</b> serves all the TCP and TLS connections
+ * of the stack from a small fixed number of selector threads instead of a thread per connection.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.NIO_SELECTOR_THREADS = integer</b> Number of selector threads shared by the
+ * connections of the NIO message processors. Defaults to the number of available processors.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.NIO_DISPATCH_THREADS = integer</b> Number of threads on which the messages
+ * read by the NIO message processors are handed to the stack and the application. Messages from the same
+ * connection are always processed one at a time and in order. Defaults to twice the number of available
+ * processors.</li>
  * 
  * <li><b>gov.nist.javax.sip.TIMER_CLASS_NAME =  name of the class implementing gov.nist.javax.sip.stack.timers.SipTimer</b> interface
  * This allows pluggable implementations of the Timer that will take care of scheduling the various SIP Timers.
- * By example one could plug a regular timer, a scheduled thread pool executor.</li>
+ * By example one could plug a regular timer, a scheduled thread pool executor.
+ * <b>gov.nist.javax.sip.stack.timers.TimingWheelSipTimer</b> schedules and cancels in constant time,
+ * which pays off with a large number of live transactions and dialogs. It is tuned with
+ * <b>gov.nist.javax.sip.TIMER_WHEEL_TICK</b> (resolution in milliseconds, a divisor of the 500 ms
+ * base timer interval, default 50), <b>gov.nist.javax.sip.TIMER_WHEEL_SIZE</b> (number of slots,
+ * default 512) and <b>gov.nist.javax.sip.TIMER_THREADS</b> (threads running the due tasks,
+ * default the number of processors).</li>
  * 
  * <li><b>gov.nist.javax.sip.DELIVER_RETRANSMITTED_ACK_TO_LISTENER=boolean</b> A testing property
  * that allows application to see the ACK for retransmitted 200 OK requests. <b>Note that this is for test
@@ -476,6 +628,12 @@ import javax.sip.message.Request;
  * on how and when it accesses transaction and dialog data since it cleans up aggressively when transactions changes state
  * to COMPLETED or TERMINATED and for Dialog once the ACK is received/sent</li>
  * 
+ * <li><b>gov.nist.javax.sip.TRANSACTION_TIMER_TICKS=boolean</b> Default is <it>false</it>.
+ * By default a transaction only schedules the RFC 3261 timers (A to K) that are armed for its
+ * transport and state, each as a one shot task. Reliable transports never schedule
+ * retransmissions. Set this to true to go back to the former model where every transaction
+ * runs a timer task every 500 ms that counts the timers down.</li>
+ * 
  * <li><b>gov.nist.javax.sip.MIN_KEEPALIVE_TIME_SECONDS = integer</b> Minimum time between keep alive
  * pings (CRLF CRLF) from clients. If pings arrive with less than this frequency they will be replied
  * with CRLF CRLF if greater they will be rejected. The default is -1 (i.e. do not respond to CRLF CRLF).
@@ -492,6 +650,10 @@ import javax.sip.message.Request;
  * implementation you can drop messages, send a response statelessly or otherwise transform/pre-process the message before it reaches
  * the next steps of the pipeline. Similarly from processResponse() you can manipulate a response or drop it silently, but dropping
  * responses is not recommended, because the transaction already exists when the request for the response was sent.
+ * Two valves come with the stack: gov.nist.javax.sip.stack.CongestionControlMessageValve rejects requests when there are
+ * more than MAX_SERVER_TRANSACTIONS server transactions and gov.nist.javax.sip.stack.AdaptiveCongestionControlMessageValve
+ * rejects requests when the time they wait in the stack queues or spend in the SipListener stays above
+ * gov.nist.javax.sip.OVERLOAD_TARGET_DELAY, see its javadoc.
  * </li>
  * 
  * <li><b>gov.nist.javax.sip.SIP_EVENT_INTERCEPTOR</b> Default to null. The class name of your custom interceptor object.
@@ -506,6 +668,14 @@ import javax.sip.message.Request;
  *  of this feature is that you must use  gov.nist.javax.sip.REENTRANT_LISTENER=true to ensure that the request will be
  *  processed in the original thread completely for UDP.</li>
  * 
+ * <li><b>gov.nist.javax.sip.METRICS_MBEAN = boolean</b> Default is <it>true</it>.
+ * The stack always keeps statistics of the messages it receives and sends, of its
+ * transactions, dialogs, queues and connections and of the time spent in the
+ * listener, see gov.nist.javax.sip.stack.StackMetricsMXBean. They can be read with
+ * SipStackExt.getMetricsSnapshot(). When true they are also registered in the
+ * platform MBean server as gov.nist.javax.sip:type=StackMetrics,name="stack name"
+ * until the stack is stopped.</li>
+ * 
  *  <li><b>gov.nist.javax.sip.TLS_CLIENT_PROTOCOLS = String </b>
  *  Comma-separated list of protocols to use when creating outgoing TLS connections.
  *  The default is "SSLv3, SSLv2Hello, TLSv1".
@@ -566,6 +736,12 @@ public class SipStackImpl extends SIPTransactionStack implements
 	// Use this flag with caution.
 	private boolean reEntrantListener;
 
+	// Number of threads delivering events to a non re-entrant listener.
+	private int eventScannerThreads = 1;
+
+	// Register the statistics of the stack in the platform MBean server.
+	private boolean metricsMBeanEnabled = true;
+
 	SipListener sipListener;
 	TlsSecurityPolicy tlsSecurityPolicy;
 
@@ -603,7 +779,7 @@ public class SipStackImpl extends SIPTransactionStack implements
 		NistSipMessageFactoryImpl msgFactory = new NistSipMessageFactoryImpl(
 				this);
 		super.setMessageFactory(msgFactory);
-		this.eventScanner = new EventScanner(this);
+		this.eventScanner = new EventScanner(this, eventScannerThreads);
 		this.listeningPoints = new Hashtable<String, ListeningPointImpl>();
 		this.sipProviders = Collections.synchronizedList(new LinkedList<SipProviderImpl>());
 
@@ -614,7 +790,7 @@ public class SipStackImpl extends SIPTransactionStack implements
 	 */
 	private void reInitialize() {
 		super.reInit();
-		this.eventScanner = new EventScanner(this);
+		this.eventScanner = new EventScanner(this, eventScannerThreads);
 		this.listeningPoints = new Hashtable<String, ListeningPointImpl>();
 		this.sipProviders = Collections.synchronizedList(new LinkedList<SipProviderImpl>());
 		this.sipListener = null;
@@ -633,6 +809,9 @@ public class SipStackImpl extends SIPTransactionStack implements
 							"Bad configuration value for gov.nist.javax.sip.TIMER_CLASS_NAME", e);			
 			}
 		}
+		if (this.metricsMBeanEnabled) {
+			super.getStackMetrics().registerMBean();
+		}
 	}
 
 	/**
@@ -936,6 +1115,101 @@ public class SipStackImpl extends SIPTransactionStack implements
 			}
 		}
 
+		String nameSourceClassName = configurationProperties
+				.getProperty("gov.nist.javax.sip.NAME_SOURCE");
+		if (nameSourceClassName != null) {
+			try {
+				Class<?> clazz = Class.forName(nameSourceClassName);
+				Constructor<?> c = clazz.getConstructor(new Class[0]);
+				super.nameResolver.setNameSource((NameSource) c
+						.newInstance(new Object[0]));
+			} catch (Exception e) {
+				throw new PeerUnavailableException(
+						"can't find or instantiate NameSource implementation: "
+								+ nameSourceClassName);
+			}
+		}
+
+		String nameCacheTtl = configurationProperties
+				.getProperty("gov.nist.javax.sip.NAME_CACHE_TTL");
+		if (nameCacheTtl != null) {
+			try {
+				super.nameResolver.setTtl(Long.parseLong(nameCacheTtl) * 1000);
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError(
+						"NAME_CACHE_TTL - bad value " + ex.getMessage());
+			}
+		}
+
+		String nameCacheNegativeTtl = configurationProperties
+				.getProperty("gov.nist.javax.sip.NAME_CACHE_NEGATIVE_TTL");
+		if (nameCacheNegativeTtl != null) {
+			try {
+				super.nameResolver.setNegativeTtl(Long.parseLong(nameCacheNegativeTtl) * 1000);
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError(
+						"NAME_CACHE_NEGATIVE_TTL - bad value " + ex.getMessage());
+			}
+		}
+
+		String nameResolverThreads = configurationProperties
+				.getProperty("gov.nist.javax.sip.NAME_RESOLVER_THREADS");
+		if (nameResolverThreads != null) {
+			try {
+				super.nameResolver.setThreads(Integer.parseInt(nameResolverThreads));
+			} catch (RuntimeException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError(
+						"NAME_RESOLVER_THREADS - bad value " + ex.getMessage());
+			}
+		}
+
+		if (this.addressResolver instanceof DnsAddressResolver) {
+			DnsAddressResolver dnsAddressResolver = (DnsAddressResolver) this.addressResolver;
+			dnsAddressResolver.setNameResolver(super.nameResolver);
+
+			String dnsLookupClassName = configurationProperties
+					.getProperty("gov.nist.javax.sip.DNS_LOOKUP");
+			if (dnsLookupClassName != null) {
+				try {
+					Class<?> clazz = Class.forName(dnsLookupClassName);
+					Constructor<?> c = clazz.getConstructor(new Class[0]);
+					dnsAddressResolver.setDnsLookup((DnsLookup) c
+							.newInstance(new Object[0]));
+				} catch (Exception e) {
+					throw new PeerUnavailableException(
+							"can't find or instantiate DnsLookup implementation: "
+									+ dnsLookupClassName);
+				}
+			}
+
+			String dnsCacheTtl = configurationProperties
+					.getProperty("gov.nist.javax.sip.DNS_CACHE_TTL");
+			if (dnsCacheTtl != null) {
+				try {
+					dnsAddressResolver.setTtl(Long.parseLong(dnsCacheTtl) * 1000);
+				} catch (NumberFormatException ex) {
+					if (logger.isLoggingEnabled())
+						logger.logError(
+							"DNS_CACHE_TTL - bad value " + ex.getMessage());
+				}
+			}
+
+			String dnsBlacklistTime = configurationProperties
+					.getProperty("gov.nist.javax.sip.DNS_BLACKLIST_TIME");
+			if (dnsBlacklistTime != null) {
+				try {
+					dnsAddressResolver.setBlacklistTime(Long.parseLong(dnsBlacklistTime) * 1000);
+				} catch (NumberFormatException ex) {
+					if (logger.isLoggingEnabled())
+						logger.logError(
+							"DNS_BLACKLIST_TIME - bad value " + ex.getMessage());
+				}
+			}
+		}
+
 		String maxConnections = configurationProperties
 				.getProperty("gov.nist.javax.sip.MAX_CONNECTIONS");
 		if (maxConnections != null) {
@@ -948,6 +1222,61 @@ public class SipStackImpl extends SIPTransactionStack implements
 			}
 		}
 
+		String maxConnectionsPerDestination = configurationProperties
+				.getProperty("gov.nist.javax.sip.MAX_CONNECTIONS_PER_DESTINATION");
+		if (maxConnectionsPerDestination != null) {
+			try {
+				this.maxConnectionsPerDestination = Integer
+						.parseInt(maxConnectionsPerDestination);
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError(
+						"max connections per destination - bad value "
+								+ ex.getMessage());
+			}
+		}
+
+		String connectionFailureBackoff = configurationProperties
+				.getProperty("gov.nist.javax.sip.CONNECTION_FAILURE_BACKOFF");
+		if (connectionFailureBackoff != null) {
+			try {
+				this.connectionFailureBackoff = Integer
+						.parseInt(connectionFailureBackoff);
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError(
+						"connection failure backoff - bad value "
+								+ ex.getMessage());
+			}
+		}
+
+		String connectionWaitTimeout = configurationProperties
+				.getProperty("gov.nist.javax.sip.CONNECTION_WAIT_TIMEOUT");
+		if (connectionWaitTimeout != null) {
+			try {
+				this.connectionWaitTimeout = Integer
+						.parseInt(connectionWaitTimeout);
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError(
+						"connection wait timeout - bad value "
+								+ ex.getMessage());
+			}
+		}
+
+		String connectorThreads = configurationProperties
+				.getProperty("gov.nist.javax.sip.CONNECTOR_THREADS");
+		if (connectorThreads != null) {
+			try {
+				this.connectorThreads = Integer.parseInt(connectorThreads);
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError(
+						"connector threads - bad value "
+								+ ex.getMessage());
+			}
+		}
+
 		String threadPoolSize = configurationProperties
 				.getProperty("gov.nist.javax.sip.THREAD_POOL_SIZE");
 		if (threadPoolSize != null) {
@@ -972,7 +1301,6 @@ public class SipStackImpl extends SIPTransactionStack implements
 			try {
 				int threads = new Integer(tcpTreadPoolSize).intValue();
 				super.setTcpPostParsingThreadPoolSize(threads);
-				PipelinedMsgParser.setPostParseExcutorSize(threads, congetstionControlTimeout);
 			} catch (NumberFormatException ex) {
 				if (logger.isLoggingEnabled())
 					this.logger.logError(
@@ -1054,6 +1382,17 @@ public class SipStackImpl extends SIPTransactionStack implements
 			}
 		}
 
+		String idleTimeout = configurationProperties
+				.getProperty("gov.nist.javax.sip.SERVER_CONNECTION_IDLE_TIMEOUT");
+		if (idleTimeout != null) {
+			try {
+				super.setServerConnectionIdleTimeout(Integer.parseInt(idleTimeout));
+			} catch (NumberFormatException nfe) {
+				if (logger.isLoggingEnabled())
+					logger.logError("Bad server connection idle timeout " + idleTimeout);
+			}
+		}
+
 		// Get the address of the stun server.
 
 		String stunAddr = configurationProperties
@@ -1103,6 +1442,26 @@ public class SipStackImpl extends SIPTransactionStack implements
 			}
 		}
 
+		String eventScannerThreadsString = configurationProperties
+				.getProperty("gov.nist.javax.sip.EVENT_SCANNER_THREADS");
+		if (eventScannerThreadsString != null) {
+			try {
+				this.eventScannerThreads = Integer
+						.parseInt(eventScannerThreadsString);
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError(
+						"EVENT_SCANNER_THREADS - bad value ["
+								+ eventScannerThreadsString + "] " + ex.getMessage());
+			}
+			if (this.eventScannerThreads > 1) {
+				// Replace the single threaded scanner started by the
+				// default constructor.
+				this.eventScanner.forceStop();
+				this.eventScanner = new EventScanner(this, eventScannerThreads);
+			}
+		}
+
 		// JvB: added property for testing
 		this
 				.setNon2XXAckPassedToListener(Boolean
@@ -1143,6 +1502,10 @@ public class SipStackImpl extends SIPTransactionStack implements
 		StringMsgParser
 				.setComputeContentLengthFromMessage(computeContentLength);
 
+		Utils.setLockFreeIdGeneration(configurationProperties.getProperty(
+				"gov.nist.javax.sip.LOCK_FREE_ID_GENERATION", "false")
+				.equalsIgnoreCase("true"));
+
 		String tlsClientProtocols = configurationProperties.getProperty(
 				"gov.nist.javax.sip.TLS_CLIENT_PROTOCOLS");
 		if (tlsClientProtocols != null)
@@ -1199,6 +1562,23 @@ public class SipStackImpl extends SIPTransactionStack implements
 		bufferSizeInteger = new Integer(bufferSize).intValue();
 		super.setSendUdpBufferSize(bufferSizeInteger);
 
+		String udpReceiverThreads = configurationProperties.getProperty(
+				"gov.nist.javax.sip.UDP_RECEIVER_THREADS");
+		if (udpReceiverThreads != null) {
+			try {
+				int threads = Integer.parseInt(udpReceiverThreads);
+				if (threads > 0) {
+					super.udpReceiverThreads = threads;
+				}
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError("UDP_RECEIVER_THREADS - bad value " + ex.getMessage());
+			}
+		}
+
+		super.udpReusePort = Boolean.parseBoolean(configurationProperties
+				.getProperty("gov.nist.javax.sip.UDP_REUSE_PORT", "false"));
+
 		super.isBackToBackUserAgent = Boolean
 				.parseBoolean(configurationProperties.getProperty(
 						"gov.nist.javax.sip.IS_BACK_TO_BACK_USER_AGENT",
@@ -1234,6 +1614,32 @@ public class SipStackImpl extends SIPTransactionStack implements
 						"Bad configuration value for gov.nist.javax.sip.MESSAGE_PARSER_FACTORY", e);			
 		}
 		
+		String nioSelectorThreads = configurationProperties.getProperty("gov.nist.javax.sip.NIO_SELECTOR_THREADS");
+		if (nioSelectorThreads != null) {
+			try {
+				int threads = Integer.parseInt(nioSelectorThreads);
+				if (threads > 0) {
+					super.nioSelectorThreads = threads;
+				}
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError("NIO selector threads - bad value " + nioSelectorThreads);
+			}
+		}
+
+		String nioDispatchThreads = configurationProperties.getProperty("gov.nist.javax.sip.NIO_DISPATCH_THREADS");
+		if (nioDispatchThreads != null) {
+			try {
+				int threads = Integer.parseInt(nioDispatchThreads);
+				if (threads > 0) {
+					super.nioDispatchThreads = threads;
+				}
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError("NIO dispatch threads - bad value " + nioDispatchThreads);
+			}
+		}
+
 		String messageProcessorFactoryName = configurationProperties.getProperty("gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY",OIOMessageProcessorFactory.class.getName());
 		try {
 			super.messageProcessorFactory = (MessageProcessorFactory) Class.forName(messageProcessorFactoryName).newInstance();
@@ -1259,6 +1665,9 @@ public class SipStackImpl extends SIPTransactionStack implements
 		super.aggressiveCleanup = Boolean.parseBoolean(configurationProperties
 				.getProperty("gov.nist.javax.sip.AGGRESSIVE_CLEANUP",
 						Boolean.FALSE.toString()));
+		super.transactionTimerTicks = Boolean.parseBoolean(configurationProperties
+				.getProperty("gov.nist.javax.sip.TRANSACTION_TIMER_TICKS",
+						Boolean.FALSE.toString()));
 		
 		String valveClassName = configurationProperties.getProperty("gov.nist.javax.sip.SIP_MESSAGE_VALVE", null);
 		if(valveClassName != null && !valveClassName.equals("")) {
@@ -1307,6 +1716,13 @@ public class SipStackImpl extends SIPTransactionStack implements
 							"Bad configuration value for gov.nist.javax.sip.SIP_EVENT_INTERCEPTOR", e);			
 			}
 		}
+
+		this.metricsMBeanEnabled = Boolean.valueOf(
+				configurationProperties.getProperty("gov.nist.javax.sip.METRICS_MBEAN",
+						Boolean.TRUE.toString())).booleanValue();
+		if (this.metricsMBeanEnabled) {
+			super.getStackMetrics().registerMBean();
+		}
 		
 	}
 
@@ -1557,7 +1973,7 @@ public class SipStackImpl extends SIPTransactionStack implements
 	public void start() throws ProviderDoesNotExistException, SipException {
 		// Start a new event scanner if one does not exist.
 		if (this.eventScanner == null) {
-			this.eventScanner = new EventScanner(this);
+			this.eventScanner = new EventScanner(this, eventScannerThreads);
 		}
 
 	}
@@ -1628,6 +2044,23 @@ public class SipStackImpl extends SIPTransactionStack implements
 		return eventScanner;
 	}
 
+	/**
+	 * @return the number of events waiting to be delivered to the listeners.
+	 */
+	public int getEventQueueDepth() {
+		EventScanner scanner = this.eventScanner;
+		return scanner == null ? 0 : scanner.getQueueDepth();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see gov.nist.javax.sip.SipStackExt#getMetricsSnapshot()
+	 */
+	public StackMetricsSnapshot getMetricsSnapshot() {
+		return super.getStackMetrics().getSnapshot();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
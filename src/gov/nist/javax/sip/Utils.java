@@ -34,9 +34,12 @@ import gov.nist.javax.sip.header.Via;
 import gov.nist.javax.sip.message.SIPResponse;
 
 import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A few utilities that are used in various places by the stack. This is used to
@@ -60,8 +63,22 @@ public class Utils implements UtilsExt {
 
     private static String signature ;
 
+    private static String branchPrefix;
+
     private static Utils instance = new Utils();
 
+    private static volatile boolean lockFreeIdGeneration;
+
+    /**
+     * Per thread state of the lock free generators.
+     */
+    private static final ThreadLocal<IdGenerator> idGenerators =
+        new ThreadLocal<IdGenerator>() {
+            protected IdGenerator initialValue() {
+                return new IdGenerator();
+            }
+        };
+
 
     /**
      * to hex converter
@@ -78,6 +95,7 @@ public class Utils implements UtilsExt {
         }
         rand = new java.util.Random(System.nanoTime());
         signature = toHexString(Integer.toString(Math.abs( rand.nextInt() % 1000 )).getBytes());
+        branchPrefix = SIPConstants.BRANCH_MAGIC_COOKIE + "-" + signature + "-";
     }
 
 
@@ -135,11 +153,27 @@ public class Utils implements UtilsExt {
         return retval;
     }
 
+    /**
+     * Use per thread generators for the tags, call identifiers and branch
+     * identifiers instead of the shared random and pool of MD5 digesters.
+     * The identifiers have the same form: the branch identifiers keep the
+     * magic cookie and the stack signature.
+     */
+    public static void setLockFreeIdGeneration(boolean lockFree) {
+        lockFreeIdGeneration = lockFree;
+    }
+
+    public static boolean isLockFreeIdGeneration() {
+        return lockFreeIdGeneration;
+    }
+
     /**
      * Generate a call identifier. This is useful when we want to generate a
      * call identifier in advance of generating a message.
      */
     public String generateCallIdentifier(String address) {
+        if (lockFreeIdGeneration)
+            return idGenerators.get().generateCallIdentifier(address);
     	long random = rand.nextLong();
     	int hash = (int) Math.abs(random%digesterPoolsSize);
     	MessageDigest md = digesterPool[hash];
@@ -164,10 +198,12 @@ public class Utils implements UtilsExt {
      * synchronized: needed for access to 'rand', else risk to generate same tag
      * twice
      */
-    public synchronized String generateTag() {
-
+    public String generateTag() {
+        if (lockFreeIdGeneration)
+            return idGenerators.get().generateTag();
+        synchronized (this) {
             return Integer.toHexString(rand.nextInt());
-
+        }
     }
 
     /**
@@ -178,6 +214,8 @@ public class Utils implements UtilsExt {
      *         used as a branch identifier.
      */
     public String generateBranchId() {
+        if (lockFreeIdGeneration)
+            return idGenerators.get().generateBranchId();
     	//
     	long num = rand.nextLong() + Utils.counter++  + System.currentTimeMillis() + System.nanoTime();
     	int hash = (int) Math.abs(num%digesterPoolsSize);
@@ -201,6 +239,81 @@ public class Utils implements UtilsExt {
         return signature;
     }
 
+    /**
+     * Generates the identifiers of one thread. An identifier is made of 64
+     * random bits, the index of the generator and a counter of the generator,
+     * so that two identifiers of the same stack never collide and the
+     * identifiers of different runs are unpredictable. The hexadecimal digits
+     * are written in a buffer of the thread so that only the returned string
+     * is allocated.
+     */
+    private static final class IdGenerator {
+
+        private static final AtomicInteger generatorCount = new AtomicInteger();
+
+        private static SecureRandom seeder;
+
+        private final Random random;
+
+        private final int index;
+
+        private int counter;
+
+        private char[] buffer = new char[128];
+
+        IdGenerator() {
+            random = new Random(seed());
+            index = generatorCount.getAndIncrement();
+        }
+
+        private static synchronized long seed() {
+            if (seeder == null)
+                seeder = new SecureRandom();
+            return seeder.nextLong() ^ System.nanoTime();
+        }
+
+        private char[] buffer(int length) {
+            if (buffer.length < length)
+                buffer = new char[length];
+            return buffer;
+        }
+
+        private static int putHex(char[] c, int pos, long value, int digits) {
+            for (int i = (digits - 1) * 4; i >= 0; i -= 4) {
+                c[pos++] = toHex[(int) (value >>> i) & 0x0f];
+            }
+            return pos;
+        }
+
+        private int putId(char[] c, int pos) {
+            pos = putHex(c, pos, random.nextLong(), 16);
+            pos = putHex(c, pos, index, 8);
+            return putHex(c, pos, counter++, 8);
+        }
+
+        String generateTag() {
+            char[] c = buffer(8);
+            return new String(c, 0, putHex(c, 0, random.nextInt(), 8));
+        }
+
+        String generateCallIdentifier(String address) {
+            int length = address.length();
+            char[] c = buffer(33 + length);
+            int pos = putId(c, 0);
+            c[pos++] = '@';
+            address.getChars(0, length, c, pos);
+            return new String(c, 0, pos + length);
+        }
+
+        String generateBranchId() {
+            String prefix = branchPrefix;
+            int length = prefix.length();
+            char[] c = buffer(length + 32);
+            prefix.getChars(0, length, c, 0);
+            return new String(c, 0, putId(c, length));
+        }
+    }
+
     public static void main(String[] args) {
     	final HashSet branchIds = new HashSet();
     	Executor e = Executors.newFixedThreadPool(100);
@@ -43,6 +43,10 @@ import java.lang.reflect.*;
  */
 public abstract class NetObject extends GenericObject {
 
+    /** Fields compared by equals and match, up to those of NetObject. */
+    private static final FieldLayout.Cache equalsLayouts =
+        new FieldLayout.Cache(NetObject.class);
+
     protected static final String CORE_PACKAGE = PackageNames.CORE_PACKAGE;
     protected static final String NET_PACKAGE = PackageNames.NET_PACKAGE;
     protected static final String PARSER_PACKAGE = PackageNames.PARSER_PACKAGE;
@@ -79,70 +83,26 @@ public abstract class NetObject extends GenericObject {
     public boolean equals(Object that) {
         if (!this.getClass().equals(that.getClass()))
             return false;
-        Class<?> myclass = this.getClass();
-        Class<?> hisclass = that.getClass();
-        while (true) {
-            Field[] fields = myclass.getDeclaredFields();
-            Field[] hisfields = hisclass.getDeclaredFields();
-            for (int i = 0; i < fields.length; i++) {
-                Field f = fields[i];
-                Field g = hisfields[i];
-                // Only print protected and public members.
-                int modifier = f.getModifiers();
-                if ((modifier & Modifier.PRIVATE) == Modifier.PRIVATE)
-                    continue;
-                Class<?> fieldType = f.getType();
-                String fieldName = f.getName();
-                if (fieldName.compareTo("stringRepresentation") == 0) {
+        FieldLayout layout = equalsLayouts.getLayout(this.getClass());
+        try {
+            for (int i = 0; i < layout.size(); i++) {
+                if (layout.getKind(i) != FieldLayout.OBJECT) {
+                    if (!layout.primitiveEquals(i, this, that))
+                        return false;
                     continue;
                 }
-                if (fieldName.compareTo("indentation") == 0) {
+                Field f = layout.getField(i);
+                Object myObj = f.get(this);
+                Object hisObj = f.get(that);
+                if (hisObj == myObj)
                     continue;
-                }
-                try {
-                    // Primitive fields are printed with type: value
-                    if (fieldType.isPrimitive()) {
-                        String fname = fieldType.toString();
-                        if (fname.compareTo("int") == 0) {
-                            if (f.getInt(this) != g.getInt(that))
-                                return false;
-                        } else if (fname.compareTo("short") == 0) {
-                            if (f.getShort(this) != g.getShort(that))
-                                return false;
-                        } else if (fname.compareTo("char") == 0) {
-                            if (f.getChar(this) != g.getChar(that))
-                                return false;
-                        } else if (fname.compareTo("long") == 0) {
-                            if (f.getLong(this) != g.getLong(that))
-                                return false;
-                        } else if (fname.compareTo("boolean") == 0) {
-                            if (f.getBoolean(this) != g.getBoolean(that))
-                                return false;
-                        } else if (fname.compareTo("double") == 0) {
-                            if (f.getDouble(this) != g.getDouble(that))
-                                return false;
-                        } else if (fname.compareTo("float") == 0) {
-                            if (f.getFloat(this) != g.getFloat(that))
-                                return false;
-                        }
-                    } else if (g.get(that) == f.get(this))
-                        continue;
-                    else if (f.get(this) == null && g.get(that) != null)
-                        return false;
-                    else if (g.get(that) == null && f.get(that) != null)
-                        return false;
-                    else if (!f.get(this).equals(g.get(that)))
-                        return false;
-                } catch (IllegalAccessException ex1) {
-                    InternalErrorHandler.handleException(ex1);
-                }
-            }
-            if (myclass.equals(NetObject.class))
-                break;
-            else {
-                myclass = myclass.getSuperclass();
-                hisclass = hisclass.getSuperclass();
+                else if (myObj == null)
+                    return false;
+                else if (!myObj.equals(hisObj))
+                    return false;
             }
+        } catch (IllegalAccessException ex1) {
+            InternalErrorHandler.handleException(ex1);
         }
         return true;
     }
@@ -166,105 +126,50 @@ public abstract class NetObject extends GenericObject {
         if (!this.getClass().equals(other.getClass()))
             return false;
         GenericObject that = (GenericObject) other;
-        // System.out.println("Comparing " + that.encode());
-        // System.out.println("this = " + this.encode());
-
-        Class<?> hisclass = other.getClass();
-        Class<?> myclass = this.getClass();
-        while (true) {
-            Field[] fields = myclass.getDeclaredFields();
-            Field[] hisfields = hisclass.getDeclaredFields();
-            for (int i = 0; i < fields.length; i++) {
-                Field f = fields[i];
-                Field g = hisfields[i];
-                // Only print protected and public members.
-                int modifier = f.getModifiers();
-                if ((modifier & Modifier.PRIVATE) == Modifier.PRIVATE)
-                    continue;
-                Class<?> fieldType = f.getType();
-                String fieldName = f.getName();
-                if (fieldName.compareTo("stringRepresentation") == 0) {
+        FieldLayout layout = equalsLayouts.getLayout(this.getClass());
+        try {
+            for (int i = 0; i < layout.size(); i++) {
+                if (layout.getKind(i) != FieldLayout.OBJECT) {
+                    if (!layout.primitiveEquals(i, this, that))
+                        return false;
                     continue;
                 }
-                if (fieldName.compareTo("indentation") == 0) {
+                Field f = layout.getField(i);
+                Object myObj = f.get(this);
+                Object hisObj = f.get(that);
+                if (hisObj != null && myObj == null)
+                    return false;
+                else if (hisObj == null)
                     continue;
-                }
-                try {
-                    // Primitive fields are printed with type: value
-                    if (fieldType.isPrimitive()) {
-                        String fname = fieldType.toString();
-                        if (fname.compareTo("int") == 0) {
-                            if (f.getInt(this) != g.getInt(that))
-                                return false;
-                        } else if (fname.compareTo("short") == 0) {
-                            if (f.getShort(this) != g.getShort(that))
-                                return false;
-                        } else if (fname.compareTo("char") == 0) {
-                            if (f.getChar(this) != g.getChar(that))
-                                return false;
-                        } else if (fname.compareTo("long") == 0) {
-                            if (f.getLong(this) != g.getLong(that))
-                                return false;
-                        } else if (fname.compareTo("boolean") == 0) {
-                            if (f.getBoolean(this) != g.getBoolean(that))
-                                return false;
-                        } else if (fname.compareTo("double") == 0) {
-                            if (f.getDouble(this) != g.getDouble(that))
-                                return false;
-                        } else if (fname.compareTo("float") == 0) {
-                            if (f.getFloat(this) != g.getFloat(that))
-                                return false;
-                        }
-                    } else {
-                        Object myObj = f.get(this);
-                        Object hisObj = g.get(that);
-                        if (hisObj != null && myObj == null)
-                            return false;
-                        else if (hisObj == null && myObj != null)
-                            continue;
-                        else if (hisObj == null && myObj == null)
-                            continue;
-                        else if (
-                            hisObj instanceof java.lang.String
-                                && myObj instanceof java.lang.String) {
-                            if (((String) hisObj).equals(""))
-                                continue;
-                            if (((String) myObj)
-                                .compareToIgnoreCase((String) hisObj)
-                                != 0)
-                                return false;
-                        } else if (
-                            GenericObject.isMySubclass(myObj.getClass())
-                                && GenericObject.isMySubclass(hisObj.getClass())
-                                && myObj.getClass().equals(hisObj.getClass())
-                                && ((GenericObject) hisObj).getMatcher()
-                                    != null) {
-                            String myObjEncoded =
-                                ((GenericObject) myObj).encode();
-                            boolean retval =
-                                ((GenericObject) hisObj).getMatcher().match(
-                                    myObjEncoded);
-                            if (!retval)
-                                return false;
-                        } else if (
-                            GenericObject.isMySubclass(myObj.getClass())
-                                && !((GenericObject) myObj).match(hisObj))
-                            return false;
-                        else if (
-                            GenericObjectList.isMySubclass(myObj.getClass())
-                                && !((GenericObjectList) myObj).match(hisObj))
-                            return false;
-                    }
-                } catch (IllegalAccessException ex1) {
-                    InternalErrorHandler.handleException(ex1);
-                }
-            }
-            if (myclass.equals(NetObject.class))
-                break;
-            else {
-                myclass = myclass.getSuperclass();
-                hisclass = hisclass.getSuperclass();
+                else if (
+                    hisObj instanceof java.lang.String
+                        && myObj instanceof java.lang.String) {
+                    if (((String) hisObj).equals(""))
+                        continue;
+                    if (((String) myObj)
+                        .compareToIgnoreCase((String) hisObj)
+                        != 0)
+                        return false;
+                } else if (
+                    myObj instanceof GenericObject
+                        && hisObj instanceof GenericObject
+                        && myObj.getClass().equals(hisObj.getClass())
+                        && ((GenericObject) hisObj).getMatcher() != null) {
+                    String myObjEncoded = ((GenericObject) myObj).encode();
+                    if (!((GenericObject) hisObj).getMatcher().match(
+                            myObjEncoded))
+                        return false;
+                } else if (
+                    myObj instanceof GenericObject
+                        && !((GenericObject) myObj).match(hisObj))
+                    return false;
+                else if (
+                    myObj instanceof GenericObjectList
+                        && !((GenericObjectList) myObj).match(hisObj))
+                    return false;
             }
+        } catch (IllegalAccessException ex1) {
+            InternalErrorHandler.handleException(ex1);
         }
         return true;
     }
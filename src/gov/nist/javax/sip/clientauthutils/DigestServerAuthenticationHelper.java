@@ -25,49 +25,200 @@
 */
 package gov.nist.javax.sip.clientauthutils;
 
+import java.nio.charset.Charset;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Date;
-import java.util.Random;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 import gov.nist.core.InternalErrorHandler;
-import gov.nist.javax.sip.stack.SIPTransactionStack;
 
 import javax.sip.address.URI;
 import javax.sip.header.AuthorizationHeader;
 import javax.sip.header.HeaderFactory;
 import javax.sip.header.ProxyAuthenticateHeader;
 import javax.sip.header.ProxyAuthorizationHeader;
+import javax.sip.header.WWWAuthenticateHeader;
 import javax.sip.message.Request;
 import javax.sip.message.Response;
 /**
  * Implements the HTTP digest authentication method server side functionality.
- * 
+ * <p>
+ * A helper may be shared by all the threads of an application. The nonces it
+ * issues carry the time they were issued and the realm they were issued for,
+ * signed with HMAC-SHA256 under a secret key, so that they can be checked
+ * without remembering them. Helpers created with the same secret accept the
+ * nonces of each other. The only state kept is, for the nonces that clients
+ * answered, the nonce counts already used so that a replayed request is
+ * refused. Credentials without qop carry no nonce count, their nonce is
+ * accepted once.
+ * <p>
+ * The MD5, SHA-256 and SHA-512-256 algorithms of RFC 7616 and RFC 8760 are
+ * supported, with their -sess variants.
+ *
  * @author M. Ranganathan
  * @author Marc Bednarek
  */
 
 public class DigestServerAuthenticationHelper  {
-    
-    private MessageDigest messageDigest;
-    
+
     public static final String DEFAULT_ALGORITHM = "MD5";
+    public static final String SHA256_ALGORITHM = "SHA-256";
+    public static final String SHA512_256_ALGORITHM = "SHA-512-256";
     public static final String DEFAULT_SCHEME = "Digest";
-    
 
+    /**
+     * Default lifetime of a nonce, in seconds.
+     */
+    public static final int DEFAULT_NONCE_LIFETIME = 300;
+
+    /**
+     * Default number of nonces whose counts are remembered.
+     */
+    public static final int DEFAULT_NONCE_CACHE_SIZE = 100000;
+
+    /**
+     * The request carries valid credentials.
+     */
+    public static final int AUTHENTICATED = 0;
+
+    /**
+     * The request carries no credentials, it should be challenged.
+     */
+    public static final int NO_CREDENTIALS = 1;
+
+    /**
+     * The credentials are valid but the nonce has expired, the request should
+     * be challenged again with stale=true.
+     */
+    public static final int STALE_NONCE = 2;
+
+    /**
+     * The credentials are wrong, the nonce was not issued for this realm with
+     * this secret or the request is a replay.
+     */
+    public static final int FAILED = 3;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private static final int PAYLOAD_LENGTH = 16;
+
+    private static final int TAG_LENGTH = 16;
+
+    private static final int NONCE_LENGTH = 2 * (PAYLOAD_LENGTH + TAG_LENGTH);
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
 
     /** to hex converter */
     private static final char[] toHex = { '0', '1', '2', '3', '4', '5', '6',
             '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
 
+    private final String algorithm;
+
+    private final String digestAlgorithm;
+
+    private final boolean session;
+
+    private final SecretKeySpec key;
+
+    private final long nonceLifetime;
+
+    // Makes nonces issued in the same millisecond differ.
+    private final AtomicLong nonceSequence;
+
+    private final NonceCountCache nonceCounts;
+
+    private final ThreadLocal<Hasher> hashers = new ThreadLocal<Hasher>() {
+        protected Hasher initialValue() {
+            try {
+                return new Hasher(digestAlgorithm, key);
+            } catch (GeneralSecurityException ex) {
+                // Checked by the constructor.
+                throw new IllegalStateException(ex.getMessage());
+            }
+        }
+    };
+
     /**
-     * Default constructor.
+     * Default constructor, for the MD5 algorithm with a random secret.
      * @throws NoSuchAlgorithmException 
      */
     public DigestServerAuthenticationHelper() 
         throws NoSuchAlgorithmException {
-            messageDigest = MessageDigest.getInstance(DEFAULT_ALGORITHM);
+        this(DEFAULT_ALGORITHM);
+    }
+
+    /**
+     * Constructor with a random secret, for a single server.
+     *
+     * @param algorithm the algorithm to challenge with and to accept, one of
+     *            MD5, SHA-256 and SHA-512-256, optionally followed by -sess.
+     * @throws NoSuchAlgorithmException if the algorithm is not supported.
+     */
+    public DigestServerAuthenticationHelper(String algorithm)
+        throws NoSuchAlgorithmException {
+        this(algorithm, null, DEFAULT_NONCE_LIFETIME, DEFAULT_NONCE_CACHE_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param algorithm the algorithm to challenge with and to accept, one of
+     *            MD5, SHA-256 and SHA-512-256, optionally followed by -sess.
+     * @param secret the key the nonces are signed with, at least 16 bytes.
+     *            Servers sharing the secret accept the nonces of each other.
+     *            A random key is used if null.
+     * @param nonceLifetime how long a nonce is accepted, in seconds.
+     * @param nonceCacheSize the number of nonces whose counts are
+     *            remembered. Nonces beyond that are reported as stale early.
+     * @throws NoSuchAlgorithmException if the algorithm is not supported.
+     */
+    public DigestServerAuthenticationHelper(String algorithm, byte[] secret,
+            int nonceLifetime, int nonceCacheSize) throws NoSuchAlgorithmException {
+        String name = algorithm.toUpperCase();
+        this.session = name.endsWith("-SESS");
+        if (this.session) {
+            name = name.substring(0, name.length() - "-SESS".length());
+        }
+        if (name.equals(DEFAULT_ALGORITHM) || name.equals(SHA256_ALGORITHM)) {
+            this.digestAlgorithm = name;
+        } else if (name.equals(SHA512_256_ALGORITHM)) {
+            this.digestAlgorithm = "SHA-512/256";
+        } else {
+            throw new NoSuchAlgorithmException("Unsupported digest algorithm " + algorithm);
+        }
+        this.algorithm = this.session ? name + "-sess" : name;
+        SecureRandom random = new SecureRandom();
+        if (secret == null) {
+            secret = new byte[32];
+            random.nextBytes(secret);
+        } else if (secret.length < 16) {
+            throw new IllegalArgumentException("The secret is too short");
+        }
+        if (nonceLifetime <= 0) {
+            throw new IllegalArgumentException("Bad nonce lifetime " + nonceLifetime);
+        }
+        this.key = new SecretKeySpec(secret, HMAC_ALGORITHM);
+        this.nonceLifetime = nonceLifetime * 1000L;
+        this.nonceSequence = new AtomicLong(random.nextLong());
+        this.nonceCounts = new NonceCountCache(nonceCacheSize);
+        try {
+            this.hashers.set(new Hasher(this.digestAlgorithm, this.key));
+        } catch (NoSuchAlgorithmException ex) {
+            throw ex;
+        } catch (GeneralSecurityException ex) {
+            throw new NoSuchAlgorithmException(ex.getMessage());
+        }
     }
 
     public static String toHexString(byte b[]) {
@@ -79,89 +230,370 @@ public class DigestServerAuthenticationHelper  {
         }
         return new String(c);
     }
-    
+
+    /**
+     * Return the algorithm this helper challenges with, as it appears in the
+     * algorithm parameter.
+     */
+    public String getAlgorithm() {
+        return this.algorithm;
+    }
+
     /**
      * Generate the challenge string.
      *
      * @return a generated nonce.
      */
-    private String generateNonce() {
-        // Get the time of day and run MD5 over it.
-        Date date = new Date();
-        long time = date.getTime();
-        Random rand = new Random();
-        long pad = rand.nextLong();
-        String nonceString = (new Long(time)).toString()
-                + (new Long(pad)).toString();
-        byte mdbytes[] = messageDigest.digest(nonceString.getBytes());
-        // Convert the mdbytes array into a hex string.
-        return toHexString(mdbytes);
+    private String generateNonce(String realm) {
+        Hasher hasher = this.hashers.get();
+        byte[] nonce = hasher.nonce;
+        putLong(nonce, 0, System.currentTimeMillis());
+        putLong(nonce, 8, this.nonceSequence.getAndIncrement());
+        hasher.sign(nonce, realm);
+        System.arraycopy(hasher.tag, 0, nonce, PAYLOAD_LENGTH, TAG_LENGTH);
+        return toHexString(nonce);
     }
 
+    /**
+     * Check the signature of a nonce.
+     *
+     * @return the time at which the nonce was issued, -1 if it was not issued
+     *         for the realm with the secret of this helper.
+     */
+    private long checkNonce(Hasher hasher, String nonce, String realm) {
+        if (nonce.length() != NONCE_LENGTH) {
+            return -1;
+        }
+        byte[] bytes = hasher.nonce;
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(nonce.charAt(2 * i), 16);
+            int low = Character.digit(nonce.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return -1;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        hasher.sign(bytes, realm);
+        int diff = 0;
+        for (int i = 0; i < TAG_LENGTH; i++) {
+            diff |= bytes[PAYLOAD_LENGTH + i] ^ hasher.tag[i];
+        }
+        if (diff != 0) {
+            return -1;
+        }
+        return Math.max(getLong(bytes, 0), 0);
+    }
+
+    /**
+     * Add a challenge without qop to a response, in a Proxy-Authenticate
+     * header. The nonce authenticates a single request, see
+     * {@link #generateChallenge(HeaderFactory, Response, String, boolean)} to
+     * let clients re-use it.
+     */
     public void generateChallenge(HeaderFactory headerFactory, Response response, String realm  ) {
         try {
             ProxyAuthenticateHeader proxyAuthenticate = headerFactory
                     .createProxyAuthenticateHeader(DEFAULT_SCHEME);
             proxyAuthenticate.setParameter("realm", realm);
-            proxyAuthenticate.setParameter("nonce", generateNonce());
+            proxyAuthenticate.setParameter("nonce", generateNonce(realm));
             proxyAuthenticate.setParameter("opaque", "");
             proxyAuthenticate.setParameter("stale", "FALSE");
-            proxyAuthenticate.setParameter("algorithm", DEFAULT_ALGORITHM);
+            proxyAuthenticate.setParameter("algorithm", this.algorithm);
             response.setHeader(proxyAuthenticate);
         } catch (Exception ex) {
             InternalErrorHandler.handleException(ex);
         }
 
     }
+
     /**
-     * Authenticate the inbound request.
+     * Add a challenge with qop auth to a response, a WWW-Authenticate header
+     * to a 401 response and a Proxy-Authenticate header to a 407 response.
+     *
+     * @param stale true if the request was refused because its nonce expired.
+     */
+    public void generateChallenge(HeaderFactory headerFactory, Response response,
+            String realm, boolean stale) {
+        try {
+            WWWAuthenticateHeader authenticate;
+            if (response.getStatusCode() == Response.UNAUTHORIZED) {
+                authenticate = headerFactory.createWWWAuthenticateHeader(DEFAULT_SCHEME);
+            } else {
+                authenticate = headerFactory.createProxyAuthenticateHeader(DEFAULT_SCHEME);
+            }
+            authenticate.setRealm(realm);
+            authenticate.setNonce(generateNonce(realm));
+            authenticate.setQop("auth");
+            authenticate.setAlgorithm(this.algorithm);
+            if (stale) {
+                authenticate.setStale(true);
+            }
+            response.addHeader(authenticate);
+        } catch (Exception ex) {
+            InternalErrorHandler.handleException(ex);
+        }
+    }
+
+    /**
+     * Return the hashed password to store for a user, H(username:realm:password)
+     * with the algorithm of this helper.
+     */
+    public String hashPassword(String username, String realm, String password) {
+        Hasher hasher = this.hashers.get();
+        hasher.update(username);
+        hasher.update(':');
+        hasher.update(realm);
+        hasher.update(':');
+        hasher.update(password);
+        hasher.finish(hasher.ha1);
+        return new String(hasher.ha1, 0, hasher.ha1.length, UTF8);
+    }
+
+    /**
+     * Authenticate the inbound request. The Authorization header is used, or
+     * the Proxy-Authorization header if there is none. The nonce must have
+     * been issued by this helper, or one sharing its secret, and not be
+     * expired, and a nonce count must not have been used before. Credentials
+     * without qop may use their nonce once, the client is challenged again
+     * for the next request.
      *
      * @param request - the request to authenticate.
-     * @param hashedPassword -- the MD5 hashed string of username:realm:plaintext password.
-     * 
-     * @return true if authentication succeded and false otherwise.
+     * @param hashedPassword -- the hashed string of username:realm:plaintext
+     *            password, see {@link #hashPassword(String, String, String)}.
+     *
+     * @return AUTHENTICATED, NO_CREDENTIALS, STALE_NONCE or FAILED.
      */
-    public boolean doAuthenticateHashedPassword(Request request, String hashedPassword) {
-        ProxyAuthorizationHeader authHeader = (ProxyAuthorizationHeader) request.getHeader(ProxyAuthorizationHeader.NAME);
-        if ( authHeader == null ) return false;
+    public int authenticateHashedPassword(Request request, String hashedPassword) {
+        return authenticate(request, hashedPassword, null);
+    }
+
+    /**
+     * Authenticate the inbound request given plain text password, as
+     * {@link #authenticateHashedPassword(Request, String)} does.
+     *
+     * @param request - the request to authenticate.
+     * @param pass -- the plain text password.
+     *
+     * @return AUTHENTICATED, NO_CREDENTIALS, STALE_NONCE or FAILED.
+     */
+    public int authenticatePlainTextPassword(Request request, String pass) {
+        return authenticate(request, null, pass);
+    }
+
+    /**
+     * Authenticate a burst of requests, such as the REGISTER requests of
+     * endpoints coming back after an outage, spreading them over the threads
+     * of an executor. One task per processor is submitted.
+     *
+     * @param requests the requests to authenticate.
+     * @param hashedPasswords the hashed password for each request.
+     * @param executor runs the tasks.
+     * @return the result for each request, see
+     *         {@link #authenticateHashedPassword(Request, String)}.
+     * @throws InterruptedException if interrupted while waiting for the tasks.
+     */
+    public int[] authenticateHashedPasswords(final Request[] requests,
+            final String[] hashedPasswords, Executor executor) throws InterruptedException {
+        final int[] results = new int[requests.length];
+        Arrays.fill(results, FAILED);
+        final int tasks = Math.min(requests.length, PROCESSORS);
+        if (tasks <= 1) {
+            for (int i = 0; i < requests.length; i++) {
+                results[i] = authenticateHashedPassword(requests[i], hashedPasswords[i]);
+            }
+            return results;
+        }
+        final CountDownLatch done = new CountDownLatch(tasks);
+        for (int task = 0; task < tasks; task++) {
+            final int first = task;
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = first; i < requests.length; i += tasks) {
+                            results[i] = authenticateHashedPassword(requests[i],
+                                    hashedPasswords[i]);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        return results;
+    }
+
+    private int authenticate(Request request, String hashedPassword, String password) {
+        AuthorizationHeader authHeader = (AuthorizationHeader) request
+                .getHeader(AuthorizationHeader.NAME);
+        if (authHeader == null) {
+            authHeader = (AuthorizationHeader) request.getHeader(ProxyAuthorizationHeader.NAME);
+        }
+        if (authHeader == null) {
+            return NO_CREDENTIALS;
+        }
+        String algorithm = authHeader.getAlgorithm();
+        if (!this.algorithm.equalsIgnoreCase(algorithm == null ? DEFAULT_ALGORITHM : algorithm)) {
+            return FAILED;
+        }
+        String nonce = authHeader.getNonce();
+        String realm = authHeader.getRealm();
+        if (nonce == null || realm == null) {
+            return FAILED;
+        }
+        Hasher hasher = this.hashers.get();
+        long timeStamp = checkNonce(hasher, nonce, realm);
+        if (timeStamp < 0 || !isResponseValid(hasher, request, authHeader, hashedPassword, password)) {
+            return FAILED;
+        }
+        long expiredBefore = System.currentTimeMillis() - this.nonceLifetime;
+        if (timeStamp < expiredBefore || this.nonceCounts.isEvicted(timeStamp)) {
+            return STALE_NONCE;
+        }
+        // Without qop there is no nonce count, the nonce may be used once.
+        long nonceCount = 1;
+        if (authHeader.getQop() != null) {
+            nonceCount = parseNonceCount(authHeader.getParameter("nc"));
+            if (nonceCount <= 0) {
+                return FAILED;
+            }
+        }
+        if (!this.nonceCounts.accept(nonce, timeStamp, nonceCount, expiredBefore)) {
+            return this.nonceCounts.isEvicted(timeStamp) ? STALE_NONCE : FAILED;
+        }
+        return AUTHENTICATED;
+    }
+
+    /**
+     * @return the nonce count, -1 if it is not 8 hex digits.
+     */
+    private static long parseNonceCount(String nc) {
+        if (nc == null || nc.length() != 8) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            int digit = Character.digit(nc.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Check the response of the credentials, as computed by RFC 2617 and RFC
+     * 7616. Either the hashed password or the password is given.
+     */
+    private boolean isResponseValid(Hasher hasher, Request request,
+            AuthorizationHeader authHeader, String hashedPassword, String password) {
         String realm = authHeader.getRealm();
         String username = authHeader.getUsername();
-      
-        if ( username == null || realm == null ) {
+        String nonce = authHeader.getNonce();
+        String response = authHeader.getResponse();
+        if (username == null || realm == null || nonce == null || response == null) {
             return false;
         }
-       
-        String nonce = authHeader.getNonce();
         URI uri = authHeader.getURI();
         if (uri == null) {
             return false;
         }
-        
+        String qop = authHeader.getQop();
+        String cnonce = authHeader.getCNonce();
+        String nc = authHeader.getParameter("nc");
+        boolean integrity = false;
+        if (qop != null) {
+            integrity = qop.equalsIgnoreCase("auth-int");
+            if (!integrity && !qop.equalsIgnoreCase("auth")) {
+                return false;
+            }
+            if (cnonce == null || nc == null) {
+                return false;
+            }
+        }
 
-      
-        String A2 = request.getMethod().toUpperCase() + ":" + uri.toString();
-        String HA1 = hashedPassword;
+        byte[] ha1 = hasher.ha1;
+        if (hashedPassword != null) {
+            if (hashedPassword.length() != ha1.length) {
+                return false;
+            }
+            for (int i = 0; i < ha1.length; i++) {
+                ha1[i] = (byte) Character.toLowerCase(hashedPassword.charAt(i));
+            }
+        } else {
+            hasher.update(username);
+            hasher.update(':');
+            hasher.update(realm);
+            hasher.update(':');
+            hasher.update(password);
+            hasher.finish(ha1);
+        }
+        if (this.session) {
+            if (cnonce == null) {
+                return false;
+            }
+            hasher.digest.update(ha1);
+            hasher.update(':');
+            hasher.update(nonce);
+            hasher.update(':');
+            hasher.update(cnonce);
+            hasher.finish(ha1);
+        }
 
-       
-        byte[] mdbytes = messageDigest.digest(A2.getBytes());
-        String HA2 = toHexString(mdbytes);
-      
-        String cnonce = authHeader.getCNonce();
-        String KD = HA1 + ":" + nonce;
-        if (cnonce != null) {
-            KD += ":" + cnonce;
+        byte[] ha2 = hasher.ha2;
+        if (integrity) {
+            byte[] content = request.getRawContent();
+            if (content != null) {
+                hasher.digest.update(content);
+            }
+            hasher.finish(ha2);
         }
-        KD += ":" + HA2;
-        mdbytes = messageDigest.digest(KD.getBytes());
-        String mdString = toHexString(mdbytes);
-        String response = authHeader.getResponse();
-       
+        hasher.update(request.getMethod());
+        hasher.update(':');
+        hasher.update(uri.toString());
+        if (integrity) {
+            hasher.update(':');
+            hasher.digest.update(ha2);
+        }
+        hasher.finish(ha2);
 
-        return mdString.equals(response);
+        hasher.digest.update(ha1);
+        hasher.update(':');
+        hasher.update(nonce);
+        hasher.update(':');
+        if (qop != null) {
+            hasher.update(nc);
+            hasher.update(':');
+            hasher.update(cnonce);
+            hasher.update(':');
+            hasher.update(qop);
+            hasher.update(':');
+        }
+        hasher.digest.update(ha2);
+        hasher.finish(hasher.response);
+        return hasher.matches(response);
     }
 
     /**
-     * Authenticate the inbound request given plain text password.
+     * Authenticate the inbound request. Only the response is checked, not the
+     * nonce, see {@link #authenticateHashedPassword(Request, String)}.
+     *
+     * @param request - the request to authenticate.
+     * @param hashedPassword -- the MD5 hashed string of username:realm:plaintext password.
+     * 
+     * @return true if authentication succeded and false otherwise.
+     */
+    public boolean doAuthenticateHashedPassword(Request request, String hashedPassword) {
+        ProxyAuthorizationHeader authHeader = (ProxyAuthorizationHeader) request.getHeader(ProxyAuthorizationHeader.NAME);
+        if ( authHeader == null ) return false;
+        return isResponseValid(this.hashers.get(), request, authHeader, hashedPassword, null);
+    }
+
+    /**
+     * Authenticate the inbound request given plain text password. Only the
+     * response is checked, not the nonce, see
+     * {@link #authenticatePlainTextPassword(Request, String)}.
      *
      * @param request - the request to authenticate.
      * @param pass -- the plain text password.
@@ -170,44 +602,139 @@ public class DigestServerAuthenticationHelper  {
      */
     public boolean doAuthenticatePlainTextPassword(Request request, String pass) {
         ProxyAuthorizationHeader authHeader = (ProxyAuthorizationHeader) request.getHeader(ProxyAuthorizationHeader.NAME);
-       
         if ( authHeader == null ) return false;
-        String realm = authHeader.getRealm();
-        String username = authHeader.getUsername();
-      
-   
-        if ( username == null || realm == null ) {
-            return false;
+        return isResponseValid(this.hashers.get(), request, authHeader, null, pass);
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
         }
-        
+    }
 
-        String nonce = authHeader.getNonce();
-        URI uri = authHeader.getURI();
-        if (uri == null) {
-           return false;
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
         }
-        
+        return value;
+    }
 
-        String A1 = username + ":" + realm + ":" + pass;
-        String A2 = request.getMethod().toUpperCase() + ":" + uri.toString();
-        byte mdbytes[] = messageDigest.digest(A1.getBytes());
-        String HA1 = toHexString(mdbytes);
+    /**
+     * The digest and the buffers of one thread, nothing here is allocated
+     * per request.
+     */
+    private static final class Hasher {
 
-       
-        mdbytes = messageDigest.digest(A2.getBytes());
-        String HA2 = toHexString(mdbytes);
-      
-        String cnonce = authHeader.getCNonce();
-        String KD = HA1 + ":" + nonce;
-        if (cnonce != null) {
-            KD += ":" + cnonce;
+        final MessageDigest digest;
+
+        final Mac mac;
+
+        // The digest of the last finish.
+        final byte[] raw;
+
+        // The hex digests of A1, A2 and of the response.
+        final byte[] ha1;
+
+        final byte[] ha2;
+
+        final byte[] response;
+
+        final byte[] nonce = new byte[PAYLOAD_LENGTH + TAG_LENGTH];
+
+        // The signature of the last sign.
+        final byte[] tag;
+
+        private byte[] chars = new byte[128];
+
+        Hasher(String digestAlgorithm, SecretKeySpec key) throws GeneralSecurityException {
+            this.digest = MessageDigest.getInstance(digestAlgorithm);
+            this.mac = Mac.getInstance(HMAC_ALGORITHM);
+            this.mac.init(key);
+            this.raw = new byte[this.digest.getDigestLength()];
+            this.ha1 = new byte[2 * this.raw.length];
+            this.ha2 = new byte[2 * this.raw.length];
+            this.response = new byte[2 * this.raw.length];
+            this.tag = new byte[this.mac.getMacLength()];
+        }
+
+        /**
+         * Put the UTF-8 bytes of a string in the chars buffer.
+         *
+         * @return their number.
+         */
+        private int encode(String s) {
+            int length = s.length();
+            if (length > this.chars.length) {
+                this.chars = new byte[Math.max(length, 2 * this.chars.length)];
+            }
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    byte[] bytes = s.getBytes(UTF8);
+                    if (bytes.length > this.chars.length) {
+                        this.chars = new byte[bytes.length];
+                    }
+                    System.arraycopy(bytes, 0, this.chars, 0, bytes.length);
+                    return bytes.length;
+                }
+                this.chars[i] = (byte) c;
+            }
+            return length;
+        }
+
+        void update(String s) {
+            this.digest.update(this.chars, 0, encode(s));
+        }
+
+        void update(char c) {
+            this.digest.update((byte) c);
+        }
+
+        /**
+         * Complete the digest and write it in lower case hex to the buffer.
+         */
+        void finish(byte[] hex) {
+            try {
+                this.digest.digest(this.raw, 0, this.raw.length);
+            } catch (DigestException ex) {
+                InternalErrorHandler.handleException(ex);
+            }
+            int pos = 0;
+            for (int i = 0; i < this.raw.length; i++) {
+                hex[pos++] = (byte) toHex[(this.raw[i] >> 4) & 0x0F];
+                hex[pos++] = (byte) toHex[this.raw[i] & 0x0f];
+            }
+        }
+
+        /**
+         * Sign the payload of a nonce and the realm into the tag buffer.
+         */
+        void sign(byte[] nonce, String realm) {
+            this.mac.update(nonce, 0, PAYLOAD_LENGTH);
+            this.mac.update(this.chars, 0, encode(realm));
+            try {
+                this.mac.doFinal(this.tag, 0);
+            } catch (GeneralSecurityException ex) {
+                InternalErrorHandler.handleException(ex);
+            }
+        }
+
+        /**
+         * Compare the response buffer with the response of the client, in
+         * time that does not depend on where they differ.
+         */
+        boolean matches(String value) {
+            if (value.length() != this.response.length) {
+                return false;
+            }
+            int diff = 0;
+            for (int i = 0; i < this.response.length; i++) {
+                diff |= this.response[i] ^ Character.toLowerCase(value.charAt(i));
+            }
+            return diff == 0;
         }
-        KD += ":" + HA2;
-        mdbytes = messageDigest.digest(KD.getBytes());
-        String mdString = toHexString(mdbytes);
-        String response = authHeader.getResponse();
-        return mdString.equals(response);
-        
     }
 
 }
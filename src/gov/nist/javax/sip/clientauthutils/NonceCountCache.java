@@ -0,0 +1,211 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.clientauthutils;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the nonce counts (the nc parameter of RFC 2617) that were already
+ * accepted for each nonce so that a replayed Authorization header is refused.
+ * <p>
+ * The counts of a nonce are kept in a single long: the highest count seen in
+ * the upper 32 bits and, in the lower 32 bits, one bit for each of the 32
+ * counts below and including it. A count above the highest slides the window,
+ * a count inside the window is accepted once, an older count is refused. The
+ * long is updated with compare and set, so threads checking different nonces
+ * or the same nonce never wait for each other.
+ * <p>
+ * An entry is only needed while its nonce is valid, expired nonces are
+ * refused before the cache is looked at. Once the cache holds more entries
+ * than its maximum, expired entries are removed and, if that is not enough,
+ * the oldest ones too. Removing an entry of a nonce that is still valid would
+ * forget its counts, so the time stamp of the newest entry removed that way is
+ * kept and nonces issued before it are treated as expired from then on.
+ */
+final class NonceCountCache {
+
+    private static final int WINDOW = 32;
+
+    /**
+     * The counts of one nonce.
+     */
+    private static final class Entry extends AtomicLong {
+
+        private static final long serialVersionUID = 1L;
+
+        final long timeStamp;
+
+        Entry(long timeStamp) {
+            this.timeStamp = timeStamp;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries =
+        new ConcurrentHashMap<String, Entry>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    private final int maxEntries;
+
+    // Nonces issued at or before this time may have lost their entry.
+    private volatile long evictedBefore = Long.MIN_VALUE;
+
+    /**
+     * @param maxEntries the number of nonces to keep counts for.
+     */
+    NonceCountCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Bad cache size " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Return true if the counts of the nonces issued at the given time may
+     * have been removed to make room, in which case the nonce should be
+     * treated as stale.
+     */
+    boolean isEvicted(long timeStamp) {
+        return timeStamp <= this.evictedBefore;
+    }
+
+    /**
+     * Accept a nonce count.
+     *
+     * @param nonce the nonce.
+     * @param timeStamp when the nonce was issued.
+     * @param nonceCount the count, from 1 to 0xffffffff.
+     * @param expiredBefore nonces issued before this time are expired, used
+     *            when the cache has to make room.
+     * @return false if the count was seen before for this nonce, or is too far
+     *         below the highest count seen to tell.
+     */
+    boolean accept(String nonce, long timeStamp, long nonceCount, long expiredBefore) {
+        Entry entry = this.entries.get(nonce);
+        if (entry == null) {
+            Entry newEntry = new Entry(timeStamp);
+            entry = this.entries.putIfAbsent(nonce, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+                if (this.size.incrementAndGet() > this.maxEntries) {
+                    sweep(expiredBefore);
+                }
+            }
+        }
+        while (true) {
+            long state = entry.get();
+            long highest = state >>> WINDOW;
+            long bits = state & 0xffffffffL;
+            long newState;
+            if (nonceCount > highest) {
+                long shift = nonceCount - highest;
+                bits = shift >= WINDOW ? 1 : ((bits << shift) | 1) & 0xffffffffL;
+                newState = (nonceCount << WINDOW) | bits;
+            } else if (highest - nonceCount >= WINDOW) {
+                return false;
+            } else {
+                long bit = 1L << (highest - nonceCount);
+                if ((bits & bit) != 0) {
+                    return false;
+                }
+                newState = state | bit;
+            }
+            if (entry.compareAndSet(state, newState)) {
+                break;
+            }
+        }
+        // The entry may have been swept while it was used, in which case the
+        // counts are lost and the nonce is refused from now on.
+        return !isEvicted(timeStamp);
+    }
+
+    /**
+     * Return the number of nonces the cache holds counts for.
+     */
+    int size() {
+        return this.size.get();
+    }
+
+    private void sweep(long expiredBefore) {
+        if (!this.sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator(); it
+                    .hasNext();) {
+                Map.Entry<String, Entry> mapEntry = it.next();
+                if (mapEntry.getValue().timeStamp < expiredBefore) {
+                    remove(mapEntry);
+                }
+            }
+            int excess = this.size.get() - this.maxEntries * 3 / 4;
+            if (excess <= 0) {
+                return;
+            }
+            long[] timeStamps = new long[this.size.get() + 16];
+            int count = 0;
+            for (Entry entry : this.entries.values()) {
+                if (count == timeStamps.length) {
+                    break;
+                }
+                timeStamps[count++] = entry.timeStamp;
+            }
+            if (count == 0) {
+                return;
+            }
+            Arrays.sort(timeStamps, 0, count);
+            long cutoff = timeStamps[Math.min(excess, count) - 1];
+            // Set before removing so that a nonce whose entry is gone is
+            // never taken for a new one.
+            if (cutoff > this.evictedBefore) {
+                this.evictedBefore = cutoff;
+            }
+            for (Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator(); it
+                    .hasNext();) {
+                Map.Entry<String, Entry> mapEntry = it.next();
+                if (mapEntry.getValue().timeStamp <= cutoff) {
+                    remove(mapEntry);
+                }
+            }
+        } finally {
+            this.sweeping.set(false);
+        }
+    }
+
+    private void remove(Map.Entry<String, Entry> mapEntry) {
+        if (this.entries.remove(mapEntry.getKey(), mapEntry.getValue())) {
+            this.size.decrementAndGet();
+        }
+    }
+}
@@ -27,6 +27,7 @@
  * Product of NIST/ITL Advanced Networking Technologies Division (ANTD).     *
  *****************************************************************************/
 package gov.nist.javax.sip.header;
+import gov.nist.core.FieldLayout;
 import gov.nist.core.GenericObject;
 import gov.nist.core.GenericObjectList;
 import gov.nist.core.InternalErrorHandler;
@@ -49,6 +50,10 @@ import java.lang.reflect.Modifier;
 
 public abstract class SIPObject extends GenericObject {
 
+    /** Fields compared by equals and match, up to those of SIPObject. */
+    private static final FieldLayout.Cache equalsLayouts =
+        new FieldLayout.Cache(SIPObject.class);
+
     /** default Constructor
      */
     protected SIPObject() {
@@ -83,75 +88,26 @@ public abstract class SIPObject extends GenericObject {
         if (!this.getClass().equals(other.getClass()))
             return false;
         SIPObject that = (SIPObject) other;
-        Class myclass = this.getClass();
-        Class hisclass = other.getClass();
-        while (true) {
-            Field[] fields = myclass.getDeclaredFields();
-            if (!hisclass.equals(myclass))
-                return false;
-            Field[] hisfields = hisclass.getDeclaredFields();
-            for (int i = 0; i < fields.length; i++) {
-                Field f = fields[i];
-                Field g = hisfields[i];
-                // Only print protected and public members.
-                int modifier = f.getModifiers();
-                if ((modifier & Modifier.PRIVATE) == Modifier.PRIVATE)
-                    continue;
-                Class fieldType = f.getType();
-                String fieldName = f.getName();
-                if (fieldName.compareTo("stringRepresentation") == 0) {
+        FieldLayout layout = equalsLayouts.getLayout(this.getClass());
+        try {
+            for (int i = 0; i < layout.size(); i++) {
+                if (layout.getKind(i) != FieldLayout.OBJECT) {
+                    if (!layout.primitiveEquals(i, this, that))
+                        return false;
                     continue;
                 }
-                if (fieldName.compareTo("indentation") == 0) {
+                Field f = layout.getField(i);
+                Object myObj = f.get(this);
+                Object hisObj = f.get(that);
+                if (hisObj == myObj)
                     continue;
-                }
-                try {
-                    // Primitive fields are printed with type: value
-                    if (fieldType.isPrimitive()) {
-                        String fname = fieldType.toString();
-                        if (fname.compareTo("int") == 0) {
-                            if (f.getInt(this) != g.getInt(that))
-                                return false;
-                        } else if (fname.compareTo("short") == 0) {
-                            if (f.getShort(this) != g.getShort(that))
-                                return false;
-                        } else if (fname.compareTo("char") == 0) {
-                            if (f.getChar(this) != g.getChar(that))
-                                return false;
-                        } else if (fname.compareTo("long") == 0) {
-                            if (f.getLong(this) != g.getLong(that))
-                                return false;
-                        } else if (fname.compareTo("boolean") == 0) {
-                            if (f.getBoolean(this) != g.getBoolean(that))
-                                return false;
-                        } else if (fname.compareTo("double") == 0) {
-                            if (f.getDouble(this) != g.getDouble(that))
-                                return false;
-                        } else if (fname.compareTo("float") == 0) {
-                            if (f.getFloat(this) != g.getFloat(that))
-                                return false;
-                        }
-                    } else if (g.get(that) == f.get(this))
-                        continue;
-                    else if (f.get(this) == null && g.get(that) != null)
-                        return false;
-                    else if (g.get(that) == null && f.get(this) != null)
-                        return false;
-                    else if (!f.get(this).equals(g.get(that)))
-                        return false;
-                } catch (IllegalAccessException ex1) {
-                    System.out.println("accessed field " + fieldName);
-                    System.out.println("modifier  " + modifier);
-                    System.out.println("modifier.private  " + Modifier.PRIVATE);
-                    InternalErrorHandler.handleException(ex1);
-                }
-            }
-            if (myclass.equals(SIPObject.class))
-                break;
-            else {
-                myclass = myclass.getSuperclass();
-                hisclass = hisclass.getSuperclass();
+                else if (myObj == null || hisObj == null)
+                    return false;
+                else if (!myObj.equals(hisObj))
+                    return false;
             }
+        } catch (IllegalAccessException ex1) {
+            InternalErrorHandler.handleException(ex1);
         }
         return true;
     }
@@ -176,106 +132,53 @@ public abstract class SIPObject extends GenericObject {
         if (!this.getClass().equals(other.getClass()))
             return false;
         GenericObject that = (GenericObject) other;
-        Class myclass = this.getClass();
-        Class hisclass = other.getClass();
-        while (true) {
-            Field[] fields = myclass.getDeclaredFields();
-            Field[] hisfields = hisclass.getDeclaredFields();
-            for (int i = 0; i < fields.length; i++) {
-                Field f = fields[i];
-                Field g = hisfields[i];
-                // Only print protected and public members.
-                int modifier = f.getModifiers();
-                if ((modifier & Modifier.PRIVATE) == Modifier.PRIVATE)
-                    continue;
-                Class fieldType = f.getType();
-                String fieldName = f.getName();
-                if (fieldName.compareTo("stringRepresentation") == 0) {
+        FieldLayout layout = equalsLayouts.getLayout(this.getClass());
+        try {
+            for (int i = 0; i < layout.size(); i++) {
+                int kind = layout.getKind(i);
+                if (kind == FieldLayout.OTHER) {
+                    InternalErrorHandler.handleException("unknown type");
+                } else if (kind != FieldLayout.OBJECT) {
+                    if (!layout.primitiveEquals(i, this, that))
+                        return false;
                     continue;
                 }
-                if (fieldName.compareTo("indentation") == 0) {
+                Field f = layout.getField(i);
+                Object myObj = f.get(this);
+                Object hisObj = f.get(that);
+                if (hisObj != null && myObj == null)
+                    return false;
+                else if (hisObj == null)
                     continue;
-                }
-                try {
-                    if (fieldType.isPrimitive()) {
-                        String fname = fieldType.toString();
-                        if (fname.compareTo("int") == 0) {
-                            if (f.getInt(this) != g.getInt(that))
-                                return false;
-                        } else if (fname.compareTo("short") == 0) {
-                            if (f.getShort(this) != g.getShort(that))
-                                return false;
-                        } else if (fname.compareTo("char") == 0) {
-                            if (f.getChar(this) != g.getChar(that))
-                                return false;
-                        } else if (fname.compareTo("long") == 0) {
-                            if (f.getLong(this) != g.getLong(that))
-                                return false;
-                        } else if (fname.compareTo("boolean") == 0) {
-                            if (f.getBoolean(this) != g.getBoolean(that))
-                                return false;
-                        } else if (fname.compareTo("double") == 0) {
-                            if (f.getDouble(this) != g.getDouble(that))
-                                return false;
-                        } else if (fname.compareTo("float") == 0) {
-                            if (f.getFloat(this) != g.getFloat(that))
-                                return false;
-                        } else {
-                            InternalErrorHandler.handleException(
-                                "unknown type");
-                        }
-                    } else {
-                        Object myObj = f.get(this);
-                        Object hisObj = g.get(that);
-                        if (hisObj != null && myObj == null)
-                            return false;
-                        else if (hisObj == null && myObj != null)
-                            continue;
-                        else if (hisObj == null && myObj == null)
-                            continue;
-                        else if (
-                            hisObj instanceof java.lang.String
-                                && myObj instanceof java.lang.String) {
-                            if ((((String) hisObj).trim()).equals(""))
-                                continue;
-                            if (((String) myObj)
-                                .compareToIgnoreCase((String) hisObj)
-                                != 0)
-                                return false;
-                        } else if (
-                            hisObj != null
-                                && GenericObject.isMySubclass(myObj.getClass())
-                                && GenericObject.isMySubclass(hisObj.getClass())
-                                && myObj.getClass().equals(hisObj.getClass())
-                                && ((GenericObject) hisObj).getMatcher()
-                                    != null) {
-                            String myObjEncoded =
-                                ((GenericObject) myObj).encode();
-                            boolean retval =
-                                ((GenericObject) hisObj).getMatcher().match(
-                                    myObjEncoded);
-                            if (!retval)
-                                return false;
-                        } else if (
-                            GenericObject.isMySubclass(myObj.getClass())
-                                && !((GenericObject) myObj).match(hisObj))
-                            return false;
-                        else if (
-                            GenericObjectList.isMySubclass(myObj.getClass())
-                                && !((GenericObjectList) myObj).match(hisObj))
-                            return false;
-
-                    }
-                } catch (IllegalAccessException ex1) {
-                    InternalErrorHandler.handleException(ex1);
-                }
-            }
-            if (myclass.equals(SIPObject.class))
-                break;
-            else {
-                myclass = myclass.getSuperclass();
-                hisclass = hisclass.getSuperclass();
+                else if (
+                    hisObj instanceof java.lang.String
+                        && myObj instanceof java.lang.String) {
+                    if ((((String) hisObj).trim()).equals(""))
+                        continue;
+                    if (((String) myObj)
+                        .compareToIgnoreCase((String) hisObj)
+                        != 0)
+                        return false;
+                } else if (
+                    myObj instanceof GenericObject
+                        && hisObj instanceof GenericObject
+                        && myObj.getClass().equals(hisObj.getClass())
+                        && ((GenericObject) hisObj).getMatcher() != null) {
+                    String myObjEncoded = ((GenericObject) myObj).encode();
+                    if (!((GenericObject) hisObj).getMatcher().match(
+                            myObjEncoded))
+                        return false;
+                } else if (
+                    myObj instanceof GenericObject
+                        && !((GenericObject) myObj).match(hisObj))
+                    return false;
+                else if (
+                    myObj instanceof GenericObjectList
+                        && !((GenericObjectList) myObj).match(hisObj))
+                    return false;
             }
+        } catch (IllegalAccessException ex1) {
+            InternalErrorHandler.handleException(ex1);
         }
         return true;
     }
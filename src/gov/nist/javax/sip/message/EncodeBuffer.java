@@ -0,0 +1,177 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.message;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * A growable byte buffer that messages are encoded into for transmission.
+ * Each thread keeps one buffer that is reused from one message to the next,
+ * so that encoding a message does not allocate intermediate strings and
+ * arrays. Use {@link #acquire()} to get a buffer and {@link #release()} when
+ * the bytes have been written out. The bytes are only valid until the buffer
+ * is released.
+ *
+ * @version 1.2
+ */
+public final class EncodeBuffer {
+
+    private static final int INITIAL_SIZE = 2048;
+
+    /**
+     * Buffers that grew past this size (large bodies) are not kept in the
+     * pool, so that a single large message does not pin memory for the
+     * thread.
+     */
+    private static final int MAX_POOLED_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<EncodeBuffer> pool = new ThreadLocal<EncodeBuffer>();
+
+    private byte[] bytes;
+
+    private int length;
+
+    private final StringBuilder text = new StringBuilder(512);
+
+    private final boolean pooled;
+
+    private boolean inUse;
+
+    private EncodeBuffer(boolean pooled) {
+        this.bytes = new byte[INITIAL_SIZE];
+        this.pooled = pooled;
+    }
+
+    /**
+     * Get the buffer of the calling thread. If that buffer is already in use
+     * (a message encoded while encoding another one), a buffer that is not
+     * pooled is returned.
+     */
+    public static EncodeBuffer acquire() {
+        EncodeBuffer buffer = pool.get();
+        if (buffer == null) {
+            buffer = new EncodeBuffer(true);
+            pool.set(buffer);
+        } else if (buffer.inUse) {
+            buffer = new EncodeBuffer(false);
+        }
+        buffer.inUse = true;
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * Give the buffer back to the thread that acquired it.
+     */
+    public void release() {
+        if (!pooled)
+            return;
+        inUse = false;
+        if (bytes.length > MAX_POOLED_SIZE) {
+            pool.remove();
+        } else {
+            length = 0;
+            text.setLength(0);
+        }
+    }
+
+    public void reset() {
+        length = 0;
+        text.setLength(0);
+    }
+
+    /**
+     * Scratch builder for the text of the message. It is not part of the
+     * bytes until it is appended with {@link #appendText(CharSequence, String)}.
+     */
+    public StringBuilder getText() {
+        return text;
+    }
+
+    public void append(byte[] b) {
+        append(b, 0, b.length);
+    }
+
+    public void append(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, bytes, length, len);
+        length += len;
+    }
+
+    /**
+     * Append the characters encoded in the given charset. US-ASCII text in
+     * UTF-8 (the usual case for SIP headers) is copied without going through
+     * the charset encoder.
+     */
+    public void appendText(CharSequence chars, String charset)
+            throws UnsupportedEncodingException {
+        int count = chars.length();
+        if (!"UTF-8".equalsIgnoreCase(charset)) {
+            append(chars.toString().getBytes(charset));
+            return;
+        }
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            char c = chars.charAt(i);
+            if (c >= 0x80) {
+                append(chars.subSequence(i, count).toString().getBytes("UTF-8"));
+                return;
+            }
+            bytes[length++] = (byte) c;
+        }
+    }
+
+    /**
+     * The backing array, valid from 0 to {@link #getLength()}.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public byte[] toByteArray() {
+        byte[] retval = new byte[length];
+        System.arraycopy(bytes, 0, retval, 0, length);
+        return retval;
+    }
+
+    public void writeTo(ByteBuffer target) {
+        target.put(bytes, 0, length);
+    }
+
+    private void ensureCapacity(int extra) {
+        int needed = length + extra;
+        if (needed > bytes.length) {
+            byte[] larger = new byte[Math.max(needed, bytes.length * 2)];
+            System.arraycopy(bytes, 0, larger, 0, length);
+            bytes = larger;
+        }
+    }
+}
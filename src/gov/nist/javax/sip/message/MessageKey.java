@@ -0,0 +1,178 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.message;
+
+import java.io.Serializable;
+
+/**
+ * A transaction, dialog or merge identifier used to look transactions and
+ * dialogs up in the tables of the stack. The identifier is kept as the bytes
+ * of its lower case form, with the hash code computed once, so that two keys
+ * built from values that differ only in the case of ASCII letters are equal.
+ * The key is immutable.
+ * <p>
+ * Keys are normally obtained from the message they identify, which computes
+ * them once and keeps them (see {@link SIPMessage#getTransactionKey()} and
+ * {@link SIPMessage#getDialogKey(boolean)}). {@link #valueOf(String)} turns
+ * an identifier given as a String into the equal key.
+ *
+ * @see gov.nist.javax.sip.stack.SIPTransactionStack
+ */
+public final class MessageKey implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] bytes;
+
+    private final int hash;
+
+    private MessageKey(byte[] bytes, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, 0, copy, 0, length);
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + copy[i];
+        }
+        this.bytes = copy;
+        this.hash = h;
+    }
+
+    /**
+     * Return the key for the given identifier, null if it is null.
+     */
+    public static MessageKey valueOf(String id) {
+        if (id == null)
+            return null;
+        return new Builder(id.length()).append(id).toKey();
+    }
+
+    /**
+     * Return true if the identifier starts with the given prefix, ignoring
+     * the case of ASCII letters.
+     */
+    public boolean startsWithIgnoreCase(String prefix) {
+        int length = prefix.length();
+        if (length > bytes.length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != lowerCase(prefix.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    public int hashCode() {
+        return hash;
+    }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof MessageKey))
+            return false;
+        MessageKey that = (MessageKey) other;
+        if (this.hash != that.hash || this.bytes.length != that.bytes.length)
+            return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if (this.bytes[i] != that.bytes[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return the identifier in lower case.
+     */
+    public String toString() {
+        char[] chars = new char[bytes.length];
+        int count = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (bytes[++i] & 0x3F));
+            } else {
+                int c = ((b & 0x0F) << 12) | ((bytes[++i] & 0x3F) << 6);
+                chars[count++] = (char) (c | (bytes[++i] & 0x3F));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static int lowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * Builds a key from the values it is made of without building the
+     * identifier as a String first. Other than ASCII characters, which
+     * identifiers are made of, are lower cased one by one and encoded as one
+     * to three bytes.
+     */
+    static final class Builder {
+
+        private byte[] buffer;
+
+        private int length;
+
+        Builder(int capacity) {
+            this.buffer = new byte[Math.max(capacity, 16)];
+        }
+
+        Builder append(char c) {
+            if (length + 3 > buffer.length) {
+                byte[] newBuffer = new byte[buffer.length * 2 + 3];
+                System.arraycopy(buffer, 0, newBuffer, 0, length);
+                buffer = newBuffer;
+            }
+            if (c < 0x80) {
+                buffer[length++] = (byte) lowerCase(c);
+            } else {
+                c = Character.toLowerCase(c);
+                if (c < 0x800) {
+                    buffer[length++] = (byte) (0xC0 | (c >> 6));
+                } else {
+                    buffer[length++] = (byte) (0xE0 | (c >> 12));
+                    buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                }
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+            return this;
+        }
+
+        Builder append(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                append(s.charAt(i));
+            }
+            return this;
+        }
+
+        MessageKey toKey() {
+            return new MessageKey(buffer, length);
+        }
+    }
+}
@@ -28,6 +28,7 @@
  ******************************************************************************/
 package gov.nist.javax.sip.message;
 
+import gov.nist.core.HostPort;
 import gov.nist.core.InternalErrorHandler;
 import gov.nist.core.Separators;
 import gov.nist.javax.sip.SIPConstants;
@@ -36,6 +37,7 @@ import gov.nist.javax.sip.header.AlertInfo;
 import gov.nist.javax.sip.header.Authorization;
 import gov.nist.javax.sip.header.CSeq;
 import gov.nist.javax.sip.header.CallID;
+import gov.nist.javax.sip.header.CallIdentifier;
 import gov.nist.javax.sip.header.Contact;
 import gov.nist.javax.sip.header.ContactList;
 import gov.nist.javax.sip.header.ContentLength;
@@ -78,12 +80,15 @@ import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
 import java.net.InetAddress;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -176,6 +181,13 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
     // Table of headers indexed by name.
     protected Map<String, SIPHeader> headerTable;
 
+    /**
+     * Headers received from the network that have not been parsed yet, in the order they were
+     * received. They are not in the header table: each is parsed and attached the first time a
+     * header of that name is asked for, and until then it is encoded exactly as received.
+     */
+    protected LinkedList<LazyHeader> lazyHeaders;
+
     /**
      * The application data pointer. This is un-interpreted by the stack. This is provided as a
      * convenient way of keeping book-keeping data for applications.
@@ -206,6 +218,60 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
       */
      private int localPort;
 
+    /**
+     * The time the message was read from the network, 0 for a message that
+     * was not received.
+     */
+    private long receptionTime;
+
+    /**
+     * The last transaction and dialog keys computed from this message, with
+     * the header values they were computed from. Header values are replaced,
+     * not changed, when the message is changed, so a key is reused for as
+     * long as its values are the same objects and its numbers are equal.
+     */
+    private transient KeyCache transactionKeyCache;
+
+    private transient KeyCache dialogKeyCache;
+
+    private static final class KeyCache {
+
+        final Object first;
+
+        final Object second;
+
+        final Object third;
+
+        final Object fourth;
+
+        final long number;
+
+        final MessageKey key;
+
+        KeyCache(Object first, Object second, Object third, boolean isServer, MessageKey key) {
+            this(first, second, third, null, isServer ? 1 : 0, key);
+        }
+
+        KeyCache(Object first, Object second, Object third, Object fourth, long number,
+                MessageKey key) {
+            this.first = first;
+            this.second = second;
+            this.third = third;
+            this.fourth = fourth;
+            this.number = number;
+            this.key = key;
+        }
+
+        boolean isFor(Object first, Object second, Object third, boolean isServer) {
+            return isFor(first, second, third, null, isServer ? 1 : 0);
+        }
+
+        boolean isFor(Object first, Object second, Object third, Object fourth, long number) {
+            return this.first == first && this.second == second && this.third == third
+                    && this.fourth == fourth && this.number == number;
+        }
+    }
+
     /**
      * Return true if the header belongs only in a Request.
      *
@@ -253,6 +319,14 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
                 retval.add(sipHeader.encode());
             }
         }
+        LinkedList<LazyHeader> lazy = this.lazyHeaders;
+        if (lazy != null) {
+            synchronized (lazy) {
+                for (LazyHeader lazyHeader : lazy) {
+                    retval.add(lazyHeader.text + NEWLINE);
+                }
+            }
+        }
 
         return retval;
     }
@@ -271,6 +345,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
             if (!(siphdr instanceof ContentLength))
                 siphdr.encode(encoding);
         }
+        encodeLazyHeaders(encoding);
 
         return contentLengthHeader.encode(encoding).append(NEWLINE);
     }
@@ -287,41 +362,57 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      * @param isServerTransaction is a flag that indicates whether this is a server transaction.
      */
     public final String getDialogId(boolean isServer) {
-        To to = (To) this.getTo();
-        return this.getDialogId( isServer, to.getTag() );
+        return getDialogKey(isServer).toString();
     }
 
     /**
      * Get a dialog id given the remote tag.
      */
     public final String getDialogId(boolean isServer, String toTag) {
-        From from = (From) this.getFrom();
-        CallID cid = (CallID) this.getCallId();
-        StringBuffer retval = new StringBuffer(cid.getCallId());
-        if (!isServer) {
-            // retval.append(COLON).append(from.getUserAtHostPort());
-            if (from.getTag() != null) {
-                retval.append(COLON);
-                retval.append(from.getTag());
-            }
-            // retval.append(COLON).append(to.getUserAtHostPort());
-            if (toTag != null) {
-                retval.append(COLON);
-                retval.append(toTag);
-            }
-        } else {
-            // retval.append(COLON).append(to.getUserAtHostPort());
-            if (toTag != null) {
-                retval.append(COLON);
-                retval.append(toTag);
-            }
-            // retval.append(COLON).append(from.getUserAtHostPort());
-            if (from.getTag() != null) {
-                retval.append(COLON);
-                retval.append(from.getTag());
-            }
+        return getDialogKey(isServer, toTag).toString();
+    }
+
+    /**
+     * Get the key of the dialog of this message, which is equal to the key of
+     * {@link #getDialogId(boolean)}. The key is computed once and reused
+     * until the Call-ID or the tags change.
+     *
+     * @param isServer is a flag that indicates whether this is a server transaction.
+     */
+    public final MessageKey getDialogKey(boolean isServer) {
+        To to = (To) this.getTo();
+        return this.getDialogKey(isServer, to.getTag());
+    }
+
+    /**
+     * Get the key of a dialog given the remote tag.
+     */
+    public final MessageKey getDialogKey(boolean isServer, String toTag) {
+        CallIdentifier cid = this.callIdHeader.getCallIdentifer();
+        String fromTag = ((From) this.getFrom()).getTag();
+        KeyCache cache = this.dialogKeyCache;
+        if (cache != null && cache.isFor(cid, fromTag, toTag, isServer)) {
+            return cache.key;
         }
-        return retval.toString().toLowerCase();
+        String localId = cid.getLocalId();
+        String host = cid.getHost();
+        MessageKey.Builder builder = new MessageKey.Builder(localId.length()
+                + (host == null ? 0 : host.length() + 1) + 40);
+        builder.append(localId);
+        if (host != null) {
+            builder.append('@').append(host);
+        }
+        String first = isServer ? toTag : fromTag;
+        String second = isServer ? fromTag : toTag;
+        if (first != null) {
+            builder.append(':').append(first);
+        }
+        if (second != null) {
+            builder.append(':').append(second);
+        }
+        MessageKey key = builder.toKey();
+        this.dialogKeyCache = new KeyCache(cid, fromTag, toTag, isServer, key);
+        return key;
     }
 
     /**
@@ -395,6 +486,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
         if (!template.getClass().equals(this.getClass()))
             throw new IllegalArgumentException("Bad class " + template.getClass());
         SIPMessage templateMessage = (SIPMessage) template;
+        templateMessage.parseLazyHeaders(null);
         Object[] templateHeaders = templateMessage.headers.toArray();
         for (int i = 0; i < templateHeaders.length; i++) {
             SIPHeader hdr = (SIPHeader) templateHeaders[i];
@@ -430,6 +522,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
             if (!(siphdr instanceof ContentLength))
                 siphdr.encode(encoding);
         }
+        encodeLazyHeaders(encoding);
         // Append the unrecognized headers. Headers that are not
         // recognized are passed through unchanged.
         if(unrecognizedHeaders != null) {
@@ -463,6 +556,9 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
         return encoding.toString();
     }
 
+    // Keepalive sent for a null request.
+    private static final byte[] NULL_REQUEST_BYTES = { '\r', '\n', '\r', '\n' };
+
     /**
      * Encode the message as a byte array. Use this when the message payload is a binary byte
      * array.
@@ -472,8 +568,26 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      *         byte array).
      */
     public byte[] encodeAsBytes(String transport) {
+        EncodeBuffer buffer = EncodeBuffer.acquire();
+        try {
+            encodeAsBytes(transport, buffer);
+            return buffer.toByteArray();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Encode the message into the given buffer, as {@link #encodeAsBytes(String)}
+     * does, without allocating the intermediate strings and arrays.
+     *
+     * @param transport the transport to set in the topmost Via header.
+     * @param buffer buffer the bytes are appended to.
+     */
+    public void encodeAsBytes(String transport, EncodeBuffer buffer) {
         if (this instanceof SIPRequest && ((SIPRequest) this).isNullRequest()) {
-            return "\r\n\r\n".getBytes();
+            buffer.append(NULL_REQUEST_BYTES);
+            return;
         }
         // JvB: added to fix case where application provides the wrong transport
         // in the topmost Via header
@@ -484,45 +598,44 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
             InternalErrorHandler.handleException(e);
         }
 
-        StringBuilder encoding = new StringBuilder();
-        synchronized (this.headers) {
-            Iterator<SIPHeader> it = this.headers.iterator();
+        StringBuilder encoding = buffer.getText();
+        try {
+            // The first line is always UTF-8, the headers use the charset of the body.
+            encoding.setLength(0);
+            encodeFirstLine(encoding);
+            buffer.appendText(encoding, "UTF-8");
 
-            while (it.hasNext()) {
-                SIPHeader siphdr = (SIPHeader) it.next();
-                if (!(siphdr instanceof ContentLength))
-                    siphdr.encode(encoding);
+            encoding.setLength(0);
+            synchronized (this.headers) {
+                Iterator<SIPHeader> it = this.headers.iterator();
 
+                while (it.hasNext()) {
+                    SIPHeader siphdr = (SIPHeader) it.next();
+                    if (!(siphdr instanceof ContentLength))
+                        siphdr.encode(encoding);
+
+                }
+                encodeLazyHeaders(encoding);
             }
+            contentLengthHeader.encode(encoding);
+            encoding.append(NEWLINE);
+            buffer.appendText(encoding, getCharset());
+        } catch (UnsupportedEncodingException ex) {
+            InternalErrorHandler.handleException(ex);
         }
-        contentLengthHeader.encode(encoding);
-        encoding.append(NEWLINE);
 
-        byte[] retval = null;
         byte[] content = this.getRawContent();
         if (content != null) {
             // Append the content
-
-            byte[] msgarray = null;
-            try {
-                msgarray = encoding.toString().getBytes( getCharset() );
-            } catch (UnsupportedEncodingException ex) {
-                InternalErrorHandler.handleException(ex);
-            }
-
-            retval = new byte[msgarray.length + content.length];
-            System.arraycopy(msgarray, 0, retval, 0, msgarray.length);
-            System.arraycopy(content, 0, retval, msgarray.length, content.length);
-        } else {
-            // Message content does not exist.
-
-            try {
-                retval = encoding.toString().getBytes( getCharset() );
-            } catch (UnsupportedEncodingException ex) {
-                InternalErrorHandler.handleException(ex);
-            }
+            buffer.append(content);
         }
-        return retval;
+    }
+
+    /**
+     * Encode the request or status line, with its trailing CRLF, for
+     * {@link #encodeAsBytes(String, EncodeBuffer)}.
+     */
+    protected void encodeFirstLine(StringBuilder buffer) {
     }
 
     /**
@@ -536,6 +649,33 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      * @return A cloned copy of this object.
      */
     public Object clone() {
+        return copyMessage(false);
+    }
+
+    /**
+     * Copy of the message handed to the receiving side when the stack sends a message to one
+     * of its own listening points. The headers the stack routes and matches on are cloned;
+     * the others are copied as text and only parsed if the receiving side asks for them. The
+     * two messages never share a header object, so either side may change its copy.
+     *
+     * @return a copy of this message.
+     */
+    public SIPMessage copyForSelfRouting() {
+        return copyMessage(true);
+    }
+
+    // Headers cloned by copyForSelfRouting, by lower case name.
+    private static final Set<String> SELF_ROUTING_CLONED_HEADERS = new HashSet<String>(
+            Arrays.asList(new String[] { "via", "from", "to", "cseq", "call-id",
+                    "max-forwards", "content-length", "content-type", "route", "record-route",
+                    "contact", "event", "rseq", "rack" }));
+
+    /**
+     * Copy the message and its headers.
+     *
+     * @param lazyCopy -- copy the headers the stack does not need to route the message as text.
+     */
+    protected SIPMessage copyMessage(boolean lazyCopy) {
         SIPMessage retval = (SIPMessage) super.clone();
         retval.headerTable = new ConcurrentHashMap<String, SIPHeader>();
         retval.fromHeader = null;
@@ -544,11 +684,25 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
         retval.callIdHeader = null;
         retval.contentLengthHeader = null;
         retval.maxForwardsHeader = null;
+        // The clone shares the list of the original, give it its own before
+        // any header is attached to it.
+        retval.lazyHeaders = null;
+        LinkedList<LazyHeader> lazy = this.lazyHeaders;
+        if (lazy != null) {
+            synchronized (lazy) {
+                retval.lazyHeaders = new LinkedList<LazyHeader>(lazy);
+            }
+        }
         if (this.headers != null) {
             retval.headers = new ConcurrentLinkedQueue<SIPHeader>();
             for (Iterator<SIPHeader> iter = headers.iterator(); iter.hasNext();) {
                 SIPHeader hdr = (SIPHeader) iter.next();
-                retval.attachHeader((SIPHeader) hdr.clone());
+                if (lazyCopy && !SELF_ROUTING_CLONED_HEADERS.contains(
+                        SIPHeaderNamesCache.toLowerCase(hdr.getName()))) {
+                    retval.copyLazyHeader(hdr);
+                } else {
+                    retval.attachHeader((SIPHeader) hdr.clone());
+                }
             }
 
         }
@@ -709,6 +863,8 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
         if (header == null) {
             throw new NullPointerException("null header");
         }
+        // Values of this header that are still unparsed go first.
+        parseLazyHeaders(SIPHeaderNamesCache.toLowerCase(header.getName()));
 
         SIPHeader h;
 
@@ -791,6 +947,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
     public void removeHeader(String headerName, boolean top) {
 
         String headerNameLowerCase = SIPHeaderNamesCache.toLowerCase(headerName);
+        parseLazyHeaders(headerNameLowerCase);
         SIPHeader toRemove = (SIPHeader) headerTable.get(headerNameLowerCase);
         // nothing to do then we are done.
         if (toRemove == null)
@@ -849,6 +1006,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
         if (headerName == null)
             throw new NullPointerException("null arg");
         String headerNameLowerCase = SIPHeaderNamesCache.toLowerCase(headerName);
+        removeLazyHeaders(headerNameLowerCase);
         SIPHeader removed = (SIPHeader) headerTable.remove(headerNameLowerCase);
         // nothing to do then we are done.
         if (removed == null)
@@ -895,52 +1053,96 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      *         response have the same computed transaction identifier).
      */
     public String getTransactionId() {
+        return getTransactionKey().toString();
+    }
+
+    /**
+     * Get the key of the transaction of this message, which is equal to the key of
+     * {@link #getTransactionId()}. The key is computed once and reused until the branch, or
+     * for an RFC 2543 client the fields it is made of, change.
+     */
+    public MessageKey getTransactionKey() {
         Via topVia = getTopmostVia();
-//        if (!this.getViaHeaders().isEmpty()) {
-//            topVia = (Via) this.getViaHeaders().getFirst();
-//        }
-        // Have specified a branch Identifier so we can use it to identify
-        // the transaction. BranchId is not case sensitive.
-        // Branch Id prefix is not case sensitive.
-        if (topVia != null
-                && topVia.getBranch() != null
-                && topVia.getBranch().toUpperCase().startsWith(
-                        SIPConstants.BRANCH_MAGIC_COOKIE_UPPER_CASE)) {
-            // Bis 09 compatible branch assignment algorithm.
-            // implies that the branch id can be used as a transaction
-            // identifier.
-            if (this.getCSeq().getMethod().equals(Request.CANCEL))
-                return (topVia.getBranch() + ":" + this.getCSeq().getMethod()).toLowerCase();
-            else
-                return topVia.getBranch().toLowerCase();
-        } else {
-            // Old style client so construct the transaction identifier
-            // from various fields of the request.
-            StringBuilder retval = new StringBuilder();
-            From from = (From) this.getFrom();
-            To to = (To) this.getTo();
-            // String hpFrom = from.getUserAtHostPort();
-            // retval.append(hpFrom).append(":");
-            if (from.hasTag())
-                retval.append(from.getTag()).append("-");
-            // String hpTo = to.getUserAtHostPort();
-            // retval.append(hpTo).append(":");
-            String cid = this.callIdHeader.getCallId();
-            retval.append(cid).append("-");
-            retval.append(this.cSeqHeader.getSequenceNumber()).append("-").append(
-                    this.cSeqHeader.getMethod());
-            if (topVia != null) {
-                retval.append("-").append(topVia.getSentBy().encode());
-                if (!topVia.getSentBy().hasPort()) {
-                    retval.append("-").append(5060);
-                }
-            }
-            if (this.getCSeq().getMethod().equals(Request.CANCEL)) {
-                retval.append(Request.CANCEL);
+        if (!hasRfc3261Branch(topVia)) {
+            return getRfc2543TransactionKey(topVia);
+        }
+        String branch = topVia.getBranch();
+        String method = this.getCSeq().getMethod();
+        KeyCache cache = this.transactionKeyCache;
+        if (cache != null && cache.isFor(branch, method, null, false)) {
+            return cache.key;
+        }
+        // Bis 09 compatible branch assignment algorithm.
+        // implies that the branch id can be used as a transaction
+        // identifier.
+        MessageKey.Builder builder = new MessageKey.Builder(branch.length() + 7);
+        builder.append(branch);
+        if (method.equals(Request.CANCEL)) {
+            builder.append(':').append(method);
+        }
+        MessageKey key = builder.toKey();
+        this.transactionKeyCache = new KeyCache(branch, method, null, false, key);
+        return key;
+    }
+
+    /**
+     * Have specified a branch Identifier so we can use it to identify the transaction. BranchId
+     * is not case sensitive. Branch Id prefix is not case sensitive.
+     */
+    private static boolean hasRfc3261Branch(Via topVia) {
+        String branch = topVia == null ? null : topVia.getBranch();
+        return branch != null && branch.regionMatches(true, 0,
+                SIPConstants.BRANCH_MAGIC_COOKIE, 0, SIPConstants.BRANCH_MAGIC_COOKIE.length());
+    }
+
+    /**
+     * Old style client so construct the transaction identifier from various fields of the
+     * request, with ':' and '@' turned into '-'.
+     */
+    private MessageKey getRfc2543TransactionKey(Via topVia) {
+        String fromTag = ((From) this.getFrom()).getTag();
+        CallIdentifier cid = this.callIdHeader.getCallIdentifer();
+        String method = this.cSeqHeader.getMethod();
+        HostPort sentBy = topVia == null ? null : topVia.getSentBy();
+        String host = sentBy == null ? null : sentBy.getHost().getHostname();
+        // the sequence number fits in 32 bits and the port, plus one, in 17
+        long number = (this.cSeqHeader.getSeqNumber() << 17)
+                | (sentBy == null ? 0 : sentBy.getPort() + 1);
+        KeyCache cache = this.transactionKeyCache;
+        if (cache != null && cache.isFor(fromTag, cid, method, host, number)) {
+            return cache.key;
+        }
+        MessageKey.Builder builder = new MessageKey.Builder(128);
+        if (fromTag != null)
+            appendRfc2543(builder, fromTag).append('-');
+        appendRfc2543(builder, cid.getLocalId());
+        if (cid.getHost() != null) {
+            appendRfc2543(builder.append('-'), cid.getHost());
+        }
+        builder.append('-').append(String.valueOf(this.cSeqHeader.getSeqNumber())).append('-');
+        appendRfc2543(builder, method);
+        if (sentBy != null) {
+            builder.append('-');
+            appendRfc2543(builder, sentBy.encode());
+            if (!sentBy.hasPort()) {
+                builder.append('-').append("5060");
             }
-            return retval.toString().toLowerCase().replace(":", "-").replace("@", "-")
-                    + Utils.getSignature();
         }
+        if (method.equals(Request.CANCEL)) {
+            builder.append(Request.CANCEL);
+        }
+        builder.append(Utils.getSignature());
+        MessageKey key = builder.toKey();
+        this.transactionKeyCache = new KeyCache(fromTag, cid, method, host, number, key);
+        return key;
+    }
+
+    private static MessageKey.Builder appendRfc2543(MessageKey.Builder builder, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            builder.append(c == ':' || c == '@' ? '-' : c);
+        }
+        return builder;
     }
 
     /**
@@ -969,6 +1171,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      * @return an Iterator for the headers of this message.
      */
     public Iterator<SIPHeader> getHeaders() {
+        parseLazyHeaders(null);
         return headers.iterator();
     }
 
@@ -984,6 +1187,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
     protected Header getHeaderLowerCase(String lowerCaseHeaderName) {
         if (lowerCaseHeaderName == null)
             throw new NullPointerException("bad name");
+        parseLazyHeaders(lowerCaseHeaderName);
         SIPHeader sipHeader = (SIPHeader) headerTable.get(lowerCaseHeaderName);
         if (sipHeader instanceof SIPHeaderList)
             return (Header) ((SIPHeaderList) sipHeader).getFirst();
@@ -1464,8 +1668,9 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
     public ListIterator<SIPHeader> getHeaders(String headerName) {
         if (headerName == null)
             throw new NullPointerException("null headerName");
-        SIPHeader sipHeader = (SIPHeader) headerTable.get(SIPHeaderNamesCache
-                .toLowerCase(headerName));
+        String headerNameLowerCase = SIPHeaderNamesCache.toLowerCase(headerName);
+        parseLazyHeaders(headerNameLowerCase);
+        SIPHeader sipHeader = (SIPHeader) headerTable.get(headerNameLowerCase);
         // empty iterator
         if (sipHeader == null)
             return new LinkedList<SIPHeader>().listIterator();
@@ -1485,6 +1690,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      */
     public String getHeaderAsFormattedString(String name) {
         String lowerCaseName = SIPHeaderNamesCache.toLowerCase(name);
+        parseLazyHeaders(lowerCaseName);
         if (this.headerTable.containsKey(lowerCaseName)) {
             return this.headerTable.get(lowerCaseName).toString();
         } else {
@@ -1493,6 +1699,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
     }
 
     public SIPHeader getSIPHeaderListLowerCase(String lowerCaseHeaderName) {
+        parseLazyHeaders(lowerCaseHeaderName);
         return headerTable.get(lowerCaseHeaderName);
     }
 
@@ -1504,8 +1711,9 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      */
     @SuppressWarnings("unchecked")
     private List<SIPHeader> getHeaderList(String headerName) {
-        SIPHeader sipHeader = (SIPHeader) headerTable.get(SIPHeaderNamesCache
-                .toLowerCase(headerName));
+        String headerNameLowerCase = SIPHeaderNamesCache.toLowerCase(headerName);
+        parseLazyHeaders(headerNameLowerCase);
+        SIPHeader sipHeader = (SIPHeader) headerTable.get(headerNameLowerCase);
         if (sipHeader == null)
             return null;
         else if (sipHeader instanceof SIPHeaderList)
@@ -1524,7 +1732,8 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      * @return true if the header is present in the message
      */
     public boolean hasHeader(String headerName) {
-        return headerTable.containsKey(SIPHeaderNamesCache.toLowerCase(headerName));
+        String headerNameLowerCase = SIPHeaderNamesCache.toLowerCase(headerName);
+        return headerTable.containsKey(headerNameLowerCase) || hasLazyHeader(headerNameLowerCase);
     }
 
     /**
@@ -1625,6 +1834,131 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
         this.getUnrecognizedHeadersList().add(unparsed);
     }
 
+    /**
+     * Attach a header received from the network without parsing it. The header is parsed and
+     * attached the first time a header of that name is asked for; as long as that does not
+     * happen it is encoded exactly as received. Parsers use this for the headers the stack does
+     * not need to look at in order to route and match the message.
+     *
+     * @param headerName -- name of the header as received.
+     * @param header -- the header line (name, colon and value) without the line terminator.
+     */
+    public void attachLazyHeader(String headerName, String header) {
+        if (headerName.length() == 1) {
+            // Compact form, the full name is only known to the parser.
+            addHeader(header);
+            return;
+        }
+        LazyHeader lazyHeader = new LazyHeader(SIPHeaderNamesCache.toLowerCase(headerName),
+                header);
+        if (lazyHeaders == null) {
+            lazyHeaders = new LinkedList<LazyHeader>();
+        }
+        synchronized (lazyHeaders) {
+            lazyHeaders.add(lazyHeader);
+        }
+    }
+
+    private void copyLazyHeader(SIPHeader header) {
+        if (header instanceof SIPHeaderList) {
+            for (Iterator< ? > it = ((SIPHeaderList< ? >) header).listIterator(); it.hasNext();) {
+                copyLazyHeader((SIPHeader) it.next());
+            }
+            return;
+        }
+        String text = header.encode();
+        int end = text.length();
+        while (end > 0 && (text.charAt(end - 1) == '\r' || text.charAt(end - 1) == '\n'))
+            end--;
+        attachLazyHeader(header.getName(), text.substring(0, end));
+    }
+
+    /**
+     * Parse and attach the lazy headers of the given name, or all of them when the name is null.
+     * A header that does not parse is kept as an unrecognized header so that it is still passed
+     * through unchanged.
+     */
+    protected void parseLazyHeaders(String lowerCaseHeaderName) {
+        LinkedList<LazyHeader> lazy = this.lazyHeaders;
+        if (lazy == null)
+            return;
+        synchronized (lazy) {
+            if (lazy.isEmpty())
+                return;
+            LinkedList<LazyHeader> toParse = null;
+            for (Iterator<LazyHeader> it = lazy.iterator(); it.hasNext();) {
+                LazyHeader lazyHeader = it.next();
+                if (lowerCaseHeaderName == null || lazyHeader.name.equals(lowerCaseHeaderName)) {
+                    it.remove();
+                    if (toParse == null)
+                        toParse = new LinkedList<LazyHeader>();
+                    toParse.add(lazyHeader);
+                }
+            }
+            if (toParse == null)
+                return;
+            for (LazyHeader lazyHeader : toParse) {
+                try {
+                    HeaderParser parser = ParserFactory.createParser(lazyHeader.text + "\n");
+                    attachHeader(parser.parse(), false);
+                } catch (SIPDuplicateHeaderException ex) {
+                } catch (ParseException ex) {
+                    addUnparsed(lazyHeader.text);
+                }
+            }
+        }
+    }
+
+    private boolean hasLazyHeader(String lowerCaseHeaderName) {
+        LinkedList<LazyHeader> lazy = this.lazyHeaders;
+        if (lazy == null)
+            return false;
+        synchronized (lazy) {
+            for (LazyHeader lazyHeader : lazy) {
+                if (lazyHeader.name.equals(lowerCaseHeaderName))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private void removeLazyHeaders(String lowerCaseHeaderName) {
+        LinkedList<LazyHeader> lazy = this.lazyHeaders;
+        if (lazy == null)
+            return;
+        synchronized (lazy) {
+            for (Iterator<LazyHeader> it = lazy.iterator(); it.hasNext();) {
+                if (it.next().name.equals(lowerCaseHeaderName))
+                    it.remove();
+            }
+        }
+    }
+
+    private void encodeLazyHeaders(StringBuilder encoding) {
+        LinkedList<LazyHeader> lazy = this.lazyHeaders;
+        if (lazy == null)
+            return;
+        synchronized (lazy) {
+            for (LazyHeader lazyHeader : lazy) {
+                encoding.append(lazyHeader.text).append(NEWLINE);
+            }
+        }
+    }
+
+    /**
+     * A header line kept as received until it is needed.
+     */
+    protected static final class LazyHeader {
+        final String name;
+
+        final String text;
+
+        LazyHeader(String name, String text) {
+            this.name = name;
+            this.text = text;
+        }
+    }
+
     /**
      * Add a SIP header.
      *
@@ -1658,6 +1992,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      *         are present in the message.
      */
     public ListIterator<String> getHeaderNames() {
+        parseLazyHeaders(null);
         Iterator<SIPHeader> li = this.headers.iterator();
         LinkedList<String> retval = new LinkedList<String>();
         while (li.hasNext()) {
@@ -1678,6 +2013,8 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
             return false;
         }
         SIPMessage otherMessage = (SIPMessage) other;
+        this.parseLazyHeaders(null);
+        otherMessage.parseLazyHeaders(null);
         Collection<SIPHeader> values = this.headerTable.values();
         Iterator<SIPHeader> it = values.iterator();
         if (headerTable.size() != otherMessage.headerTable.size()) {
@@ -2058,4 +2395,16 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      public int getLocalPort() {
          return localPort;
      }
+
+    public void setReceptionTime(long receptionTime) {
+        this.receptionTime = receptionTime;
+    }
+
+    /**
+     * @return the time the message was read from the network, 0 if it was
+     *         not received.
+     */
+    public long getReceptionTime() {
+        return receptionTime;
+    }
 }
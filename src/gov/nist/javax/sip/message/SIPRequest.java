@@ -28,7 +28,6 @@
  *******************************************************************************/
 package gov.nist.javax.sip.message;
 
-import gov.nist.core.InternalErrorHandler;
 import gov.nist.javax.sip.address.GenericURI;
 import gov.nist.javax.sip.address.SipUri;
 import gov.nist.javax.sip.header.CSeq;
@@ -41,7 +40,6 @@ import gov.nist.javax.sip.header.Via;
 import gov.nist.javax.sip.header.ViaList;
 import gov.nist.javax.sip.stack.SIPTransactionStack;
 
-import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -506,7 +504,11 @@ public class SIPRequest extends SIPMessage implements javax.sip.message.Request,
      */
 
     public Object clone() {
-        SIPRequest retval = (SIPRequest) super.clone();
+        return super.clone();
+    }
+
+    protected SIPMessage copyMessage(boolean lazyCopy) {
+        SIPRequest retval = (SIPRequest) super.copyMessage(lazyCopy);
         // Do not copy over the tx pointer -- this is only for internal
         // tracking.
         retval.transactionPointer = null;
@@ -571,33 +573,21 @@ public class SIPRequest extends SIPMessage implements javax.sip.message.Request,
     }
 
     /**
-     * Encode this into a byte array. This is used when the body has been set as a binary array
+     * Encode this into a buffer. This is used when the body has been set as a binary array
      * and you want to encode the body as a byte array for transmission.
      * 
-     * @return a byte array containing the SIPRequest encoded as a byte array.
+     * @see SIPMessage#encodeAsBytes(String, EncodeBuffer)
      */
 
-    public byte[] encodeAsBytes(String transport) {
-        if (this.isNullRequest()) {
-            // Encoding a null message for keepalive.
-            return "\r\n\r\n".getBytes();
-        } else if ( this.requestLine == null ) {
-            return new byte[0];
+    public void encodeAsBytes(String transport, EncodeBuffer buffer) {
+        if (!this.isNullRequest() && this.requestLine == null) {
+            return;
         }
+        super.encodeAsBytes(transport, buffer);
+    }
 
-        byte[] rlbytes = null;
-        if (requestLine != null) {
-            try {
-                rlbytes = requestLine.encode().getBytes("UTF-8");
-            } catch (UnsupportedEncodingException ex) {
-                InternalErrorHandler.handleException(ex);
-            }
-        }
-        byte[] superbytes = super.encodeAsBytes(transport);
-        byte[] retval = new byte[rlbytes.length + superbytes.length];
-        System.arraycopy(rlbytes, 0, retval, 0, rlbytes.length);
-        System.arraycopy(superbytes, 0, retval, rlbytes.length, superbytes.length);
-        return retval;
+    protected void encodeFirstLine(StringBuilder buffer) {
+        requestLine.encode(buffer);
     }
 
     /**
@@ -679,7 +669,7 @@ public class SIPRequest extends SIPMessage implements javax.sip.message.Request,
         // no need to iterate through all headers to create the response since we know which headers
         // we only want to keep and helps the lazy parsing to avoid going through all headers
         for(String headerName : headersToIncludeInResponse) {                	
-        	SIPHeader nextHeader = headerTable.get(headerName);
+        	SIPHeader nextHeader = getSIPHeaderListLowerCase(headerName);
         	if(nextHeader != null) {
         		if(!(nextHeader instanceof RecordRouteList) || (nextHeader instanceof RecordRouteList && mustCopyRR(statusCode))) {
         			try {
@@ -1023,6 +1013,15 @@ public class SIPRequest extends SIPMessage implements javax.sip.message.Request,
 
     }
 
+    /**
+     * Get the key of {@link #getMergeId()}.
+     *
+     * @return the key to check for merged requests, null if there is no From tag.
+     */
+    public MessageKey getMergeKey() {
+        return MessageKey.valueOf(getMergeId());
+    }
+
     /**
      * @param inviteTransaction the inviteTransaction to set
      */
@@ -28,7 +28,6 @@
  *******************************************************************************/
 package gov.nist.javax.sip.message;
 
-import gov.nist.core.InternalErrorHandler;
 import gov.nist.javax.sip.header.CSeq;
 import gov.nist.javax.sip.header.CallID;
 import gov.nist.javax.sip.header.From;
@@ -36,7 +35,6 @@ import gov.nist.javax.sip.header.StatusLine;
 import gov.nist.javax.sip.header.To;
 import gov.nist.javax.sip.header.Via;
 
-import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
 import java.util.LinkedList;
 
@@ -464,7 +462,11 @@ public class SIPResponse
      */
 
     public Object clone() {
-        SIPResponse retval = (SIPResponse) super.clone();
+        return super.clone();
+    }
+
+    protected SIPMessage copyMessage(boolean lazyCopy) {
+        SIPResponse retval = (SIPResponse) super.copyMessage(lazyCopy);
         if (this.statusLine != null)
             retval.statusLine = (StatusLine) this.statusLine.clone();
         return retval;
@@ -508,29 +510,9 @@ public class SIPResponse
 
     }
 
-    /** Encode this into a byte array.
-     * This is used when the body has been set as a binary array
-     * and you want to encode the body as a byte array for transmission.
-     *
-     *@return a byte array containing the SIPRequest encoded as a byte
-     *  array.
-     */
-
-    public byte[] encodeAsBytes( String transport ) {
-        byte[] slbytes = null;
-        if (statusLine != null) {
-            try {
-                slbytes = statusLine.encode().getBytes("UTF-8");
-            } catch (UnsupportedEncodingException ex) {
-                InternalErrorHandler.handleException(ex);
-            }
-        }
-        byte[] superbytes = super.encodeAsBytes( transport );
-        byte[] retval = new byte[slbytes.length + superbytes.length];
-        System.arraycopy(slbytes, 0, retval, 0, slbytes.length);
-        System.arraycopy(superbytes, 0, retval, slbytes.length,
-                superbytes.length);
-        return retval;
+    protected void encodeFirstLine(StringBuilder buffer) {
+        if (statusLine != null)
+            statusLine.encode(buffer);
     }
 
     /**
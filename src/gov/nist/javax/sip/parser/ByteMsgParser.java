@@ -0,0 +1,569 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.parser;
+
+import gov.nist.javax.sip.SIPConstants;
+import gov.nist.javax.sip.header.CSeq;
+import gov.nist.javax.sip.header.CallID;
+import gov.nist.javax.sip.header.ContentLength;
+import gov.nist.javax.sip.header.ExtensionHeaderImpl;
+import gov.nist.javax.sip.header.MaxForwards;
+import gov.nist.javax.sip.header.NameMap;
+import gov.nist.javax.sip.header.RequestLine;
+import gov.nist.javax.sip.header.SIPHeader;
+import gov.nist.javax.sip.header.StatusLine;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.message.SIPResponse;
+
+import java.io.UnsupportedEncodingException;
+import java.text.ParseException;
+
+import javax.sip.InvalidArgumentException;
+import javax.sip.message.Request;
+
+/**
+ * Message parser that works directly on the received bytes. Unlike
+ * {@link StringMsgParser} it does not build a String for every line of the
+ * message: the buffer is scanned once for line and header boundaries, folded
+ * header lines are unfolded in place (the line break and leading white space
+ * are replaced by a single SP as allowed by RFC 3261 section 7.3.1), and only
+ * the text handed to the header parsers is turned into a String. The
+ * Call-ID, CSeq, Max-Forwards and Content-Length headers, which every
+ * message carries, are built straight from the bytes without going through
+ * the lexer. Anything the fast paths do not recognise falls back to the
+ * regular header parsers so the error reporting to the
+ * {@link ParseExceptionListener} is the same as with StringMsgParser.
+ * <p>
+ * By default only the headers the stack needs to match every message (Via,
+ * From, To, Call-ID, CSeq, Max-Forwards and Content-Length) are parsed up
+ * front. The other headers are attached to the
+ * message unparsed with {@link SIPMessage#attachLazyHeader(String, String)}:
+ * they are parsed when first asked for and are re-emitted exactly as received
+ * when they never are. A lazy header that turns out to be malformed is kept
+ * as an unrecognized header instead of being reported to the listener.
+ * <p>
+ * An instance keeps a scratch buffer and must not be used by several
+ * threads at the same time. The stack creates one parser per message
+ * channel so this is never the case for parsers created through
+ * {@link ByteMsgParserFactory}.
+ *
+ */
+public class ByteMsgParser implements MessageParserExt {
+
+    private static final int HEADER_OTHER = 0;
+    private static final int HEADER_CALL_ID = 1;
+    private static final int HEADER_CSEQ = 2;
+    private static final int HEADER_MAX_FORWARDS = 3;
+    private static final int HEADER_CONTENT_LENGTH = 4;
+    private static final int HEADER_EAGER = 5;
+
+    private static final byte[] CALL_ID = ascii("call-id");
+    private static final byte[] CSEQ = ascii("cseq");
+    private static final byte[] MAX_FORWARDS = ascii("max-forwards");
+    private static final byte[] CONTENT_LENGTH = ascii("content-length");
+
+    /**
+     * Headers always parsed up front besides the ones above.
+     */
+    private static final byte[][] EAGER_HEADERS = { ascii("via"),
+            ascii("from"), ascii("to") };
+
+    private static final String[] METHODS = { Request.INVITE, Request.ACK,
+            Request.BYE, Request.CANCEL, Request.REGISTER, Request.OPTIONS,
+            Request.SUBSCRIBE, Request.NOTIFY, Request.MESSAGE, Request.INFO,
+            Request.PRACK, Request.UPDATE, Request.REFER, Request.PUBLISH };
+
+    private static final byte[][] METHOD_BYTES = new byte[METHODS.length][];
+
+    static {
+        for (int i = 0; i < METHODS.length; i++) {
+            METHOD_BYTES[i] = ascii(METHODS[i]);
+        }
+    }
+
+    private final boolean lazyHeaders;
+
+    private char[] scratch;
+
+    public ByteMsgParser() {
+        this(true);
+    }
+
+    /**
+     * @param lazyHeaders
+     *            false to parse every header up front.
+     */
+    public ByteMsgParser(boolean lazyHeaders) {
+        super();
+        this.lazyHeaders = lazyHeaders;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see gov.nist.javax.sip.parser.MessageParser#parseSIPMessage(byte[], boolean, boolean, gov.nist.javax.sip.parser.ParseExceptionListener)
+     */
+    public SIPMessage parseSIPMessage(byte[] msgBuffer, boolean readBody,
+            boolean strict, ParseExceptionListener parseExceptionListener)
+            throws ParseException {
+        if (msgBuffer == null)
+            return null;
+        return parseSIPMessage(msgBuffer, 0, msgBuffer.length, readBody,
+                strict, parseExceptionListener);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see gov.nist.javax.sip.parser.MessageParserExt#parseSIPMessage(byte[], int, int, boolean, boolean, gov.nist.javax.sip.parser.ParseExceptionListener)
+     */
+    public SIPMessage parseSIPMessage(byte[] msgBuffer, int offset,
+            int length, boolean readBody, boolean strict,
+            ParseExceptionListener parseExceptionListener)
+            throws ParseException {
+        if (msgBuffer == null || length <= 0)
+            return null;
+
+        final int end = offset + length;
+        int i = offset;
+
+        // Squeeze out any leading control character.
+        while (i < end && msgBuffer[i] < 0x20)
+            i++;
+        if (i == end)
+            return null;
+
+        int lineEnd = findLineEnd(msgBuffer, i, end);
+        SIPMessage message = processFirstLine(msgBuffer, i,
+                trimEnd(msgBuffer, i, lineEnd), parseExceptionListener,
+                offset, length);
+        i = nextLine(msgBuffer, lineEnd, end);
+
+        while (i < end) {
+            lineEnd = findLineEnd(msgBuffer, i, end);
+            int headerEnd = trimEnd(msgBuffer, i, lineEnd);
+            if (headerEnd == i) {
+                // Empty line, end of the headers.
+                i = nextLine(msgBuffer, lineEnd, end);
+                break;
+            }
+            if (msgBuffer[i] == ' ' || msgBuffer[i] == '\t')
+                throw new ParseException("Bad header continuation.", 0);
+
+            int headerStart = i;
+            boolean folded = false;
+            i = nextLine(msgBuffer, lineEnd, end);
+            // Pull in the continuation lines of this header.
+            while (i < end && (msgBuffer[i] == ' ' || msgBuffer[i] == '\t')) {
+                lineEnd = findLineEnd(msgBuffer, i, end);
+                int continuationEnd = trimEnd(msgBuffer, i, lineEnd);
+                if (continuationEnd == i)
+                    break;
+                folded = true;
+                headerEnd = continuationEnd;
+                i = nextLine(msgBuffer, lineEnd, end);
+            }
+            processHeader(msgBuffer, headerStart, headerEnd, folded, message,
+                    parseExceptionListener, offset, length);
+        }
+
+        message.setSize(i - offset);
+
+        // Check for content legth header
+        if (readBody && message.getContentLength() != null) {
+            int contentLength = message.getContentLength().getContentLength();
+            if (contentLength != 0) {
+                int bodyLength = end - i;
+                byte[] body = new byte[bodyLength];
+                System.arraycopy(msgBuffer, i, body, 0, bodyLength);
+                message.setMessageContent(body, !strict,
+                        StringMsgParser.computeContentLengthFromMessage,
+                        contentLength);
+            } else if (!StringMsgParser.computeContentLengthFromMessage
+                    && strict) {
+                if (length < 4 || msgBuffer[end - 4] != '\r'
+                        || msgBuffer[end - 3] != '\n'
+                        || msgBuffer[end - 2] != '\r'
+                        || msgBuffer[end - 1] != '\n') {
+                    throw new ParseException(
+                            "Extraneous characters at the end of the message ",
+                            i - offset);
+                }
+            }
+        }
+
+        return message;
+    }
+
+    private SIPMessage processFirstLine(byte[] msgBuffer, int start, int end,
+            ParseExceptionListener parseExceptionListener, int offset,
+            int length) throws ParseException {
+        String firstLine = toText(msgBuffer, start, end, false, true);
+        SIPMessage message;
+        if (!firstLine.startsWith(SIPConstants.SIP_VERSION_STRING)) {
+            message = new SIPRequest();
+            try {
+                RequestLine requestLine = new RequestLineParser(firstLine)
+                        .parse();
+                ((SIPRequest) message).setRequestLine(requestLine);
+            } catch (ParseException ex) {
+                if (parseExceptionListener != null)
+                    parseExceptionListener.handleException(ex, message,
+                            RequestLine.class, stripNewline(firstLine),
+                            rawText(msgBuffer, offset, length));
+                else
+                    throw ex;
+            }
+        } else {
+            message = new SIPResponse();
+            try {
+                StatusLine sl = new StatusLineParser(firstLine).parse();
+                ((SIPResponse) message).setStatusLine(sl);
+            } catch (ParseException ex) {
+                if (parseExceptionListener != null)
+                    parseExceptionListener.handleException(ex, message,
+                            StatusLine.class, stripNewline(firstLine),
+                            rawText(msgBuffer, offset, length));
+                else
+                    throw ex;
+            }
+        }
+        return message;
+    }
+
+    private void processHeader(byte[] msgBuffer, int start, int end,
+            boolean folded, SIPMessage message,
+            ParseExceptionListener parseExceptionListener, int offset,
+            int length) throws ParseException {
+        int colon = start;
+        while (colon < end && msgBuffer[colon] != ':')
+            colon++;
+        if (!folded && colon < end) {
+            int nameEnd = colon;
+            while (nameEnd > start
+                    && (msgBuffer[nameEnd - 1] == ' ' || msgBuffer[nameEnd - 1] == '\t'))
+                nameEnd--;
+            int valueStart = colon + 1;
+            while (valueStart < end
+                    && (msgBuffer[valueStart] == ' ' || msgBuffer[valueStart] == '\t'))
+                valueStart++;
+            int headerId = headerId(msgBuffer, start, nameEnd);
+            if (headerId == HEADER_OTHER) {
+                // Compact names are left to the parser which knows the full name.
+                if (lazyHeaders && nameEnd - start > 1) {
+                    message.attachLazyHeader(
+                            toText(msgBuffer, start, nameEnd, false, false),
+                            toText(msgBuffer, start, end, false, false));
+                    return;
+                }
+            } else if (headerId != HEADER_EAGER && valueStart < end) {
+                SIPHeader sipHeader = parseKnownHeader(headerId, msgBuffer,
+                        valueStart, end);
+                if (sipHeader != null) {
+                    message.attachHeader(sipHeader, false);
+                    return;
+                }
+            }
+        }
+
+        String header = toText(msgBuffer, start, end, folded, true);
+        HeaderParser headerParser = null;
+        try {
+            headerParser = ParserFactory.createParser(header);
+        } catch (ParseException ex) {
+            if (parseExceptionListener != null)
+                parseExceptionListener.handleException(ex, message, null,
+                        stripNewline(header), null);
+            return;
+        }
+
+        try {
+            SIPHeader sipHeader = headerParser.parse();
+            message.attachHeader(sipHeader, false);
+        } catch (ParseException ex) {
+            if (parseExceptionListener != null) {
+                String headerText = stripNewline(header);
+                String headerName = Lexer.getHeaderName(headerText);
+                Class headerClass = NameMap.getClassFromName(headerName);
+                if (headerClass == null) {
+                    headerClass = ExtensionHeaderImpl.class;
+                }
+                parseExceptionListener.handleException(ex, message,
+                        headerClass, headerText,
+                        rawText(msgBuffer, offset, length));
+            }
+        }
+    }
+
+    /**
+     * Build one of the headers that every message carries directly from the
+     * bytes. Returns null when the header is not one of those or when its
+     * value is not in the plain form handled here, in which case the caller
+     * uses the regular header parser.
+     */
+    private SIPHeader parseKnownHeader(int headerId, byte[] msgBuffer,
+            int valueStart, int end) {
+        try {
+            switch (headerId) {
+            case HEADER_CALL_ID: {
+                for (int i = valueStart; i < end; i++) {
+                    if (msgBuffer[i] < 0)
+                        return null;
+                }
+                CallID callID = new CallID();
+                callID.setCallId(toText(msgBuffer, valueStart, end, false,
+                        false));
+                return callID;
+            }
+            case HEADER_CSEQ: {
+                int numberEnd = valueStart;
+                while (numberEnd < end && isDigit(msgBuffer[numberEnd]))
+                    numberEnd++;
+                long number = parseNumber(msgBuffer, valueStart, numberEnd);
+                int methodStart = numberEnd;
+                while (methodStart < end
+                        && (msgBuffer[methodStart] == ' ' || msgBuffer[methodStart] == '\t'))
+                    methodStart++;
+                if (number < 0 || methodStart == numberEnd)
+                    return null;
+                String method = knownMethod(msgBuffer, methodStart, end);
+                if (method == null)
+                    return null;
+                CSeq cseq = new CSeq();
+                cseq.setSeqNumber(number);
+                cseq.setMethod(method);
+                return cseq;
+            }
+            case HEADER_MAX_FORWARDS: {
+                long number = parseNumber(msgBuffer, valueStart, end);
+                if (number < 0 || number > 255)
+                    return null;
+                MaxForwards maxForwards = new MaxForwards();
+                maxForwards.setMaxForwards((int) number);
+                return maxForwards;
+            }
+            case HEADER_CONTENT_LENGTH: {
+                long number = parseNumber(msgBuffer, valueStart, end);
+                if (number < 0 || number > Integer.MAX_VALUE)
+                    return null;
+                ContentLength contentLength = new ContentLength();
+                contentLength.setContentLength((int) number);
+                return contentLength;
+            }
+            default:
+                return null;
+            }
+        } catch (ParseException ex) {
+            // Let the header parser report it.
+            return null;
+        } catch (InvalidArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static int headerId(byte[] msgBuffer, int start, int end) {
+        int len = end - start;
+        if (len == 1) {
+            int c = msgBuffer[start] | 0x20;
+            if (c == 'i')
+                return HEADER_CALL_ID;
+            if (c == 'l')
+                return HEADER_CONTENT_LENGTH;
+            if (c == 'v' || c == 'f' || c == 't')
+                return HEADER_EAGER;
+            return HEADER_OTHER;
+        }
+        if (equalsIgnoreCase(msgBuffer, start, end, CALL_ID))
+            return HEADER_CALL_ID;
+        if (equalsIgnoreCase(msgBuffer, start, end, CSEQ))
+            return HEADER_CSEQ;
+        if (equalsIgnoreCase(msgBuffer, start, end, MAX_FORWARDS))
+            return HEADER_MAX_FORWARDS;
+        if (equalsIgnoreCase(msgBuffer, start, end, CONTENT_LENGTH))
+            return HEADER_CONTENT_LENGTH;
+        for (int i = 0; i < EAGER_HEADERS.length; i++) {
+            if (equalsIgnoreCase(msgBuffer, start, end, EAGER_HEADERS[i]))
+                return HEADER_EAGER;
+        }
+        return HEADER_OTHER;
+    }
+
+    private static String knownMethod(byte[] msgBuffer, int start, int end) {
+        int len = end - start;
+        next: for (int i = 0; i < METHOD_BYTES.length; i++) {
+            // Method names are case sensitive.
+            byte[] method = METHOD_BYTES[i];
+            if (method.length != len)
+                continue;
+            for (int j = 0; j < len; j++) {
+                if (msgBuffer[start + j] != method[j])
+                    continue next;
+            }
+            return METHODS[i];
+        }
+        return null;
+    }
+
+    /**
+     * Compare a region of the buffer with a lower case ASCII name.
+     */
+    private static boolean equalsIgnoreCase(byte[] msgBuffer, int start,
+            int end, byte[] lowerCaseName) {
+        if (end - start != lowerCaseName.length)
+            return false;
+        for (int i = 0; i < lowerCaseName.length; i++) {
+            int c = msgBuffer[start + i];
+            if (c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            if (c != lowerCaseName[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Parse an unsigned decimal number spanning the whole region, -1 if the
+     * region is not a number of at most ten digits.
+     */
+    private static long parseNumber(byte[] msgBuffer, int start, int end) {
+        if (start == end || end - start > 10)
+            return -1;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            if (!isDigit(msgBuffer[i]))
+                return -1;
+            value = value * 10 + (msgBuffer[i] - '0');
+        }
+        return value;
+    }
+
+    private static int findLineEnd(byte[] msgBuffer, int start, int end) {
+        int i = start;
+        while (i < end && msgBuffer[i] != '\r' && msgBuffer[i] != '\n')
+            i++;
+        return i;
+    }
+
+    private static int nextLine(byte[] msgBuffer, int lineEnd, int end) {
+        if (lineEnd < end && msgBuffer[lineEnd] == '\r')
+            lineEnd++;
+        if (lineEnd < end && msgBuffer[lineEnd] == '\n')
+            lineEnd++;
+        return lineEnd;
+    }
+
+    /**
+     * Index just past the last character above SP in [start, end), which is
+     * start for a line holding only white space.
+     */
+    private static int trimEnd(byte[] msgBuffer, int start, int end) {
+        while (end > start && (msgBuffer[end - 1] & 0xff) <= 0x20)
+            end--;
+        return end;
+    }
+
+    /**
+     * Turn a region of the buffer into text, unfolding continuation lines and
+     * appending the newline the header parsers expect. ASCII text, by far the
+     * common case, is widened into a reusable char buffer instead of going
+     * through a charset decoder.
+     */
+    private String toText(byte[] msgBuffer, int start, int end,
+            boolean folded, boolean newline) throws ParseException {
+        int capacity = end - start + 1;
+        if (scratch == null || scratch.length < capacity)
+            scratch = new char[Math.max(capacity, 256)];
+        char[] chars = scratch;
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            byte b = msgBuffer[i];
+            if (b < 0)
+                return decode(msgBuffer, start, end, folded, newline);
+            if (folded && (b == '\r' || b == '\n')) {
+                while (n > 0 && chars[n - 1] <= 0x20)
+                    n--;
+                while (i + 1 < end && msgBuffer[i + 1] >= 0
+                        && msgBuffer[i + 1] <= 0x20)
+                    i++;
+                chars[n++] = ' ';
+            } else {
+                chars[n++] = (char) b;
+            }
+        }
+        if (newline)
+            chars[n++] = '\n';
+        return new String(chars, 0, n);
+    }
+
+    private static String decode(byte[] msgBuffer, int start, int end,
+            boolean folded, boolean newline) throws ParseException {
+        String text;
+        try {
+            text = new String(msgBuffer, start, end - start, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new ParseException("Bad message encoding!", 0);
+        }
+        if (folded) {
+            StringBuilder unfolded = new StringBuilder(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\r' || c == '\n') {
+                    while (unfolded.length() > 0
+                            && unfolded.charAt(unfolded.length() - 1) <= 0x20)
+                        unfolded.setLength(unfolded.length() - 1);
+                    while (i + 1 < text.length() && text.charAt(i + 1) <= 0x20)
+                        i++;
+                    unfolded.append(' ');
+                } else {
+                    unfolded.append(c);
+                }
+            }
+            text = unfolded.toString();
+        }
+        return newline ? text + "\n" : text;
+    }
+
+    private static String stripNewline(String text) {
+        return text.substring(0, text.length() - 1);
+    }
+
+    private static String rawText(byte[] msgBuffer, int offset, int length) {
+        try {
+            return new String(msgBuffer, offset, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return new String(msgBuffer, offset, length);
+        }
+    }
+
+    private static byte[] ascii(String name) {
+        byte[] bytes = new byte[name.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) name.charAt(i);
+        }
+        return bytes;
+    }
+}
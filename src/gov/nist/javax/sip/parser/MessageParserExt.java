@@ -0,0 +1,56 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.parser;
+
+import java.text.ParseException;
+
+import gov.nist.javax.sip.message.SIPMessage;
+
+/**
+ * Extension of the MessageParser contract for parsers that can read a SIP
+ * message from a region of a larger buffer. Transports that receive into
+ * reusable buffers (datagram packets, stream read buffers) use this entry
+ * point when the configured parser supports it so that the message bytes do
+ * not have to be copied into a fresh array before being parsed.
+ *
+ */
+public interface MessageParserExt extends MessageParser {
+
+    /**
+     * Parse the SIP message held in <code>length</code> bytes of
+     * <code>msgBuffer</code> starting at <code>offset</code>. The buffer is
+     * not retained by the parser or by the returned message, so the caller
+     * may reuse it as soon as this method returns.
+     *
+     * @param msgBuffer the buffer containing the SIP Message
+     * @param offset index of the first byte of the message
+     * @param length number of bytes of the message
+     * @param readBody If the content body should be read or not
+     * @param exhandler Callback if an exception occurs during the parsing to notify back the stack
+     * @return a SIPMessage object that the stack can interact with
+     * @throws ParseException if a parseexception occurs
+     */
+    SIPMessage parseSIPMessage(byte[] msgBuffer, int offset, int length, boolean readBody, boolean strict, ParseExceptionListener exhandler) throws ParseException;
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.parser;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogLevels;
+import gov.nist.core.StackLogger;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.stack.SIPTransactionStack;
+
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * A non blocking counterpart of the {@link PipelinedMsgParser} for use with
+ * selector driven stream connections. Instead of owning a thread that pulls
+ * bytes out of a {@link Pipeline}, the connection pushes whatever it read from
+ * the socket with {@link #addBytes(byte[], int, int)}. Complete messages are
+ * parsed on the calling thread and handed to the message listener in the order
+ * they appear on the stream.
+ *
+ * @see PipelinedMsgParser
+ */
+public class NioPipelineParser {
+
+    private static StackLogger logger = CommonLogger.getLogger(NioPipelineParser.class);
+
+    private final SIPMessageListener sipMessageListener;
+
+    private final MessageParser smp;
+
+    private final StreamFramer framer;
+
+    private final SIPTransactionStack sipStack;
+
+    /**
+     * Constructor.
+     *
+     * @param sipStack the stack, used to get the message parser and to count
+     *            parse errors.
+     * @param sipMessageListener gets called back with every parsed message and
+     *            on parse errors.
+     * @param maxMessageSize the maximum size of a message, 0 for no limit.
+     */
+    public NioPipelineParser(SIPTransactionStack sipStack,
+            SIPMessageListener sipMessageListener, int maxMessageSize) {
+        this.sipStack = sipStack;
+        this.sipMessageListener = sipMessageListener;
+        this.smp = sipStack.getMessageParserFactory().createMessageParser(sipStack);
+        this.framer = new StreamFramer(new FrameListener(), maxMessageSize);
+    }
+
+    /**
+     * Feed bytes read from the connection to the parser. Every message that is
+     * completed by these bytes is delivered to the listener before returning.
+     *
+     * @throws IOException if the peer exceeded the maximum message size. The
+     *             connection should be closed.
+     */
+    public void addBytes(byte[] bytes, int offset, int count) throws IOException {
+        this.framer.addBytes(bytes, offset, count);
+    }
+
+    /**
+     * Return the time at which the message being received started, 0 if no
+     * message is partially received.
+     */
+    public long getMessageStartTime() {
+        return this.framer.getMessageStartTime();
+    }
+
+    private class FrameListener implements StreamFramer.Listener {
+
+        public void processFrame(byte[] buffer, int offset, int headerLength,
+                int contentLength) throws IOException {
+            deliver(buffer, offset, headerLength, contentLength, true);
+        }
+
+        public void processOversizedFrame(byte[] buffer, int offset,
+                int headerLength, int contentLength) throws IOException {
+            // Let the channel answer with an error before the connection is closed.
+            deliver(buffer, offset, headerLength, contentLength, false);
+        }
+    }
+
+    private void deliver(byte[] buffer, int offset, int headerLength,
+            int contentLength, boolean readBody) throws IOException {
+        SIPMessage sipMessage;
+        try {
+            sipMessage = PipelinedMsgParser.parseFrame(smp, buffer, offset,
+                    headerLength, contentLength, readBody, sipMessageListener);
+        } catch (ParseException ex) {
+            // Just ignore the parse exception.
+            logger.logError("Detected a parse error", ex);
+            sipStack.getStackMetrics().parseError();
+            return;
+        }
+        if (sipMessage == null) {
+            return;
+        }
+        if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
+            logger.logDebug("Completed parsing message");
+        }
+        try {
+            sipMessageListener.processMessage(sipMessage);
+        } catch (Exception ex) {
+            // fatal error in processing - close the connection.
+            IOException ioex = new IOException("Error processing message");
+            ioex.initCause(ex);
+            throw ioex;
+        }
+    }
+
+}
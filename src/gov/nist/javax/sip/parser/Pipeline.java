@@ -25,8 +25,6 @@
  */
 package gov.nist.javax.sip.parser;
 
-import gov.nist.core.InternalErrorHandler;
-import gov.nist.javax.sip.stack.SIPStackTimerTask;
 import gov.nist.javax.sip.stack.timers.SipTimer;
 
 import java.io.IOException;
@@ -50,44 +48,10 @@ public class Pipeline extends InputStream {
 
     private boolean isClosed;
 
-    private SipTimer timer;
-
     private InputStream pipe;
 
-    private int readTimeout;
-
-    private SIPStackTimerTask myTimerTask;
-
-    class MyTimer extends SIPStackTimerTask {
-        Pipeline pipeline;
-
-        private boolean isCancelled;
-
-        protected MyTimer(Pipeline pipeline) {
-            this.pipeline = pipeline;
-        }
-
-        public void runTask() {
-            if (this.isCancelled) {
-                this.pipeline = null;
-                return;
-            }
-
-            try {
-                pipeline.close();
-            } catch (IOException ex) {
-                InternalErrorHandler.handleException(ex);
-            }
-        }
-
-        @Override
-        public void cleanUpBeforeCancel() {
-        	this.isCancelled = true;
-        	this.pipeline = null;
-        	super.cleanUpBeforeCancel();
-        }
-        
-    }
+    // When bytes were last written, that is received from the peer.
+    private volatile long lastActivityTime;
 
     class Buffer {
         byte[] bytes;
@@ -108,29 +72,49 @@ public class Pipeline extends InputStream {
 
     }
 
+    public Pipeline(InputStream pipe) {
+        // pipe is the Socket stream
+        // this is recorded here so that closing the pipeline closes it.
+        this.pipe = pipe;
+        buffList = new LinkedList();
+        this.lastActivityTime = System.currentTimeMillis();
+    }
+
+    /**
+     * The read timeout is now enforced by the
+     * {@link gov.nist.javax.sip.stack.ConnectionActivityMonitor} of the stack,
+     * the timeout and the timer are ignored. Kept for source compatibility.
+     *
+     * @deprecated use {@link #Pipeline(InputStream)}.
+     */
+    @Deprecated
+    public Pipeline(InputStream pipe, int readTimeout, SipTimer timer) {
+        this(pipe);
+    }
+
+    /**
+     * Does nothing, see {@link #Pipeline(InputStream, int, SipTimer)}.
+     *
+     * @deprecated the read timeout is no longer enforced by the pipeline.
+     */
+    @Deprecated
     public void startTimer() {
-        if (this.readTimeout == -1)
-            return;
-        // TODO make this a tunable number. For now 4 seconds
-        // between reads seems reasonable upper limit.
-        this.myTimerTask = new MyTimer(this);
-        this.timer.schedule(this.myTimerTask, this.readTimeout);
     }
 
+    /**
+     * Does nothing, see {@link #Pipeline(InputStream, int, SipTimer)}.
+     *
+     * @deprecated the read timeout is no longer enforced by the pipeline.
+     */
+    @Deprecated
     public void stopTimer() {
-        if (this.readTimeout == -1)
-            return;
-        if (this.myTimerTask != null)
-        	this.timer.cancel(myTimerTask);            
     }
 
-    public Pipeline(InputStream pipe, int readTimeout, SipTimer timer) {
-        // pipe is the Socket stream
-        // this is recorded here to implement a timeout.
-        this.timer = timer;
-        this.pipe = pipe;
-        buffList = new LinkedList();
-        this.readTimeout = readTimeout;
+    /**
+     * Return the time at which bytes were last written to the pipeline.
+     */
+    public long getLastActivityTime() {
+        return this.lastActivityTime;
     }
 
     public void write(byte[] bytes, int start, int length) throws IOException {
@@ -138,6 +122,7 @@ public class Pipeline extends InputStream {
             throw new IOException("Closed!!");
         Buffer buff = new Buffer(bytes, length);
         buff.ptr = start;
+        this.lastActivityTime = System.currentTimeMillis();
         synchronized (this.buffList) {
             buffList.add(buff);
             buffList.notifyAll();
@@ -148,6 +133,7 @@ public class Pipeline extends InputStream {
         if (this.isClosed)
             throw new IOException("Closed!!");
         Buffer buff = new Buffer(bytes, bytes.length);
+        this.lastActivityTime = System.currentTimeMillis();
         synchronized (this.buffList) {
             buffList.add(buff);
             buffList.notifyAll();
@@ -164,6 +150,37 @@ public class Pipeline extends InputStream {
         this.pipe.close();
     }
 
+    /**
+     * Read up to len bytes, at most what is left of the buffer that was
+     * written first. Blocks until something is written.
+     */
+    public int read(byte[] bytes, int offset, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        synchronized (this.buffList) {
+            if (currentBuffer == null) {
+                if (this.isClosed && this.buffList.isEmpty())
+                    return -1;
+                try {
+                    while (this.buffList.isEmpty()) {
+                        this.buffList.wait();
+                        if (this.buffList.isEmpty() && this.isClosed)
+                            return -1;
+                    }
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex.getMessage());
+                }
+                currentBuffer = (Buffer) this.buffList.removeFirst();
+            }
+            int count = Math.min(len, currentBuffer.length - currentBuffer.ptr);
+            System.arraycopy(currentBuffer.bytes, currentBuffer.ptr, bytes, offset, count);
+            currentBuffer.ptr += count;
+            if (currentBuffer.ptr == currentBuffer.length)
+                this.currentBuffer = null;
+            return count;
+        }
+    }
+
     public int read() throws IOException {
         // if (this.isClosed) return -1;
         synchronized (this.buffList) {
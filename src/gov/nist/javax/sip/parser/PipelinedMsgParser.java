@@ -37,32 +37,18 @@ package gov.nist.javax.sip.parser;
  *
  */
 import gov.nist.core.CommonLogger;
-import gov.nist.core.Debug;
 import gov.nist.core.InternalErrorHandler;
 import gov.nist.core.LogLevels;
 import gov.nist.core.StackLogger;
-import gov.nist.javax.sip.header.ContentLength;
 import gov.nist.javax.sip.message.SIPMessage;
-import gov.nist.javax.sip.stack.BlockingQueueDispatchAuditor;
+import gov.nist.javax.sip.stack.CallIDOrderedExecutor;
 import gov.nist.javax.sip.stack.QueuedMessageDispatchBase;
 import gov.nist.javax.sip.stack.SIPTransactionStack;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
-import java.util.Queue;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -96,10 +82,17 @@ public final class PipelinedMsgParser implements Runnable {
     //private boolean errorFlag;
     private Pipeline rawInputStream;
     private int maxMessageSize;
-    private int sizeCounter;
     private SIPTransactionStack sipStack;
     private MessageParser smp = null;
-    private ConcurrentHashMap<String, CallIDOrderingStructure> messagesOrderingMap = new ConcurrentHashMap<String, CallIDOrderingStructure>();
+    // Messages handed to the post parsing executor and not processed yet.
+    private final AtomicInteger pendingDispatches = new AtomicInteger();
+    // Time of the read that started the message being framed.
+    private long receptionTime;
+    // Time of the last read.
+    private long readTime;
+    private StreamFramer framer;
+    // Size of the reads from the pipeline.
+    private static final int CHUNK_SIZE = 4096;
     
     /**
      * default constructor.
@@ -134,6 +127,7 @@ public final class PipelinedMsgParser implements Runnable {
         this.sipMessageListener = sipMessageListener;
         rawInputStream = in;
         this.maxMessageSize = maxMessageSize;
+        this.framer = new StreamFramer(new FrameListener(), maxMessageSize);
         mythread = new Thread(this);
         mythread.setName("PipelineThread-" + getNewUid());
 
@@ -182,6 +176,8 @@ public final class PipelinedMsgParser implements Runnable {
 
         p.rawInputStream = this.rawInputStream;
         p.sipMessageListener = this.sipMessageListener;
+        p.maxMessageSize = this.maxMessageSize;
+        p.framer = new StreamFramer(p.new FrameListener(), this.maxMessageSize);
         Thread mythread = new Thread(p);
         mythread.setName("PipelineThread");
         return p;
@@ -201,98 +197,27 @@ public final class PipelinedMsgParser implements Runnable {
     }
 
     /**
-     * read a line of input. Note that we encode the result in UTF-8
+     * Processes one message on the lane of its Call-ID when
+     * gov.nist.javax.sip.TCP_POST_PARSING_THREAD_POOL_SIZE is set.
      */
-  
-    
-    private String readLine(InputStream inputStream) throws IOException {
-        int counter = 0;
-        int increment = 1024;
-        int bufferSize = increment;
-        byte[] lineBuffer = new byte[bufferSize];
-        while (true) {
-            char ch;
-            int i = inputStream.read();
-            if (i == -1) {
-                throw new IOException("End of stream");
-            } else
-                ch = (char) ( i & 0xFF);
-            // reduce the available read size by 1 ("size" of a char).
-            if (this.maxMessageSize > 0) {
-                this.sizeCounter--;
-                if (this.sizeCounter <= 0)
-                    throw new IOException("Max size exceeded!");
-            }
-            if (ch != '\r')
-                lineBuffer[counter++] = (byte) (i&0xFF);
-           
-            if (ch == '\n') {
-                break;
-            }
-            
-            if( counter == bufferSize ) {
-                byte[] tempBuffer = new byte[bufferSize + increment];
-                System.arraycopy((Object)lineBuffer,0, (Object)tempBuffer, 0, bufferSize);
-                bufferSize = bufferSize + increment;
-                lineBuffer = tempBuffer;
-                
-            }
-        }
-        return new String(lineBuffer,0,counter,"UTF-8");
-    }
-    
-    public class Dispatch implements Runnable, QueuedMessageDispatchBase{
-    	CallIDOrderingStructure callIDOrderingStructure;
-    	String callId;
+    public class Dispatch implements QueuedMessageDispatchBase {
+    	SIPMessage message;
     	long time;
-    	public Dispatch(CallIDOrderingStructure callIDOrderingStructure, String callId) {
-    		this.callIDOrderingStructure = callIDOrderingStructure;
-    		this.callId = callId;
-    		time = System.currentTimeMillis();
+    	public Dispatch(SIPMessage message) {
+    		this.message = message;
+    		time = message.getReceptionTime();
     	}
-        public void run() {   
-        	
-            // we acquire it in the thread to avoid blocking other messages with a different call id
-            // that could be processed in parallel                                    
-            Semaphore semaphore = callIDOrderingStructure.getSemaphore();
-            final Queue<SIPMessage> messagesForCallID = callIDOrderingStructure.getMessagesForCallID();
+        public void run() {
             if(sipStack.sipEventInterceptor != null) {
-            	sipStack.sipEventInterceptor.beforeMessage(messagesForCallID.peek());
+            	sipStack.sipEventInterceptor.beforeMessage(message);
             }
-            try {                                                                                
-                semaphore.acquire();                                        
-            } catch (InterruptedException e) {
-                logger.logError("Semaphore acquisition for callId " + callId + " interrupted", e);
-            }
-            // once acquired we get the first message to process
-            SIPMessage message = messagesForCallID.poll();
-            if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
-            	logger.logDebug("semaphore acquired for message " + message);
-            }
-            
             try {
                 sipMessageListener.processMessage(message);
             } catch (Exception e) {
-            	logger.logError("Error occured processing message", e);    
+            	logger.logError("Error occured processing message", e);
                 // We do not break the TCP connection because other calls use the same socket here
-            } finally {                                        
-                if(callIDOrderingStructure.getMessagesForCallID().size() <= 0) {
-                    messagesOrderingMap.remove(callId);
-                    if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
-                    	logger.logDebug("CallIDOrderingStructure removed for message " + callId);
-                    }
-                }
-                if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
-                	logger.logDebug("releasing semaphore for message " + message);
-                }
-                //release the semaphore so that another thread can process another message from the call id queue in the correct order
-                // or a new message from another call id queue
-                semaphore.release(); 
-                if(messagesOrderingMap.isEmpty()) {
-                    synchronized (messagesOrderingMap) {
-                        messagesOrderingMap.notify();
-                    }
-                }
+            } finally {
+                dispatchDone();
                 if(sipStack.sipEventInterceptor != null) {
                 	sipStack.sipEventInterceptor.afterMessage(message);
                 }
@@ -302,290 +227,237 @@ public final class PipelinedMsgParser implements Runnable {
 			return time;
 		}
     };
-    /**
-     * This is input reading thread for the pipelined parser. You feed it input
-     * through the input stream (see the constructor) and it calls back an event
-     * listener interface for message processing or error. It cleans up the
-     * input - dealing with things like line continuation
-     */
-    public void run() {
 
-        Pipeline inputStream = this.rawInputStream;
-        final StackLogger stackLogger = logger;
-        // inputStream = new MyFilterInputStream(this.rawInputStream);
-        // I cannot use buffered reader here because we may need to switch
-        // encodings to read the message body.
-        try {
-            while (true) {
-                this.sizeCounter = this.maxMessageSize;
-                // this.messageSize = 0;
-                StringBuilder inputBuffer = new StringBuilder();
+    private void dispatchDone() {
+        if (pendingDispatches.decrementAndGet() == 0) {
+            synchronized (pendingDispatches) {
+                pendingDispatches.notifyAll();
+            }
+        }
+    }
 
-                if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
-                	logger.logDebug("Starting to parse.");
+    /**
+     * Wait for the messages of this connection that are still queued in the
+     * post parsing executor, at most for the congestion control timeout after
+     * which they are dropped anyway.
+     */
+    private void waitForPendingDispatches() {
+        CallIDOrderedExecutor executor = sipStack.getCallIDOrderedExecutor();
+        if (executor == null) {
+            return;
+        }
+        long timeout = executor.getQueueTimeout() > 0 ? executor.getQueueTimeout() : 8000;
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (pendingDispatches) {
+            while (pendingDispatches.get() > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
                 }
-
-                String line1;
-                String line2 = null;
-
-                while (true) {
-                    try {
-                        line1 = readLine(inputStream);
-                        // ignore blank lines.
-                        if (line1.equals("\n")) {
-                        	if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
-                            	logger.logDebug("Discarding blank line");
-                            }
-                            continue;
-                        } else
-                            break;
-                    } catch (IOException ex) {
-                        if(postParseExecutor != null){
-                            synchronized (messagesOrderingMap) {
-                                try {
-                                    messagesOrderingMap.wait();
-                                } catch (InterruptedException e) {}                                
-                            }                             
-                        }
-                        if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
-                        	logger.logStackTrace(LogLevels.TRACE_DEBUG);
-                        }
-                        this.rawInputStream.stopTimer();
-                        return;
-                    }
+                try {
+                    pendingDispatches.wait(remaining);
+                } catch (InterruptedException e) {
+                    break;
                 }
+            }
+        }
+    }
 
-                inputBuffer.append(line1);
-                // Guard against bad guys.
-                this.rawInputStream.startTimer();
+    /**
+     * Parse a message framed by the {@link StreamFramer}. The headers are
+     * parsed in place and the body is copied out of the buffer.
+     *
+     * @return the message or null if the parser could not make a message out
+     *         of the headers.
+     */
+    static SIPMessage parseFrame(MessageParser smp, byte[] buffer, int offset,
+            int headerLength, int contentLength, boolean readBody,
+            ParseExceptionListener parseExceptionListener) throws ParseException {
+        if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
+            try {
+                logger.logDebug("About to parse : "
+                        + new String(buffer, offset, headerLength, "UTF-8"));
+            } catch (UnsupportedEncodingException ex) {
+                // Cannot happen for UTF-8.
+            }
+        }
+        SIPMessage sipMessage;
+        if (smp instanceof MessageParserExt) {
+            sipMessage = ((MessageParserExt) smp).parseSIPMessage(buffer, offset,
+                    headerLength, false, false, parseExceptionListener);
+        } else {
+            byte[] headers = new byte[headerLength];
+            System.arraycopy(buffer, offset, headers, 0, headerLength);
+            sipMessage = smp.parseSIPMessage(headers, false, false, parseExceptionListener);
+        }
+        if (sipMessage == null) {
+            return null;
+        }
+        if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
+            logger.logDebug("Content length = " + contentLength);
+        }
+        if (contentLength == 0) {
+            sipMessage.removeContent();
+        } else if (readBody) {
+            byte[] body = new byte[contentLength];
+            System.arraycopy(buffer, offset + headerLength, body, 0, contentLength);
+            sipMessage.setMessageContent(body);
+        }
+        return sipMessage;
+    }
 
-                if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
-                	logger.logDebug("Reading Input stream.");
-                }
-                while (true) {
-                    try {
-                        line2 = readLine(inputStream);
-                        inputBuffer.append(line2);
-                        if (line2.trim().equals(""))
-                            break;
-                    } catch (IOException ex) {
-                        if(postParseExecutor != null){
-                            synchronized (messagesOrderingMap) {
-                                try {
-                                    messagesOrderingMap.wait();
-                                } catch (InterruptedException e) {}                                
-                            }          
-                        } 
-                        this.rawInputStream.stopTimer();
-                        if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
-                        	logger.logStackTrace(LogLevels.TRACE_DEBUG);
-                        }
-                        return;
-                    }
-                }
+    /**
+     * Gets the messages out of the framer and hands them to the listener.
+     */
+    private class FrameListener implements StreamFramer.Listener {
 
-                // Stop the timer that will kill the read.
-                this.rawInputStream.stopTimer();
-                inputBuffer.append(line2);               
-//                smp.setParseExceptionListener(sipMessageListener);
-//                smp.setReadBody(false);
-                SIPMessage sipMessage = null;
+        public void processFrame(byte[] buffer, int offset, int headerLength,
+                int contentLength) throws IOException {
+            processMessage(buffer, offset, headerLength, contentLength, true);
+        }
 
-                try {
-                    if (stackLogger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
-                        stackLogger.logDebug("About to parse : " + inputBuffer.toString());
-                    }
-                    sipMessage = smp.parseSIPMessage(inputBuffer.toString().getBytes(), false, false, sipMessageListener);
-                    if (sipMessage == null) {
-                        this.rawInputStream.stopTimer();
-                        continue;
-                    }
-                } catch (ParseException ex) {
-                    // Just ignore the parse exception.
-                    stackLogger.logError("Detected a parse error", ex);
-                    continue;
-                }
+        public void processOversizedFrame(byte[] buffer, int offset,
+                int headerLength, int contentLength) throws IOException {
+            // Content length too large - process the message and
+            // return error from there.
+            processMessage(buffer, offset, headerLength, contentLength, false);
+        }
+    }
 
-                if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
-                	logger.logDebug("Completed parsing message");
+    private void processMessage(byte[] buffer, int offset, int headerLength,
+            int contentLength, boolean readBody) throws IOException {
+        SIPMessage sipMessage = null;
+        try {
+            sipMessage = parseFrame(smp, buffer, offset, headerLength, contentLength,
+                    readBody, sipMessageListener);
+        } catch (ParseException ex) {
+            // Just ignore the parse exception.
+            logger.logError("Detected a parse error", ex);
+            sipStack.getStackMetrics().parseError();
+        }
+        long receptionTime = this.receptionTime;
+        // The next message on the stream starts in the last read.
+        this.receptionTime = this.readTime;
+        if (sipMessage == null) {
+            return;
+        }
+        sipMessage.setReceptionTime(receptionTime);
+        if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
+            logger.logDebug("Completed parsing message");
+        }
+        if (sipMessageListener == null) {
+            return;
+        }
+        try {
+            CallIDOrderedExecutor executor = sipStack.getCallIDOrderedExecutor();
+            if(executor == null) {
+
+                /**
+                 * If gov.nist.javax.sip.TCP_POST_PARSING_THREAD_POOL_SIZE is disabled
+                 * we continue with the old logic here.
+                 */
+                if(sipStack.sipEventInterceptor != null) {
+                    sipStack.sipEventInterceptor.beforeMessage(sipMessage);
                 }
-                ContentLength cl = (ContentLength) sipMessage
-                        .getContentLength();
-                int contentLength = 0;
-                if (cl != null) {
-                    contentLength = cl.getContentLength();
-                } else {
-                    contentLength = 0;
+                sipMessageListener.processMessage(sipMessage);
+                if(sipStack.sipEventInterceptor != null) {
+                    sipStack.sipEventInterceptor.afterMessage(sipMessage);
                 }
+            } else {
+                /**
+                 * gov.nist.javax.sip.TCP_POST_PARSING_THREAD_POOL_SIZE is enabled so
+                 * we hand the message to the lane of its Call-ID, which keeps
+                 * the messages of a call in order without a lock shared by all calls.
+                 */
+                String callId = sipMessage.getCallId() == null ? null
+                        : sipMessage.getCallId().getCallId();
+                pendingDispatches.incrementAndGet();
+                executor.execute(callId, new Dispatch(sipMessage));
+            }
+        } catch (Exception ex) {
+            // fatal error in processing - close the connection.
+            IOException ioex = new IOException("Error processing message");
+            ioex.initCause(ex);
+            throw ioex;
+        }
+    }
 
-                if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
-                	logger.logDebug("Content length = " + contentLength);
-                }
+    /**
+     * This is input reading thread for the pipelined parser. You feed it input
+     * through the input stream (see the constructor) and it calls back an event
+     * listener interface for message processing or error. The bytes are read
+     * from the pipeline in the chunks they were written with and framed into
+     * messages by a {@link StreamFramer}.
+     */
+    public void run() {
 
-                if (contentLength == 0) {
-                    sipMessage.removeContent();
-                } else if (maxMessageSize == 0
-                        || contentLength < this.sizeCounter) {
-                    byte[] message_body = new byte[contentLength];
-                    int nread = 0;
-                    while (nread < contentLength) {
-                        // Start my starvation timer.
-                        // This ensures that the other end
-                        // writes at least some data in
-                        // or we will close the pipe from
-                        // him. This prevents DOS attack
-                        // that takes up all our connections.
-                        this.rawInputStream.startTimer();
-                        try {
-
-                            int readlength = inputStream.read(message_body,
-                                    nread, contentLength - nread);
-                            if (readlength > 0) {
-                                nread += readlength;
-                            } else {
-                                break;
-                            }
-                        } catch (IOException ex) {
-                            stackLogger.logError("Exception Reading Content",ex);
-                            break;
-                        } finally {
-                            // Stop my starvation timer.
-                            this.rawInputStream.stopTimer();
-                        }
+        Pipeline inputStream = this.rawInputStream;
+        StreamFramer framer = this.framer;
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try {
+            while (true) {
+                int nbytes;
+                try {
+                    nbytes = inputStream.read(chunk, 0, chunk.length);
+                } catch (IOException ex) {
+                    nbytes = -1;
+                }
+                if (nbytes == -1) {
+                    waitForPendingDispatches();
+                    if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
+                        logger.logDebug("End of stream");
                     }
-                    sipMessage.setMessageContent(message_body);
+                    return;
                 }
-                // Content length too large - process the message and
-                // return error from there.
-                if (sipMessageListener != null) {
-                    try {
-                        if(postParseExecutor == null) {
-                        	
-                            /**
-                             * If gov.nist.javax.sip.TCP_POST_PARSING_THREAD_POOL_SIZE is disabled
-                             * we continue with the old logic here.
-                             */
-                        	if(sipStack.sipEventInterceptor != null) {
-                            	sipStack.sipEventInterceptor.beforeMessage(sipMessage);
-                            }
-                            sipMessageListener.processMessage(sipMessage);
-                            if(sipStack.sipEventInterceptor != null) {
-                            	sipStack.sipEventInterceptor.afterMessage(sipMessage);
-                            }
-                        } else {
-                            /**
-                             * gov.nist.javax.sip.TCP_POST_PARSING_THREAD_POOL_SIZE is enabled so
-                             * we use the threadpool to execute the task.
-                             */
-                            // we need to guarantee message ordering on the same socket on TCP
-                            // so we lock and queue of messages per Call Id
-                            
-                            final String callId = sipMessage.getCallId().getCallId();
-                            // http://dmy999.com/article/34/correct-use-of-concurrenthashmap
-                            CallIDOrderingStructure orderingStructure = messagesOrderingMap.get(callId);
-                            if(orderingStructure == null) {
-                                CallIDOrderingStructure newCallIDOrderingStructure = new CallIDOrderingStructure();
-                                orderingStructure = messagesOrderingMap.putIfAbsent(callId, newCallIDOrderingStructure);
-                                if(orderingStructure == null) {
-                                    orderingStructure = newCallIDOrderingStructure;       
-                                    if (stackLogger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
-                                        stackLogger.logDebug("new CallIDOrderingStructure added for message " + sipMessage);
-                                    }
-                                }
-                            }
-                            final CallIDOrderingStructure callIDOrderingStructure = orderingStructure;                                 
-                            // we add the message to the pending queue of messages to be processed for that call id here 
-                            // to avoid blocking other messages with a different call id
-                            // that could be processed in parallel
-                            callIDOrderingStructure.getMessagesForCallID().offer(sipMessage);                                                                                   
-                            
-      
-                            postParseExecutor.execute(new Dispatch(callIDOrderingStructure, callId)); // run in executor thread
-                        }
-                    } catch (Exception ex) {
-                        // fatal error in processing - close the
-                        // connection.
-                        break;
+                this.readTime = System.currentTimeMillis();
+                if (!framer.hasPartialMessage()) {
+                    this.receptionTime = this.readTime;
+                }
+                try {
+                    framer.addBytes(chunk, 0, nbytes);
+                } catch (IOException ex) {
+                    if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
+                        logger.logDebug("Closing the stream: " + ex.getMessage());
                     }
+                    return;
                 }
             }
         } finally {
             try {
-                cleanMessageOrderingMap();
                 inputStream.close();
             } catch (IOException e) {
                 InternalErrorHandler.handleException(e);
             }
         }
     }
-    
-    private static ExecutorService postParseExecutor = null;
-    
-    public static class NamedThreadFactory implements ThreadFactory {
-    	static long threadNumber = 0;
-		public Thread newThread(Runnable arg0) {
-			Thread thread = new Thread(arg0);
-			thread.setName("SIP-TCP-Core-PipelineThreadpool-" + threadNumber++%999999999);
-			return thread;
-		}
-    	
-    }
- 
-    public static BlockingQueue<Runnable> staticQueue;
-    public static BlockingQueueDispatchAuditor staticQueueAuditor;
-    public static void setPostParseExcutorSize(int threads, int queueTimeout){
-    	if(postParseExecutor != null) {
-    		postParseExecutor.shutdownNow();
-    	}
-    	if(staticQueueAuditor != null) {
-    		try {
-    			staticQueueAuditor.stop();
-    		} catch (Exception e) {
-
-    		}
-    	}
-    	if(threads<=0) {
-    		postParseExecutor = null;
-    	} else {
-    		staticQueue = new LinkedBlockingQueue<Runnable>();
-    		postParseExecutor = new ThreadPoolExecutor(threads, threads,
-    				0, TimeUnit.SECONDS, staticQueue,
-    				new NamedThreadFactory());
-
-    		staticQueueAuditor = new BlockingQueueDispatchAuditor(staticQueue);
-    		staticQueueAuditor.setTimeout(queueTimeout);
-    		staticQueueAuditor.start(2000);
-    	}
 
+    /**
+     * Return the time at which the first byte of the message that is being
+     * received was read, or 0 if no message is partially received. A peer
+     * that takes too long to complete a message gets its connection closed by
+     * the stack, see gov.nist.javax.sip.READ_TIMEOUT.
+     */
+    public long getMessageStartTime() {
+        return this.framer.getMessageStartTime();
     }
 
     /**
-     * Data structure to make sure ordering of Messages is guaranteed under TCP when the post parsing thread pool is used
-     * @author jean.deruelle@gmail.com
+     * Return the time at which bytes were last received from the peer.
+     */
+    public long getLastActivityTime() {
+        return this.rawInputStream.getLastActivityTime();
+    }
+    
+    /**
+     * The post parsing executor is now owned by each stack, see
+     * {@link SIPTransactionStack#setTcpPostParsingThreadPoolSize(int)} and
+     * gov.nist.javax.sip.TCP_POST_PARSING_THREAD_POOL_SIZE. This method does
+     * nothing and is kept for source compatibility.
      *
+     * @deprecated set the pool size on the stack instead.
      */
-    class CallIDOrderingStructure {
-        private Semaphore semaphore;
-        private Queue<SIPMessage> messagesForCallID;
-        
-        public CallIDOrderingStructure() {
-            semaphore = new Semaphore(1, true);
-            messagesForCallID = new ConcurrentLinkedQueue<SIPMessage>();
-        }        
-
-        /**
-         * @return the semaphore
-         */
-        public Semaphore getSemaphore() {
-            return semaphore;
-        }
-       
-        /**
-         * @return the messagesForCallID
-         */
-        public Queue<SIPMessage> getMessagesForCallID() {
-            return messagesForCallID;
-        }
+    @Deprecated
+    public static void setPostParseExcutorSize(int threads, int queueTimeout){
     }
 
     public void close() {
@@ -594,19 +466,6 @@ public final class PipelinedMsgParser implements Runnable {
         } catch (IOException ex) {
             // Ignore.
         }
-        if(postParseExecutor!=null) {
-            postParseExecutor.shutdown();
-            postParseExecutor = null;
-        }
-        cleanMessageOrderingMap();        
-    }
-    
-    private void cleanMessageOrderingMap() {
-        for (CallIDOrderingStructure callIDOrderingStructure: messagesOrderingMap.values()) {
-            callIDOrderingStructure.getSemaphore().release();
-            callIDOrderingStructure.getMessagesForCallID().clear();
-        }
-        messagesOrderingMap.clear();
     }
 }
 /*
@@ -0,0 +1,330 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.parser;
+
+import java.io.IOException;
+
+/**
+ * Splits the bytes received on a stream connection into SIP messages. The
+ * bytes are pushed in whatever chunks the socket returned them with
+ * {@link #addBytes(byte[], int, int)}. The framer looks for the empty line
+ * that ends the headers and for the Content-Length header as the bytes come
+ * in, remembering where it stopped so that no byte is looked at twice, and
+ * hands every complete message to its {@link Listener} as a slice of a byte
+ * array. Nothing is converted to a String here, the slice goes to the message
+ * parser as it is.
+ * <p>
+ * Messages that are complete within a chunk are handed over directly from the
+ * array of the caller. Only the beginning of a message that is not complete
+ * yet is copied into the buffer of the framer.
+ * <p>
+ * Empty lines between messages are discarded. These are the CRLF keep alives
+ * of RFC 5626 (and RFC 3261 section 7.5).
+ * <p>
+ * The framer is not thread safe, it is meant to be fed by the one thread that
+ * reads the connection.
+ *
+ * @see PipelinedMsgParser
+ * @see NioPipelineParser
+ */
+public class StreamFramer {
+
+    /**
+     * Gets the messages found by the framer. The array passed to the methods
+     * belongs to the framer or to the caller of addBytes and may be reused as
+     * soon as the method returns.
+     */
+    public interface Listener {
+
+        /**
+         * A complete message. The headers, including the empty line that ends
+         * them, are the <code>headerLength</code> bytes at
+         * <code>offset</code> and are followed by the
+         * <code>contentLength</code> bytes of the body.
+         */
+        public void processFrame(byte[] buffer, int offset, int headerLength,
+                int contentLength) throws IOException;
+
+        /**
+         * A message whose headers fit in the maximum message size but whose
+         * body does not. Only the headers are available. The framer fails
+         * with an IOException right after this call since it cannot find the
+         * next message on the stream without reading the body.
+         */
+        public void processOversizedFrame(byte[] buffer, int offset,
+                int headerLength, int contentLength) throws IOException;
+    }
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private static final int SKIP_EMPTY_LINES = 0;
+
+    private static final int HEADERS = 1;
+
+    private static final int BODY = 2;
+
+    private static final int FAILED = 3;
+
+    private static final byte[] CONTENT_LENGTH = { 'c', 'o', 'n', 't', 'e',
+            'n', 't', '-', 'l', 'e', 'n', 'g', 't', 'h' };
+
+    private final Listener listener;
+
+    private final int maxMessageSize;
+
+    // Start of a message that is not complete yet. Only used once the
+    // caller's array has been left.
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    private int length;
+
+    private int state = SKIP_EMPTY_LINES;
+
+    // The positions below are relative to the start of the current message.
+
+    // Number of bytes of the headers looked at so far.
+    private int scanned;
+
+    // Start of the line being read.
+    private int lineStart;
+
+    // Start of the last header whose end (a line not starting with white
+    // space) has not been seen yet, -1 if none.
+    private int headerStart;
+
+    private int headerLength;
+
+    private int contentLength;
+
+    // When the first byte of the message that is not complete yet was
+    // framed, 0 if there is none.
+    private volatile long messageStartTime;
+
+    /**
+     * Constructor.
+     *
+     * @param listener gets the messages.
+     * @param maxMessageSize the maximum size of a message, headers and body,
+     *            0 for no limit.
+     */
+    public StreamFramer(Listener listener, int maxMessageSize) {
+        this.listener = listener;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Feed bytes read from the connection. Every message completed by these
+     * bytes is passed to the listener before returning.
+     *
+     * @throws IOException if a message exceeds the maximum message size or if
+     *             the listener failed. The stream cannot be framed any more
+     *             and the connection should be closed.
+     */
+    public void addBytes(byte[] bytes, int offset, int count) throws IOException {
+        if (this.state == FAILED) {
+            throw new IOException("Max size exceeded!");
+        }
+        if (this.length == 0) {
+            int end = offset + count;
+            int start = frame(bytes, offset, end);
+            if (start < end) {
+                ensureCapacity(end - start);
+                System.arraycopy(bytes, start, this.buffer, 0, end - start);
+                this.length = end - start;
+            }
+        } else {
+            ensureCapacity(this.length + count);
+            System.arraycopy(bytes, offset, this.buffer, this.length, count);
+            this.length += count;
+            int start = frame(this.buffer, 0, this.length);
+            this.length -= start;
+            if (this.length > 0 && start > 0) {
+                System.arraycopy(this.buffer, start, this.buffer, 0, this.length);
+            } else if (this.length == 0 && this.buffer.length > INITIAL_BUFFER_SIZE) {
+                // Do not keep a large buffer around for an idle connection.
+                this.buffer = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+    }
+
+    /**
+     * Return true if the beginning of a message has been received and the
+     * rest of it has not.
+     */
+    public boolean hasPartialMessage() {
+        return this.state == HEADERS || this.state == BODY;
+    }
+
+    /**
+     * Return the time at which the framer got the first byte of the message
+     * that is not complete yet, or 0 if there is no such message. This may be
+     * read from any thread, the stack uses it to close connections on which
+     * peers send too slowly.
+     */
+    public long getMessageStartTime() {
+        return this.messageStartTime;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > this.buffer.length) {
+            byte[] newBuffer = new byte[Math.max(this.buffer.length * 2, capacity)];
+            System.arraycopy(this.buffer, 0, newBuffer, 0, this.length);
+            this.buffer = newBuffer;
+        }
+    }
+
+    /**
+     * Pass the complete messages between start and end to the listener.
+     *
+     * @return the start of the bytes that were not consumed, which are the
+     *         beginning of the next message.
+     */
+    private int frame(byte[] bytes, int start, int end) throws IOException {
+        while (true) {
+            if (this.state == SKIP_EMPTY_LINES) {
+                while (start < end && (bytes[start] == '\r' || bytes[start] == '\n')) {
+                    start++;
+                }
+                if (start == end) {
+                    return end;
+                }
+                this.state = HEADERS;
+                this.messageStartTime = System.currentTimeMillis();
+                this.scanned = 0;
+                this.lineStart = 0;
+                this.headerStart = -1;
+                this.contentLength = 0;
+            }
+            if (this.state == HEADERS && !scanHeaders(bytes, start, end)) {
+                return start;
+            }
+            if (this.maxMessageSize > 0
+                    && (long) this.headerLength + this.contentLength >= this.maxMessageSize) {
+                this.state = FAILED;
+                this.listener.processOversizedFrame(bytes, start, this.headerLength,
+                        this.contentLength);
+                throw new IOException("Max size exceeded!");
+            }
+            int messageLength = this.headerLength + this.contentLength;
+            if (end - start < messageLength) {
+                this.state = BODY;
+                return start;
+            }
+            this.state = SKIP_EMPTY_LINES;
+            this.messageStartTime = 0;
+            this.listener.processFrame(bytes, start, this.headerLength, this.contentLength);
+            start += messageLength;
+        }
+    }
+
+    /**
+     * Look for the end of the headers of the message at start, picking up
+     * the Content-Length on the way.
+     *
+     * @return false if more bytes are needed.
+     */
+    private boolean scanHeaders(byte[] bytes, int start, int end) throws IOException {
+        int i = start + this.scanned;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            int position = i - start;
+            if (position == this.lineStart && position > 0) {
+                if (b == ' ' || b == '\t') {
+                    // Continuation of the previous header.
+                } else {
+                    if (this.headerStart >= 0) {
+                        readContentLength(bytes, start + this.headerStart, i);
+                    }
+                    this.headerStart = (b == '\r' || b == '\n') ? -1 : position;
+                }
+            }
+            if (b == '\n') {
+                int lineLength = position - this.lineStart;
+                if (position > 0 && (lineLength == 0
+                        || (lineLength == 1 && bytes[i - 1] == '\r'))) {
+                    this.headerLength = position + 1;
+                    if (this.maxMessageSize > 0 && this.headerLength >= this.maxMessageSize) {
+                        this.state = FAILED;
+                        throw new IOException("Max size exceeded!");
+                    }
+                    return true;
+                }
+                this.lineStart = position + 1;
+            }
+        }
+        this.scanned = i - start;
+        if (this.maxMessageSize > 0 && this.scanned >= this.maxMessageSize) {
+            this.state = FAILED;
+            throw new IOException("Max size exceeded!");
+        }
+        return false;
+    }
+
+    /**
+     * Set the content length if the header between start and end is a
+     * Content-Length header, in its long or compact form.
+     */
+    private void readContentLength(byte[] bytes, int start, int end) {
+        int i = start;
+        int first = bytes[i] | 0x20;
+        if (first != 'c' && first != 'l') {
+            return;
+        }
+        if (first == 'c') {
+            if (end - start < CONTENT_LENGTH.length) {
+                return;
+            }
+            for (int j = 0; j < CONTENT_LENGTH.length; j++) {
+                if ((bytes[i + j] | 0x20) != CONTENT_LENGTH[j]) {
+                    return;
+                }
+            }
+            i += CONTENT_LENGTH.length;
+        } else {
+            i++;
+        }
+        while (i < end && (bytes[i] == ' ' || bytes[i] == '\t')) {
+            i++;
+        }
+        if (i == end || bytes[i] != ':') {
+            return;
+        }
+        i++;
+        while (i < end && (bytes[i] == ' ' || bytes[i] == '\t'
+                || bytes[i] == '\r' || bytes[i] == '\n')) {
+            i++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (i < end && bytes[i] >= '0' && bytes[i] <= '9') {
+            value = Math.min(value * 10 + (bytes[i] - '0'), Integer.MAX_VALUE);
+            digits++;
+            i++;
+        }
+        // A bad value is reported by the message parser.
+        this.contentLength = digits == 0 ? 0 : (int) value;
+    }
+}
@@ -74,7 +74,7 @@ import java.text.ParseException;
  *
   *
  */
-public class StringMsgParser implements MessageParser {
+public class StringMsgParser implements MessageParserExt {
 
     protected static boolean computeContentLengthFromMessage = false;
 
@@ -205,6 +205,24 @@ public class StringMsgParser implements MessageParser {
         return message;
     }
 
+    /**
+     * Parse a SIP message held in a region of a larger buffer. This parser
+     * works on a whole array so the region is copied out first unless it
+     * already spans the entire buffer.
+     *
+     * @see MessageParserExt
+     */
+    public SIPMessage parseSIPMessage(byte[] msgBuffer, int offset, int length, boolean readBody, boolean strict, ParseExceptionListener parseExceptionListener) throws ParseException {
+        if (msgBuffer == null || length <= 0)
+            return null;
+        byte[] msgBytes = msgBuffer;
+        if (offset != 0 || length != msgBuffer.length) {
+            msgBytes = new byte[length];
+            System.arraycopy(msgBuffer, offset, msgBytes, 0, length);
+        }
+        return parseSIPMessage(msgBytes, readBody, strict, parseExceptionListener);
+    }
+
     protected static String trimEndOfLine(String line) {
         if (line == null)
             return line;
@@ -0,0 +1,312 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogWriter;
+import gov.nist.core.StackLogger;
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.header.RetryAfter;
+import gov.nist.javax.sip.header.Via;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.message.SIPResponse;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sip.SipStack;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+/**
+ * A congestion control valve that reacts to the processing latency instead
+ * of the size of the transaction table.
+ * <p>
+ * The delay of a request is the longest of the time it waited between being
+ * read from the network and reaching the valve (the time spent in the
+ * dispatch queues) and the average time the SipListener takes to process a
+ * request. The listener average is left out once the listener has not
+ * finished a request for two intervals, which happens when every request
+ * that would reach it is rejected, so that it cannot keep the valve
+ * overloaded on its own. As with CoDel, a delay above the target is tolerated for one
+ * interval to absorb bursts. If it stays above the target the valve is
+ * overloaded until the delay falls below the target again. While overloaded:
+ * <ul>
+ * <li>new INVITE and REGISTER requests are all rejected,</li>
+ * <li>the other requests are rejected at a rate that increases with the
+ * duration of the overload,</li>
+ * <li>BYE, ACK, CANCEL and PRACK are never rejected because they free
+ * resources, nor are retransmissions of requests already let through.</li>
+ * </ul>
+ * Rejected requests get a DROP_RESPONSE_STATUS response (503 by default, 0
+ * to drop silently) with a Retry-After header. When the client supports
+ * overload control (an oc parameter in its Via, RFC 7339) the response also
+ * carries the percentage of requests the client should shed.
+ * <p>
+ * To enable this in your application you must specify this property:
+ * gov.nist.javax.sip.SIP_MESSAGE_VALVE=gov.nist.javax.sip.stack.AdaptiveCongestionControlMessageValve
+ * <p>
+ * The valve is configured with these stack properties:
+ * <ul>
+ * <li>gov.nist.javax.sip.OVERLOAD_TARGET_DELAY: target delay in milliseconds,
+ * 100 by default.</li>
+ * <li>gov.nist.javax.sip.OVERLOAD_INTERVAL: how long in milliseconds the delay
+ * may stay above the target before requests are rejected, 500 by default.</li>
+ * <li>gov.nist.javax.sip.OVERLOAD_RETRY_AFTER: Retry-After in seconds of the
+ * rejections, 5 by default, 0 for none.</li>
+ * <li>DROP_RESPONSE_STATUS: as for {@link CongestionControlMessageValve}.</li>
+ * </ul>
+ */
+public class AdaptiveCongestionControlMessageValve implements SIPMessageValveExt {
+	private static StackLogger logger = CommonLogger.getLogger(AdaptiveCongestionControlMessageValve.class);
+
+	protected SipStackImpl sipStack;
+
+	protected int targetDelay = 100;
+
+	protected int interval = 500;
+
+	protected int retryAfter = 5;
+
+	protected int dropResponseStatus = 503;
+
+	// Guarded by this.
+	// Time at which the delay has been above the target for an interval, 0 if below.
+	private long firstAboveTime;
+	private volatile boolean overloaded;
+	// Next time a request other than a new INVITE or REGISTER is rejected.
+	private long nextDrop;
+	// Rejections since the start of the overload, sets the rejection rate.
+	private int dropCount;
+	private long sheddableSinceOverload;
+	private long shedSinceOverload;
+
+	private final AtomicLong admittedRequests = new AtomicLong();
+	private final AtomicLong shedRequests = new AtomicLong();
+	private final AtomicLong overloadEpisodes = new AtomicLong();
+	private volatile long lastSojournTime;
+	private volatile long maxSojournTime;
+	// Moving average of the SipListener processing time in microseconds.
+	private final AtomicLong listenerLatency = new AtomicLong();
+	private volatile long lastListenerSampleTime;
+
+	public boolean processRequest(SIPRequest request, MessageChannel messageChannel) {
+		String method = request.getMethod();
+		if (method.equals(Request.BYE) || method.equals(Request.ACK)
+				|| method.equals(Request.PRACK) || method.equals(Request.CANCEL)) {
+			admittedRequests.incrementAndGet();
+			return true;
+		}
+		long now = System.currentTimeMillis();
+		long sojourn = request.getReceptionTime() == 0 ? 0
+				: Math.max(0, now - request.getReceptionTime());
+		lastSojournTime = sojourn;
+		if (sojourn > maxSojournTime) {
+			maxSojournTime = sojourn;
+		}
+		long delay = sojourn;
+		if (now - lastListenerSampleTime <= 2L * interval) {
+			delay = Math.max(delay, getListenerLatency());
+		}
+		if ((delay >= targetDelay || overloaded)
+				&& sipStack.findTransaction(request.getTransactionKey(), true) != null) {
+			// a retransmission of a request already let through, it is neither
+			// rejected nor counted by the control law
+			admittedRequests.incrementAndGet();
+			return true;
+		}
+		boolean newWork = (method.equals(Request.INVITE) || method.equals(Request.REGISTER))
+				&& request.getToTag() == null;
+		if (!shed(now, delay, newWork)) {
+			admittedRequests.incrementAndGet();
+			return true;
+		}
+		shedRequests.incrementAndGet();
+		if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+			logger.logDebug("Overloaded, delay " + delay + " ms, rejecting " + request.getFirstLine());
+		}
+		reject(request, messageChannel, now);
+		return false;
+	}
+
+	/**
+	 * Update the overload state with the delay of a request.
+	 *
+	 * @return true if the request should be rejected.
+	 */
+	private synchronized boolean shed(long now, long delay, boolean newWork) {
+		if (delay < targetDelay) {
+			firstAboveTime = 0;
+			if (overloaded) {
+				overloaded = false;
+				if (logger.isLoggingEnabled(LogWriter.TRACE_INFO)) {
+					logger.logInfo("Overload ended, " + shedSinceOverload + " requests rejected");
+				}
+			}
+			return false;
+		}
+		if (!overloaded) {
+			if (firstAboveTime == 0) {
+				firstAboveTime = now + interval;
+				return false;
+			}
+			if (now < firstAboveTime) {
+				return false;
+			}
+			overloaded = true;
+			overloadEpisodes.incrementAndGet();
+			// resume close to the previous rate if the last overload just ended
+			dropCount = dropCount > 2 && now - nextDrop < 16L * interval ? dropCount - 2 : 1;
+			nextDrop = now;
+			sheddableSinceOverload = 0;
+			shedSinceOverload = 0;
+			if (logger.isLoggingEnabled(LogWriter.TRACE_INFO)) {
+				logger.logInfo("Overload started, delay " + delay + " ms");
+			}
+		}
+		sheddableSinceOverload++;
+		if (newWork || now >= nextDrop) {
+			if (!newWork) {
+				// CoDel control law: rejections get closer as the overload lasts
+				dropCount++;
+				nextDrop = now + (long) (interval / Math.sqrt(dropCount));
+			}
+			shedSinceOverload++;
+			return true;
+		}
+		return false;
+	}
+
+	private void reject(SIPRequest request, MessageChannel messageChannel, long now) {
+		if (dropResponseStatus <= 0) {
+			return;
+		}
+		SIPResponse response = request.createResponse(dropResponseStatus);
+		try {
+			if (retryAfter > 0) {
+				RetryAfter retryAfterHeader = new RetryAfter();
+				retryAfterHeader.setRetryAfter(retryAfter);
+				response.setHeader(retryAfterHeader);
+			}
+			Via via = response.getTopmostVia();
+			if (via != null && via.hasParameter("oc")) {
+				// RFC 7339 loss based overload control
+				via.setParameter("oc", Integer.toString(getRejectionRate()));
+				via.setQuotedParameter("oc-algo", "loss");
+				via.setParameter("oc-validity", Integer.toString(interval));
+				String millis = Long.toString(1000 + now % 1000).substring(1);
+				via.setParameter("oc-seq", now / 1000 + "." + millis);
+			}
+			messageChannel.sendMessage(response);
+		} catch (Exception e) {
+			logger.logError("Failed to send congestion control error response" + response, e);
+		}
+	}
+
+	public void requestProcessed(SIPRequest request, long listenerTime) {
+		// moving average over about 8 requests, in microseconds
+		long sample = listenerTime * 1000;
+		long average;
+		do {
+			average = listenerLatency.get();
+		} while (!listenerLatency.compareAndSet(average, average + (sample - average) / 8));
+		lastListenerSampleTime = System.currentTimeMillis();
+	}
+
+	public boolean processResponse(Response response, MessageChannel messageChannel) {
+		return true;
+	}
+
+	/**
+	 * @return true if the valve is currently rejecting requests.
+	 */
+	public synchronized boolean isOverloaded() {
+		return overloaded;
+	}
+
+	/**
+	 * @return the percentage of the requests that can be rejected that were
+	 *         rejected since the overload started, 0 if not overloaded.
+	 */
+	public synchronized int getRejectionRate() {
+		if (!overloaded || sheddableSinceOverload == 0) {
+			return 0;
+		}
+		return (int) Math.max(1, shedSinceOverload * 100 / sheddableSinceOverload);
+	}
+
+	public long getAdmittedRequests() {
+		return admittedRequests.get();
+	}
+
+	public long getShedRequests() {
+		return shedRequests.get();
+	}
+
+	/**
+	 * @return the number of times the valve started rejecting requests.
+	 */
+	public long getOverloadEpisodes() {
+		return overloadEpisodes.get();
+	}
+
+	/**
+	 * @return milliseconds the last request waited before reaching the valve.
+	 */
+	public long getLastSojournTime() {
+		return lastSojournTime;
+	}
+
+	public long getMaxSojournTime() {
+		return maxSojournTime;
+	}
+
+	/**
+	 * @return the average milliseconds the SipListener takes to process a
+	 *         request.
+	 */
+	public long getListenerLatency() {
+		return listenerLatency.get() / 1000;
+	}
+
+	public void destroy() {
+		logger.logInfo("Destroying the adaptive congestion control valve " + this);
+	}
+
+	public void init(SipStack stack) {
+		sipStack = (SipStackImpl) stack;
+		logger.logInfo("Initializing adaptive congestion control valve");
+		Properties properties = sipStack.getConfigurationProperties();
+		targetDelay = Integer.parseInt(properties.getProperty(
+				"gov.nist.javax.sip.OVERLOAD_TARGET_DELAY", Integer.toString(targetDelay)));
+		interval = Integer.parseInt(properties.getProperty(
+				"gov.nist.javax.sip.OVERLOAD_INTERVAL", Integer.toString(interval)));
+		retryAfter = Integer.parseInt(properties.getProperty(
+				"gov.nist.javax.sip.OVERLOAD_RETRY_AFTER", Integer.toString(retryAfter)));
+		dropResponseStatus = Integer.parseInt(properties.getProperty(
+				"DROP_RESPONSE_STATUS", Integer.toString(dropResponseStatus)));
+	}
+}
@@ -0,0 +1,543 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogWriter;
+import gov.nist.core.ServerLogger;
+import gov.nist.core.StackLogger;
+import gov.nist.javax.sip.header.CallID;
+import gov.nist.javax.sip.message.EncodeBuffer;
+import gov.nist.javax.sip.message.SIPMessage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sip.SipStack;
+import javax.sip.header.TimeStampHeader;
+
+/**
+ * A message trace logger that keeps the formatting and the file writes off the
+ * threads of the stack. The calling thread encodes the message into its
+ * encoding buffer and copies the bytes, with the addresses and identifiers of
+ * the message, into a bounded lock-free ring. A background thread writes the
+ * ring in batches to a compact binary trace file, rotated when it reaches its
+ * maximum size. When the ring is full the message is dropped and counted
+ * rather than blocking the stack.
+ * <p>
+ * Register it with
+ * <code>gov.nist.javax.sip.SERVER_LOGGER=gov.nist.javax.sip.stack.BinaryServerLog</code>;
+ * the trace is written to <code>gov.nist.javax.sip.SERVER_LOG</code>, and the
+ * older files to the same name followed by .1, .2 ... The trace viewer in
+ * tools/tracesviewer reads these files as well as the XML traces of
+ * {@link ServerLog}.
+ * <p>
+ * The file format, written with {@link DataOutputStream}, is a header
+ * <pre>
+ * int magic (0x4A535452), short version (1), UTF stack name, UTF description, UTF auxiliary info
+ * </pre>
+ * followed by records, a byte tag then its fields
+ * <pre>
+ * 'M' long time, long Timestamp header value, byte flags (1 sender, 2 status),
+ *     UTF from, UTF to, UTF call id, UTF transaction id, [UTF status], int length, bytes
+ * 'E' long time, UTF stack trace
+ * </pre>
+ *
+ * @see gov.nist.javax.sip.SipStackImpl
+ */
+public class BinaryServerLog implements ServerLogger {
+
+    private static StackLogger logger = CommonLogger.getLogger(BinaryServerLog.class);
+
+    public static final int MAGIC = 0x4A535452;
+
+    public static final short VERSION = 1;
+
+    public static final byte MESSAGE_RECORD = 'M';
+
+    public static final byte EXCEPTION_RECORD = 'E';
+
+    public static final byte SENDER_FLAG = 1;
+
+    public static final byte STATUS_FLAG = 2;
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final long DEFAULT_MAX_FILE_SIZE = 10 * 1024 * 1024;
+
+    private static final int DEFAULT_MAX_FILES = 5;
+
+    // Strings written with writeUTF are limited to 64K bytes.
+    private static final int MAX_UTF_LENGTH = 16000;
+
+    private static final int BATCH_SIZE = 256;
+
+    private static final long IDLE_WAIT = 10 * 1000 * 1000;
+
+    /**
+     * A message or exception waiting in the ring.
+     */
+    static class Record {
+        final byte tag;
+
+        final long time;
+
+        long timeStamp;
+
+        boolean sender;
+
+        String from;
+
+        String to;
+
+        String callId;
+
+        String transactionId;
+
+        String status;
+
+        byte[] bytes;
+
+        String text;
+
+        Record(byte tag, long time) {
+            this.tag = tag;
+            this.time = time;
+        }
+    }
+
+    private AtomicReferenceArray<Record> ring;
+
+    private int mask;
+
+    // Next slot claimed by a producer.
+    private final AtomicLong tail = new AtomicLong();
+
+    // Next slot read by the writer thread.
+    private volatile long head;
+
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    private final AtomicLong writtenMessages = new AtomicLong();
+
+    private volatile Thread writerThread;
+
+    private volatile boolean stopped;
+
+    private String logFileName;
+
+    private long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+
+    private int maxFiles = DEFAULT_MAX_FILES;
+
+    private boolean overwrite;
+
+    private boolean logContent;
+
+    private String stackName;
+
+    private String description;
+
+    private String auxInfo;
+
+    private SIPTransactionStack sipStack;
+
+    private DataOutputStream out;
+
+    private long fileSize;
+
+    public BinaryServerLog() {
+        setBufferSize(DEFAULT_BUFFER_SIZE);
+    }
+
+    public void setSipStack(SipStack sipStack) {
+        if (sipStack instanceof SIPTransactionStack) {
+            this.sipStack = (SIPTransactionStack) sipStack;
+        } else
+            throw new IllegalArgumentException("sipStack must be a SIPTransactionStack");
+    }
+
+    public void setStackProperties(Properties configurationProperties) {
+        this.stackName = configurationProperties.getProperty("javax.sip.STACK_NAME");
+        this.description = this.stackName;
+        this.logFileName = configurationProperties.getProperty("gov.nist.javax.sip.SERVER_LOG");
+        this.logContent = "true".equals(configurationProperties
+                .getProperty("gov.nist.javax.sip.LOG_MESSAGE_CONTENT"));
+        this.overwrite = Boolean.valueOf(configurationProperties
+                .getProperty("gov.nist.javax.sip.SERVER_LOG_OVERWRITE")).booleanValue();
+
+        String bufferSize = configurationProperties
+                .getProperty("gov.nist.javax.sip.SERVER_LOG_BUFFER_SIZE");
+        if (bufferSize != null) {
+            try {
+                setBufferSize(Integer.parseInt(bufferSize));
+            } catch (RuntimeException ex) {
+                logger.logError("SERVER_LOG_BUFFER_SIZE - bad value " + bufferSize, ex);
+            }
+        }
+        String maxFileSize = configurationProperties
+                .getProperty("gov.nist.javax.sip.SERVER_LOG_MAX_FILE_SIZE");
+        if (maxFileSize != null) {
+            try {
+                this.maxFileSize = Long.parseLong(maxFileSize);
+            } catch (NumberFormatException ex) {
+                logger.logError("SERVER_LOG_MAX_FILE_SIZE - bad value " + maxFileSize, ex);
+            }
+        }
+        String maxFiles = configurationProperties
+                .getProperty("gov.nist.javax.sip.SERVER_LOG_MAX_FILES");
+        if (maxFiles != null) {
+            try {
+                this.maxFiles = Integer.parseInt(maxFiles);
+            } catch (NumberFormatException ex) {
+                logger.logError("SERVER_LOG_MAX_FILES - bad value " + maxFiles, ex);
+            }
+        }
+    }
+
+    /**
+     * Set the number of messages the ring holds, rounded up to a power of two.
+     * Only takes effect before the first message is logged.
+     */
+    public void setBufferSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("buffer size must be at least 1");
+        }
+        int capacity = 1;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        this.ring = new AtomicReferenceArray<Record>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    public void setLogFileName(String name) {
+        this.logFileName = name;
+    }
+
+    public String getLogFileName() {
+        return logFileName;
+    }
+
+    /**
+     * Set aux information written in the header of the trace files.
+     */
+    public void setAuxInfo(String auxInfo) {
+        this.auxInfo = auxInfo;
+    }
+
+    /**
+     * @return the number of messages dropped because the ring was full.
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * @return the number of messages written to the trace files.
+     */
+    public long getWrittenMessages() {
+        return writtenMessages.get();
+    }
+
+    public void logMessage(SIPMessage message, String from, String to, boolean sender, long time) {
+        log(message, from, to, null, sender, time);
+    }
+
+    public void logMessage(SIPMessage message, String from, String to, String status,
+            boolean sender, long time) {
+        log(message, from, to, status, sender, time);
+    }
+
+    public void logMessage(SIPMessage message, String from, String to, String status,
+            boolean sender) {
+        log(message, from, to, status, sender, System.currentTimeMillis());
+    }
+
+    public void logException(Exception ex) {
+        if (logFileName == null) {
+            return;
+        }
+        StringWriter trace = new StringWriter();
+        ex.printStackTrace(new PrintWriter(trace));
+        Record record = new Record(EXCEPTION_RECORD, System.currentTimeMillis());
+        record.text = trace.toString();
+        offer(record);
+    }
+
+    private void log(SIPMessage message, String from, String to, String status,
+            boolean sender, long time) {
+        if (logFileName == null || message.getFirstLine() == null) {
+            return;
+        }
+        // Check for room before paying for the copy of the message.
+        if (tail.get() - head > mask) {
+            droppedMessages.incrementAndGet();
+            return;
+        }
+        Record record = new Record(MESSAGE_RECORD, time);
+        record.sender = sender;
+        record.from = from;
+        record.to = to;
+        record.status = status;
+        CallID cid = (CallID) message.getCallId();
+        record.callId = cid == null ? null : cid.getCallId();
+        record.transactionId = message.getTransactionId();
+        TimeStampHeader tsHdr = (TimeStampHeader) message.getHeader(TimeStampHeader.NAME);
+        record.timeStamp = tsHdr == null ? 0 : tsHdr.getTime();
+
+        EncodeBuffer buffer = EncodeBuffer.acquire();
+        try {
+            StringBuilder text = buffer.getText();
+            message.encodeMessage(text);
+            buffer.appendText(text, "UTF-8");
+            byte[] content = logContent ? message.getRawContent() : null;
+            if (content != null) {
+                buffer.append(content);
+            }
+            record.bytes = buffer.toByteArray();
+        } catch (UnsupportedEncodingException ex) {
+            return;
+        } finally {
+            buffer.release();
+        }
+        offer(record);
+    }
+
+    /**
+     * Put a record in the ring, or drop it if the ring is full.
+     */
+    private void offer(Record record) {
+        if (writerThread == null) {
+            startWriter();
+        }
+        long slot;
+        do {
+            slot = tail.get();
+            if (slot - head > mask) {
+                droppedMessages.incrementAndGet();
+                return;
+            }
+        } while (!tail.compareAndSet(slot, slot + 1));
+        ring.set((int) slot & mask, record);
+    }
+
+    private synchronized void startWriter() {
+        if (writerThread != null) {
+            return;
+        }
+        stopped = false;
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                writeRecords();
+            }
+        }, "BinaryServerLogThread");
+        thread.setDaemon(true);
+        writerThread = thread;
+        thread.start();
+    }
+
+    private void writeRecords() {
+        while (true) {
+            int written = drain();
+            if (written == 0) {
+                flush();
+                if (stopped) {
+                    // pick up the records offered while stopping
+                    if (drain() == 0) {
+                        break;
+                    }
+                    continue;
+                }
+                LockSupport.parkNanos(IDLE_WAIT);
+            }
+        }
+        flush();
+        closeFile();
+    }
+
+    /**
+     * Write the published records at the head of the ring.
+     *
+     * @return the number of records written.
+     */
+    private int drain() {
+        int count = 0;
+        long h = head;
+        while (count < BATCH_SIZE) {
+            int index = (int) h & mask;
+            Record record = ring.get(index);
+            if (record == null) {
+                // empty, or the producer claimed the slot but has not set it yet
+                break;
+            }
+            ring.set(index, null);
+            h++;
+            head = h;
+            write(record);
+            count++;
+        }
+        return count;
+    }
+
+    private void write(Record record) {
+        try {
+            if (out == null || (maxFileSize > 0 && fileSize >= maxFileSize)) {
+                openFile(out != null);
+            }
+            int before = out.size();
+            out.writeByte(record.tag);
+            out.writeLong(record.time);
+            if (record.tag == MESSAGE_RECORD) {
+                out.writeLong(record.timeStamp);
+                byte flags = 0;
+                if (record.sender)
+                    flags |= SENDER_FLAG;
+                if (record.status != null)
+                    flags |= STATUS_FLAG;
+                out.writeByte(flags);
+                writeString(record.from);
+                writeString(record.to);
+                writeString(record.callId);
+                writeString(record.transactionId);
+                if (record.status != null)
+                    writeString(record.status);
+                out.writeInt(record.bytes.length);
+                out.write(record.bytes);
+                writtenMessages.incrementAndGet();
+            } else {
+                writeString(record.text);
+            }
+            fileSize += out.size() - before;
+        } catch (IOException ex) {
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                logger.logDebug("Could not write the message trace " + ex.getMessage());
+            closeFile();
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            s = "";
+        } else if (s.length() > MAX_UTF_LENGTH) {
+            s = s.substring(0, MAX_UTF_LENGTH);
+        }
+        out.writeUTF(s);
+    }
+
+    private void openFile(boolean rotate) throws IOException {
+        closeFile();
+        File file = new File(logFileName);
+        boolean append = !overwrite;
+        if (rotate) {
+            for (int i = maxFiles - 1; i > 0; i--) {
+                File older = new File(logFileName + "." + i);
+                if (older.exists()) {
+                    if (i == maxFiles - 1) {
+                        older.delete();
+                    } else {
+                        older.renameTo(new File(logFileName + "." + (i + 1)));
+                    }
+                }
+            }
+            if (maxFiles > 1) {
+                file.renameTo(new File(logFileName + ".1"));
+            }
+            append = false;
+        }
+        // A file is appended to only if it already holds a trace.
+        if (append && file.length() == 0) {
+            append = false;
+        }
+        fileSize = append ? file.length() : 0;
+        overwrite = false;
+        out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, append), 64 * 1024));
+        if (!append) {
+            int before = out.size();
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            writeString(stackName);
+            writeString(description);
+            writeString(auxInfo);
+            fileSize += out.size() - before;
+        }
+    }
+
+    private void flush() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException ex) {
+                closeFile();
+            }
+        }
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Write the pending records, close the trace file and stop the writer
+     * thread. It is started again by the next message.
+     */
+    public void closeLogFile() {
+        Thread thread;
+        synchronized (this) {
+            thread = writerThread;
+            if (thread == null) {
+                return;
+            }
+            stopped = true;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join(5000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            writerThread = null;
+        }
+    }
+}
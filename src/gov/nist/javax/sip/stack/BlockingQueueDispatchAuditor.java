@@ -4,6 +4,9 @@ import gov.nist.core.CommonLogger;
 import gov.nist.core.LogLevels;
 import gov.nist.core.StackLogger;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Queue;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -13,10 +16,18 @@ public class BlockingQueueDispatchAuditor extends TimerTask {
 	private static StackLogger logger = CommonLogger.getLogger(BlockingQueueDispatchAuditor.class);
     private long totalReject = 0;     
     private boolean started = false;
-    private Queue<? extends Runnable> queue;
+    private List<Queue<? extends Runnable>> queues = new ArrayList<Queue<? extends Runnable>>();
     private int timeout = 8000;
     public BlockingQueueDispatchAuditor(Queue<? extends Runnable> queue) {
-    	this.queue = queue;
+    	this.queues.add(queue);
+    }
+
+    /**
+     * Audit several queues with one timer, for example the lanes of a
+     * {@link CallIDOrderedExecutor}.
+     */
+    public BlockingQueueDispatchAuditor(Collection<? extends Queue<? extends Runnable>> queues) {
+    	this.queues.addAll(queues);
     }
     
     public void start(int interval) {
@@ -34,6 +45,13 @@ public class BlockingQueueDispatchAuditor extends TimerTask {
     	this.timeout = timeout;
     }
 
+    /**
+     * @return the number of messages removed because they waited too long.
+     */
+    public long getTotalReject() {
+    	return totalReject;
+    }
+
     public void stop() {
     	try {
     		timer.cancel();
@@ -46,15 +64,23 @@ public class BlockingQueueDispatchAuditor extends TimerTask {
     }
 
 	public void run() {
+		for (Queue<? extends Runnable> queue : queues) {
+			audit(queue);
+		}
+	}
+
+	private void audit(Queue<? extends Runnable> queue) {
 		try {
-			QueuedMessageDispatchBase runnable =(QueuedMessageDispatchBase) this.queue.peek();
+			QueuedMessageDispatchBase runnable =(QueuedMessageDispatchBase) queue.peek();
 			int removed = 0;
 			while(runnable != null) {
 				QueuedMessageDispatchBase d = (QueuedMessageDispatchBase) runnable;
 				if(System.currentTimeMillis() - d.getReceptionTime() > timeout) {
-					queue.poll();
-					runnable = (QueuedMessageDispatchBase) this.queue.peek();
-					removed ++;
+					// the consumer may have taken it meanwhile, do not drop the next one
+					if(queue.remove(d)) {
+						removed ++;
+					}
+					runnable = (QueuedMessageDispatchBase) queue.peek();
 				} else {
 					runnable = null;
 				}
@@ -63,7 +89,7 @@ public class BlockingQueueDispatchAuditor extends TimerTask {
 				totalReject+=removed;
 				if(logger != null && logger.isLoggingEnabled(LogLevels.TRACE_WARN))
 					logger.logWarning("Removed stuck messages=" + removed +
-							" total rejected=" + totalReject + " stil in queue=" + this.queue.size());
+							" total rejected=" + totalReject + " stil in queue=" + queue.size());
 			}
 		} catch (Exception e) {
 			if(logger != null && logger.isLoggingEnabled(LogLevels.TRACE_WARN)) {
@@ -0,0 +1,288 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogWriter;
+import gov.nist.core.StackLogger;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Processes the messages read from stream connections on a fixed number of
+ * lanes. The Call-ID of a message picks its lane, so the messages of a call
+ * are processed one at a time and in the order they were read, while the
+ * messages of other calls are processed in parallel on the other lanes.
+ * <p>
+ * Each lane is a lock free queue drained by its own thread, so readers never
+ * contend on a shared lock. Messages that waited longer than the congestion
+ * control timeout are dropped by a {@link BlockingQueueDispatchAuditor}.
+ * <p>
+ * Used when gov.nist.javax.sip.TCP_POST_PARSING_THREAD_POOL_SIZE is set.
+ *
+ * @see SIPTransactionStack#getCallIDOrderedExecutor()
+ */
+public class CallIDOrderedExecutor {
+
+    private static StackLogger logger = CommonLogger.getLogger(CallIDOrderedExecutor.class);
+
+    // How often stale messages are looked for.
+    private static final int AUDIT_INTERVAL = 2000;
+
+    private final Lane[] lanes;
+
+    private final int queueTimeout;
+
+    private final BlockingQueueDispatchAuditor auditor;
+
+    private volatile boolean stopped;
+
+    /**
+     * Start the lane threads.
+     *
+     * @param laneCount number of lanes (and threads).
+     * @param queueTimeout milliseconds a message may wait in its lane before
+     *            it is dropped, 0 to never drop messages.
+     */
+    public CallIDOrderedExecutor(int laneCount, int queueTimeout) {
+        if (laneCount <= 0) {
+            throw new IllegalArgumentException("Bad lane count " + laneCount);
+        }
+        this.queueTimeout = queueTimeout;
+        this.lanes = new Lane[laneCount];
+        List<Lane> queues = new ArrayList<Lane>();
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane();
+            queues.add(lanes[i]);
+        }
+        if (queueTimeout > 0) {
+            auditor = new BlockingQueueDispatchAuditor(queues);
+            auditor.setTimeout(queueTimeout);
+            auditor.start(AUDIT_INTERVAL);
+        } else {
+            auditor = null;
+        }
+        for (int i = 0; i < laneCount; i++) {
+            Thread thread = new Thread(lanes[i], "SIP-TCP-Core-PipelineThreadpool-" + i);
+            thread.setDaemon(true);
+            lanes[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Queue a task on the lane of the given Call-ID.
+     *
+     * @param callId Call-ID of the message processed by the task, may be null.
+     * @param task the task.
+     */
+    public void execute(String callId, QueuedMessageDispatchBase task) {
+        if (stopped) {
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                logger.logDebug("Executor stopped, dropping message for " + callId);
+            }
+            return;
+        }
+        lanes[getLane(callId)].offer(task);
+    }
+
+    /**
+     * @return the lane the messages of the given Call-ID are processed on.
+     */
+    public int getLane(String callId) {
+        if (callId == null) {
+            return 0;
+        }
+        return (callId.hashCode() & 0x7fffffff) % lanes.length;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Milliseconds a message may wait in its lane, 0 if there is no limit.
+     */
+    public int getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    /**
+     * @return number of messages waiting in the lane.
+     */
+    public int getQueueDepth(int lane) {
+        return lanes[lane].size();
+    }
+
+    /**
+     * @return the largest number of messages that waited in the lane.
+     */
+    public int getMaxQueueDepth(int lane) {
+        return lanes[lane].maxDepth.get();
+    }
+
+    /**
+     * @return number of messages processed on the lane.
+     */
+    public long getExecutedCount(int lane) {
+        return lanes[lane].executed.get();
+    }
+
+    /**
+     * @return number of messages dropped because they waited too long.
+     */
+    public long getRejectedCount() {
+        return auditor == null ? 0 : auditor.getTotalReject();
+    }
+
+    /**
+     * Stop the lane threads and drop the waiting messages.
+     */
+    public void stop() {
+        stopped = true;
+        if (auditor != null) {
+            auditor.stop();
+        }
+        for (Lane lane : lanes) {
+            lane.clear();
+            LockSupport.unpark(lane.thread);
+        }
+    }
+
+    /**
+     * A queue of tasks and the thread that runs them. The queue keeps its own
+     * size so that the depth is cheap to read and stays right when the
+     * auditor removes stale tasks.
+     */
+    private final class Lane extends AbstractQueue<QueuedMessageDispatchBase> implements Runnable {
+
+        private final ConcurrentLinkedQueue<QueuedMessageDispatchBase> tasks =
+            new ConcurrentLinkedQueue<QueuedMessageDispatchBase>();
+
+        private final AtomicInteger depth = new AtomicInteger();
+
+        private final AtomicInteger maxDepth = new AtomicInteger();
+
+        private final AtomicLong executed = new AtomicLong();
+
+        private volatile Thread thread;
+
+        // true while the thread is parked or about to park
+        private volatile boolean waiting;
+
+        public boolean offer(QueuedMessageDispatchBase task) {
+            tasks.offer(task);
+            int size = depth.incrementAndGet();
+            int max;
+            while (size > (max = maxDepth.get()) && !maxDepth.compareAndSet(max, size)) {
+            }
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+            return true;
+        }
+
+        public QueuedMessageDispatchBase poll() {
+            QueuedMessageDispatchBase task = tasks.poll();
+            if (task != null) {
+                depth.decrementAndGet();
+            }
+            return task;
+        }
+
+        public QueuedMessageDispatchBase peek() {
+            return tasks.peek();
+        }
+
+        public boolean remove(Object task) {
+            if (tasks.remove(task)) {
+                depth.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isEmpty() {
+            return tasks.isEmpty();
+        }
+
+        public int size() {
+            return depth.get();
+        }
+
+        public Iterator<QueuedMessageDispatchBase> iterator() {
+            final Iterator<QueuedMessageDispatchBase> it = tasks.iterator();
+            return new Iterator<QueuedMessageDispatchBase>() {
+                private QueuedMessageDispatchBase last;
+
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                public QueuedMessageDispatchBase next() {
+                    last = it.next();
+                    return last;
+                }
+
+                public void remove() {
+                    Lane.this.remove(last);
+                }
+            };
+        }
+
+        public void run() {
+            while (!stopped) {
+                QueuedMessageDispatchBase task = poll();
+                if (task == null) {
+                    waiting = true;
+                    // re-check after publishing the flag so that a task
+                    // offered meanwhile is not missed
+                    if (isEmpty() && !stopped) {
+                        LockSupport.park(this);
+                    }
+                    waiting = false;
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (Exception ex) {
+                    logger.logError("Error processing message", ex);
+                }
+                executed.incrementAndGet();
+            }
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                logger.logDebug("Stopped " + Thread.currentThread().getName());
+            }
+        }
+    }
+}
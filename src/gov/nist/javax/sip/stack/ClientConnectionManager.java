@@ -0,0 +1,805 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogWriter;
+import gov.nist.core.StackLogger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The TCP and TLS connections used by the {@link IOHandler} to send messages.
+ * <p>
+ * Connections are pooled by key, the key of the destination for the first
+ * connection to it and the key with a slot suffix for the additional parallel
+ * connections. Connections are opened on connector threads: the first message
+ * to a key starts the connect and the messages sent to the key while the
+ * connect is pending are queued behind it and written, in order, once the
+ * connection is established. A failed connect fails all of them, and if a
+ * failure back off is configured the messages sent to the destination during
+ * the back off fail right away instead of waiting for another connect to time
+ * out. If CONNECTION_WAIT_TIMEOUT is set, a sender waits at most that long
+ * for the connect, giving up counts as a failure for the back off. At most
+ * CONNECTOR_THREADS connects run at a time.
+ * <p>
+ * The connections the stack opens count against MAX_CONNECTIONS. When the
+ * limit is reached, the least recently used idle connection is closed to make
+ * room for the new one. Connections accepted from peers and handed over with
+ * {@link #register(String, String, Socket)} are re-used but neither counted
+ * nor evicted, the message processors manage them.
+ *
+ * @author M. Ranganathan
+ */
+public class ClientConnectionManager {
+
+    private static StackLogger logger = CommonLogger.getLogger(ClientConnectionManager.class);
+
+    /**
+     * Opens the socket of a connection. Called on a connector thread.
+     */
+    interface Connector {
+        Socket connect() throws IOException;
+    }
+
+    /**
+     * Connect statistics of one destination.
+     */
+    public static class DestinationStatistics {
+
+        private final String destination;
+
+        private final AtomicLong connects = new AtomicLong();
+
+        private final AtomicLong failures = new AtomicLong();
+
+        private final AtomicLong totalConnectTime = new AtomicLong();
+
+        private volatile long lastConnectTime;
+
+        private volatile long maxConnectTime;
+
+        private volatile String lastFailure;
+
+        private final AtomicInteger openConnections = new AtomicInteger();
+
+        private final AtomicInteger pendingSends = new AtomicInteger();
+
+        DestinationStatistics(String destination) {
+            this.destination = destination;
+        }
+
+        private void connected(long time) {
+            connects.incrementAndGet();
+            totalConnectTime.addAndGet(time);
+            lastConnectTime = time;
+            if (time > maxConnectTime) {
+                maxConnectTime = time;
+            }
+        }
+
+        private void failed(IOException ex) {
+            failures.incrementAndGet();
+            lastFailure = ex.getMessage();
+        }
+
+        /**
+         * @return the address:port of the destination.
+         */
+        public String getDestination() {
+            return destination;
+        }
+
+        /**
+         * @return the number of connections successfully opened.
+         */
+        public long getConnectCount() {
+            return connects.get();
+        }
+
+        /**
+         * @return the number of connects that failed.
+         */
+        public long getConnectFailures() {
+            return failures.get();
+        }
+
+        /**
+         * @return the time taken by the last successful connect in
+         *         milliseconds (TLS handshake included).
+         */
+        public long getLastConnectTime() {
+            return lastConnectTime;
+        }
+
+        public long getMaxConnectTime() {
+            return maxConnectTime;
+        }
+
+        public double getAverageConnectTime() {
+            long n = connects.get();
+            return n == 0 ? 0 : (double) totalConnectTime.get() / n;
+        }
+
+        /**
+         * @return the message of the last connect failure, null if none.
+         */
+        public String getLastFailure() {
+            return lastFailure;
+        }
+
+        /**
+         * @return the number of connections to the destination in the pool.
+         */
+        public int getOpenConnections() {
+            return openConnections.get();
+        }
+
+        /**
+         * @return the number of messages waiting for a connect.
+         */
+        public int getPendingSends() {
+            return pendingSends.get();
+        }
+
+        public String toString() {
+            return destination + " connects=" + connects + " failures=" + failures
+                    + " open=" + openConnections + " pending=" + pendingSends
+                    + " lastConnectTime=" + lastConnectTime + " maxConnectTime="
+                    + maxConnectTime;
+        }
+    }
+
+    /**
+     * A pooled connection.
+     */
+    private static class Connection {
+
+        final Socket socket;
+
+        final Slot slot;
+
+        // true if opened by us, false if handed over by a message processor.
+        final boolean managed;
+
+        final AtomicInteger writers = new AtomicInteger();
+
+        Connection(Socket socket, Slot slot, boolean managed) {
+            this.socket = socket;
+            this.slot = slot;
+            this.managed = managed;
+        }
+    }
+
+    /**
+     * A message waiting for the connect of its slot.
+     */
+    private static class PendingSend {
+
+        private final byte[] bytes;
+
+        private final int length;
+
+        private boolean done;
+
+        // true once the sender gave up waiting, the message is not written.
+        private boolean cancelled;
+
+        // true while the message is being written, the sender waits for it.
+        private boolean writing;
+
+        private Socket socket;
+
+        private IOException failure;
+
+        PendingSend(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        /**
+         * @return false if the sender gave up waiting and the message must
+         *         not be written.
+         */
+        synchronized boolean begin() {
+            if (cancelled) {
+                return false;
+            }
+            writing = true;
+            return true;
+        }
+
+        synchronized void complete(Socket socket, IOException failure) {
+            this.socket = socket;
+            this.failure = failure;
+            this.done = true;
+            notifyAll();
+        }
+
+        /**
+         * Wait for the message to be written.
+         *
+         * @param timeout the time to wait for the connect in milliseconds, 0
+         *        to wait forever.
+         * @return the socket the message was written on, null if it timed out
+         *         before being written.
+         */
+        synchronized Socket await(long timeout) throws IOException {
+            long deadline = System.currentTimeMillis() + timeout;
+            boolean interrupted = false;
+            while (!done) {
+                long wait = 0;
+                if (timeout > 0 && !writing) {
+                    wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        cancelled = true;
+                        break;
+                    }
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return socket;
+        }
+    }
+
+    /**
+     * One connection of a destination, with the messages waiting for it.
+     */
+    private static class Slot {
+
+        final String key;
+
+        final DestinationStatistics statistics;
+
+        volatile Connection connection;
+
+        // Guarded by this.
+        final LinkedList<PendingSend> pending = new LinkedList<PendingSend>();
+
+        boolean connecting;
+
+        long lastFailureTime;
+
+        IOException lastFailure;
+
+        Slot(String key, DestinationStatistics statistics) {
+            this.key = key;
+            this.statistics = statistics;
+        }
+    }
+
+    private final SIPTransactionStack sipStack;
+
+    private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+
+    private final ConcurrentHashMap<String, DestinationStatistics> statistics =
+        new ConcurrentHashMap<String, DestinationStatistics>();
+
+    // The connections we opened, least recently used first. Also guards
+    // managedConnections.
+    private final LinkedHashMap<Connection, Boolean> lru =
+        new LinkedHashMap<Connection, Boolean>(16, 0.75f, true);
+
+    // Connections we opened or are opening.
+    private int managedConnections;
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    // Created on first use, the stack properties are not known yet when the
+    // IOHandler is created. Guarded by this.
+    private ThreadPoolExecutor connectExecutor;
+
+    private boolean stopped;
+
+    protected ClientConnectionManager(SIPTransactionStack sipStack) {
+        this.sipStack = sipStack;
+    }
+
+    /**
+     * The connector threads, at most CONNECTOR_THREADS of them. The connects
+     * above that wait for a thread in the queue.
+     */
+    private synchronized ThreadPoolExecutor getConnectExecutor() {
+        if (stopped) {
+            throw new RejectedExecutionException("stopped");
+        }
+        if (connectExecutor == null) {
+            int threads = Math.max(1, sipStack.getConnectorThreads());
+            connectExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger threadCount = new AtomicInteger();
+
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "ConnectionManagerConnector-"
+                                    + threadCount.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            connectExecutor.allowCoreThreadTimeOut(true);
+        }
+        return connectExecutor;
+    }
+
+    /**
+     * @param connect true if the slot is looked up to connect to the
+     *        destination. Only the destinations we connect to are reported,
+     *        the connections accepted from peers, whose keys include the
+     *        ephemeral port of the peer, would grow the statistics forever.
+     */
+    private Slot getSlot(String key, String destination, boolean connect) {
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            DestinationStatistics stats = statistics.get(destination);
+            if (stats == null) {
+                stats = new DestinationStatistics(destination);
+                if (connect) {
+                    DestinationStatistics previous = statistics.putIfAbsent(destination, stats);
+                    if (previous != null) {
+                        stats = previous;
+                    }
+                }
+            }
+            slot = new Slot(key, stats);
+            Slot previous = slots.putIfAbsent(key, slot);
+            if (previous != null) {
+                slot = previous;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Send bytes on the connection of the given key, opening it if needed.
+     *
+     * @param key the key of the connection.
+     * @param destination the address:port of the destination.
+     * @param bytes the bytes to send, null to only open the connection.
+     * @param retry if true and the pooled connection turns out to be broken,
+     *        it is replaced by a new one and the bytes are sent on it.
+     * @param connector opens the connection.
+     * @return the socket the bytes were sent on.
+     * @throws IOException if the connection could not be opened or the bytes
+     *         could not be written.
+     */
+    protected Socket send(String key, String destination, byte[] bytes, int length,
+            boolean retry, Connector connector) throws IOException {
+        Slot slot = getSlot(key, destination, true);
+        Connection connection = slot.connection;
+        if (connection != null) {
+            try {
+                write(connection, bytes, length);
+                return connection.socket;
+            } catch (IOException ex) {
+                if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                    logger.logDebug("IOException on " + key + ", closing the connection " + ex);
+                close(connection);
+                if (!retry) {
+                    throw ex;
+                }
+            }
+        }
+        PendingSend pendingSend = new PendingSend(bytes, length);
+        boolean startConnect = false;
+        synchronized (slot) {
+            connection = slot.connection;
+            if (connection == null) {
+                // Also checked while a connect is pending, it may hang until
+                // the senders give up waiting for it.
+                long backoff = sipStack.getConnectionFailureBackoff();
+                if (slot.lastFailure != null && backoff > 0
+                        && System.currentTimeMillis() - slot.lastFailureTime < backoff) {
+                    IOException ex = new IOException("Could not connect to " + destination
+                            + " (" + slot.lastFailure.getMessage() + "), not retrying for "
+                            + backoff + " ms");
+                    ex.initCause(slot.lastFailure);
+                    throw ex;
+                }
+                if (!slot.connecting) {
+                    slot.connecting = true;
+                    startConnect = true;
+                }
+                slot.pending.add(pendingSend);
+                slot.statistics.pendingSends.incrementAndGet();
+            }
+        }
+        if (connection != null) {
+            try {
+                write(connection, bytes, length);
+            } catch (IOException ex) {
+                close(connection);
+                throw ex;
+            }
+            return connection.socket;
+        }
+        if (startConnect) {
+            try {
+                getConnectExecutor().execute(new ConnectTask(slot, connector));
+            } catch (RejectedExecutionException ex) {
+                // stopped
+                connectFailed(slot, new IOException("Connection manager stopped"));
+            }
+        }
+        int timeout = sipStack.getConnectionWaitTimeout();
+        Socket socket = pendingSend.await(timeout);
+        if (socket == null) {
+            IOException ex = new IOException("Timed out after " + timeout
+                    + " ms waiting for the connection to " + destination);
+            synchronized (slot) {
+                if (slot.pending.remove(pendingSend)) {
+                    slot.statistics.pendingSends.decrementAndGet();
+                }
+                if (slot.connection == null) {
+                    slot.lastFailure = ex;
+                    slot.lastFailureTime = System.currentTimeMillis();
+                }
+            }
+            throw ex;
+        }
+        return socket;
+    }
+
+    private void write(Connection connection, byte[] bytes, int length) throws IOException {
+        if (bytes == null || length == 0) {
+            return;
+        }
+        if (connection.managed) {
+            synchronized (lru) {
+                // touch
+                lru.get(connection);
+            }
+        }
+        connection.writers.incrementAndGet();
+        try {
+            OutputStream outputStream = connection.socket.getOutputStream();
+            // Chunk size is 8K - this hack is for large
+            // writes over slow connections.
+            synchronized (outputStream) {
+                int chunksize = 8 * 1024;
+                for (int p = 0; p < length; p += chunksize) {
+                    int chunk = p + chunksize < length ? chunksize : length - p;
+                    outputStream.write(bytes, p, chunk);
+                }
+            }
+            outputStream.flush();
+        } finally {
+            connection.writers.decrementAndGet();
+        }
+    }
+
+    private class ConnectTask implements Runnable {
+
+        private final Slot slot;
+
+        private final Connector connector;
+
+        ConnectTask(Slot slot, Connector connector) {
+            this.slot = slot;
+            this.connector = connector;
+        }
+
+        public void run() {
+            long start = System.currentTimeMillis();
+            try {
+                reserve(slot);
+            } catch (IOException ex) {
+                connectFailed(slot, ex);
+                return;
+            }
+            Socket socket;
+            try {
+                socket = connector.connect();
+            } catch (IOException ex) {
+                release();
+                connectFailed(slot, ex);
+                return;
+            } catch (RuntimeException ex) {
+                release();
+                IOException ioe = new IOException("Could not connect to "
+                        + slot.statistics.getDestination() + ": " + ex);
+                ioe.initCause(ex);
+                connectFailed(slot, ioe);
+                return;
+            }
+            slot.statistics.connected(System.currentTimeMillis() - start);
+            Connection connection = new Connection(socket, slot, true);
+            synchronized (lru) {
+                lru.put(connection, Boolean.TRUE);
+            }
+            connected(slot, connection);
+        }
+    }
+
+    /**
+     * Make room for one more connection we open.
+     */
+    private void reserve(Slot slot) throws IOException {
+        int max = sipStack.maxConnections;
+        Connection evicted = null;
+        synchronized (lru) {
+            if (max != -1 && managedConnections >= max) {
+                for (Iterator<Connection> it = lru.keySet().iterator(); it.hasNext();) {
+                    Connection connection = it.next();
+                    if (connection.socket.isClosed()) {
+                        evicted = connection;
+                        break;
+                    } else if (evicted == null && connection.writers.get() == 0) {
+                        evicted = connection;
+                    }
+                }
+                if (evicted == null) {
+                    throw new IOException("Could not connect to "
+                            + slot.statistics.getDestination() + ": " + managedConnections
+                            + " connections are open and busy (MAX_CONNECTIONS)");
+                }
+            }
+            // the evicted connection gives its place back in close()
+            managedConnections++;
+        }
+        if (evicted != null) {
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                logger.logDebug("MAX_CONNECTIONS reached, closing idle connection "
+                        + evicted.slot.key);
+            evictions.incrementAndGet();
+            close(evicted);
+        }
+    }
+
+    private void release() {
+        synchronized (lru) {
+            managedConnections--;
+        }
+    }
+
+    /**
+     * Write the queued messages and publish the connection. The messages are
+     * written outside the slot lock, the connection is only published once
+     * the queue is empty so that the messages queued meanwhile keep their
+     * order.
+     */
+    private void connected(Slot slot, Connection connection) {
+        slot.statistics.openConnections.incrementAndGet();
+        while (true) {
+            List<PendingSend> pending;
+            synchronized (slot) {
+                slot.lastFailure = null;
+                if (slot.pending.isEmpty()) {
+                    slot.connecting = false;
+                    slot.connection = connection;
+                    return;
+                }
+                pending = new ArrayList<PendingSend>(slot.pending);
+                slot.pending.clear();
+            }
+            for (PendingSend pendingSend : pending) {
+                slot.statistics.pendingSends.decrementAndGet();
+                if (!pendingSend.begin()) {
+                    continue;
+                }
+                try {
+                    write(connection, pendingSend.bytes, pendingSend.length);
+                    pendingSend.complete(connection.socket, null);
+                } catch (IOException ex) {
+                    pendingSend.complete(null, ex);
+                }
+            }
+        }
+    }
+
+    private void connectFailed(Slot slot, IOException ex) {
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+            logger.logDebug("Could not connect " + slot.key + " " + ex);
+        slot.statistics.failed(ex);
+        synchronized (slot) {
+            slot.lastFailure = ex;
+            slot.lastFailureTime = System.currentTimeMillis();
+            for (PendingSend pendingSend : slot.pending) {
+                slot.statistics.pendingSends.decrementAndGet();
+                pendingSend.complete(null, ex);
+            }
+            slot.pending.clear();
+            slot.connecting = false;
+        }
+    }
+
+    /**
+     * Remove a connection from the pool and close it.
+     */
+    private void close(Connection connection) {
+        remove(connection);
+        try {
+            connection.socket.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    private boolean remove(Connection connection) {
+        Slot slot = connection.slot;
+        synchronized (slot) {
+            if (slot.connection != connection) {
+                return false;
+            }
+            slot.connection = null;
+            slot.statistics.openConnections.decrementAndGet();
+        }
+        if (connection.managed) {
+            synchronized (lru) {
+                if (lru.remove(connection) != null) {
+                    managedConnections--;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pool a connection that a message processor manages, typically one we
+     * accepted, so that messages to its peer are sent on it.
+     */
+    protected void register(String key, String destination, Socket socket) {
+        Slot slot = getSlot(key, destination, false);
+        Connection current;
+        synchronized (slot) {
+            current = slot.connection;
+            if (current != null && current.socket == socket) {
+                return;
+            }
+        }
+        if (current != null) {
+            // Replaced but not closed, like before: whoever reads from the
+            // socket closes it.
+            remove(current);
+        }
+        synchronized (slot) {
+            if (slot.connection != null) {
+                return;
+            }
+            slot.connection = new Connection(socket, slot, false);
+            slot.statistics.openConnections.incrementAndGet();
+            slot.lastFailure = null;
+        }
+    }
+
+    /**
+     * @return the socket pooled under the key, null if none.
+     */
+    protected Socket getSocket(String key) {
+        Slot slot = slots.get(key);
+        Connection connection = slot == null ? null : slot.connection;
+        return connection == null ? null : connection.socket;
+    }
+
+    /**
+     * Forget the connection pooled under the key, without closing it, and the
+     * last connect failure. The statistics of the destination are dropped too
+     * when none of its connections is left.
+     */
+    protected void remove(String key) {
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            return;
+        }
+        Connection connection = slot.connection;
+        if (connection != null) {
+            remove(connection);
+        }
+        synchronized (slot) {
+            slot.lastFailure = null;
+            if (slot.connection != null || slot.connecting || !slot.pending.isEmpty()
+                    || !slots.remove(key, slot)) {
+                return;
+            }
+        }
+        DestinationStatistics stats = slot.statistics;
+        if (stats.getOpenConnections() == 0 && stats.getPendingSends() == 0) {
+            statistics.remove(stats.getDestination(), stats);
+        }
+    }
+
+    /**
+     * @return the connect statistics of the destinations we connected to.
+     */
+    public Collection<DestinationStatistics> getDestinationStatistics() {
+        return Collections.unmodifiableCollection(statistics.values());
+    }
+
+    /**
+     * @return the connect statistics of a destination given as address:port,
+     *         null if we never connected to it.
+     */
+    public DestinationStatistics getDestinationStatistics(String destination) {
+        return statistics.get(destination);
+    }
+
+    /**
+     * @return the number of connections the stack opened and that are pooled
+     *         or being opened.
+     */
+    public int getManagedConnectionCount() {
+        synchronized (lru) {
+            return managedConnections;
+        }
+    }
+
+    /**
+     * @return the number of idle connections closed to stay within
+     *         MAX_CONNECTIONS.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Close all the pooled connections and stop the connector threads.
+     */
+    protected void closeAll() {
+        List<Connection> connections = new ArrayList<Connection>();
+        for (Slot slot : slots.values()) {
+            Connection connection = slot.connection;
+            if (connection != null) {
+                connections.add(connection);
+            }
+        }
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+            logger.logDebug("Closing " + connections.size() + " sockets from IOHandler");
+        for (Connection connection : connections) {
+            close(connection);
+        }
+        synchronized (this) {
+            stopped = true;
+            if (connectExecutor != null) {
+                connectExecutor.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogWriter;
+import gov.nist.core.StackLogger;
+import gov.nist.javax.sip.parser.PipelinedMsgParser;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the stream connections of a stack for peers that are too slow or
+ * that went quiet. Instead of a timer task per message, every connection
+ * keeps the time of its last read and the time at which the message it is
+ * receiving started, and a single task of the stack timer goes over the
+ * connections periodically:
+ * <ul>
+ * <li>a connection on which a message is partially received and nothing more
+ * has been received for gov.nist.javax.sip.READ_TIMEOUT milliseconds is
+ * closed. A message that keeps arriving may take longer than that.</li>
+ * <li>a connection we accepted on which nothing has been received for
+ * gov.nist.javax.sip.SERVER_CONNECTION_IDLE_TIMEOUT milliseconds is closed.</li>
+ * </ul>
+ * The connections closed for either reason are counted.
+ *
+ * @see SIPTransactionStack#getConnectionActivityMonitor()
+ */
+public class ConnectionActivityMonitor {
+
+    private static StackLogger logger = CommonLogger.getLogger(ConnectionActivityMonitor.class);
+
+    // Lower bound of the period of the scan.
+    private static final long MIN_SCAN_PERIOD = 50;
+
+    /**
+     * A connection watched by the monitor.
+     */
+    interface Connection {
+
+        /**
+         * Return the time at which bytes were last received.
+         */
+        long getLastActivityTime();
+
+        /**
+         * Return the time at which the message being received started, 0 if
+         * no message is partially received.
+         */
+        long getMessageStartTime();
+
+        /**
+         * Return true if the peer opened the connection.
+         */
+        boolean isIncoming();
+
+        void close();
+    }
+
+    /**
+     * A connection read by a thread that feeds a pipelined parser.
+     */
+    private static class PipelinedConnection implements Connection {
+
+        private final PipelinedMsgParser parser;
+
+        private final boolean incoming;
+
+        PipelinedConnection(PipelinedMsgParser parser, boolean incoming) {
+            this.parser = parser;
+            this.incoming = incoming;
+        }
+
+        public long getLastActivityTime() {
+            return parser.getLastActivityTime();
+        }
+
+        public long getMessageStartTime() {
+            return parser.getMessageStartTime();
+        }
+
+        public boolean isIncoming() {
+            return incoming;
+        }
+
+        public void close() {
+            // Closes the socket stream, the reading thread cleans up.
+            parser.close();
+        }
+    }
+
+    private class ScanTask extends SIPStackTimerTask {
+
+        public void runTask() {
+            scan(System.currentTimeMillis());
+        }
+    }
+
+    private final SIPTransactionStack sipStack;
+
+    private final ConcurrentHashMap<Connection, Boolean> connections = new ConcurrentHashMap<Connection, Boolean>();
+
+    private final AtomicLong readTimeoutCloseCount = new AtomicLong();
+
+    private final AtomicLong idleCloseCount = new AtomicLong();
+
+    // Scheduled on the first registration, guarded by this.
+    private ScanTask scanTask;
+
+    ConnectionActivityMonitor(SIPTransactionStack sipStack) {
+        this.sipStack = sipStack;
+    }
+
+    private boolean isEnabled() {
+        return sipStack.readTimeout > 0 || sipStack.getServerConnectionIdleTimeout() > 0;
+    }
+
+    /**
+     * Watch the connection read through the given parser.
+     *
+     * @return the handle to pass to {@link #unregister(Connection)}, null if
+     *         neither timeout is configured.
+     */
+    Connection register(PipelinedMsgParser parser, boolean incoming) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Connection connection = new PipelinedConnection(parser, incoming);
+        register(connection);
+        return connection;
+    }
+
+    void register(Connection connection) {
+        if (!isEnabled()) {
+            return;
+        }
+        connections.put(connection, Boolean.TRUE);
+        synchronized (this) {
+            if (scanTask == null) {
+                long period = Long.MAX_VALUE;
+                if (sipStack.readTimeout > 0) {
+                    period = sipStack.readTimeout;
+                }
+                if (sipStack.getServerConnectionIdleTimeout() > 0) {
+                    period = Math.min(period, sipStack.getServerConnectionIdleTimeout());
+                }
+                period = Math.max(MIN_SCAN_PERIOD, period / 4);
+                scanTask = new ScanTask();
+                sipStack.getTimer().scheduleWithFixedDelay(scanTask, period, period);
+            }
+        }
+    }
+
+    void unregister(Connection connection) {
+        if (connection != null) {
+            connections.remove(connection);
+        }
+    }
+
+    /**
+     * Close the connections that are too slow or idle.
+     */
+    void scan(long now) {
+        int readTimeout = sipStack.readTimeout;
+        long idleTimeout = sipStack.getServerConnectionIdleTimeout();
+        for (Iterator<Connection> it = connections.keySet().iterator(); it.hasNext();) {
+            Connection connection = it.next();
+            long messageStartTime = connection.getMessageStartTime();
+            long lastActivityTime = connection.getLastActivityTime();
+            if (readTimeout > 0 && messageStartTime != 0
+                    && now - lastActivityTime >= readTimeout) {
+                it.remove();
+                readTimeoutCloseCount.incrementAndGet();
+                if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                    logger.logDebug("Closing " + connection + ", nothing received for "
+                            + (now - lastActivityTime) + " ms in the middle of a message");
+                }
+                connection.close();
+            } else if (idleTimeout > 0 && messageStartTime == 0 && connection.isIncoming()
+                    && now - lastActivityTime >= idleTimeout) {
+                it.remove();
+                idleCloseCount.incrementAndGet();
+                if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                    logger.logDebug("Closing " + connection + ", idle for "
+                            + (now - lastActivityTime) + " ms");
+                }
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Stop scanning and forget the connections.
+     */
+    synchronized void stop() {
+        if (scanTask != null) {
+            sipStack.getTimer().cancel(scanTask);
+            scanTask = null;
+        }
+        connections.clear();
+    }
+
+    /**
+     * Return the number of connections being watched.
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Return the number of connections closed because nothing was received
+     * for the read timeout in the middle of a message.
+     */
+    public long getReadTimeoutCloseCount() {
+        return readTimeoutCloseCount.get();
+    }
+
+    /**
+     * Return the number of incoming connections closed because nothing was
+     * received for the idle timeout.
+     */
+    public long getIdleCloseCount() {
+        return idleCloseCount.get();
+    }
+}
@@ -34,10 +34,13 @@ import gov.nist.javax.sip.header.*;
 import gov.nist.javax.sip.*;
 import gov.nist.core.*;
 import gov.nist.core.net.AddressResolver;
+import gov.nist.core.net.AddressResolverExt;
 
 import javax.sip.*;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.ListIterator;
 
 import javax.sip.header.RouteHeader;
@@ -90,13 +93,21 @@ import javax.sip.address.*;
  * </ol>
  * Subsequently, the request URI will be used as next hop target
  *
+ * <p>
+ * When the address resolver of the stack is an {@link AddressResolverExt},
+ * such as {@link gov.nist.javax.sip.DnsAddressResolver}, the next hop target
+ * is resolved to a list of hops in the order in which they should be tried,
+ * returned by {@link #getNextHops(Request)}, without the hops whose transport
+ * has no listening point. The next hop is the first one of the list. The hops
+ * that time out are reported to the address resolver, which then tries the
+ * others first.
  *
  * @version 1.2 $Revision: 1.20 $ $Date: 2010/12/02 22:04:12 $
  *
  * @author M. Ranganathan <br/>
  *
  */
-public class DefaultRouter implements Router {
+public class DefaultRouter implements RouterExt {
 	
 	private static StackLogger logger = CommonLogger.getLogger(DefaultRouter.class);
 
@@ -104,6 +115,10 @@ public class DefaultRouter implements Router {
 
     private Hop defaultRoute;
 
+    // The outbound proxy as configured (port -1 if none), resolved for each
+    // request by an AddressResolverExt.
+    private Hop defaultRouteTarget;
+
     private DefaultRouter() {
 
     }
@@ -117,6 +132,12 @@ public class DefaultRouter implements Router {
             try {
                 this.defaultRoute = (Hop) this.sipStack.getAddressResolver()
                         .resolveAddress((Hop) (new HopImpl(defaultRoute)));
+                HopImpl target = new HopImpl(defaultRoute);
+                int bracket = defaultRoute.indexOf(']');
+                if (defaultRoute.indexOf(':', bracket) <= 0) {
+                    target = new HopImpl(target.getHost(), -1, target.getTransport());
+                }
+                this.defaultRouteTarget = target;
             } catch (IllegalArgumentException ex) {
                 // The outbound proxy is optional. If specified it should be host:port/transport.
                 logger
@@ -160,12 +181,20 @@ public class DefaultRouter implements Router {
      *
      */
     public Hop getNextHop(Request request) throws SipException {
+        List<Hop> hops = getNextHopList(request);
+        return hops.isEmpty() ? null : hops.get(0);
+    }
+
+    /**
+     * Return the hops to try for a request, best first.
+     */
+    private List<Hop> getNextHopList(Request request) throws SipException {
 
         SIPRequest sipRequest = (SIPRequest) request;
 
         RequestLine requestLine = sipRequest.getRequestLine();
         if (requestLine == null) {
-            return defaultRoute;
+            return getDefaultRouteHops();
         }
         javax.sip.address.URI requestURI = requestLine.getUri();
         if (requestURI == null)
@@ -206,50 +235,50 @@ public class DefaultRouter implements Router {
                                 .logDebug("Route post processing fixed strict routing");
                 }
 
-                Hop hop = createHop(sipUri,request);
+                List<Hop> hops = createHops(sipUri,request);
                 if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
                     logger
-                            .logDebug("NextHop based on Route:" + hop);
-                return hop;
+                            .logDebug("NextHop based on Route:" + hops);
+                return hops;
             } else {
                 throw new SipException("First Route not a SIP URI");
             }
 
         } else if (requestURI.isSipURI()
                 && ((SipURI) requestURI).getMAddrParam() != null) {
-            Hop hop = createHop((SipURI) requestURI,request);
+            List<Hop> hops = createHops((SipURI) requestURI,request);
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
                 logger
                         .logDebug("Using request URI maddr to route the request = "
-                                + hop.toString());
+                                + hops);
 
             // JvB: don't remove it!
             // ((SipURI) requestURI).removeParameter("maddr");
 
-            return hop;
+            return hops;
 
         } else if (defaultRoute != null) {
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
                 logger
                         .logDebug("Using outbound proxy to route the request = "
                                 + defaultRoute.toString());
-            return defaultRoute;
+            return getDefaultRouteHops();
         } else if (requestURI.isSipURI()) {
-            Hop hop = createHop((SipURI) requestURI,request);
-            if (hop != null && logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+            List<Hop> hops = createHops((SipURI) requestURI,request);
+            if (!hops.isEmpty() && logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
                 logger.logDebug("Used request-URI for nextHop = "
-                        + hop.toString());
+                        + hops);
             else if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                 logger
                         .logDebug("returning null hop -- loop detected");
             }
-            return hop;
+            return hops;
 
         } else {
             // The internal router should never be consulted for non-sip URIs.
             InternalErrorHandler.handleException("Unexpected non-sip URI",
                     this.logger);
-            return null;
+            return new ArrayList<Hop>(0);
         }
 
     }
@@ -287,10 +316,11 @@ public class DefaultRouter implements Router {
      */
 
 
-    private final Hop createHop(SipURI sipUri, Request request) {
+    private final List<Hop> createHops(SipURI sipUri, Request request) {
         // always use TLS when secure
         String transport = sipUri.isSecure() ? SIPConstants.TLS : sipUri
                 .getTransportParam();
+        boolean transportSpecified = transport != null;
         if (transport == null) {
             //@see issue 131
             ViaHeader via = (ViaHeader) request.getHeader(ViaHeader.NAME);
@@ -311,9 +341,66 @@ public class DefaultRouter implements Router {
         String host = sipUri.getMAddrParam() != null ? sipUri.getMAddrParam()
                 : sipUri.getHost();
         AddressResolver addressResolver = this.sipStack.getAddressResolver();
-        return addressResolver
-                .resolveAddress(new HopImpl(host, port, transport));
+        if (addressResolver instanceof AddressResolverExt) {
+            List<Hop> hops = resolveHops((AddressResolverExt) addressResolver,
+                    new HopImpl(host, sipUri.getPort(), transport), transportSpecified);
+            if (!hops.isEmpty()) {
+                return hops;
+            }
+        }
+        return hopList(addressResolver
+                .resolveAddress(new HopImpl(host, port, transport)));
+
+    }
+
+    /**
+     * The hops of the outbound proxy.
+     */
+    private List<Hop> getDefaultRouteHops() {
+        AddressResolver addressResolver = this.sipStack.getAddressResolver();
+        if (defaultRouteTarget != null
+                && addressResolver instanceof AddressResolverExt) {
+            List<Hop> hops = resolveHops((AddressResolverExt) addressResolver,
+                    defaultRouteTarget, true);
+            if (!hops.isEmpty()) {
+                return hops;
+            }
+        }
+        return hopList(defaultRoute);
+    }
 
+    /**
+     * Resolve a target to a list of hops, leaving out the hops whose
+     * transport has no listening point unless no hop is left.
+     */
+    private List<Hop> resolveHops(AddressResolverExt addressResolver,
+            Hop target, boolean transportSpecified) {
+        List<Hop> hops = addressResolver.resolveAddresses(target, transportSpecified);
+        List<Hop> supported = new ArrayList<Hop>(hops.size());
+        for (Hop hop : hops) {
+            if (isTransportSupported(hop.getTransport())) {
+                supported.add(hop);
+            }
+        }
+        return supported.isEmpty() ? hops : supported;
+    }
+
+    private boolean isTransportSupported(String transport) {
+        MessageProcessor[] processors = sipStack.getMessageProcessors();
+        for (int i = 0; i < processors.length; i++) {
+            if (processors[i].getTransport().equalsIgnoreCase(transport)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Hop> hopList(Hop hop) {
+        List<Hop> hops = new ArrayList<Hop>(1);
+        if (hop != null) {
+            hops.add(hop);
+        }
+        return hops;
     }
 
     /**
@@ -335,12 +422,23 @@ public class DefaultRouter implements Router {
      */
     public ListIterator getNextHops(Request request) {
         try {
-            LinkedList llist = new LinkedList();
-            llist.add(this.getNextHop(request));
+            LinkedList llist = new LinkedList(this.getNextHopList(request));
             return llist.listIterator();
         } catch (SipException ex) {
             return null;
         }
 
     }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gov.nist.javax.sip.address.RouterExt#transactionTimeout(javax.sip.address.Hop)
+     */
+    public void transactionTimeout(Hop hop) {
+        AddressResolver addressResolver = this.sipStack.getAddressResolver();
+        if (addressResolver instanceof AddressResolverExt) {
+            ((AddressResolverExt) addressResolver).transactionTimeout(hop);
+        }
+    }
 }
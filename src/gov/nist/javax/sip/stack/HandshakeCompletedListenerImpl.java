@@ -20,14 +20,16 @@ package gov.nist.javax.sip.stack;
 
 import javax.net.ssl.HandshakeCompletedEvent;
 import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSession;
 
 public class HandshakeCompletedListenerImpl implements HandshakeCompletedListener {
 
     private HandshakeCompletedEvent handshakeCompletedEvent;
-    private TLSMessageChannel tlsMessageChannel;
+    private SSLSession sslSession;
+    private SecureMessageChannel tlsMessageChannel;
     
     
-    public HandshakeCompletedListenerImpl(TLSMessageChannel tlsMessageChannel) {
+    public HandshakeCompletedListenerImpl(SecureMessageChannel tlsMessageChannel) {
         this.tlsMessageChannel = tlsMessageChannel;
         tlsMessageChannel.setHandshakeCompletedListener(this);
     }
@@ -35,6 +37,15 @@ public class HandshakeCompletedListenerImpl implements HandshakeCompletedListene
     
     public void handshakeCompleted(HandshakeCompletedEvent handshakeCompletedEvent) {
        this.handshakeCompletedEvent = handshakeCompletedEvent;
+       this.sslSession = handshakeCompletedEvent.getSession();
+    }
+
+    /**
+     * Record the session of a handshake that was not done by an SSLSocket
+     * (SSLEngine based channels have no HandshakeCompletedEvent).
+     */
+    public void handshakeCompleted(SSLSession sslSession) {
+       this.sslSession = sslSession;
     }
 
     /**
@@ -43,6 +54,13 @@ public class HandshakeCompletedListenerImpl implements HandshakeCompletedListene
     public HandshakeCompletedEvent getHandshakeCompletedEvent() {
         return handshakeCompletedEvent;
     }
+
+    /**
+     * @return the session negotiated by the handshake.
+     */
+    public SSLSession getSSLSession() {
+        return sslSession;
+    }
     
 
 }
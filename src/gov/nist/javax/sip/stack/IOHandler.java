@@ -35,16 +35,11 @@ import gov.nist.core.StackLogger;
 import gov.nist.javax.sip.SipStackImpl;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
-import java.util.Enumeration;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.HandshakeCompletedListener;
 import javax.net.ssl.SSLHandshakeException;
@@ -77,13 +72,8 @@ public class IOHandler {
     // Added by Daniel J. Martinez Manzano <dani@dif.um.es>
     private static final String TLS = "tls";
 
-    // A cache of client sockets that can be re-used for
-    // sending tcp messages.
-    private final ConcurrentHashMap<String, Socket> socketTable = new ConcurrentHashMap<String, Socket>();
-
-    private final ConcurrentHashMap<String, Semaphore> socketCreationMap = new ConcurrentHashMap<String, Semaphore>();
-
-    // private Semaphore ioSemaphore = new Semaphore(1);
+    // The client sockets that can be re-used for sending tcp messages.
+    private final ClientConnectionManager connectionManager;
 
     protected static String makeKey(InetAddress addr, int port) {
         return addr.getHostAddress() + ":" + port;
@@ -94,42 +84,120 @@ public class IOHandler {
         return addr + ":" + port;
     }
 
+    /**
+     * The key of the connection a message channel sends on: the key of the
+     * destination, with the slot of the channel if it is one of the parallel
+     * connections to the destination.
+     */
+    private static String makeKey(InetAddress addr, int port, MessageChannel messageChannel) {
+        String key = makeKey(addr, port);
+        if (messageChannel instanceof TCPMessageChannel) {
+            int slot = ((TCPMessageChannel) messageChannel).getConnectionSlot();
+            if (slot > 0) {
+                return key + "/" + slot;
+            }
+        }
+        return key;
+    }
+
     protected IOHandler(SIPTransactionStack sipStack) {
         this.sipStack = (SipStackImpl) sipStack;
+        this.connectionManager = new ClientConnectionManager(sipStack);
     }
 
     protected void putSocket(String key, Socket sock) {
-        socketTable.put(key, sock);
+        connectionManager.register(key, makeKey(sock.getInetAddress(), sock.getPort()), sock);
     }
 
     protected Socket getSocket(String key) {
-        return (Socket) socketTable.get(key);
+        return connectionManager.getSocket(key);
 
     }
 
     protected void removeSocket(String key) {
-        socketTable.remove(key);
-        socketCreationMap.remove(key);
+        connectionManager.remove(key);
     }
 
     /**
-     * A private function to write things out. This needs to be synchronized as
-     * writes can occur from multiple threads. We write in chunks to allow the
-     * other side to synchronize for large sized writes.
+     * @return the pool of the connections used to send messages.
      */
-    private void writeChunks(OutputStream outputStream, byte[] bytes, int length)
-            throws IOException {
-        // Chunk size is 16K - this hack is for large
-        // writes over slow connections.
-        synchronized (outputStream) {
-            // outputStream.write(bytes,0,length);
-            int chunksize = 8 * 1024;
-            for (int p = 0; p < length; p += chunksize) {
-                int chunk = p + chunksize < length ? chunksize : length - p;
-                outputStream.write(bytes, p, chunk);
+    public ClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    /**
+     * Opens TCP connections, from the given local port unless it is -1.
+     */
+    private ClientConnectionManager.Connector tcpConnector(final InetAddress dst,
+            final int dstPort, final InetAddress localAddress, final int localPort) {
+        return new ClientConnectionManager.Connector() {
+            public Socket connect() throws IOException {
+                if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                    logger.logDebug("inaddr = " + dst + " port = " + dstPort);
+                }
+                // note that the IP Address for stack may not be
+                // assigned.
+                // sender address is the address of the listening point.
+                // in version 1.1 all listening points have the same IP
+                // address (i.e. that of the stack). In version 1.2
+                // the IP address is on a per listening point basis.
+                if (localPort >= 0) {
+                    return sipStack.getNetworkLayer().createSocket(dst, dstPort,
+                            localAddress, localPort);
+                }
+                return sipStack.getNetworkLayer().createSocket(dst, dstPort, localAddress);
             }
-        }
-        outputStream.flush();
+        };
+    }
+
+    /**
+     * Opens TLS connections: connects, does the handshake and lets the
+     * application check the peer.
+     */
+    private ClientConnectionManager.Connector tlsConnector(final InetAddress dst,
+            final int dstPort, final InetAddress localAddress,
+            final TLSMessageChannel channel, final boolean enforcePolicy) {
+        return new ClientConnectionManager.Connector() {
+            public Socket connect() throws IOException {
+                SSLSocket sslsock = sipStack.getNetworkLayer().createSSLSocket(dst,
+                        dstPort, localAddress);
+                if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                    logger.logDebug("inaddr = " + dst);
+                    logger.logDebug("port = " + dstPort);
+                }
+                try {
+                    HandshakeCompletedListener listner = new HandshakeCompletedListenerImpl(
+                            channel);
+                    channel.setHandshakeCompletedListener(listner);
+                    sslsock.addHandshakeCompletedListener(listner);
+                    sslsock.setEnabledProtocols(sipStack.getEnabledProtocols());
+                    sslsock.startHandshake();
+                    if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                        logger.logDebug("Handshake passed");
+                    }
+                    if (enforcePolicy) {
+                        // allow application to enforce policy by validating the
+                        // certificate
+                        try {
+                            sipStack.getTlsSecurityPolicy().enforceTlsPolicy(
+                                    channel.getEncapsulatedClientTransaction());
+                        } catch (SecurityException ex) {
+                            throw new IOException(ex.getMessage());
+                        }
+                        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                            logger.logDebug("TLS Security policy passed");
+                        }
+                    }
+                } catch (IOException ex) {
+                    try {
+                        sslsock.close();
+                    } catch (IOException e) {
+                    }
+                    throw ex;
+                }
+                return sslsock;
+            }
+        };
     }
 
     /**
@@ -156,15 +224,8 @@ public class IOHandler {
     public SocketAddress getLocalAddressForTcpDst(InetAddress dst, int dstPort,
             InetAddress localAddress, int localPort) throws IOException {
         String key = makeKey(dst, dstPort);
-
-        Socket clientSock = getSocket(key);
-
-        if (clientSock == null) {
-            clientSock = sipStack.getNetworkLayer().createSocket(dst, dstPort,
-                    localAddress, localPort);
-            putSocket(key, clientSock);
-        }
-
+        Socket clientSock = connectionManager.send(key, key, null, 0, false,
+                tcpConnector(dst, dstPort, localAddress, localPort));
         return clientSock.getLocalSocketAddress();
 
     }
@@ -191,54 +252,8 @@ public class IOHandler {
              InetAddress localAddress, TLSMessageChannel channel)
              throws IOException {
         String key = makeKey(dst, dstPort);
-
-        Socket clientSock = getSocket(key);
-
-        if (clientSock == null) {
-
-            clientSock = sipStack.getNetworkLayer()
-                .createSSLSocket(dst, dstPort, localAddress);
-
-            SSLSocket sslsock = (SSLSocket) clientSock;
-
-            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-                logger.logDebug(
-                        "inaddr = " + dst);
-                logger.logDebug(
-                        "port = " + dstPort);
-            }
-
-            HandshakeCompletedListener listner
-                    = new HandshakeCompletedListenerImpl(channel);
-
-            channel.setHandshakeCompletedListener(listner);
-            sslsock.addHandshakeCompletedListener(listner);
-            sslsock.setEnabledProtocols(sipStack.getEnabledProtocols());
-            sslsock.startHandshake();
-
-            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-                this.logger.logDebug(
-                        "Handshake passed");
-            }
-
-            // allow application to enforce policy by validating the
-            // certificate
-            try {
-                sipStack.getTlsSecurityPolicy().enforceTlsPolicy(
-                            channel.getEncapsulatedClientTransaction());
-            }
-            catch (SecurityException ex) {
-                throw new IOException(ex.getMessage());
-            }
-
-            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-                this.logger.logDebug(
-                        "TLS Security policy passed");
-            }
-
-            putSocket(key, clientSock);
-        }
-
+        Socket clientSock = connectionManager.send(key, key, null, 0, false,
+                tlsConnector(dst, dstPort, localAddress, channel, true));
         return clientSock.getLocalSocketAddress();
     }
 
@@ -261,8 +276,6 @@ public class IOHandler {
             InetAddress receiverAddress, int contactPort, String transport,
             byte[] bytes, boolean isClient, MessageChannel messageChannel)
             throws IOException {
-        int retry_count = 0;
-        int max_retry = isClient ? 2 : 1;
         // Server uses TCP transport. TCP client sockets are cached
         int length = bytes.length;
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
@@ -276,69 +289,17 @@ public class IOHandler {
                 && sipStack.isLogStackTraceOnMessageSend()) {
             logger.logStackTrace(StackLogger.TRACE_INFO);
         }
-        if (transport.compareToIgnoreCase(TCP) == 0) {
-            String key = makeKey(receiverAddress, contactPort);
-            // This should be in a synchronized block ( reported by
-            // Jayashenkhar ( lucent ).
-
-            Socket clientSock = null;
-            enterIOCriticalSection(key);
-
+        boolean tls = transport.compareToIgnoreCase(TLS) == 0;
+        if (tls || transport.compareToIgnoreCase(TCP) == 0) {
+            String key = makeKey(receiverAddress, contactPort, messageChannel);
             try {
-                clientSock = getSocket(key);
-                while (retry_count < max_retry) {
-                    if (clientSock == null) {
-                        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-                            logger.logDebug(
-                                    "inaddr = " + receiverAddress);
-                            logger.logDebug(
-                                    "port = " + contactPort);
-                        }
-                        // note that the IP Address for stack may not be
-                        // assigned.
-                        // sender address is the address of the listening point.
-                        // in version 1.1 all listening points have the same IP
-                        // address (i.e. that of the stack). In version 1.2
-                        // the IP address is on a per listening point basis.
-                        clientSock = sipStack.getNetworkLayer().createSocket(
-                                receiverAddress, contactPort, senderAddress);
-                        OutputStream outputStream = clientSock
-                                .getOutputStream();
-                        writeChunks(outputStream, bytes, length);
-                        putSocket(key, clientSock);
-                        break;
-                    } else {
-                        try {
-                            OutputStream outputStream = clientSock
-                                    .getOutputStream();
-                            writeChunks(outputStream, bytes, length);
-                            break;
-                        } catch (IOException ex) {
-                            if (logger
-                                    .isLoggingEnabled(LogWriter.TRACE_ERROR))
-                                logger.logInfo(
-                                        "IOException occured retryCount "
-                                                + retry_count);
-                            if (logger
-                                    .isLoggingEnabled(LogWriter.TRACE_DEBUG))
-                                logger.logDebug(
-                                        "Removing and Closing socket");
-                            // old connection is bad.
-                            // remove from our table.
-                            removeSocket(key);
-                            try {
-                                clientSock.close();
-                            } catch (Exception e) {
-                            }
-                            clientSock = null;
-                            retry_count++;
-                            // This is a server tx trying to send a response.
-                            if ( !isClient ) {
-                                throw ex;
-                            }
-                        }
-                    }
-                }
+                return connectionManager.send(key, makeKey(receiverAddress, contactPort),
+                        bytes, length, isClient,
+                        tls ? tlsConnector(receiverAddress, contactPort, senderAddress,
+                                (TLSMessageChannel) messageChannel, true)
+                            : tcpConnector(receiverAddress, contactPort, senderAddress, -1));
+            } catch (SSLHandshakeException ex) {
+                throw ex;
             } catch (IOException ex) {
                 if (logger.isLoggingEnabled(LogWriter.TRACE_ERROR)) {
                     logger.logError(
@@ -351,8 +312,10 @@ public class IOHandler {
                             " peerPacketPort "
                                     + messageChannel.getPeerPacketSourcePort() + " isClient " + isClient);
                 }
-
-                removeSocket(key);
+                if (isClient) {
+                    logger.logError("IOException occured at " , ex);
+                    throw ex;
+                }
 
                 /*
                  * For TCP responses, the transmission of responses is
@@ -373,248 +336,21 @@ public class IOHandler {
                  * to determine the IP address and port to open the connection
                  * and send the response to.
                  */
-                if (!isClient) {
-                    receiverAddress = InetAddress.getByName(messageChannel
-                            .getViaHost());
-                    contactPort = messageChannel.getViaPort();
-                    if (contactPort == -1)
-                        contactPort = 5060;
-
-                    key = makeKey(receiverAddress, messageChannel
-                            .getViaPort());
-                    clientSock = this.getSocket(key);
-                    if (clientSock == null) {
-                        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-                            logger.logDebug(
-                                    "inaddr = " + receiverAddress +
-                                    " port = " + contactPort);
-                        }
-                        clientSock = sipStack.getNetworkLayer().createSocket(
-                                receiverAddress, contactPort, senderAddress);
-                        OutputStream outputStream = clientSock
-                                .getOutputStream();
-                        writeChunks(outputStream, bytes, length);
-                        putSocket(key, clientSock);
-                        return clientSock;
-                    } else {
-                        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-                            logger.logDebug(
-                                    "sending to " + key );
-                        }
-                        try {
-                            OutputStream outputStream = clientSock
-                                    .getOutputStream();
-                            writeChunks(outputStream, bytes, length);
-                            return clientSock;
-                        } catch (IOException ioe) {
-                            if (logger
-                                    .isLoggingEnabled(LogWriter.TRACE_ERROR))
-                                logger.logError(
-                                        "IOException occured  ", ioe);
-                            if (logger
-                                    .isLoggingEnabled(LogWriter.TRACE_DEBUG))
-                                logger.logDebug(
-                                        "Removing and Closing socket");
-                            // old connection is bad.
-                            // remove from our table.
-                            removeSocket(key);
-                            try {
-                                clientSock.close();
-                            } catch (Exception e) {
-                            }
-                            clientSock = null;
-                            throw ioe;
-                        }
-                    }
-                } else {
-                    logger.logError("IOException occured at " , ex);
-                    throw ex;
-                }
-            } finally {
-                leaveIOCriticalSection(key);
-            }
-
-            if (clientSock == null) {
-
-                if (logger.isLoggingEnabled(LogWriter.TRACE_ERROR)) {
-                    logger.logError(
-                            this.socketTable.toString());
-                    logger.logError(
-                            "Could not connect to " + receiverAddress + ":"
-                                    + contactPort);
-                }
-
-                throw new IOException("Could not connect to " + receiverAddress
-                        + ":" + contactPort);
-            } else {
-                return clientSock;
-            }
-
-            // Added by Daniel J. Martinez Manzano <dani@dif.um.es>
-            // Copied and modified from the former section for TCP
-        } else if (transport.compareToIgnoreCase(TLS) == 0) {
-            String key = makeKey(receiverAddress, contactPort);
-            Socket clientSock = null;
-            enterIOCriticalSection(key);
-
-            try {
-                clientSock = getSocket(key);
-
-                while (retry_count < max_retry) {
-                    if (clientSock == null) {
-
-                        clientSock = sipStack.getNetworkLayer()
-                                .createSSLSocket(receiverAddress, contactPort,
-                                        senderAddress);
-                        SSLSocket sslsock = (SSLSocket) clientSock;
-
-                        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-                            logger.logDebug(
-                                    "inaddr = " + receiverAddress);
-                            logger.logDebug(
-                                    "port = " + contactPort);
-                        }
-                        HandshakeCompletedListener listner = new HandshakeCompletedListenerImpl(
-                                (TLSMessageChannel) messageChannel);
-                        ((TLSMessageChannel) messageChannel)
-                                .setHandshakeCompletedListener(listner);
-                        sslsock.addHandshakeCompletedListener(listner);
-                        sslsock.setEnabledProtocols(sipStack
-                                .getEnabledProtocols());
-                        sslsock.startHandshake();
-                        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-                            this.logger.logDebug(
-                                    "Handshake passed");
-                        }
-                        // allow application to enforce policy by validating the
-                        // certificate
-
-                        try {
-                            sipStack
-                                    .getTlsSecurityPolicy()
-                                    .enforceTlsPolicy(
-                                            messageChannel
-                                                    .getEncapsulatedClientTransaction());
-                        } catch (SecurityException ex) {
-                            throw new IOException(ex.getMessage());
-                        }
-
-                        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-                            this.logger.logDebug(
-                                    "TLS Security policy passed");
-                        }
-                        OutputStream outputStream = clientSock
-                                .getOutputStream();
-                        writeChunks(outputStream, bytes, length);
-                        putSocket(key, clientSock);
-                        break;
-                    } else {
-                        try {
-                            OutputStream outputStream = clientSock
-                                    .getOutputStream();
-                            writeChunks(outputStream, bytes, length);
-                            break;
-                        } catch (IOException ex) {
-                            if (logger.isLoggingEnabled())
-                                logger.logException(ex);
-                            // old connection is bad.
-                            // remove from our table.
-                            removeSocket(key);
-
-                            try {
-                                logger.logDebug(
-                                        "Closing socket");
-                                clientSock.close();
-                            } catch (Exception e) {
-                            }
-                            clientSock = null;
-                            retry_count++;
-                        }
-                    }
+                receiverAddress = sipStack.getNameResolver().resolve(
+                        messageChannel.getViaHost());
+                contactPort = messageChannel.getViaPort();
+                if (contactPort == -1)
+                    contactPort = 5060;
+
+                key = makeKey(receiverAddress, contactPort);
+                if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                    logger.logDebug("sending to " + key);
                 }
-            } catch (SSLHandshakeException ex) {
-                removeSocket(key);
-                throw ex;
-            } catch (IOException ex) {
-                removeSocket(key);
-
-                if (!isClient) {
-                    receiverAddress = InetAddress.getByName(messageChannel
-                            .getViaHost());
-                    contactPort = messageChannel.getViaPort();
-                    if (contactPort == -1)
-                        contactPort = 5060;
-
-                    key = makeKey(receiverAddress, messageChannel
-                            .getViaPort());
-                    clientSock = this.getSocket(key);
-                    if (clientSock == null) {
-                        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-                            logger.logDebug(
-                                    "inaddr = " + receiverAddress +
-                                    " port = " + contactPort);
-                        }
-                        SSLSocket sslsock = sipStack.getNetworkLayer().createSSLSocket(
-                                receiverAddress, contactPort, senderAddress);
-                        OutputStream outputStream = sslsock
-                                .getOutputStream();
-                        HandshakeCompletedListener listner = new HandshakeCompletedListenerImpl(
-                                (TLSMessageChannel) messageChannel);
-                        ((TLSMessageChannel) messageChannel)
-                                .setHandshakeCompletedListener(listner);
-                        sslsock.addHandshakeCompletedListener(listner);
-                        sslsock.setEnabledProtocols(sipStack
-                                .getEnabledProtocols());
-                        sslsock.startHandshake();
-                        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-                            this.logger.logDebug(
-                                    "Handshake passed");
-                        }
-                        writeChunks(outputStream, bytes, length);
-                        putSocket(key, clientSock);
-                        return sslsock;
-                    } else {
-                        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-                            logger.logDebug(
-                                    "sending to " + key );
-                        }
-                        try {
-                            OutputStream outputStream = clientSock
-                                    .getOutputStream();
-                            writeChunks(outputStream, bytes, length);
-                            return clientSock;
-                        } catch (IOException ioe) {
-                            if (logger
-                                    .isLoggingEnabled(LogWriter.TRACE_ERROR))
-                                logger.logError(
-                                        "IOException occured  ", ioe);
-                            if (logger
-                                    .isLoggingEnabled(LogWriter.TRACE_DEBUG))
-                                logger.logDebug(
-                                        "Removing and Closing socket");
-                            // old connection is bad.
-                            // remove from our table.
-                            removeSocket(key);
-                            try {
-                                clientSock.close();
-                            } catch (Exception e) {
-                            }
-                            clientSock = null;
-                            throw ioe;
-                        }
-                    }
-                } else {
-                    throw ex;
-                }
-            } finally {
-                leaveIOCriticalSection(key);
+                return connectionManager.send(key, key, bytes, length, false,
+                        tls ? tlsConnector(receiverAddress, contactPort, senderAddress,
+                                (TLSMessageChannel) messageChannel, false)
+                            : tcpConnector(receiverAddress, contactPort, senderAddress, -1));
             }
-            if (clientSock == null) {
-                throw new IOException("Could not connect to " + receiverAddress
-                        + ":" + contactPort);
-            } else
-                return clientSock;
-
         } else {
             // This is a UDP transport...
             DatagramSocket datagramSock = sipStack.getNetworkLayer()
@@ -629,68 +365,11 @@ public class IOHandler {
 
     }
 
-    /*
-     * private void enterIOCriticalSection(String key) throws IOException { try
-     * { if ( ! this.ioSemaphore.tryAcquire(10,TimeUnit.SECONDS) ) { throw new
-     * IOException("Could not acquire semaphore"); } } catch
-     * (InterruptedException e) { throw new
-     * IOException("exception in acquiring sem"); } }
-     *
-     *
-     * private void leaveIOCriticalSection(String key) {
-     * this.ioSemaphore.release(); }
-     */
-
-    private void leaveIOCriticalSection(String key) {
-        Semaphore creationSemaphore = socketCreationMap.get(key);
-        if (creationSemaphore != null) {
-            creationSemaphore.release();
-        }
-    }
-
-    private void enterIOCriticalSection(String key) throws IOException {
-        // http://dmy999.com/article/34/correct-use-of-concurrenthashmap
-        Semaphore creationSemaphore = socketCreationMap.get(key);
-        if(creationSemaphore == null) {
-            Semaphore newCreationSemaphore = new Semaphore(1, true);
-            creationSemaphore = socketCreationMap.putIfAbsent(key, newCreationSemaphore);
-            if(creationSemaphore == null) {
-                creationSemaphore = newCreationSemaphore;       
-                if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
-                    logger.logDebug("new Semaphore added for key " + key);
-                }
-            }
-        }
-        
-        try {
-            boolean retval = creationSemaphore.tryAcquire(10, TimeUnit.SECONDS);
-            if (!retval) {
-                throw new IOException("Could not acquire IO Semaphore'" + key
-                        + "' after 10 seconds -- giving up ");
-            }
-        } catch (InterruptedException e) {
-            throw new IOException("exception in acquiring sem");
-        }
-    }
-
     /**
      * Close all the cached connections.
      */
     public void closeAll() {
-        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
-            logger
-                    .logDebug(
-                            "Closing " + socketTable.size()
-                                    + " sockets from IOHandler");
-        for (Enumeration<Socket> values = socketTable.elements(); values
-                .hasMoreElements();) {
-            Socket s = (Socket) values.nextElement();
-            try {
-                s.close();
-            } catch (IOException ex) {
-            }
-        }
-
+        connectionManager.closeAll();
     }
 
 }
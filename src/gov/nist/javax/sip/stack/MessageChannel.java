@@ -179,6 +179,21 @@ public abstract class MessageChannel {
     protected abstract void sendMessage(byte[] message, InetAddress receiverAddress,
             int receiverPort, boolean reconnectFlag) throws IOException;
 
+    /**
+     * Encode the message and send it to a specified address and a specified port. Channels
+     * that write the bytes out before returning can override this to encode into a reused
+     * buffer.
+     *
+     * @param sipMessage Message to send.
+     * @param receiverAddress Address of the receiver.
+     * @param receiverPort Port of the receiver.
+     */
+    protected void encodeAndSendMessage(SIPMessage sipMessage, InetAddress receiverAddress,
+            int receiverPort) throws IOException {
+        byte[] msg = sipMessage.encodeAsBytes(this.getTransport());
+        this.sendMessage(msg, receiverAddress, receiverPort, sipMessage instanceof SIPRequest);
+    }
+
     /**
      * Get the host of this message channel.
      *
@@ -209,7 +224,7 @@ public abstract class MessageChannel {
      */
     public void sendMessage(final SIPMessage sipMessage, Hop hop) throws IOException {
         long time = System.currentTimeMillis();
-        InetAddress hopAddr = InetAddress.getByName(hop.getHost());
+        InetAddress hopAddr = getSIPStack().getNameResolver().resolve(hop.getHost());
 
         try {
 
@@ -221,11 +236,13 @@ public abstract class MessageChannel {
                             hopAddr, hop.getPort());
                     if (messageChannel instanceof RawMessageChannel) {
                         final RawMessageChannel channel = (RawMessageChannel) messageChannel;
+                        // copy now, the sender may change its message once we return
+                        final SIPMessage copy = sipMessage.copyForSelfRouting();
                         Runnable processMessageTask = new Runnable() {
 
                             public void run() {
                                 try {
-                                    ((RawMessageChannel) channel).processMessage((SIPMessage) sipMessage.clone());
+                                    ((RawMessageChannel) channel).processMessage(copy);
                                 } catch (Exception ex) {
                                     if (logger.isLoggingEnabled(ServerLogger.TRACE_ERROR)) {
                                         logger.logError("Error self routing message cause by: ", ex);
@@ -242,9 +259,8 @@ public abstract class MessageChannel {
 
                 }
             }
-            byte[] msg = sipMessage.encodeAsBytes(this.getTransport());
-
-            this.sendMessage(msg, hopAddr, hop.getPort(), sipMessage instanceof SIPRequest);
+            this.encodeAndSendMessage(sipMessage, hopAddr, hop.getPort());
+            getSIPStack().getStackMetrics().messageSent(sipMessage);
 
             // we successfully sent the message without an exception so let's
             // now set port and address
@@ -277,8 +293,8 @@ public abstract class MessageChannel {
     public void sendMessage(SIPMessage sipMessage, InetAddress receiverAddress, int receiverPort)
             throws IOException {
         long time = System.currentTimeMillis();
-        byte[] bytes = sipMessage.encodeAsBytes(this.getTransport());
-        sendMessage(bytes, receiverAddress, receiverPort, sipMessage instanceof SIPRequest);
+        encodeAndSendMessage(sipMessage, receiverAddress, receiverPort);
+        getSIPStack().getStackMetrics().messageSent(sipMessage);
 
         // we successfully sent the message without an exception so let's
         // set port and address before we feed it to the logger.
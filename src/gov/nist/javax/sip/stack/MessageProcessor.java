@@ -288,6 +288,20 @@ public abstract class MessageProcessor implements Runnable {
     public abstract MessageChannel createMessageChannel(HostPort targetHostPort)
             throws IOException;
 
+    /**
+     * Create a message channel for the messages of a call to the specified
+     * host/port. Processors that spread the calls to a destination over
+     * several connections send all the messages of a call on the same one.
+     *
+     * @param callId the Call-ID of the call, null if the message belongs to
+     *        no call.
+     * @return New MessageChannel for this processor.
+     */
+    public MessageChannel createMessageChannel(HostPort targetHostPort, String callId)
+            throws IOException {
+        return createMessageChannel(targetHostPort);
+    }
+
     /**
      * Create a message channel for the specified host/port.
      *
@@ -0,0 +1,78 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import javax.sip.ListeningPoint;
+
+/**
+ * MessageProcessorFactory that creates selector based (NIO) message processors
+ * for the stream transports. All the TCP and TLS connections of the stack are
+ * served by a fixed number of selector threads, so the number of threads does
+ * not grow with the number of connections. UDP and SCTP use the same processors
+ * as the {@link OIOMessageProcessorFactory}.
+ * <p>
+ * To use it set <b>gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY</b> to
+ * <code>gov.nist.javax.sip.stack.NioMessageProcessorFactory</code>. The number
+ * of selector threads is set with <b>gov.nist.javax.sip.NIO_SELECTOR_THREADS</b>
+ * and the number of threads on which parsed messages are processed with
+ * <b>gov.nist.javax.sip.NIO_DISPATCH_THREADS</b>.
+ *
+ * @see NioTcpMessageProcessor
+ * @see NioTlsMessageProcessor
+ */
+public class NioMessageProcessorFactory extends OIOMessageProcessorFactory {
+
+    private NioSelectorPool selectorPool;
+
+    public MessageProcessor createMessageProcessor(
+            SIPTransactionStack sipStack, InetAddress ipAddress, int port,
+            String transport) throws IOException {
+        if (transport.equalsIgnoreCase(ListeningPoint.TCP)) {
+            return new NioTcpMessageProcessor(ipAddress, sipStack, port,
+                    getSelectorPool(sipStack));
+        } else if (transport.equalsIgnoreCase(ListeningPoint.TLS)) {
+            return new NioTlsMessageProcessor(ipAddress, sipStack, port,
+                    getSelectorPool(sipStack));
+        } else {
+            return super.createMessageProcessor(sipStack, ipAddress, port, transport);
+        }
+    }
+
+    /**
+     * @return the selector threads shared by all the processors created by this factory.
+     */
+    protected synchronized NioSelectorPool getSelectorPool(SIPTransactionStack sipStack) {
+        if (selectorPool == null) {
+            selectorPool = new NioSelectorPool(sipStack.getNioSelectorThreads(),
+                    sipStack.getNioDispatchThreads());
+        }
+        return selectorPool;
+    }
+
+}
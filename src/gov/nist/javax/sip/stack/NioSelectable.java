@@ -0,0 +1,54 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Something that is registered with one of the selector loops of a
+ * {@link NioSelectorPool} and gets called back from the selector thread when
+ * its channel becomes ready. Implementations must never block in these
+ * callbacks since the selector thread is shared by many connections.
+ */
+interface NioSelectable {
+
+    /**
+     * Called from the selector thread when the key is ready for one or more
+     * of the operations it is interested in.
+     *
+     * @param key the selected key ( attachment is this object ).
+     * @throws IOException if the channel failed. The channel is closed by
+     *             the caller.
+     */
+    void processSelectedKey(SelectionKey key) throws IOException;
+
+    /**
+     * Close the underlying channel and release any resources.
+     */
+    void close();
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogWriter;
+import gov.nist.core.StackLogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single selector thread. All registration and interest changes for the
+ * channels it owns are queued to it and run on the selector thread so that
+ * callers never contend with a blocked <code>select()</code>.
+ *
+ */
+class NioSelectorLoop implements Runnable {
+
+    private static StackLogger logger = CommonLogger.getLogger(NioSelectorLoop.class);
+
+    // Read buffer shared by all the connections of this loop. It is only ever
+    // touched from the selector thread.
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final Selector selector;
+
+    private final ConcurrentLinkedQueue<Runnable> pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    private final String name;
+
+    private Thread thread;
+
+    private volatile boolean isRunning;
+
+    protected NioSelectorLoop(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Start the selector thread.
+     */
+    protected void start() {
+        this.isRunning = true;
+        this.thread = new Thread(this);
+        this.thread.setName(name);
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MAX_PRIORITY);
+        this.thread.start();
+    }
+
+    /**
+     * Stop the selector thread and close every channel still registered with it.
+     */
+    protected void stop() {
+        this.isRunning = false;
+        this.selector.wakeup();
+    }
+
+    /**
+     * @return true if the caller is running on this selector thread.
+     */
+    protected boolean inSelectorThread() {
+        return Thread.currentThread() == this.thread;
+    }
+
+    /**
+     * @return the read buffer of this loop. Only valid from the selector thread.
+     */
+    protected ByteBuffer getReadBuffer() {
+        return this.readBuffer;
+    }
+
+    /**
+     * Run a task on the selector thread.
+     */
+    protected void execute(Runnable task) {
+        this.pendingTasks.offer(task);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Register a channel with this loop. The channel must already be in non
+     * blocking mode. The selectable is attached to the resulting key.
+     */
+    protected void register(final SelectableChannel channel, final int ops,
+            final NioSelectable selectable) {
+        execute(new Runnable() {
+            public void run() {
+                try {
+                    channel.register(selector, ops, selectable);
+                } catch (ClosedChannelException ex) {
+                    if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                        logger.logDebug("Channel closed before registration " + selectable);
+                    selectable.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Change the interest set of the key attached to the given channel.
+     */
+    protected void setInterestOps(final SelectableChannel channel, final int ops) {
+        Runnable task = new Runnable() {
+            public void run() {
+                SelectionKey key = channel.keyFor(selector);
+                if (key != null && key.isValid()) {
+                    key.interestOps(ops);
+                }
+            }
+        };
+        if (inSelectorThread()) {
+            task.run();
+        } else {
+            execute(task);
+        }
+    }
+
+    public void run() {
+        try {
+            while (this.isRunning) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = pendingTasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        NioSelectable selectable = (NioSelectable) key.attachment();
+                        try {
+                            if (key.isValid()) {
+                                selectable.processSelectedKey(key);
+                            }
+                        } catch (CancelledKeyException ex) {
+                            selectable.close();
+                        } catch (IOException ex) {
+                            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                                logger.logDebug("IOException on " + selectable + " " + ex);
+                            selectable.close();
+                        }
+                    }
+                } catch (IOException ex) {
+                    logger.logError("Problem in selector loop " + name, ex);
+                } catch (RuntimeException ex) {
+                    // Never let a single bad connection kill the loop.
+                    logger.logError("Unexpected exception in selector loop " + name, ex);
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((NioSelectable) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                // Ignore.
+            }
+        }
+    }
+
+    public String toString() {
+        return this.name;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of selector threads shared by all the NIO message processors of
+ * a stack, plus a fixed pool of threads on which parsed messages are handed to
+ * the transaction layer. The number of threads does not depend on the number
+ * of connections. Connections are spread over the selector loops round robin.
+ *
+ * @see NioMessageProcessorFactory
+ */
+class NioSelectorPool {
+
+    private final int selectorThreads;
+
+    private volatile NioSelectorLoop[] loops;
+
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    private final int dispatchThreads;
+
+    private volatile ExecutorService dispatchExecutor;
+
+    private int useCount;
+
+    protected NioSelectorPool(int selectorThreads, int dispatchThreads) {
+        this.selectorThreads = selectorThreads;
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    /**
+     * Called by each message processor when it starts. The threads are
+     * started by the first caller.
+     */
+    protected synchronized void acquire() throws IOException {
+        if (useCount == 0) {
+            NioSelectorLoop[] newLoops = new NioSelectorLoop[selectorThreads];
+            for (int i = 0; i < selectorThreads; i++) {
+                newLoops[i] = new NioSelectorLoop("NioSelectorThread-" + i);
+            }
+            for (NioSelectorLoop loop : newLoops) {
+                loop.start();
+            }
+            this.loops = newLoops;
+            this.dispatchExecutor = Executors.newFixedThreadPool(dispatchThreads,
+                    new ThreadFactory() {
+                        private int threadCount = 0;
+
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "SIP-NIO-DispatchThread-" + threadCount++);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        useCount++;
+    }
+
+    /**
+     * Called by each message processor when it stops. The threads are stopped
+     * when the last processor goes away.
+     */
+    protected synchronized void release() {
+        if (--useCount == 0) {
+            for (NioSelectorLoop loop : loops) {
+                loop.stop();
+            }
+            this.dispatchExecutor.shutdown();
+        }
+    }
+
+    /**
+     * @return the loop that should own the next connection.
+     */
+    protected NioSelectorLoop nextLoop() {
+        NioSelectorLoop[] current = this.loops;
+        int index = (nextLoop.getAndIncrement() & Integer.MAX_VALUE) % current.length;
+        return current[index];
+    }
+
+    /**
+     * @return the executor on which parsed messages are processed.
+     */
+    protected ExecutorService getDispatchExecutor() {
+        return this.dispatchExecutor;
+    }
+
+}
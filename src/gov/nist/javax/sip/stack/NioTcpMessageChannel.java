@@ -0,0 +1,534 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogWriter;
+import gov.nist.core.StackLogger;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.parser.NioPipelineParser;
+import gov.nist.javax.sip.parser.SIPMessageListener;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.text.ParseException;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A TCP connection served by a selector thread. Reads are non blocking and
+ * are fed to a {@link NioPipelineParser} on the selector thread. Writes are
+ * attempted directly from the sending thread and whatever the socket does not
+ * take is queued on the connection and flushed by the selector thread.
+ * <p>
+ * Parsed messages are processed on the dispatch threads of the selector pool.
+ * Messages of a connection are processed one at a time and in the order in
+ * which they were read, which is the ordering the thread per connection
+ * {@link TCPMessageChannel} gives.
+ *
+ * @see NioTcpMessageProcessor
+ */
+public class NioTcpMessageChannel extends TCPMessageChannel implements NioSelectable {
+
+    private static StackLogger logger = CommonLogger.getLogger(NioTcpMessageChannel.class);
+
+    // Maximum number of messages processed in one go before giving the
+    // dispatch thread back to the other connections.
+    private static final int DISPATCH_BATCH_SIZE = 16;
+
+    protected final NioTcpMessageProcessor nioMessageProcessor;
+
+    protected volatile SocketChannel socketChannel;
+
+    protected NioSelectorLoop selectorLoop;
+
+    protected NioPipelineParser nioParser;
+
+    // Bytes that may wait for a peer that does not read when no
+    // MAX_MESSAGE_SIZE is set, and the least when one is.
+    private static final int DEFAULT_WRITE_QUEUE_LIMIT = 1024 * 1024;
+
+    private static final int MIN_WRITE_QUEUE_LIMIT = 64 * 1024;
+
+    // Buffers waiting to be written, guarded by itself.
+    private final LinkedList<ByteBuffer> writeQueue = new LinkedList<ByteBuffer>();
+
+    // Bytes left to write in writeQueue, guarded by writeQueue.
+    private int queuedBytes;
+
+    private final ConcurrentLinkedQueue<SIPMessage> pendingMessages = new ConcurrentLinkedQueue<SIPMessage>();
+
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // true if this connection counts against MAX_CONNECTIONS.
+    private final boolean incoming;
+
+    // When bytes were last read from the socket.
+    private volatile long lastActivityTime;
+
+    private final ConnectionActivityMonitor.Connection activity = new Activity();
+
+    private final Runnable dispatchTask = new Runnable() {
+        public void run() {
+            try {
+                SIPMessage sipMessage;
+                int processed = 0;
+                while (processed++ < DISPATCH_BATCH_SIZE
+                        && (sipMessage = pendingMessages.poll()) != null) {
+                    dispatch(sipMessage, true);
+                }
+            } finally {
+                dispatchScheduled.set(false);
+                if (!pendingMessages.isEmpty()) {
+                    scheduleDispatch();
+                }
+            }
+        }
+    };
+
+    /**
+     * Constructor for a connection we accepted.
+     */
+    protected NioTcpMessageChannel(SocketChannel socketChannel, SIPTransactionStack sipStack,
+            NioTcpMessageProcessor msgProcessor) throws IOException {
+        super(sipStack);
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug("creating new NioTcpMessageChannel ");
+        }
+        this.socketChannel = socketChannel;
+        this.nioMessageProcessor = msgProcessor;
+        this.incoming = true;
+        this.peerAddress = socketChannel.socket().getInetAddress();
+        this.peerPort = socketChannel.socket().getPort();
+        this.peerProtocol = msgProcessor.getTransport().toUpperCase();
+        this.myAddress = msgProcessor.getIpAddress().getHostAddress();
+        this.myPort = msgProcessor.getPort();
+        super.messageProcessor = msgProcessor;
+        this.nioParser = new NioPipelineParser(sipStack, new ParserListener(),
+                sipStack.getMaxMessageSize());
+    }
+
+    /**
+     * Constructor for a connection to the given address. The connection is
+     * opened when the first message is sent.
+     */
+    protected NioTcpMessageChannel(InetAddress inetAddr, int port, SIPTransactionStack sipStack,
+            NioTcpMessageProcessor msgProcessor) throws IOException {
+        super(sipStack);
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug("creating new NioTcpMessageChannel ");
+        }
+        this.nioMessageProcessor = msgProcessor;
+        this.incoming = false;
+        this.peerAddress = inetAddr;
+        this.peerPort = port;
+        this.peerProtocol = msgProcessor.getTransport().toUpperCase();
+        this.myAddress = msgProcessor.getIpAddress().getHostAddress();
+        this.myPort = msgProcessor.getPort();
+        this.key = MessageChannel.getKey(peerAddress, peerPort, getTransport());
+        super.messageProcessor = msgProcessor;
+        this.nioParser = new NioPipelineParser(sipStack, new ParserListener(),
+                sipStack.getMaxMessageSize());
+    }
+
+    /**
+     * Hand the connection to a selector loop.
+     */
+    protected void register(NioSelectorLoop loop) {
+        this.selectorLoop = loop;
+        this.lastActivityTime = System.currentTimeMillis();
+        sipStack.getConnectionActivityMonitor().register(activity);
+        loop.register(socketChannel, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Open the connection to the peer if we do not have one. The connect
+     * itself is done in blocking mode so that failures are reported to the
+     * sender, like for the thread per connection channels. The socket is
+     * switched to non blocking mode afterwards.
+     */
+    protected synchronized void connect() throws IOException {
+        if (socketChannel != null) {
+            return;
+        }
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug("inaddr = " + peerAddress + " port = " + peerPort);
+        }
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().bind(new InetSocketAddress(nioMessageProcessor.getIpAddress(), 0));
+            channel.connect(new InetSocketAddress(peerAddress, peerPort));
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+        } catch (IOException ex) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+            throw ex;
+        }
+        this.closed.set(false);
+        this.isRunning = true;
+        this.socketChannel = channel;
+        onConnect();
+        register(nioMessageProcessor.getSelectorPool().nextLoop());
+    }
+
+    /**
+     * Hook called once an outgoing connection has been established and before
+     * it is registered with the selector.
+     */
+    protected void onConnect() throws IOException {
+    }
+
+    /**
+     * Send bytes on the connection, opening it first if needed. If the
+     * connection went away and this is a request, we try to re-connect once.
+     */
+    protected void sendMessage(byte[] msg, boolean isClient) throws IOException {
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug("sendMessage isClient  = " + isClient);
+        }
+        try {
+            connect();
+            write(msg);
+        } catch (WriteQueueFullException ex) {
+            // the peer is not reading, a new connection would fill up too
+            throw ex;
+        } catch (IOException ex) {
+            if (!isClient || incoming) {
+                throw ex;
+            }
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                logger.logDebug("IOException occured, re-connecting " + ex);
+            }
+            close();
+            connect();
+            write(msg);
+        }
+    }
+
+    /**
+     * Send a message to a specified address. If it is not the peer of this
+     * connection the message goes out on the connection to that address.
+     */
+    public void sendMessage(byte message[], InetAddress receiverAddress, int receiverPort,
+            boolean retry) throws IOException {
+        if (message == null || receiverAddress == null)
+            throw new IllegalArgumentException("Null argument");
+        if (receiverAddress.equals(this.peerAddress) && receiverPort == this.peerPort) {
+            sendMessage(message, retry);
+        } else {
+            NioTcpMessageChannel channel = (NioTcpMessageChannel) nioMessageProcessor
+                    .createMessageChannel(receiverAddress, receiverPort);
+            channel.sendMessage(message, retry);
+        }
+    }
+
+    /**
+     * Write the bytes or queue them behind the bytes that are already waiting.
+     */
+    protected void write(byte[] bytes) throws IOException {
+        writeBuffer(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Write the buffer or queue it. The bytes queued for a peer that does
+     * not read are limited to four times MAX_MESSAGE_SIZE, beyond that the
+     * connection is closed and the send fails.
+     */
+    protected void writeBuffer(ByteBuffer buffer) throws IOException {
+        SocketChannel channel = this.socketChannel;
+        if (channel == null || closed.get()) {
+            throw new IOException("Connection closed " + getKey());
+        }
+        int limit = getWriteQueueLimit();
+        boolean full;
+        synchronized (writeQueue) {
+            if (writeQueue.isEmpty()) {
+                channel.write(buffer);
+                if (!buffer.hasRemaining()) {
+                    return;
+                }
+            }
+            full = (long) queuedBytes + buffer.remaining() > limit;
+            if (!full) {
+                writeQueue.add(buffer);
+                queuedBytes += buffer.remaining();
+            }
+        }
+        if (full) {
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                logger.logDebug("Peer not reading, closing " + getKey());
+            close();
+            throw new WriteQueueFullException("More than " + limit + " bytes waiting to be written to "
+                    + getKey() + ", connection closed");
+        }
+        selectorLoop.setInterestOps(channel, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Thrown when the bytes waiting for the peer exceed the limit.
+     */
+    static class WriteQueueFullException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        WriteQueueFullException(String message) {
+            super(message);
+        }
+    }
+
+    private int getWriteQueueLimit() {
+        int maxMessageSize = sipStack.getMaxMessageSize();
+        if (maxMessageSize <= 0) {
+            return DEFAULT_WRITE_QUEUE_LIMIT;
+        }
+        return (int) Math.min(Integer.MAX_VALUE,
+                Math.max(MIN_WRITE_QUEUE_LIMIT, 4L * maxMessageSize));
+    }
+
+    /**
+     * Called from the selector thread.
+     */
+    public void processSelectedKey(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (channel != this.socketChannel) {
+            // Left over from a connection we already replaced.
+            key.cancel();
+            return;
+        }
+        if (key.isWritable()) {
+            flushWriteQueue(key, channel);
+        }
+        if (key.isValid() && key.isReadable()) {
+            ByteBuffer readBuffer = selectorLoop.getReadBuffer();
+            readBuffer.clear();
+            int nbytes = channel.read(readBuffer);
+            if (nbytes == -1) {
+                if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                    logger.logDebug("Connection closed by peer " + getKey());
+                close();
+                return;
+            }
+            if (nbytes > 0) {
+                bytesRead(readBuffer.array(), 0, nbytes);
+            }
+        }
+    }
+
+    /**
+     * Handle bytes read from the socket.
+     */
+    protected void bytesRead(byte[] bytes, int offset, int length) throws IOException {
+        this.lastActivityTime = System.currentTimeMillis();
+        nioParser.addBytes(bytes, offset, length);
+    }
+
+    private void flushWriteQueue(SelectionKey key, SocketChannel channel) throws IOException {
+        synchronized (writeQueue) {
+            while (!writeQueue.isEmpty()) {
+                ByteBuffer buffer = writeQueue.getFirst();
+                queuedBytes -= channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                writeQueue.removeFirst();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Queue a parsed message for processing.
+     */
+    protected void messageParsed(final SIPMessage sipMessage) {
+        if (sipMessage.getReceptionTime() == 0) {
+            sipMessage.setReceptionTime(System.currentTimeMillis());
+        }
+        CallIDOrderedExecutor executor = sipStack.getCallIDOrderedExecutor();
+        if (executor != null) {
+            final long receptionTime = sipMessage.getReceptionTime();
+            String callId = sipMessage.getCallId() == null ? null
+                    : sipMessage.getCallId().getCallId();
+            executor.execute(callId, new QueuedMessageDispatchBase() {
+                public void run() {
+                    // other calls may share the connection, keep it open on errors
+                    dispatch(sipMessage, false);
+                }
+
+                public long getReceptionTime() {
+                    return receptionTime;
+                }
+            });
+            return;
+        }
+        pendingMessages.offer(sipMessage);
+        scheduleDispatch();
+    }
+
+    private void scheduleDispatch() {
+        if (dispatchScheduled.compareAndSet(false, true)) {
+            try {
+                nioMessageProcessor.getSelectorPool().getDispatchExecutor().execute(dispatchTask);
+            } catch (RuntimeException ex) {
+                // The pool was shut down under us.
+                dispatchScheduled.set(false);
+                pendingMessages.clear();
+            }
+        }
+    }
+
+    private void dispatch(SIPMessage sipMessage, boolean closeOnError) {
+        if (sipStack.sipEventInterceptor != null) {
+            sipStack.sipEventInterceptor.beforeMessage(sipMessage);
+        }
+        try {
+            processMessage(sipMessage);
+        } catch (Exception ex) {
+            if (!closeOnError) {
+                logger.logError("Error occured processing message", ex);
+                return;
+            }
+            // fatal error in processing - close the connection.
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                logger.logDebug("Error processing message, closing " + getKey() + " " + ex);
+            close();
+        } finally {
+            if (sipStack.sipEventInterceptor != null) {
+                sipStack.sipEventInterceptor.afterMessage(sipMessage);
+            }
+        }
+    }
+
+    /**
+     * Cache the connection the first time a request arrives on it so that
+     * responses and further requests to the peer re-use it.
+     */
+    public void processMessage(SIPMessage sipMessage) throws Exception {
+        if (sipMessage instanceof SIPRequest && !this.isCached && this.socketChannel != null) {
+            this.isCached = true;
+            nioMessageProcessor.cacheMessageChannel(this);
+        }
+        super.processMessage(sipMessage);
+    }
+
+    /**
+     * Close the connection.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        this.isRunning = false;
+        sipStack.getConnectionActivityMonitor().unregister(activity);
+        SocketChannel channel = this.socketChannel;
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                logger.logDebug("Closing message Channel " + this);
+        } catch (IOException ex) {
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                logger.logDebug("Error closing socket " + ex);
+        }
+        synchronized (writeQueue) {
+            writeQueue.clear();
+            queuedBytes = 0;
+        }
+        if (incoming) {
+            nioMessageProcessor.connectionClosed(this, true);
+        } else {
+            // An outgoing channel can re-connect so it stays cached
+            // until the stack gives up on it.
+            this.socketChannel = null;
+            this.nioParser = new NioPipelineParser(sipStack, new ParserListener(),
+                    sipStack.getMaxMessageSize());
+        }
+    }
+
+    protected void uncache() {
+        if (isCached && !isRunning) {
+            nioMessageProcessor.remove(this);
+        }
+    }
+
+    public boolean equals(Object other) {
+        return this == other;
+    }
+
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    /**
+     * What the stack watches to close the connection if the peer is too slow.
+     */
+    private class Activity implements ConnectionActivityMonitor.Connection {
+
+        public long getLastActivityTime() {
+            return lastActivityTime;
+        }
+
+        public long getMessageStartTime() {
+            return nioParser.getMessageStartTime();
+        }
+
+        public boolean isIncoming() {
+            return incoming;
+        }
+
+        public void close() {
+            NioTcpMessageChannel.this.close();
+        }
+    }
+
+    /**
+     * Parser callback. Parse errors are handled as usual by the channel,
+     * parsed messages are queued for the dispatch threads.
+     */
+    class ParserListener implements SIPMessageListener {
+
+        public void processMessage(SIPMessage msg) throws Exception {
+            messageParsed(msg);
+        }
+
+        public void handleException(ParseException ex, SIPMessage sipMessage,
+                Class headerClass, String headerText, String messageText) throws ParseException {
+            NioTcpMessageChannel.this.handleException(ex, sipMessage, headerClass,
+                    headerText, messageText);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.HostPort;
+import gov.nist.core.LogWriter;
+import gov.nist.core.StackLogger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TCP message processor that multiplexes all its connections over the selector
+ * threads of a {@link NioSelectorPool} instead of starting a thread per
+ * connection like {@link TCPMessageProcessor}. The listening socket is itself
+ * registered with one of the selector loops, so accepting connections does
+ * not need a thread of its own either.
+ *
+ * @see NioMessageProcessorFactory
+ */
+public class NioTcpMessageProcessor extends MessageProcessor implements NioSelectable {
+
+    private static StackLogger logger = CommonLogger.getLogger(NioTcpMessageProcessor.class);
+
+    protected final NioSelectorPool selectorPool;
+
+    protected final AtomicInteger nConnections = new AtomicInteger();
+
+    protected final ConcurrentHashMap<String, NioTcpMessageChannel> messageChannels = new ConcurrentHashMap<String, NioTcpMessageChannel>();
+
+    protected final ConcurrentHashMap<NioTcpMessageChannel, Boolean> incomingMessageChannels = new ConcurrentHashMap<NioTcpMessageChannel, Boolean>();
+
+    private ServerSocketChannel serverChannel;
+
+    private NioSelectorLoop acceptLoop;
+
+    private volatile boolean isRunning;
+
+    // Set when we stopped accepting because MAX_CONNECTIONS was reached.
+    private boolean acceptSuspended;
+
+    /**
+     * Constructor.
+     *
+     * @param sipStack SIPStack structure.
+     * @param port port where this message processor listens.
+     * @param selectorPool the selector threads shared by the NIO processors of the stack.
+     */
+    protected NioTcpMessageProcessor(InetAddress ipAddress, SIPTransactionStack sipStack,
+            int port, NioSelectorPool selectorPool) {
+        this(ipAddress, sipStack, port, "tcp", selectorPool);
+    }
+
+    protected NioTcpMessageProcessor(InetAddress ipAddress, SIPTransactionStack sipStack,
+            int port, String transport, NioSelectorPool selectorPool) {
+        super(ipAddress, port, transport, sipStack);
+        this.sipStack = sipStack;
+        this.selectorPool = selectorPool;
+    }
+
+    /**
+     * Start the processor.
+     */
+    public void start() throws IOException {
+        this.selectorPool.acquire();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.socket().bind(new InetSocketAddress(getIpAddress(), getPort()));
+        if (getIpAddress().getHostAddress().equals(IN_ADDR_ANY)
+                || getIpAddress().getHostAddress().equals(IN6_ADDR_ANY)) {
+            // Store the address to which we are actually bound
+            super.setIpAddress(serverChannel.socket().getInetAddress());
+        }
+        this.isRunning = true;
+        this.acceptLoop = selectorPool.nextLoop();
+        this.acceptLoop.register(serverChannel, SelectionKey.OP_ACCEPT, this);
+    }
+
+    /**
+     * Accept the pending connections. Called from the selector thread.
+     */
+    public void processSelectedKey(SelectionKey key) throws IOException {
+        if (!key.isAcceptable()) {
+            return;
+        }
+        SocketChannel socketChannel;
+        while ((socketChannel = serverChannel.accept()) != null) {
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                logger.logDebug("Accepting new connection!");
+            }
+            // sipStack.maxConnections == -1 means we are
+            // willing to handle an "infinite" number of
+            // simultaneous connections (no resource limitation).
+            // This is the default behavior.
+            int connections = nConnections.incrementAndGet();
+            try {
+                socketChannel.configureBlocking(false);
+                socketChannel.socket().setTcpNoDelay(true);
+                NioTcpMessageChannel messageChannel = createIncomingMessageChannel(socketChannel);
+                incomingMessageChannels.put(messageChannel, Boolean.TRUE);
+                messageChannel.register(selectorPool.nextLoop());
+            } catch (IOException ex) {
+                nConnections.decrementAndGet();
+                logger.logException(ex);
+                try {
+                    socketChannel.close();
+                } catch (IOException e) {
+                }
+                continue;
+            }
+            if (sipStack.maxConnections != -1 && connections >= sipStack.maxConnections) {
+                // Leave the rest of the connections in the backlog until
+                // one of the current ones is closed.
+                synchronized (this) {
+                    acceptSuspended = true;
+                    key.interestOps(0);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Create the message channel for an accepted connection.
+     */
+    protected NioTcpMessageChannel createIncomingMessageChannel(SocketChannel socketChannel)
+            throws IOException {
+        return new NioTcpMessageChannel(socketChannel, sipStack, this);
+    }
+
+    /**
+     * Create the message channel for an outgoing connection. The connection
+     * itself is only established when the first message is sent.
+     */
+    protected NioTcpMessageChannel createOutgoingMessageChannel(InetAddress address, int port)
+            throws IOException {
+        return new NioTcpMessageChannel(address, port, sipStack, this);
+    }
+
+    /**
+     * Called by the message channels when their connection goes away.
+     */
+    protected void connectionClosed(NioTcpMessageChannel messageChannel, boolean counted) {
+        remove(messageChannel);
+        if (counted) {
+            int connections = nConnections.decrementAndGet();
+            synchronized (this) {
+                if (acceptSuspended && isRunning
+                        && (sipStack.maxConnections == -1 || connections < sipStack.maxConnections)) {
+                    acceptSuspended = false;
+                    acceptLoop.setInterestOps(serverChannel, SelectionKey.OP_ACCEPT);
+                }
+            }
+        }
+    }
+
+    /**
+     * This processor is driven by the selector threads.
+     */
+    public void run() {
+    }
+
+    /**
+     * Return the transport string.
+     *
+     * @return the transport string
+     */
+    public String getTransport() {
+        return this.transport;
+    }
+
+    /**
+     * Returns the stack.
+     *
+     * @return my sip stack.
+     */
+    public SIPTransactionStack getSIPStack() {
+        return sipStack;
+    }
+
+    /**
+     * Stop the message processor.
+     */
+    public void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        close();
+        for (NioTcpMessageChannel next : messageChannels.values()) {
+            next.close();
+        }
+        for (NioTcpMessageChannel next : incomingMessageChannels.keySet()) {
+            next.close();
+        }
+        this.selectorPool.release();
+    }
+
+    /**
+     * Close the listening socket.
+     */
+    public void close() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            logger.logException(e);
+        }
+    }
+
+    protected void remove(NioTcpMessageChannel messageChannel) {
+        String key = messageChannel.getKey();
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug(Thread.currentThread() + " removing " + key);
+        }
+        /** May have been removed already */
+        messageChannels.remove(key, messageChannel);
+        incomingMessageChannels.remove(messageChannel);
+    }
+
+    protected void cacheMessageChannel(NioTcpMessageChannel messageChannel) {
+        String key = messageChannel.getKey();
+        NioTcpMessageChannel currentChannel = messageChannels.put(key, messageChannel);
+        if (currentChannel != null && currentChannel != messageChannel) {
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                logger.logDebug("Closing " + key);
+            currentChannel.close();
+        }
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+            logger.logDebug("Caching " + key);
+    }
+
+    public MessageChannel createMessageChannel(HostPort targetHostPort) throws IOException {
+        return createMessageChannel(targetHostPort.getInetAddress(), targetHostPort.getPort());
+    }
+
+    public MessageChannel createMessageChannel(InetAddress host, int port) throws IOException {
+        try {
+            String key = MessageChannel.getKey(host, port, getTransport());
+            NioTcpMessageChannel retval = messageChannels.get(key);
+            if (retval != null) {
+                return retval;
+            }
+            NioTcpMessageChannel newChannel = createOutgoingMessageChannel(host, port);
+            retval = messageChannels.putIfAbsent(key, newChannel);
+            if (retval != null) {
+                return retval;
+            }
+            newChannel.isCached = true;
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                logger.logDebug("key " + key);
+                logger.logDebug("Creating " + newChannel);
+            }
+            return newChannel;
+        } catch (UnknownHostException ex) {
+            throw new IOException(ex.getMessage());
+        }
+    }
+
+    /**
+     * TCP can handle an unlimited number of bytes.
+     */
+    public int getMaximumMessageSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    public boolean inUse() {
+        return !messageChannels.isEmpty() || !incomingMessageChannels.isEmpty();
+    }
+
+    /**
+     * Default target port for TCP
+     */
+    public int getDefaultTargetPort() {
+        return 5060;
+    }
+
+    /**
+     * TCP is not a secure protocol.
+     */
+    public boolean isSecure() {
+        return false;
+    }
+
+    /**
+     * @return the selector threads this processor uses.
+     */
+    protected NioSelectorPool getSelectorPool() {
+        return selectorPool;
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogWriter;
+import gov.nist.core.StackLogger;
+import gov.nist.javax.sip.SipStackImpl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+
+/**
+ * A TLS connection served by a selector thread. The bytes read from the
+ * socket go through the {@link SSLEngine} of the connection before reaching
+ * the parser, and the messages sent are wrapped by the engine before being
+ * written. The handshake advances whenever bytes come in; the engine tasks
+ * it needs are run on the handshake threads of the processor.
+ * <p>
+ * Like for the thread per connection {@link TLSMessageChannel}, the first
+ * message sent on an outgoing connection waits for the handshake to complete
+ * and for the {@link javax.sip.TlsSecurityPolicy} of the stack to accept it,
+ * so that failures are reported to the sender.
+ *
+ * @see NioTlsMessageProcessor
+ */
+public class NioTlsMessageChannel extends NioTcpMessageChannel implements SecureMessageChannel {
+
+    private static StackLogger logger = CommonLogger.getLogger(NioTlsMessageChannel.class);
+
+    // How long the sender of the first message waits for the handshake.
+    private static final long HANDSHAKE_TIMEOUT = 10000;
+
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    private final NioTlsMessageProcessor tlsMessageProcessor;
+
+    // Guards the engine, its buffers and the data waiting for the handshake.
+    private final Object engineLock = new Object();
+
+    private final Object handshakeMonitor = new Object();
+
+    private SSLEngine sslEngine;
+
+    // Bytes read from the network not yet unwrapped, in write mode.
+    private ByteBuffer netInBuffer;
+
+    private ByteBuffer appInBuffer;
+
+    private ByteBuffer netOutBuffer;
+
+    private final LinkedList<ByteBuffer> pendingAppData = new LinkedList<ByteBuffer>();
+
+    private boolean handshakeTaskRunning;
+
+    private volatile boolean handshakeCompleted;
+
+    private HandshakeCompletedListener handshakeCompletedListener;
+
+    /**
+     * Constructor for a connection we accepted.
+     */
+    protected NioTlsMessageChannel(SocketChannel socketChannel, SIPTransactionStack sipStack,
+            NioTlsMessageProcessor msgProcessor) throws IOException {
+        super(socketChannel, sipStack, msgProcessor);
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug("creating new NioTlsMessageChannel (incoming)");
+        }
+        this.tlsMessageProcessor = msgProcessor;
+        synchronized (engineLock) {
+            createEngine(false);
+            sslEngine.beginHandshake();
+        }
+    }
+
+    /**
+     * Constructor for a connection to the given address. The connection is
+     * opened when the first message is sent.
+     */
+    protected NioTlsMessageChannel(InetAddress inetAddr, int port, SIPTransactionStack sipStack,
+            NioTlsMessageProcessor msgProcessor) throws IOException {
+        super(inetAddr, port, sipStack, msgProcessor);
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug("creating new NioTlsMessageChannel (outgoing)");
+        }
+        this.tlsMessageProcessor = msgProcessor;
+    }
+
+    private void createEngine(boolean clientMode) {
+        this.sslEngine = tlsMessageProcessor.createSSLEngine(peerAddress, peerPort, clientMode);
+        int packetSize = sslEngine.getSession().getPacketBufferSize();
+        this.netInBuffer = ByteBuffer.allocate(packetSize);
+        this.netOutBuffer = ByteBuffer.allocate(packetSize);
+        this.appInBuffer = ByteBuffer.allocate(sslEngine.getSession().getApplicationBufferSize());
+        this.pendingAppData.clear();
+        this.handshakeTaskRunning = false;
+        this.handshakeCompleted = false;
+        this.handshakeCompletedListener = null;
+    }
+
+    /**
+     * Open the connection, run the handshake and let the security policy of
+     * the stack check it.
+     */
+    protected synchronized void connect() throws IOException {
+        if (socketChannel != null) {
+            return;
+        }
+        super.connect();
+        SocketChannel channel = this.socketChannel;
+        synchronized (engineLock) {
+            sslEngine.beginHandshake();
+            processEngine();
+        }
+        synchronized (handshakeMonitor) {
+            long deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT;
+            long remaining = HANDSHAKE_TIMEOUT;
+            while (!handshakeCompleted && channel == this.socketChannel && remaining > 0) {
+                try {
+                    handshakeMonitor.wait(remaining);
+                } catch (InterruptedException ex) {
+                    break;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+        if (!handshakeCompleted) {
+            close();
+            throw new IOException("TLS handshake failed with " + getKey());
+        }
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug("Handshake passed");
+        }
+        // allow application to enforce policy by validating the
+        // certificate
+        try {
+            ((SipStackImpl) sipStack).getTlsSecurityPolicy().enforceTlsPolicy(
+                    getEncapsulatedClientTransaction());
+        } catch (SecurityException ex) {
+            close();
+            throw new IOException(ex.getMessage());
+        }
+    }
+
+    /**
+     * @return the local address of the connection, which is opened if needed.
+     */
+    protected SocketAddress getLocalSocketAddress() throws IOException {
+        connect();
+        SocketChannel channel = this.socketChannel;
+        if (channel == null) {
+            throw new IOException("Connection closed " + getKey());
+        }
+        return channel.socket().getLocalSocketAddress();
+    }
+
+    protected void onConnect() throws IOException {
+        synchronized (engineLock) {
+            createEngine(true);
+        }
+    }
+
+    /**
+     * Wrap the bytes, or keep them until the handshake completes.
+     */
+    protected void write(byte[] bytes) throws IOException {
+        synchronized (engineLock) {
+            if (sslEngine == null) {
+                throw new IOException("Connection closed " + getKey());
+            }
+            if (!handshakeCompleted || !pendingAppData.isEmpty()) {
+                pendingAppData.add(ByteBuffer.wrap(bytes));
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (!wrap(buffer)) {
+                // The engine is busy with a new handshake.
+                pendingAppData.add(buffer);
+                scheduleProcessEngine();
+            }
+        }
+    }
+
+    /**
+     * Bytes read from the socket, called from the selector thread.
+     */
+    protected void bytesRead(byte[] bytes, int offset, int length) throws IOException {
+        synchronized (engineLock) {
+            if (sslEngine == null) {
+                return;
+            }
+            if (netInBuffer.remaining() < length) {
+                ByteBuffer larger = ByteBuffer.allocate(netInBuffer.position() + length);
+                netInBuffer.flip();
+                larger.put(netInBuffer);
+                netInBuffer = larger;
+            }
+            netInBuffer.put(bytes, offset, length);
+            processEngine();
+        }
+    }
+
+    /**
+     * Advance the engine as far as the bytes we have allow. Called with the
+     * engine lock held.
+     */
+    private void processEngine() throws IOException {
+        while (sslEngine != null && !handshakeTaskRunning) {
+            HandshakeStatus handshakeStatus = sslEngine.getHandshakeStatus();
+            if (handshakeStatus == HandshakeStatus.NEED_TASK) {
+                runHandshakeTasks();
+                return;
+            } else if (handshakeStatus == HandshakeStatus.NEED_WRAP) {
+                wrap(EMPTY_BUFFER);
+            } else if (!unwrap()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Unwrap the bytes read from the network and hand the application data to
+     * the parser.
+     *
+     * @return false if nothing more can be done until more bytes are read.
+     */
+    private boolean unwrap() throws IOException {
+        netInBuffer.flip();
+        try {
+            if (!netInBuffer.hasRemaining()) {
+                return false;
+            }
+            SSLEngineResult result = sslEngine.unwrap(netInBuffer, appInBuffer);
+            if (result.getStatus() == Status.BUFFER_UNDERFLOW) {
+                return false;
+            } else if (result.getStatus() == Status.BUFFER_OVERFLOW) {
+                appInBuffer = ByteBuffer.allocate(appInBuffer.capacity()
+                        + sslEngine.getSession().getApplicationBufferSize());
+                return true;
+            } else if (result.getStatus() == Status.CLOSED) {
+                if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                    logger.logDebug("TLS connection closed by peer " + getKey());
+                close();
+                return false;
+            }
+            if (appInBuffer.position() > 0) {
+                appInBuffer.flip();
+                super.bytesRead(appInBuffer.array(), 0, appInBuffer.remaining());
+                appInBuffer.clear();
+            }
+            if (result.getHandshakeStatus() == HandshakeStatus.FINISHED) {
+                handshakeFinished();
+            }
+            return result.bytesConsumed() > 0 || result.bytesProduced() > 0
+                    || sslEngine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP
+                    || sslEngine.getHandshakeStatus() == HandshakeStatus.NEED_TASK;
+        } finally {
+            if (netInBuffer != null) {
+                netInBuffer.compact();
+            }
+        }
+    }
+
+    /**
+     * Wrap the data and write the records. Called with the engine lock held.
+     *
+     * @return false if the engine could not take all the data.
+     */
+    private boolean wrap(ByteBuffer data) throws IOException {
+        while (true) {
+            netOutBuffer.clear();
+            SSLEngineResult result = sslEngine.wrap(data, netOutBuffer);
+            if (result.getStatus() == Status.BUFFER_OVERFLOW) {
+                netOutBuffer = ByteBuffer.allocate(netOutBuffer.capacity()
+                        + sslEngine.getSession().getPacketBufferSize());
+                continue;
+            }
+            netOutBuffer.flip();
+            if (netOutBuffer.hasRemaining()) {
+                // The buffer may have to wait in the write queue.
+                ByteBuffer record = ByteBuffer.allocate(netOutBuffer.remaining());
+                record.put(netOutBuffer);
+                record.flip();
+                writeBuffer(record);
+            }
+            if (result.getStatus() == Status.CLOSED) {
+                throw new IOException("TLS connection closed " + getKey());
+            }
+            if (result.getHandshakeStatus() == HandshakeStatus.FINISHED) {
+                handshakeFinished();
+            }
+            if (!data.hasRemaining()) {
+                return true;
+            }
+            if (result.bytesConsumed() == 0) {
+                return false;
+            }
+        }
+    }
+
+    private void handshakeFinished() throws IOException {
+        if (!handshakeCompleted) {
+            HandshakeCompletedListenerImpl listener = new HandshakeCompletedListenerImpl(this);
+            listener.handshakeCompleted(sslEngine.getSession());
+            synchronized (handshakeMonitor) {
+                handshakeCompleted = true;
+                handshakeMonitor.notifyAll();
+            }
+        }
+        // Send what was waiting for the handshake.
+        while (!pendingAppData.isEmpty()) {
+            if (!wrap(pendingAppData.getFirst())) {
+                return;
+            }
+            pendingAppData.removeFirst();
+        }
+    }
+
+    /**
+     * Run the tasks of the engine on the handshake threads, then resume on
+     * the selector thread.
+     */
+    private void runHandshakeTasks() {
+        handshakeTaskRunning = true;
+        final SSLEngine engine = this.sslEngine;
+        try {
+            tlsMessageProcessor.executeHandshakeTask(new Runnable() {
+                public void run() {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    synchronized (engineLock) {
+                        if (engine == sslEngine) {
+                            handshakeTaskRunning = false;
+                            scheduleProcessEngine();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // The processor is stopping.
+            close();
+        }
+    }
+
+    private void scheduleProcessEngine() {
+        final SSLEngine engine = this.sslEngine;
+        selectorLoop.execute(new Runnable() {
+            public void run() {
+                synchronized (engineLock) {
+                    if (engine != sslEngine) {
+                        return;
+                    }
+                    try {
+                        processEngine();
+                    } catch (IOException ex) {
+                        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                            logger.logDebug("TLS error on " + getKey() + " " + ex);
+                        close();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Close the connection.
+     */
+    public void close() {
+        super.close();
+        synchronized (engineLock) {
+            if (sslEngine != null) {
+                sslEngine.closeOutbound();
+                sslEngine = null;
+                netInBuffer = null;
+                appInBuffer = null;
+                netOutBuffer = null;
+                pendingAppData.clear();
+            }
+        }
+        synchronized (handshakeMonitor) {
+            handshakeMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * get the transport string.
+     *
+     * @return "tls" in this case.
+     */
+    public String getTransport() {
+        return "tls";
+    }
+
+    /**
+     * TLS is a secure protocol.
+     */
+    public boolean isSecure() {
+        return true;
+    }
+
+    public void setHandshakeCompletedListener(
+            HandshakeCompletedListener handshakeCompletedListenerImpl) {
+        this.handshakeCompletedListener = handshakeCompletedListenerImpl;
+    }
+
+    /**
+     * @return the handshakeCompletedListener
+     */
+    public HandshakeCompletedListenerImpl getHandshakeCompletedListener() {
+        return (HandshakeCompletedListenerImpl) handshakeCompletedListener;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.net.NetworkLayer;
+import gov.nist.core.net.SslNetworkLayer;
+import gov.nist.javax.sip.SipStackImpl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+/**
+ * TLS message processor driven by the selector threads of a
+ * {@link NioSelectorPool}. The TLS records are produced and consumed by an
+ * {@link SSLEngine} per connection, so handshakes proceed as the bytes come
+ * in and do not hold a thread per connection like {@link TLSMessageProcessor}
+ * does. The CPU heavy parts of the handshakes (the delegated tasks of the
+ * engines) run on a small bounded pool of threads so that they do not stall
+ * the selector threads.
+ * <p>
+ * The engines are configured like the sockets of the thread per connection
+ * processor: accepted connections use the cipher suites of the stack and
+ * require a client certificate, a peer that has none fails the handshake,
+ * outgoing connections use the protocols set with
+ * <b>gov.nist.javax.sip.TLS_CLIENT_PROTOCOLS</b> and are checked against the
+ * TLS security policy of the stack. Keys come from the
+ * <b>javax.net.ssl.keyStore</b> configuration of the stack when it is set,
+ * otherwise from the default SSL context of the JVM.
+ *
+ * @see NioMessageProcessorFactory
+ */
+public class NioTlsMessageProcessor extends NioTcpMessageProcessor {
+
+    // Handshakes waiting for a thread beyond which the selector thread runs
+    // the tasks itself.
+    private static final int MAX_PENDING_HANDSHAKE_TASKS = 1000;
+
+    private SSLContext sslContext;
+
+    private ThreadPoolExecutor handshakeTaskExecutor;
+
+    /**
+     * Constructor.
+     *
+     * @param sipStack SIPStack structure.
+     * @param port port where this message processor listens.
+     * @param selectorPool the selector threads shared by the NIO processors of the stack.
+     */
+    protected NioTlsMessageProcessor(InetAddress ipAddress, SIPTransactionStack sipStack,
+            int port, NioSelectorPool selectorPool) {
+        super(ipAddress, sipStack, port, "tls", selectorPool);
+    }
+
+    /**
+     * Start the processor.
+     */
+    public void start() throws IOException {
+        this.sslContext = createSSLContext();
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.handshakeTaskExecutor = new ThreadPoolExecutor(threads, threads, 60,
+                TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(MAX_PENDING_HANDSHAKE_TASKS),
+                new ThreadFactory() {
+                    private int threadCount = 0;
+
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "SIP-NIO-HandshakeThread-" + threadCount++);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        super.start();
+    }
+
+    /**
+     * Stop the message processor.
+     */
+    public void stop() {
+        super.stop();
+        if (handshakeTaskExecutor != null) {
+            handshakeTaskExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Use the context of the key store configured on the stack if any, the
+     * default context of the JVM otherwise.
+     */
+    private SSLContext createSSLContext() throws IOException {
+        NetworkLayer networkLayer = sipStack.getNetworkLayer();
+        if (networkLayer instanceof SslNetworkLayer) {
+            return ((SslNetworkLayer) networkLayer).getSSLContext();
+        }
+        try {
+            try {
+                // SSLContext.getDefault() is only there from Java 6 on.
+                return (SSLContext) SSLContext.class.getMethod("getDefault").invoke(null);
+            } catch (NoSuchMethodException ex) {
+                SSLContext context = SSLContext.getInstance("TLS");
+                context.init(null, null, null);
+                return context;
+            }
+        } catch (GeneralSecurityException ex) {
+            IOException ioex = new IOException("Cannot create the SSL context");
+            ioex.initCause(ex);
+            throw ioex;
+        } catch (Exception ex) {
+            IOException ioex = new IOException("Cannot get the default SSL context");
+            ioex.initCause(ex);
+            throw ioex;
+        }
+    }
+
+    /**
+     * Create the engine of a new connection.
+     *
+     * @param clientMode true for the connections we open.
+     */
+    protected SSLEngine createSSLEngine(InetAddress peerAddress, int peerPort, boolean clientMode) {
+        SSLEngine engine = sslContext.createSSLEngine(peerAddress.getHostAddress(), peerPort);
+        engine.setUseClientMode(clientMode);
+        if (clientMode) {
+            engine.setEnabledProtocols(((SipStackImpl) sipStack).getEnabledProtocols());
+        } else {
+            engine.setEnabledCipherSuites(((SipStackImpl) sipStack).getEnabledCipherSuites());
+            // As TLSMessageChannel does for the sockets it accepts.
+            engine.setNeedClientAuth(true);
+        }
+        return engine;
+    }
+
+    /**
+     * Run the delegated tasks of a handshake off the selector threads.
+     */
+    protected void executeHandshakeTask(Runnable task) {
+        handshakeTaskExecutor.execute(task);
+    }
+
+    protected NioTcpMessageChannel createIncomingMessageChannel(SocketChannel socketChannel)
+            throws IOException {
+        return new NioTlsMessageChannel(socketChannel, sipStack, this);
+    }
+
+    protected NioTcpMessageChannel createOutgoingMessageChannel(InetAddress address, int port)
+            throws IOException {
+        return new NioTlsMessageChannel(address, port, sipStack, this);
+    }
+
+    /**
+     * Default target port for TLS
+     */
+    public int getDefaultTargetPort() {
+        return 5061;
+    }
+
+    /**
+     * TLS is a secure protocol.
+     */
+    public boolean isSecure() {
+        return true;
+    }
+}
@@ -226,6 +226,9 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
 	private Event originalRequestEventHeader;
 	private Contact originalRequestContact;
 	private String originalRequestScheme;
+
+	// lower case Call-ID under which the stack indexed this transaction
+	private String indexedCallId;
 	
 	private Object transactionTimerLock = new Object();
 	private AtomicBoolean timerKStarted = new AtomicBoolean(false);
@@ -688,11 +691,14 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
 
     // avoid re-scheduling the transaction timer every 500ms while we know we have to wait for TIMER_K * 500 ms
 	private void scheduleTimerK(long time) {
-		if(transactionTimer != null &&  timerKStarted.compareAndSet(false, true)) {
+		if((transactionTimer != null || (transactionTimerStarted.get() && !isTimerTicks()))
+		        &&  timerKStarted.compareAndSet(false, true)) {
 			synchronized (transactionTimerLock) {
 				if(!transactionTimerCancelled) {
-					sipStack.getTimer().cancel(transactionTimer);
-					transactionTimer = null;
+					if (transactionTimer != null) {
+						sipStack.getTimer().cancel(transactionTimer);
+						transactionTimer = null;
+					}
 					if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                         logger.logDebug("starting TransactionTimerK() : " + getTransactionId() + " time " + time);
                     }
@@ -996,7 +1002,7 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
             } else if (this.getMethod().equals(Request.BYE)
                     || this.getMethod().equals(Request.NOTIFY)) {
                 SIPDialog dialog = sipStack.getDialog(this.getOriginalRequest()
-                        .getDialogId(false));
+                        .getDialogKey(false));
                 // I want to behave like a user agent so send the BYE using the
                 // Dialog
                 if (this.getSipProvider().isAutomaticDialogSupportEnabled() && dialog != null) {
@@ -1084,6 +1090,7 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
                         lastRequest.setHeader(timeStamp);
                     }
                     super.sendMessage(lastRequest);
+                    sipStack.getStackMetrics().retransmissionSent();
                     if (this.notifyOnRetransmit) {
                         TimeoutEvent txTimeout = new TimeoutEvent(this.getSipProvider(), this,
                                 Timeout.RETRANSMIT);
@@ -1380,14 +1387,39 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
 	        if ( sipStack.getTimer() != null ) {
 	        	synchronized (transactionTimerLock) {
 	        		if(!transactionTimerCancelled) {
-	        			transactionTimer = new TransactionTimer();
-	        			sipStack.getTimer().scheduleWithFixedDelay(transactionTimer, BASE_TIMER_INTERVAL, BASE_TIMER_INTERVAL);
+	        			if (isTimerTicks()) {
+	        				transactionTimer = new TransactionTimer();
+	        				sipStack.getTimer().scheduleWithFixedDelay(transactionTimer, BASE_TIMER_INTERVAL, BASE_TIMER_INTERVAL);
+	        			} else {
+	        				startOneShotTimers();
+	        			}
 	        		}
 				}	        	
 	        }
         }
     }
 
+    /**
+     * Run the transaction timer once, one tick after the transaction was
+     * terminated, to remove it from the stack.
+     */
+    protected void scheduleTerminatedTimer() {
+        Object lock = transactionTimerLock;
+        if (lock == null || sipStack.getTimer() == null) {
+            return;
+        }
+        synchronized (lock) {
+            if (!transactionTimerCancelled) {
+                transactionTimer = new TransactionTimer();
+                try {
+                    sipStack.getTimer().schedule(transactionTimer, BASE_TIMER_INTERVAL);
+                } catch (IllegalStateException ex) {
+                    transactionTimer = null;
+                }
+            }
+        }
+    }
+
     /*
      * Terminate a transaction. This marks the tx as terminated The tx scanner will run and remove
      * the tx. (non-Javadoc)
@@ -1446,6 +1478,9 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
         
         boolean isRetransmission = !responsesReceived.add(Integer.valueOf(sipResponse.getStatusCode()));
         sipResponse.setRetransmission(isRetransmission);
+        if (isRetransmission) {
+            sipStack.getStackMetrics().retransmissionReceived();
+        }
         
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
             logger.logDebug(
@@ -1824,6 +1859,18 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
     	
 	}
 
+	/**
+	 * Set by the stack when it puts this transaction in its Call-ID index,
+	 * so it can be taken out again after the original request is released.
+	 */
+	void setIndexedCallId(String indexedCallId) {
+		this.indexedCallId = indexedCallId;
+	}
+
+	String getIndexedCallId() {
+		return indexedCallId;
+	}
+
 	/**
 	 * @return the originalRequestFromTag
 	 */
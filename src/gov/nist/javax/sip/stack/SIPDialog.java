@@ -29,6 +29,8 @@
 package gov.nist.javax.sip.stack;
 
 import gov.nist.core.CommonLogger;
+import gov.nist.core.Host;
+import gov.nist.core.HostPort;
 import gov.nist.core.InternalErrorHandler;
 import gov.nist.core.LogLevels;
 import gov.nist.core.LogWriter;
@@ -1154,9 +1156,16 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
                 throw new SipException(
                         "No listening point for this provider registered at "
                                 + hop);
-            InetAddress inetAddress = InetAddress.getByName(hop.getHost());
+            InetAddress inetAddress = sipStack.getNameResolver().resolve(hop.getHost());
+            Host targetHost = new Host();
+            targetHost.setHostname(inetAddress.getHostAddress());
+            targetHost.setInetAddress(inetAddress);
+            HostPort targetHostPort = new HostPort();
+            targetHostPort.setHost(targetHost);
+            targetHostPort.setPort(hop.getPort());
+            // on the connection of the INVITE
             MessageChannel messageChannel = lp.getMessageProcessor()
-                    .createMessageChannel(inetAddress, hop.getPort());
+                    .createMessageChannel(targetHostPort, getCallId().getCallId());
             boolean releaseAckSem = false;
             long cseqNo = ((SIPRequest) request).getCSeq().getSeqNumber();
             if (!this.isAckSent(cseqNo)) {
@@ -2584,7 +2593,8 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
         try {
             MessageChannel messageChannel = sipStack.createRawMessageChannel(
                     this.getSipProvider().getListeningPoint(hop.getTransport())
-                            .getIPAddress(), this.firstTransactionPort, hop);
+                            .getIPAddress(), this.firstTransactionPort, hop, getCallId()
+                            .getCallId());
 
             MessageChannel oldChannel = ((SIPClientTransaction) clientTransactionId)
                     .getMessageChannel();
@@ -2631,7 +2641,8 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
                 messageChannel = sipStack.createRawMessageChannel(this
                         .getSipProvider().getListeningPoint(
                                 outboundProxy.getTransport()).getIPAddress(),
-                        this.firstTransactionPort, outboundProxy);
+                        this.firstTransactionPort, outboundProxy, getCallId()
+                        .getCallId());
                 if (messageChannel != null)
                     ((SIPClientTransaction) clientTransactionId)
                             .setEncapsulatedChannel(messageChannel);
@@ -31,6 +31,8 @@ import gov.nist.core.InternalErrorHandler;
 import gov.nist.core.LogWriter;
 import gov.nist.core.ServerLogger;
 import gov.nist.core.StackLogger;
+import gov.nist.core.net.NameResolutionListener;
+import gov.nist.core.net.NameResolver;
 import gov.nist.javax.sip.SIPConstants;
 import gov.nist.javax.sip.ServerTransactionExt;
 import gov.nist.javax.sip.SipProviderImpl;
@@ -45,6 +47,7 @@ import gov.nist.javax.sip.message.SIPResponse;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.text.ParseException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -817,6 +820,7 @@ public class SIPServerTransaction extends SIPTransaction implements ServerReques
 
                 if (TransactionState._PROCEEDING == getRealState()
                         || TransactionState._COMPLETED == getRealState()) {
+                    sipStack.getStackMetrics().retransmissionReceived();
                     this.semRelease();
                     // Resend the last response to
                     // the client             
@@ -1186,8 +1190,10 @@ public class SIPServerTransaction extends SIPTransaction implements ServerReques
     	    if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                 logger.logDebug("resend last response " + lastResponse);
             }
+            sipStack.getStackMetrics().retransmissionSent();
     		sendMessage(lastResponse);
         } else if (lastResponseAsBytes != null) {
+            sipStack.getStackMetrics().retransmissionSent();
             // Send the message to the client
 //		    	if(!checkStateTimers(lastResponseStatusCode)) {
 //		        	return;
@@ -1209,35 +1215,83 @@ public class SIPServerTransaction extends SIPTransaction implements ServerReques
                     }   
 	    	    }
 	    		getMessageChannel().sendMessage(lastResponseAsBytes, this.getPeerInetAddress(), this.getPeerPort(), false);
+	    		sipStack.getStackMetrics().responseSent(lastResponseStatusCode);
 	    	} else {
 	    		Hop hop = sipStack.addressResolver.resolveAddress(new HopImpl(lastResponseHost, lastResponsePort,
 	                    lastResponseTransport));
-	
-	            MessageChannel messageChannel = ((SIPTransactionStack) getSIPStack())
-	                    .createRawMessageChannel(this.getSipProvider().getListeningPoint(
-	                            hop.getTransport()).getIPAddress(), this.getPort(), hop);
-	            if (messageChannel != null) {
-	                if (logger.isLoggingEnabled(ServerLogger.TRACE_MESSAGES)) {
-	                    // Issue 343 : we have to log the retransmission
-                        try {
-                            SIPResponse lastReparsedResponse = (SIPResponse) sipStack.getMessageParserFactory().createMessageParser(sipStack).parseSIPMessage(lastResponseAsBytes, true, false, null);
-                            getMessageChannel().logMessage(lastReparsedResponse, this.getPeerInetAddress(), this.getPeerPort(), System.currentTimeMillis());
-                        } catch (ParseException e) {
-                            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-                                logger.logDebug("couldn't reparse last response " + new String(lastResponseAsBytes));
-                            }
-                        }	                                 
-	                }
-	                messageChannel.sendMessage(lastResponseAsBytes, InetAddress.getByName(hop.getHost()), hop.getPort(), false);                                
-	            } else {
-	                throw new IOException("Could not create a message channel for " + hop + " with source IP:Port "+
-	                		this.getSipProvider().getListeningPoint(
-	                                hop.getTransport()).getIPAddress() + ":" + this.getPort());
-	            }                    		
+	    		NameResolver nameResolver = sipStack.getNameResolver();
+	    		if (nameResolver.isCached(hop.getHost())) {
+	    			sendLastResponseAsBytes(hop, nameResolver.resolve(hop.getHost()));
+	    		} else {
+	    			// Do not hold the timer thread while the name is looked up,
+	    			// the response is sent once the name is resolved.
+	    			nameResolver.resolve(hop.getHost(), new LastResponseSender(hop));
+	    		}
 	    	}
         }
 	}
 
+    private void sendLastResponseAsBytes(Hop hop, InetAddress address) throws IOException {
+        if (lastResponseAsBytes == null) {
+            return;
+        }
+        MessageChannel messageChannel = ((SIPTransactionStack) getSIPStack())
+                .createRawMessageChannel(this.getSipProvider().getListeningPoint(
+                        hop.getTransport()).getIPAddress(), this.getPort(), hop);
+        if (messageChannel != null) {
+            if (logger.isLoggingEnabled(ServerLogger.TRACE_MESSAGES)) {
+                // Issue 343 : we have to log the retransmission
+                try {
+                    SIPResponse lastReparsedResponse = (SIPResponse) sipStack.getMessageParserFactory().createMessageParser(sipStack).parseSIPMessage(lastResponseAsBytes, true, false, null);
+                    getMessageChannel().logMessage(lastReparsedResponse, this.getPeerInetAddress(), this.getPeerPort(), System.currentTimeMillis());
+                } catch (ParseException e) {
+                    if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                        logger.logDebug("couldn't reparse last response " + new String(lastResponseAsBytes));
+                    }
+                }
+            }
+            messageChannel.sendMessage(lastResponseAsBytes, address, hop.getPort(), false);
+            sipStack.getStackMetrics().responseSent(lastResponseStatusCode);
+        } else {
+            throw new IOException("Could not create a message channel for " + hop + " with source IP:Port "+
+                    this.getSipProvider().getListeningPoint(
+                            hop.getTransport()).getIPAddress() + ":" + this.getPort());
+        }
+    }
+
+    /**
+     * Sends the last response once the host of its Via is resolved.
+     */
+    class LastResponseSender implements NameResolutionListener {
+
+        private final Hop hop;
+
+        LastResponseSender(Hop hop) {
+            this.hop = hop;
+        }
+
+        public void nameResolved(String hostName, InetAddress address) {
+            try {
+                if (!isTerminated()) {
+                    sendLastResponseAsBytes(hop, address);
+                }
+            } catch (IOException ex) {
+                sendFailed(ex);
+            }
+        }
+
+        public void nameResolutionFailed(String hostName, UnknownHostException ex) {
+            sendFailed(ex);
+        }
+
+        private void sendFailed(IOException ex) {
+            if (logger.isLoggingEnabled())
+                logger.logException(ex);
+            setState(TransactionState._TERMINATED);
+            raiseErrorEvent(SIPTransactionErrorEvent.TRANSPORT_ERROR);
+        }
+    }
+
 	private void fireReliableResponseRetransmissionTimer() {
         try {
         	resendLastResponseAsBytes();
@@ -1585,6 +1639,10 @@ public class SIPServerTransaction extends SIPTransaction implements ServerReques
 	        	if (sipStack.getTimer() != null && sipStack.getTimer().isStarted() ) {
 	                // The timer is set to null when the Stack is
 	                // shutting down.
+	                if (!isTimerTicks()) {
+	                    startOneShotTimers();
+	                    return;
+	                }
 	                SIPStackTimerTask myTimer = new TransactionTimer();
 	                // Do not schedule when the stack is not alive.
 	                if (sipStack.getTimer() != null && sipStack.getTimer().isStarted() ) { 
@@ -1595,6 +1653,20 @@ public class SIPServerTransaction extends SIPTransaction implements ServerReques
 	        }        
     	}
     }
+
+    /**
+     * Run the transaction timer once, one tick after the transaction was
+     * terminated, to start the linger timer.
+     */
+    protected void scheduleTerminatedTimer() {
+        if (sipStack.getTimer() != null && sipStack.getTimer().isStarted()) {
+            try {
+                sipStack.getTimer().schedule(new TransactionTimer(), BASE_TIMER_INTERVAL);
+            } catch (IllegalStateException ex) {
+                // The stack is being stopped.
+            }
+        }
+    }
     
     /**
      * Start the timer task.
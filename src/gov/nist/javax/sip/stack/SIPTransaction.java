@@ -36,10 +36,12 @@ import gov.nist.javax.sip.SipProviderImpl;
 import gov.nist.javax.sip.SipStackImpl;
 import gov.nist.javax.sip.address.AddressFactoryImpl;
 import gov.nist.javax.sip.header.Via;
+import gov.nist.javax.sip.message.MessageKey;
 import gov.nist.javax.sip.message.SIPMessage;
 import gov.nist.javax.sip.message.SIPRequest;
 import gov.nist.javax.sip.message.SIPResponse;
 import gov.nist.javax.sip.stack.SIPClientTransaction.ExpiresTimerTask;
+import gov.nist.javax.sip.stack.timers.SipTimer;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -61,6 +63,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
 import javax.sip.Dialog;
 import javax.sip.IOExceptionEvent;
 import javax.sip.TransactionState;
@@ -147,6 +150,9 @@ public abstract class SIPTransaction extends MessageChannel implements
 
     protected String transactionId; // Transaction Id.
 
+    // Key of the transaction in the tables of the stack.
+    private MessageKey transactionKey;
+
     // Audit tag used by the SIP Stack audit
     public long auditTag = 0;
 
@@ -217,6 +223,10 @@ public abstract class SIPTransaction extends MessageChannel implements
     // Current transaction state
     private int currentState = -1;
 
+    // When the transaction was created, for the transaction duration
+    // statistics.
+    private final long creationTime = System.currentTimeMillis();
+
     // Number of ticks the retransmission timer was set to last
     private transient int retransmissionTimerLastTickCount;
 
@@ -226,6 +236,14 @@ public abstract class SIPTransaction extends MessageChannel implements
     // Number of ticks before the transaction times out
     protected int timeoutTimerTicksLeft;
 
+    // When the stack does not use timer ticks, the retransmission and timeout
+    // timers are one shot tasks scheduled for the number of ticks above.
+    private transient volatile SIPStackTimerTask retransmissionTimerTask;
+
+    private transient volatile SIPStackTimerTask timeoutTimerTask;
+
+    private transient volatile boolean oneShotTimersStarted;
+
     // List of event listeners for this transaction
     private transient Set<SIPTransactionEventListener> eventListeners;
 
@@ -394,10 +412,10 @@ public abstract class SIPTransaction extends MessageChannel implements
         // Branch value of topmost Via header
         String newBranch;
 
-        final String newTransactionId = newOriginalRequest.getTransactionId();
+        final MessageKey newTransactionKey = newOriginalRequest.getTransactionKey();
         if (this.originalRequest != null
-                && (!this.originalRequest.getTransactionId().equals(
-                        newTransactionId))) {
+                && (!this.originalRequest.getTransactionKey().equals(
+                        newTransactionKey))) {
             sipStack.removeTransactionHash(this);
         }
         // This will be cleared later.
@@ -421,7 +439,8 @@ public abstract class SIPTransaction extends MessageChannel implements
         // original request can be released later.
         this.method = newOriginalRequest.getMethod();
         
-        this.transactionId = newTransactionId;
+        this.transactionKey = newTransactionKey;
+        this.transactionId = newTransactionKey.toString();
 
         originalRequest.setTransaction(this);
 
@@ -439,7 +458,7 @@ public abstract class SIPTransaction extends MessageChannel implements
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
                 logger.logDebug("Branch id is null - compute TID!"
                         + newOriginalRequest.encode());
-            setBranch(newTransactionId);
+            setBranch(this.transactionId);
         }
     }
 
@@ -573,6 +592,7 @@ public abstract class SIPTransaction extends MessageChannel implements
      *            New state of this transaction.
      */
     public void setState(int newState) {
+        int previousState = currentState;
         // PATCH submitted by sribeyron
         if (currentState == TransactionState._COMPLETED) {
             if (newState != TransactionState._TERMINATED
@@ -588,12 +608,31 @@ public abstract class SIPTransaction extends MessageChannel implements
         else
             newState = currentState;
         // END OF PATCH
+        if (previousState < TransactionState._COMPLETED
+                && newState >= TransactionState._COMPLETED) {
+            sipStack.getStackMetrics().recordTransactionDuration(
+                    System.currentTimeMillis() - creationTime);
+        }
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
             logger.logDebug("Transaction:setState " + newState
                     + " " + this + " branchID = " + this.getBranch()
                     + " isClient = " + (this instanceof SIPClientTransaction));
             logger.logStackTrace();
         }
+        if (newState == TransactionState._TERMINATED
+                && previousState != TransactionState._TERMINATED
+                && oneShotTimersStarted) {
+            disableRetransmissionTimer();
+            disableTimeoutTimer();
+            scheduleTerminatedTimer();
+        }
+    }
+
+    /**
+     * Schedule the work that the periodic transaction timer does once the
+     * transaction is terminated. Only called when timer ticks are not used.
+     */
+    protected void scheduleTerminatedTimer() {
     }
 
     /**
@@ -643,6 +682,9 @@ public abstract class SIPTransaction extends MessageChannel implements
                     MAXIMUM_RETRANSMISSION_TICK_COUNT);
         }
         retransmissionTimerLastTickCount = retransmissionTimerTicksLeft;
+        if (oneShotTimersStarted) {
+            scheduleRetransmissionTimer();
+        }
     }
 
     /**
@@ -650,6 +692,11 @@ public abstract class SIPTransaction extends MessageChannel implements
      */
     protected final void disableRetransmissionTimer() {
         retransmissionTimerTicksLeft = -1;
+        SIPStackTimerTask task = retransmissionTimerTask;
+        if (task != null) {
+            retransmissionTimerTask = null;
+            cancelTimerTask(task);
+        }
     }
 
     /**
@@ -666,6 +713,9 @@ public abstract class SIPTransaction extends MessageChannel implements
                     + timeoutTimerTicksLeft);
 
         timeoutTimerTicksLeft = tickCount;
+        if (oneShotTimersStarted) {
+            scheduleTimeoutTimer();
+        }
     }
 
     /**
@@ -673,6 +723,100 @@ public abstract class SIPTransaction extends MessageChannel implements
      */
     protected final void disableTimeoutTimer() {
         timeoutTimerTicksLeft = -1;
+        SIPStackTimerTask task = timeoutTimerTask;
+        if (task != null) {
+            timeoutTimerTask = null;
+            cancelTimerTask(task);
+        }
+    }
+
+    /**
+     * Tells if the timers of this transaction are counted down by a periodic
+     * task (the TRANSACTION_TIMER_TICKS option) rather than scheduled one by one.
+     */
+    protected final boolean isTimerTicks() {
+        return sipStack.isTransactionTimerTicks();
+    }
+
+    /**
+     * Schedule the retransmission and timeout timers that are enabled, and
+     * from then on schedule them as soon as they are enabled. This replaces
+     * the periodic transaction timer when timer ticks are not used.
+     */
+    protected final void startOneShotTimers() {
+        oneShotTimersStarted = true;
+        if (isTerminated()) {
+            disableRetransmissionTimer();
+            disableTimeoutTimer();
+            scheduleTerminatedTimer();
+            return;
+        }
+        if (retransmissionTimerTicksLeft != -1) {
+            scheduleRetransmissionTimer();
+        }
+        if (timeoutTimerTicksLeft != -1) {
+            scheduleTimeoutTimer();
+        }
+    }
+
+    private void scheduleRetransmissionTimer() {
+        SIPStackTimerTask task = new RetransmissionTimerTask();
+        SIPStackTimerTask previous = retransmissionTimerTask;
+        retransmissionTimerTask = task;
+        cancelTimerTask(previous);
+        scheduleTimerTask(task, retransmissionTimerTicksLeft);
+    }
+
+    private void scheduleTimeoutTimer() {
+        SIPStackTimerTask task = new TimeoutTimerTask();
+        SIPStackTimerTask previous = timeoutTimerTask;
+        timeoutTimerTask = task;
+        cancelTimerTask(previous);
+        scheduleTimerTask(task, timeoutTimerTicksLeft);
+    }
+
+    private void scheduleTimerTask(SIPStackTimerTask task, int tickCount) {
+        SipTimer timer = sipStack.getTimer();
+        if (timer == null || !timer.isStarted()) {
+            return;
+        }
+        try {
+            timer.schedule(task, (long) tickCount * BASE_TIMER_INTERVAL);
+        } catch (IllegalStateException ex) {
+            // The stack is being stopped.
+        }
+    }
+
+    private void cancelTimerTask(SIPStackTimerTask task) {
+        SipTimer timer = sipStack.getTimer();
+        if (task != null && timer != null && task.getSipTimerTask() != null) {
+            timer.cancel(task);
+        }
+    }
+
+    class RetransmissionTimerTask extends SIPStackTimerTask {
+
+        public void runTask() {
+            if (retransmissionTimerTask != this || isTerminated()) {
+                return;
+            }
+            retransmissionTimerTask = null;
+            // Fire again after twice the time, as fireTimer does.
+            enableRetransmissionTimer(retransmissionTimerLastTickCount * 2);
+            fireRetransmissionTimer();
+        }
+    }
+
+    class TimeoutTimerTask extends SIPStackTimerTask {
+
+        public void runTask() {
+            if (timeoutTimerTask != this || isTerminated()) {
+                return;
+            }
+            timeoutTimerTask = null;
+            timeoutTimerTicksLeft = -1;
+            fireTimeoutTimer();
+        }
     }
 
     /**
@@ -803,13 +947,14 @@ public abstract class SIPTransaction extends MessageChannel implements
             					this.getPeerProtocol())) {
             		if (channel instanceof TCPMessageChannel) {
             			try {
-
+            				// copy now, the transaction keeps and may change its message
+            				final SIPMessage copy = messageToSend.copyForSelfRouting();
             				Runnable processMessageTask = new Runnable() {
 
             					public void run() {
             						try {
             							((TCPMessageChannel) channel)
-            							.processMessage((SIPMessage) messageToSend.clone(), getPeerInetAddress());
+            							.processMessage(copy, getPeerInetAddress());
             						} catch (Exception ex) {
             							if (logger.isLoggingEnabled(ServerLogger.TRACE_ERROR)) {
             								logger.logError("Error self routing message cause by: ", ex);
@@ -828,12 +973,12 @@ public abstract class SIPTransaction extends MessageChannel implements
                     }
                     if (channel instanceof RawMessageChannel) {
                         try {
-                        	
+                        	final SIPMessage copy = messageToSend.copyForSelfRouting();
                         	Runnable processMessageTask = new Runnable() {
     							
     							public void run() {
     								try {
-    									((RawMessageChannel) channel).processMessage((SIPMessage) messageToSend.clone());
+    									((RawMessageChannel) channel).processMessage(copy);
     								} catch (Exception ex) {
     									if (logger.isLoggingEnabled(ServerLogger.TRACE_ERROR)) {
     						        		logger.logError("Error self routing message cause by: ", ex);
@@ -920,6 +1065,9 @@ public abstract class SIPTransaction extends MessageChannel implements
 
         // Create the error event
         newErrorEvent = new SIPTransactionErrorEvent(this, errorEventID);
+        if (errorEventID == SIPTransactionErrorEvent.TIMEOUT_ERROR) {
+            sipStack.getStackMetrics().transactionTimedOut(this);
+        }
 
         // Loop through all listeners of this transaction
         synchronized (eventListeners) {
@@ -1019,6 +1167,13 @@ public abstract class SIPTransaction extends MessageChannel implements
         return this.transactionId;
     }
 
+    /**
+     * Get the key of the transaction in the tables of the stack.
+     */
+    public MessageKey getTransactionKey() {
+        return this.transactionKey;
+    }
+
     /**
      * Hashcode method for fast hashtable lookup.
      */
@@ -1321,38 +1476,36 @@ public abstract class SIPTransaction extends MessageChannel implements
         return retval;
     }
     
-    public String getCipherSuite() throws UnsupportedOperationException {
-        if (this.getMessageChannel() instanceof TLSMessageChannel ) {
-            if (  ((TLSMessageChannel) this.getMessageChannel()).getHandshakeCompletedListener() == null ) 
-                return null;
-            else if ( ((TLSMessageChannel) this.getMessageChannel()).getHandshakeCompletedListener().getHandshakeCompletedEvent() == null)
+    /**
+     * Get the TLS session of the channel of this transaction.
+     *
+     * @return the session or null if the handshake did not complete.
+     * @throws UnsupportedOperationException if the channel is not a TLS channel.
+     */
+    private SSLSession getSSLSession() throws UnsupportedOperationException {
+        if (this.getMessageChannel() instanceof SecureMessageChannel ) {
+            HandshakeCompletedListenerImpl listener = ((SecureMessageChannel) this.getMessageChannel()).getHandshakeCompletedListener();
+            if ( listener == null ) 
                 return null;
-            else return ((TLSMessageChannel) this.getMessageChannel()).getHandshakeCompletedListener().getHandshakeCompletedEvent().getCipherSuite();
+            else return listener.getSSLSession();
         } else throw new UnsupportedOperationException("Not a TLS channel");
+    }
 
+    public String getCipherSuite() throws UnsupportedOperationException {
+        SSLSession sslSession = getSSLSession();
+        return sslSession == null ? null : sslSession.getCipherSuite();
     }
 
     
     public java.security.cert.Certificate[] getLocalCertificates() throws UnsupportedOperationException {
-         if (this.getMessageChannel() instanceof TLSMessageChannel ) {
-            if (  ((TLSMessageChannel) this.getMessageChannel()).getHandshakeCompletedListener() == null ) 
-                return null;
-            else if ( ((TLSMessageChannel) this.getMessageChannel()).getHandshakeCompletedListener().getHandshakeCompletedEvent() == null)
-                return null;
-            else return ((TLSMessageChannel) this.getMessageChannel()).getHandshakeCompletedListener().getHandshakeCompletedEvent().getLocalCertificates();
-        } else throw new UnsupportedOperationException("Not a TLS channel");
+        SSLSession sslSession = getSSLSession();
+        return sslSession == null ? null : sslSession.getLocalCertificates();
     }
 
     
     public java.security.cert.Certificate[] getPeerCertificates() throws SSLPeerUnverifiedException {
-        if (this.getMessageChannel() instanceof TLSMessageChannel ) {
-            if (  ((TLSMessageChannel) this.getMessageChannel()).getHandshakeCompletedListener() == null ) 
-                return null;
-            else if ( ((TLSMessageChannel) this.getMessageChannel()).getHandshakeCompletedListener().getHandshakeCompletedEvent() == null)
-                return null;
-            else return ((TLSMessageChannel) this.getMessageChannel()).getHandshakeCompletedListener().getHandshakeCompletedEvent().getPeerCertificates();
-        } else throw new UnsupportedOperationException("Not a TLS channel");
-
+        SSLSession sslSession = getSSLSession();
+        return sslSession == null ? null : sslSession.getPeerCertificates();
     }
 
     /**
@@ -1361,7 +1514,7 @@ public abstract class SIPTransaction extends MessageChannel implements
      * @return list of authenticated identities
      */
     public List<String> extractCertIdentities() throws SSLPeerUnverifiedException {
-        if (this.getMessageChannel() instanceof TLSMessageChannel) {
+        if (this.getMessageChannel() instanceof SecureMessageChannel) {
             List<String> certIdentities = new ArrayList<String>();
             Certificate[] certs = getPeerCertificates();
             if (certs == null) {
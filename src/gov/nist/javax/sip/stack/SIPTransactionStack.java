@@ -35,8 +35,10 @@ import gov.nist.core.StackLogger;
 import gov.nist.core.ThreadAuditor;
 import gov.nist.core.net.AddressResolver;
 import gov.nist.core.net.DefaultNetworkLayer;
+import gov.nist.core.net.NameResolver;
 import gov.nist.core.net.NetworkLayer;
 import gov.nist.javax.sip.DefaultAddressResolver;
+import gov.nist.javax.sip.DnsAddressResolver;
 import gov.nist.javax.sip.ListeningPointImpl;
 import gov.nist.javax.sip.LogRecordFactory;
 import gov.nist.javax.sip.SIPConstants;
@@ -45,6 +47,7 @@ import gov.nist.javax.sip.SipProviderImpl;
 import gov.nist.javax.sip.SipStackImpl;
 import gov.nist.javax.sip.header.Event;
 import gov.nist.javax.sip.header.Via;
+import gov.nist.javax.sip.message.MessageKey;
 import gov.nist.javax.sip.message.SIPMessage;
 import gov.nist.javax.sip.message.SIPRequest;
 import gov.nist.javax.sip.message.SIPResponse;
@@ -62,6 +65,7 @@ import java.util.LinkedList;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -130,14 +134,26 @@ public abstract class SIPTransactionStack implements
      */
     protected ConcurrentHashMap<String, SIPServerTransaction> retransmissionAlertTransactions;
 
+    // earlyDialogTable, dialogTable, serverDialogMergeTestTable,
+    // clientTransactionTable and serverTransactionTable are keyed by
+    // MessageKey, they used to be keyed by the String ids. Subclasses that
+    // look entries up by a String id convert it with MessageKey.valueOf.
+
     // Table of early dialogs ( to keep identity mapping )
-    protected ConcurrentHashMap<String, SIPDialog> earlyDialogTable;
+    protected ConcurrentHashMap<MessageKey, SIPDialog> earlyDialogTable;
 
     // Table of dialogs.
-    protected ConcurrentHashMap<String, SIPDialog> dialogTable;
+    protected ConcurrentHashMap<MessageKey, SIPDialog> dialogTable;
 
     // Table of server dialogs ( for loop detection)
-    protected ConcurrentHashMap<String, SIPDialog> serverDialogMergeTestTable;
+    protected ConcurrentHashMap<MessageKey, SIPDialog> serverDialogMergeTestTable;
+
+    // Dialogs indexed by lower case Call-ID ( for Replaces lookups )
+    private ConcurrentHashMap<String, Set<SIPDialog>> dialogCallIdIndex;
+
+    // SUBSCRIBE and INVITE client transactions indexed by lower case Call-ID
+    // ( for NOTIFY matching and forked dialog lookups )
+    private ConcurrentHashMap<String, Set<SIPClientTransaction>> clientTransactionCallIdIndex;
 
     // A set of methods that result in dialog creations.
     protected static final Set<String> dialogCreatingMethods = new HashSet<String>();
@@ -147,10 +163,10 @@ public abstract class SIPTransactionStack implements
     private SipTimer timer;
 
     // List of pending server transactions
-    private ConcurrentHashMap<String, SIPServerTransaction> pendingTransactions;
+    private ConcurrentHashMap<MessageKey, SIPServerTransaction> pendingTransactions;
 
     // hashtable for fast lookup
-    protected ConcurrentHashMap<String, SIPClientTransaction> clientTransactionTable;
+    protected ConcurrentHashMap<MessageKey, SIPClientTransaction> clientTransactionTable;
 
     // Set to false if you want hiwat and lowat to be consulted.
     protected boolean unlimitedServerTransactionTableSize = true;
@@ -177,13 +193,13 @@ public abstract class SIPTransactionStack implements
     private AtomicInteger activeClientTransactionCount = new AtomicInteger(0);
 
     // Hashtable for server transactions.
-    protected ConcurrentHashMap<String, SIPServerTransaction> serverTransactionTable;
+    protected ConcurrentHashMap<MessageKey, SIPServerTransaction> serverTransactionTable;
 
     // A table of ongoing transactions indexed by mergeId ( for detecting merged
     // requests.
-    private ConcurrentHashMap<String, SIPServerTransaction> mergeTable;
+    private ConcurrentHashMap<MessageKey, SIPServerTransaction> mergeTable;
 
-    private ConcurrentHashMap<String,SIPServerTransaction> terminatedServerTransactionsPendingAck;
+    private ConcurrentHashMap<MessageKey, SIPServerTransaction> terminatedServerTransactionsPendingAck;
 
     private ConcurrentHashMap<String,SIPClientTransaction> forkedClientTransactionTable;
 
@@ -264,6 +280,28 @@ public abstract class SIPTransactionStack implements
      */
     protected int maxConnections;
 
+    /*
+     * max number of parallel connections the stack opens to a destination.
+     */
+    protected int maxConnectionsPerDestination = 1;
+
+    /*
+     * time during which sending to a destination fails right away after a
+     * connect to it failed, 0 to always try to connect.
+     */
+    protected int connectionFailureBackoff;
+
+    /*
+     * max time a message waits for the connect to its destination, 0 to wait
+     * until the connect completes.
+     */
+    protected int connectionWaitTimeout;
+
+    /*
+     * number of threads opening connections.
+     */
+    protected int connectorThreads = 8;
+
     /*
      * Close accept socket on completion.
      */
@@ -300,6 +338,22 @@ public abstract class SIPTransactionStack implements
      */
     protected int readTimeout;
 
+    /*
+     * Time after which a connection we accepted is closed if nothing was
+     * received on it, -1 to keep it open.
+     */
+    protected int serverConnectionIdleTimeout = -1;
+
+    /*
+     * Enforces the read and idle timeouts of the stream connections.
+     */
+    private final ConnectionActivityMonitor connectionActivityMonitor = new ConnectionActivityMonitor(this);
+
+    /*
+     * Counters and latency histograms of the stack.
+     */
+    private final StackMetrics stackMetrics = new StackMetrics(this);
+
     /*
      * The socket factory. Can be overriden by applications that want direct
      * access to the underlying socket.
@@ -328,6 +382,9 @@ public abstract class SIPTransactionStack implements
 
     protected AddressResolver addressResolver;
 
+    // Cached and coalesced host name lookups.
+    protected NameResolver nameResolver;
+
     // Max time that the listener is allowed to take to respond to a
     // request. Default is "infinity". This property allows
     // containers to defend against buggy clients (that do not
@@ -363,6 +420,12 @@ public abstract class SIPTransactionStack implements
     // Send UDP buffer size
     protected int sendUdpBufferSize;
 
+    // Number of threads reading datagrams per UDP listening point
+    protected int udpReceiverThreads = 1;
+
+    // Give each UDP receiver thread its own SO_REUSEPORT socket
+    protected boolean udpReusePort = false;
+
     protected int stackCongenstionControlTimeout = 0;
 
     protected boolean isBackToBackUserAgent = false;
@@ -389,6 +452,16 @@ public abstract class SIPTransactionStack implements
     // ThreadPool when parsed SIP messages are processed. Affects the case when many TCP calls use single socket.
     private int tcpPostParsingThreadPoolSize = 0;
 
+    // Lanes on which the messages read from stream connections are processed,
+    // created on first use when tcpPostParsingThreadPoolSize is set.
+    private volatile CallIDOrderedExecutor callIDOrderedExecutor;
+
+    // Number of selector threads shared by the NIO message processors.
+    protected int nioSelectorThreads = Runtime.getRuntime().availableProcessors();
+
+    // Number of threads on which messages read by the NIO message processors are processed.
+    protected int nioDispatchThreads = 2 * Runtime.getRuntime().availableProcessors();
+
     // Minimum time between NAT kee alive pings from clients.
     // Any ping that exceeds this time will result in  CRLF CRLF going
     // from the UDP message channel.
@@ -404,6 +477,10 @@ public abstract class SIPTransactionStack implements
 
     protected boolean aggressiveCleanup = false;
 
+    // Count transaction timers down with a periodic task per transaction
+    // instead of scheduling each RFC 3261 timer on its own.
+    protected boolean transactionTimerTicks = false;
+
     public SIPMessageValve sipMessageValve;
     
     public SIPEventInterceptor sipEventInterceptor;
@@ -529,25 +606,29 @@ public abstract class SIPTransactionStack implements
 
         this.addressResolver = new DefaultAddressResolver();
 
+        this.nameResolver = new NameResolver();
+
         // Notify may or may not create a dialog. This is handled in
         // the code.
         // Create the transaction collections
 
         // Dialog dable.
-        this.dialogTable = new ConcurrentHashMap<String, SIPDialog>();
-        this.earlyDialogTable = new ConcurrentHashMap<String, SIPDialog>();
-        this.serverDialogMergeTestTable = new ConcurrentHashMap<String, SIPDialog>();
-
-        clientTransactionTable = new ConcurrentHashMap<String, SIPClientTransaction>();
-        serverTransactionTable = new ConcurrentHashMap<String, SIPServerTransaction>();
-        this.terminatedServerTransactionsPendingAck = new ConcurrentHashMap<String, SIPServerTransaction>();
-        mergeTable = new ConcurrentHashMap<String, SIPServerTransaction>();
+        this.dialogTable = new ConcurrentHashMap<MessageKey, SIPDialog>();
+        this.earlyDialogTable = new ConcurrentHashMap<MessageKey, SIPDialog>();
+        this.serverDialogMergeTestTable = new ConcurrentHashMap<MessageKey, SIPDialog>();
+        this.dialogCallIdIndex = new ConcurrentHashMap<String, Set<SIPDialog>>();
+        this.clientTransactionCallIdIndex = new ConcurrentHashMap<String, Set<SIPClientTransaction>>();
+
+        clientTransactionTable = new ConcurrentHashMap<MessageKey, SIPClientTransaction>();
+        serverTransactionTable = new ConcurrentHashMap<MessageKey, SIPServerTransaction>();
+        this.terminatedServerTransactionsPendingAck = new ConcurrentHashMap<MessageKey, SIPServerTransaction>();
+        mergeTable = new ConcurrentHashMap<MessageKey, SIPServerTransaction>();
         retransmissionAlertTransactions = new ConcurrentHashMap<String, SIPServerTransaction>();
 
         // Start the timer event thread.
 
 //        this.timer = new DefaultTimer();
-        this.pendingTransactions = new ConcurrentHashMap<String, SIPServerTransaction>();
+        this.pendingTransactions = new ConcurrentHashMap<MessageKey, SIPServerTransaction>();
 
 
         this.forkedClientTransactionTable = new ConcurrentHashMap<String,SIPClientTransaction>();
@@ -564,16 +645,18 @@ public abstract class SIPTransactionStack implements
         messageProcessors = new CopyOnWriteArrayList<MessageProcessor>();
         // Handle IO for this process.
         this.ioHandler = new IOHandler(this);
-        pendingTransactions = new ConcurrentHashMap<String, SIPServerTransaction>();
-        clientTransactionTable = new ConcurrentHashMap<String, SIPClientTransaction>();
-        serverTransactionTable = new ConcurrentHashMap<String, SIPServerTransaction>();
+        pendingTransactions = new ConcurrentHashMap<MessageKey, SIPServerTransaction>();
+        clientTransactionTable = new ConcurrentHashMap<MessageKey, SIPClientTransaction>();
+        serverTransactionTable = new ConcurrentHashMap<MessageKey, SIPServerTransaction>();
         retransmissionAlertTransactions = new ConcurrentHashMap<String, SIPServerTransaction>();
-        mergeTable = new ConcurrentHashMap<String, SIPServerTransaction>();
+        mergeTable = new ConcurrentHashMap<MessageKey, SIPServerTransaction>();
         // Dialog dable.
-        this.dialogTable = new ConcurrentHashMap<String, SIPDialog>();
-        this.earlyDialogTable = new ConcurrentHashMap<String, SIPDialog>();
-        this.serverDialogMergeTestTable = new ConcurrentHashMap<String, SIPDialog>();
-        this.terminatedServerTransactionsPendingAck = new ConcurrentHashMap<String,SIPServerTransaction>();
+        this.dialogTable = new ConcurrentHashMap<MessageKey, SIPDialog>();
+        this.earlyDialogTable = new ConcurrentHashMap<MessageKey, SIPDialog>();
+        this.serverDialogMergeTestTable = new ConcurrentHashMap<MessageKey, SIPDialog>();
+        this.dialogCallIdIndex = new ConcurrentHashMap<String, Set<SIPDialog>>();
+        this.clientTransactionCallIdIndex = new ConcurrentHashMap<String, Set<SIPClientTransaction>>();
+        this.terminatedServerTransactionsPendingAck = new ConcurrentHashMap<MessageKey, SIPServerTransaction>();
         this.forkedClientTransactionTable = new ConcurrentHashMap<String,SIPClientTransaction>();
 
 //        this.timer = new DefaultTimer();
@@ -634,6 +717,11 @@ public abstract class SIPTransactionStack implements
                 tlsProcessor = (TLSMessageProcessor)processor;
                 break;
             }
+            if(processor instanceof NioTlsMessageProcessor){
+                NioTlsMessageChannel nioChannel = (NioTlsMessageChannel)
+                    ((NioTlsMessageProcessor)processor).createMessageChannel(dst, dstPort);
+                return nioChannel.getLocalSocketAddress();
+            }
         }
 
         if(tlsProcessor == null)
@@ -723,14 +811,15 @@ public abstract class SIPTransactionStack implements
      *
      */
     public SIPDialog putDialog(SIPDialog dialog) {
-        String dialogId = dialog.getDialogId();
-        if (dialogTable.containsKey(dialogId)) {
+        MessageKey dialogId = MessageKey.valueOf(dialog.getDialogId());
+        SIPDialog existing = dialogTable.get(dialogId);
+        if (existing != null) {
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                 logger
                         .logDebug("putDialog: dialog already exists" + dialogId
-                                + " in table = " + dialogTable.get(dialogId));
+                                + " in table = " + existing);
             }
-            return dialogTable.get(dialogId);
+            return existing;
         }
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
             logger.logDebug("putDialog dialogId=" + dialogId
@@ -740,8 +829,10 @@ public abstract class SIPTransactionStack implements
         if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG))
             logger.logStackTrace();
         dialogTable.put(dialogId, dialog);
-        if (dialog.getMergeId() != null )  {
-                this.serverDialogMergeTestTable.put(dialog.getMergeId(), dialog);
+        addToCallIdIndex(dialogCallIdIndex, dialogCallIdKey(dialog), dialog);
+        MessageKey mergeId = MessageKey.valueOf(dialog.getMergeId());
+        if (mergeId != null )  {
+                this.serverDialogMergeTestTable.put(mergeId, dialog);
 
         }
         return dialog;
@@ -766,8 +857,8 @@ public abstract class SIPTransactionStack implements
         SIPDialog retval = null;
 
         if (transaction instanceof SIPClientTransaction) {
-            String dialogId = ((SIPRequest) transaction.getRequest())
-                    .getDialogId(false);
+            MessageKey dialogId = ((SIPRequest) transaction.getRequest())
+                    .getDialogKey(false);
             if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
                 logger.logDebug("createDialog dialogId=" + dialogId);
             }
@@ -810,8 +901,8 @@ public abstract class SIPTransactionStack implements
 
     public SIPDialog createDialog(SIPClientTransaction transaction,
             SIPResponse sipResponse) {
-        String originalDialogId = ((SIPRequest)transaction.getRequest()).getDialogId(false);
-        String earlyDialogId = sipResponse.getDialogId(false);
+        MessageKey originalDialogId = ((SIPRequest)transaction.getRequest()).getDialogKey(false);
+        MessageKey earlyDialogId = sipResponse.getDialogKey(false);
         if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
             logger.logDebug("createDialog originalDialogId=" + originalDialogId);
             logger.logDebug("createDialog earlyDialogId=" + earlyDialogId);
@@ -822,7 +913,7 @@ public abstract class SIPTransactionStack implements
         }
         SIPDialog retval = null;
         SIPDialog earlyDialog = this.earlyDialogTable.get(originalDialogId);
-        if (earlyDialog != null && transaction != null && (transaction.getDefaultDialog() == null || transaction.getDefaultDialog().getDialogId().equals(originalDialogId))) {
+        if (earlyDialog != null && transaction != null && (transaction.getDefaultDialog() == null || originalDialogId.equals(MessageKey.valueOf(transaction.getDefaultDialog().getDialogId())))) {
             retval = earlyDialog;
             if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
                 logger.logDebug("createDialog early Dialog found : earlyDialogId="
@@ -862,21 +953,23 @@ public abstract class SIPTransactionStack implements
      */
     public void removeDialog(SIPDialog dialog) {
 
-        String id = dialog.getDialogId();
+        MessageKey id = MessageKey.valueOf(dialog.getDialogId());
 
-        String earlyId = dialog.getEarlyDialogId();
+        MessageKey earlyId = MessageKey.valueOf(dialog.getEarlyDialogId());
 
         if (earlyId != null) {
             this.earlyDialogTable.remove(earlyId);
             this.dialogTable.remove(earlyId);
         }
 
-        String mergeId = dialog.getMergeId();
+        MessageKey mergeId = MessageKey.valueOf(dialog.getMergeId());
 
         if (mergeId != null) {
             this.serverDialogMergeTestTable.remove(mergeId);
         }
 
+        removeFromCallIdIndex(dialogCallIdIndex, dialogCallIdKey(dialog), dialog);
+
         if (id != null) {
 
             // FHT: Remove dialog from table only if its associated dialog is
@@ -920,7 +1013,7 @@ public abstract class SIPTransactionStack implements
 
     public SIPDialog getEarlyDialog(String dialogId) {
 
-        SIPDialog sipDialog = (SIPDialog) earlyDialogTable.get(dialogId);
+        SIPDialog sipDialog = (SIPDialog) earlyDialogTable.get(MessageKey.valueOf(dialogId));
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
             logger.logDebug("getEarlyDialog(" + dialogId + ") : returning " + sipDialog);
         }
@@ -938,10 +1031,20 @@ public abstract class SIPTransactionStack implements
      */
 
     public SIPDialog getDialog(String dialogId) {
+        return getDialog(MessageKey.valueOf(dialogId));
+    }
+
+    /**
+     * Return the dialog for a given dialog key.
+     *
+     * @param dialogKey
+     *            is the key of the dialog, from SIPMessage.getDialogKey.
+     */
+    public SIPDialog getDialog(MessageKey dialogKey) {
 
-        SIPDialog sipDialog = (SIPDialog) dialogTable.get(dialogId);
+        SIPDialog sipDialog = (SIPDialog) dialogTable.get(dialogKey);
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-            logger.logDebug("getDialog(" + dialogId + ") : returning "
+            logger.logDebug("getDialog(" + dialogKey + ") : returning "
                     + sipDialog);
         }
         return sipDialog;
@@ -950,7 +1053,8 @@ public abstract class SIPTransactionStack implements
 
     /**
      * Remove the dialog given its dialog id. This is used for dialog id
-     * re-assignment only.
+     * re-assignment only. The dialog is left in the Call-ID index since it
+     * is put back under its new id right after.
      *
      * @param dialogId
      *            is the dialog Id to remove.
@@ -959,7 +1063,7 @@ public abstract class SIPTransactionStack implements
         if (logger.isLoggingEnabled()) {
             logger.logWarning("Silently removing dialog from table");
         }
-        dialogTable.remove(dialogId);
+        dialogTable.remove(MessageKey.valueOf(dialogId));
     }
 
     /**
@@ -981,7 +1085,6 @@ public abstract class SIPTransactionStack implements
             SIPRequest notifyMessage, ListeningPointImpl listeningPoint) {
         SIPClientTransaction retval = null;
         try {
-            Iterator it = clientTransactionTable.values().iterator();
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
                 logger.logDebug("ct table size = "
                         + clientTransactionTable.size());
@@ -998,8 +1101,13 @@ public abstract class SIPTransactionStack implements
 
                 return retval;
             }
-            while (it.hasNext()) {
-                SIPClientTransaction ct = (SIPClientTransaction) it.next();
+            // Only the transactions of this call are candidates.
+            Set<SIPClientTransaction> candidates = clientTransactionCallIdIndex
+                    .get(notifyMessage.getCallId().getCallId().toLowerCase());
+            if (candidates == null) {
+                return retval;
+            }
+            for (SIPClientTransaction ct : candidates) {
                 if (!ct.getMethod().equals(Request.SUBSCRIBE))
                     continue;
 
@@ -1008,7 +1116,7 @@ public abstract class SIPTransactionStack implements
                 Event hisEvent = (Event) ct.getOriginalRequestEvent();
                 // Event header is mandatory but some slopply clients
                 // dont include it.
-                if (hisEvent == null)
+                if (hisEvent == null || fromTag == null)
                     continue;
                 if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                     logger.logDebug("ct.fromTag = " + fromTag);
@@ -1049,7 +1157,7 @@ public abstract class SIPTransactionStack implements
         String branchId = ((SIPRequest) serverTransaction.getRequest())
                 .getTopmostVia().getBranch();
         if ( branchId != null ) {
-            this.terminatedServerTransactionsPendingAck.put(branchId,
+            this.terminatedServerTransactionsPendingAck.put(MessageKey.valueOf(branchId),
                     serverTransaction);
         }
 
@@ -1063,8 +1171,10 @@ public abstract class SIPTransactionStack implements
      * @return
      */
     public SIPServerTransaction findTransactionPendingAck(SIPRequest ackMessage) {
-        return this.terminatedServerTransactionsPendingAck.get(ackMessage
-                .getTopmostVia().getBranch());
+        String branchId = ackMessage.getTopmostVia().getBranch();
+        if (branchId == null)
+            return null;
+        return this.terminatedServerTransactionsPendingAck.get(MessageKey.valueOf(branchId));
     }
 
     /**
@@ -1077,14 +1187,9 @@ public abstract class SIPTransactionStack implements
     public boolean removeTransactionPendingAck(SIPServerTransaction serverTransaction) {
 //        String branchId = ((SIPRequest)serverTransaction.getRequest()).getTopmostVia().getBranch();
         String branchId = serverTransaction.getBranchId();
-        if ( branchId != null
-                && this.terminatedServerTransactionsPendingAck.
-                        containsKey(branchId) ) {
-            this.terminatedServerTransactionsPendingAck.remove(branchId);
-            return true;
-        } else {
-            return false;
-        }
+        return branchId != null
+                && this.terminatedServerTransactionsPendingAck.remove(
+                        MessageKey.valueOf(branchId)) != null;
     }
 
     /**
@@ -1097,7 +1202,8 @@ public abstract class SIPTransactionStack implements
             SIPServerTransaction serverTransaction) {
         String branchId = ((SIPRequest) serverTransaction.getRequest())
                 .getTopmostVia().getBranch();
-        return this.terminatedServerTransactionsPendingAck.contains(branchId);
+        return branchId != null && this.terminatedServerTransactionsPendingAck
+                .containsKey(MessageKey.valueOf(branchId));
     }
 
     /**
@@ -1119,7 +1225,7 @@ public abstract class SIPTransactionStack implements
             if (isServer) {
                 Via via = sipMessage.getTopmostVia();
                 if (via.getBranch() != null) {
-                    String key = sipMessage.getTransactionId();
+                    MessageKey key = sipMessage.getTransactionKey();
 
                     retval = (SIPTransaction) serverTransactionTable.get(key);
                     if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
@@ -1129,7 +1235,7 @@ public abstract class SIPTransactionStack implements
                                                 + " existing="
                                 + serverTransactionTable);
                     if (key
-                            .startsWith(SIPConstants.BRANCH_MAGIC_COOKIE_LOWER_CASE)) {
+                            .startsWithIgnoreCase(SIPConstants.BRANCH_MAGIC_COOKIE)) {
                         return retval;
                     }
 
@@ -1151,13 +1257,13 @@ public abstract class SIPTransactionStack implements
             } else {
                 Via via = sipMessage.getTopmostVia();
                 if (via.getBranch() != null) {
-                    String key = sipMessage.getTransactionId();
+                    MessageKey key = sipMessage.getTransactionKey();
                     if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
                         logger.logDebug(
                                 "clientTx: looking for key " + key);
                     retval = (SIPTransaction) clientTransactionTable.get(key);
                     if (key
-                            .startsWith(SIPConstants.BRANCH_MAGIC_COOKIE_LOWER_CASE)) {
+                            .startsWithIgnoreCase(SIPConstants.BRANCH_MAGIC_COOKIE)) {
                         return retval;
                     }
 
@@ -1189,10 +1295,17 @@ public abstract class SIPTransactionStack implements
     }
 
     public SIPTransaction findTransaction(String transactionId, boolean isServer) {
+        return findTransaction(MessageKey.valueOf(transactionId), isServer);
+    }
+
+    /**
+     * Find a transaction given its key, from SIPMessage.getTransactionKey.
+     */
+    public SIPTransaction findTransaction(MessageKey transactionKey, boolean isServer) {
         if(isServer) {
-            return serverTransactionTable.get(transactionId);
+            return serverTransactionTable.get(transactionKey);
         } else {
-            return clientTransactionTable.get(transactionId);
+            return clientTransactionTable.get(transactionKey);
         }
     }
 
@@ -1209,6 +1322,29 @@ public abstract class SIPTransactionStack implements
                     + isServer);
         }
 
+        /*
+         * With an RFC 3261 branch the transaction being cancelled is keyed by
+         * the same branch, so a single lookup is enough. Only RFC 2543
+         * requests need to be matched against every transaction.
+         */
+        Via topVia = cancelRequest.getTopmostVia();
+        String branch = topVia == null ? null : topVia.getBranch();
+        if (branch != null) {
+            MessageKey key = MessageKey.valueOf(branch);
+            if (key.startsWithIgnoreCase(SIPConstants.BRANCH_MAGIC_COOKIE)) {
+                SIPTransaction transaction = isServer ? serverTransactionTable
+                        .get(key) : clientTransactionTable.get(key);
+                if (transaction != null
+                        && transaction.doesCancelMatchTransaction(cancelRequest)) {
+                    return transaction;
+                }
+                if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                    logger
+                            .logDebug("Could not find transaction for cancel request");
+                return null;
+            }
+        }
+
         if (isServer) {
             Iterator<SIPServerTransaction> li = this.serverTransactionTable
                     .values().iterator();
@@ -1264,11 +1400,19 @@ public abstract class SIPTransactionStack implements
      */
     public SIPServerTransaction findPendingTransaction(
             String transactionId) {
+        return findPendingTransaction(MessageKey.valueOf(transactionId));
+    }
+
+    /**
+     * Finds a pending server transaction given its key.
+     */
+    public SIPServerTransaction findPendingTransaction(
+            MessageKey transactionKey) {
         if (this.logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
             this.logger.logDebug("looking for pending tx for :"
-                    + transactionId);
+                    + transactionKey);
         }
-        return (SIPServerTransaction) pendingTransactions.get(transactionId);
+        return (SIPServerTransaction) pendingTransactions.get(transactionKey);
 
     }
 
@@ -1291,7 +1435,7 @@ public abstract class SIPTransactionStack implements
              */
             return false;
         }
-        String mergeId = sipRequest.getMergeId();
+        MessageKey mergeId = sipRequest.getMergeKey();
         if (mergeId != null) {
             SIPServerTransaction mergedTransaction = (SIPServerTransaction) this.mergeTable
                     .get(mergeId);
@@ -1328,7 +1472,7 @@ public abstract class SIPTransactionStack implements
             this.logger.logDebug("removePendingTx: "
                     + tr.getTransactionId());
         }
-        this.pendingTransactions.remove(tr.getTransactionId());
+        this.pendingTransactions.remove(tr.getTransactionKey());
 
     }
 
@@ -1343,7 +1487,7 @@ public abstract class SIPTransactionStack implements
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
             this.logger.logDebug("Removing tx from merge table ");
         }
-        String key = ((SIPRequest) tr.getRequest()).getMergeId();
+        MessageKey key = ((SIPRequest) tr.getRequest()).getMergeKey();
         if (key != null) {
             this.mergeTable.remove(key);
         }
@@ -1358,7 +1502,7 @@ public abstract class SIPTransactionStack implements
      */
     public void putInMergeTable(SIPServerTransaction sipTransaction,
             SIPRequest sipRequest) {
-        String mergeKey = sipRequest.getMergeId();
+        MessageKey mergeKey = sipRequest.getMergeKey();
         if (mergeKey != null) {
             this.mergeTable.put(mergeKey, sipTransaction);
         }
@@ -1396,9 +1540,10 @@ public abstract class SIPTransactionStack implements
         // Next transaction in the set
         SIPServerTransaction nextTransaction;
 
-        final String key = requestReceived.getTransactionId();
+        final MessageKey key = requestReceived.getTransactionKey();
 
         requestReceived.setMessageChannel(requestMessageChannel);
+        stackMetrics.messageReceived(requestReceived);
 
         if(sipMessageValve != null) {
             if(!sipMessageValve.processRequest(
@@ -1421,8 +1566,8 @@ public abstract class SIPTransactionStack implements
 
             // Loop through all server transactions
             currentTransaction = null;
-            if (!key.toLowerCase().startsWith(
-                    SIPConstants.BRANCH_MAGIC_COOKIE_LOWER_CASE)) {
+            if (!key.startsWithIgnoreCase(
+                    SIPConstants.BRANCH_MAGIC_COOKIE)) {
                 Iterator<SIPServerTransaction> transactionIterator = serverTransactionTable.values().iterator();
                 while (transactionIterator.hasNext()
                         && currentTransaction == null) {
@@ -1527,6 +1672,7 @@ public abstract class SIPTransactionStack implements
         // Transaction to handle this request
         SIPClientTransaction currentTransaction;
 
+        stackMetrics.messageReceived(responseReceived);
         if(sipMessageValve != null) {
             if(!sipMessageValve.processResponse(
                     responseReceived, responseMessageChannel)) {
@@ -1538,7 +1684,7 @@ public abstract class SIPTransactionStack implements
             }
         }
 
-        String key = responseReceived.getTransactionId();
+        MessageKey key = responseReceived.getTransactionKey();
 
         // Note that for RFC 3261 compliant operation, this lookup will
         // return a tx if one exists and hence no need to search through
@@ -1548,7 +1694,7 @@ public abstract class SIPTransactionStack implements
         if (currentTransaction == null
                 || (!currentTransaction
                         .isMessagePartOfTransaction(responseReceived) && !key
-                        .startsWith(SIPConstants.BRANCH_MAGIC_COOKIE_LOWER_CASE))) {
+                        .startsWithIgnoreCase(SIPConstants.BRANCH_MAGIC_COOKIE))) {
             // Loop through all client transactions
 
             transactionIterator = clientTransactionTable.values().iterator();
@@ -1637,12 +1783,9 @@ public abstract class SIPTransactionStack implements
         // Create a new client transaction around the
         // superclass' message channel
         // Create the host/port of the target hop
-        Host targetHost = new Host();
-        targetHost.setHostname(nextHop.getHost());
-        HostPort targetHostPort = new HostPort();
-        targetHostPort.setHost(targetHost);
-        targetHostPort.setPort(nextHop.getPort());
-        MessageChannel mc = mp.createMessageChannel(targetHostPort);
+        HostPort targetHostPort = createTargetHostPort(nextHop);
+        MessageChannel mc = mp.createMessageChannel(targetHostPort, request.getCallId()
+                .getCallId());
 
         // Superclass will return null if no message processor
         // available for the transport.
@@ -1752,7 +1895,7 @@ public abstract class SIPTransactionStack implements
         if (sipTransaction instanceof SIPServerTransaction) {
             if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG))
                 logger.logStackTrace();
-            String key = sipTransaction.getTransactionId();
+            MessageKey key = sipTransaction.getTransactionKey();
             Object removed = serverTransactionTable.remove(key);
             String method = sipTransaction.getMethod();
             this
@@ -1776,13 +1919,16 @@ public abstract class SIPTransactionStack implements
             }
         } else {
 
-            String key = sipTransaction.getTransactionId();
+            MessageKey key = sipTransaction.getTransactionKey();
             Object removed = clientTransactionTable.remove(key);
 
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                 logger.logDebug("REMOVED client tx " + removed + " KEY = "
                         + key);
             }
+            removeFromCallIdIndex(clientTransactionCallIdIndex,
+                    ((SIPClientTransaction) sipTransaction).getIndexedCallId(),
+                    (SIPClientTransaction) sipTransaction);
             if ( removed != null ) {
                 SIPClientTransaction clientTx = (SIPClientTransaction)removed;
                 final String forkId = clientTx.getForkId();
@@ -1853,16 +1999,24 @@ public abstract class SIPTransactionStack implements
             } else {
                 this.activeClientTransactionCount.incrementAndGet();
             }
-            String key = sipRequest.getTransactionId();
-            clientTransactionTable.put(key,
-                    (SIPClientTransaction) sipTransaction);
+            MessageKey key = sipRequest.getTransactionKey();
+            SIPClientTransaction clientTx = (SIPClientTransaction) sipTransaction;
+            clientTransactionTable.put(key, clientTx);
+            String method = sipRequest.getMethod();
+            if (Request.SUBSCRIBE.equals(method)
+                    || Request.INVITE.equals(method)) {
+                String callId = sipRequest.getCallId().getCallId()
+                        .toLowerCase();
+                clientTx.setIndexedCallId(callId);
+                addToCallIdIndex(clientTransactionCallIdIndex, callId, clientTx);
+            }
 
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                 logger
                         .logDebug(" putTransactionHash : " + " key = " + key);
             }
         } else {
-            String key = sipRequest.getTransactionId();
+            MessageKey key = sipRequest.getTransactionKey();
 
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                 logger
@@ -1875,6 +2029,55 @@ public abstract class SIPTransactionStack implements
 
     }
 
+    /**
+     * Add an entry to one of the Call-ID indexes. The set for a Call-ID is
+     * locked while it is updated so that an entry is never added to a set
+     * that is concurrently being dropped from the index.
+     */
+    private static <T> void addToCallIdIndex(
+            ConcurrentHashMap<String, Set<T>> index, String callId, T value) {
+        if (callId == null)
+            return;
+        while (true) {
+            Set<T> entries = index.get(callId);
+            if (entries == null) {
+                Set<T> newEntries = new CopyOnWriteArraySet<T>();
+                entries = index.putIfAbsent(callId, newEntries);
+                if (entries == null)
+                    entries = newEntries;
+            }
+            synchronized (entries) {
+                if (index.get(callId) == entries) {
+                    entries.add(value);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove an entry from one of the Call-ID indexes, dropping the Call-ID
+     * when it has no entries left.
+     */
+    private static <T> void removeFromCallIdIndex(
+            ConcurrentHashMap<String, Set<T>> index, String callId, T value) {
+        if (callId == null)
+            return;
+        Set<T> entries = index.get(callId);
+        if (entries == null)
+            return;
+        synchronized (entries) {
+            entries.remove(value);
+            if (entries.isEmpty())
+                index.remove(callId, entries);
+        }
+    }
+
+    private static String dialogCallIdKey(SIPDialog dialog) {
+        CallIdHeader callId = dialog.getCallId();
+        return callId == null ? null : callId.getCallId().toLowerCase();
+    }
+
     /**
      * This method is called when a client tx transitions to the Completed or
      * Terminated state.
@@ -1900,15 +2103,18 @@ public abstract class SIPTransactionStack implements
         if (sipRequest == null)
             return;
         if (sipTransaction instanceof SIPClientTransaction) {
-            String key = sipTransaction.getTransactionId();
+            MessageKey key = sipTransaction.getTransactionKey();
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                 logger.logStackTrace();
                 logger.logDebug("removing client Tx : " + key);
             }
             clientTransactionTable.remove(key);
+            removeFromCallIdIndex(clientTransactionCallIdIndex,
+                    ((SIPClientTransaction) sipTransaction).getIndexedCallId(),
+                    (SIPClientTransaction) sipTransaction);
 
         } else if (sipTransaction instanceof SIPServerTransaction) {
-            String key = sipTransaction.getTransactionId();
+            MessageKey key = sipTransaction.getTransactionKey();
             serverTransactionTable.remove(key);
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                 logger.logDebug("removing server Tx : " + key);
@@ -1969,8 +2175,11 @@ public abstract class SIPTransactionStack implements
         // Prevent NPE on two concurrent stops
         this.toExit = true;
 
-        if (this.timer != null)
+        if (this.timer != null) {
+            this.connectionActivityMonitor.stop();
             this.timer.stop();
+        }
+        this.stackMetrics.unregisterMBean();
 
         // JvB: set it to null, SIPDialog tries to schedule things after stop
         this.pendingTransactions.clear();
@@ -1994,11 +2203,20 @@ public abstract class SIPTransactionStack implements
             Thread.sleep(1000);
         } catch (InterruptedException ex) {
         }
+        synchronized (this) {
+            if (callIDOrderedExecutor != null) {
+                callIDOrderedExecutor.stop();
+                callIDOrderedExecutor = null;
+            }
+        }
         this.clientTransactionTable.clear();
         this.serverTransactionTable.clear();
 
         this.dialogTable.clear();
+        this.dialogCallIdIndex.clear();
+        this.clientTransactionCallIdIndex.clear();
         this.serverLogger.closeLogFile();
+        this.nameResolver.stop();
 
     }
 
@@ -2011,7 +2229,7 @@ public abstract class SIPTransactionStack implements
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
             logger.logDebug("putPendingTransaction: " + tr);
 
-        this.pendingTransactions.put(tr.getTransactionId(), tr);
+        this.pendingTransactions.put(tr.getTransactionKey(), tr);
 
     }
 
@@ -2113,7 +2331,71 @@ public abstract class SIPTransactionStack implements
      * @param tcpPostParsingThreadPoolSize
      */
     public void setTcpPostParsingThreadPoolSize(int tcpPostParsingThreadPoolSize) {
-        this.tcpPostParsingThreadPoolSize = tcpPostParsingThreadPoolSize;
+        synchronized (this) {
+            this.tcpPostParsingThreadPoolSize = tcpPostParsingThreadPoolSize;
+            if (callIDOrderedExecutor != null
+                    && callIDOrderedExecutor.getLaneCount() != tcpPostParsingThreadPoolSize) {
+                callIDOrderedExecutor.stop();
+                callIDOrderedExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * The executor that processes the messages read from TCP, TLS and SCTP
+     * connections after parsing, with the messages of a call kept in order.
+     *
+     * @return the executor or null if TCP_POST_PARSING_THREAD_POOL_SIZE is not
+     *         set, in which case the reading thread processes the messages.
+     */
+    public CallIDOrderedExecutor getCallIDOrderedExecutor() {
+        CallIDOrderedExecutor executor = callIDOrderedExecutor;
+        if (executor == null && tcpPostParsingThreadPoolSize > 0) {
+            synchronized (this) {
+                executor = callIDOrderedExecutor;
+                if (executor == null && tcpPostParsingThreadPoolSize > 0) {
+                    executor = new CallIDOrderedExecutor(tcpPostParsingThreadPoolSize,
+                            stackCongenstionControlTimeout);
+                    callIDOrderedExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * @return the number of messages waiting on the lanes of the
+     *         CallIDOrderedExecutor, 0 if there is none.
+     */
+    int getPostParsingQueueDepth() {
+        CallIDOrderedExecutor executor = callIDOrderedExecutor;
+        int depth = 0;
+        if (executor != null) {
+            for (int i = 0; i < executor.getLaneCount(); i++) {
+                depth += executor.getQueueDepth(i);
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Number of selector threads that serve all the connections of the NIO
+     * message processors.
+     *
+     * @return the number of selector threads.
+     */
+    public int getNioSelectorThreads() {
+        return nioSelectorThreads;
+    }
+
+    /**
+     * Number of threads on which the messages read by the NIO message
+     * processors are processed.
+     *
+     * @return the number of dispatch threads.
+     */
+    public int getNioDispatchThreads() {
+        return nioDispatchThreads;
     }
 
     /**
@@ -2138,6 +2420,89 @@ public abstract class SIPTransactionStack implements
         this.maxConnections = nconnections;
     }
 
+    /**
+     * Set the max number of parallel TCP connections the stack opens to a
+     * destination. Calls are spread over them by Call-ID.
+     */
+    public void setMaxConnectionsPerDestination(int maxConnectionsPerDestination) {
+        this.maxConnectionsPerDestination = maxConnectionsPerDestination;
+    }
+
+    public int getMaxConnectionsPerDestination() {
+        return maxConnectionsPerDestination;
+    }
+
+    /**
+     * Set the time in milliseconds during which messages to a destination
+     * fail right away after a connect to it failed.
+     */
+    public void setConnectionFailureBackoff(int connectionFailureBackoff) {
+        this.connectionFailureBackoff = connectionFailureBackoff;
+    }
+
+    public int getConnectionFailureBackoff() {
+        return connectionFailureBackoff;
+    }
+
+    /**
+     * Set the max time in milliseconds a message waits for the connect to its
+     * destination, 0 to wait until the connect completes.
+     */
+    public void setConnectionWaitTimeout(int connectionWaitTimeout) {
+        this.connectionWaitTimeout = connectionWaitTimeout;
+    }
+
+    public int getConnectionWaitTimeout() {
+        return connectionWaitTimeout;
+    }
+
+    /**
+     * Set the number of threads opening TCP and TLS connections. Takes effect
+     * when the first connection is opened.
+     */
+    public void setConnectorThreads(int connectorThreads) {
+        this.connectorThreads = connectorThreads;
+    }
+
+    public int getConnectorThreads() {
+        return connectorThreads;
+    }
+
+    /**
+     * Set the time in milliseconds after which a connection we accepted is
+     * closed if nothing was received on it, -1 to keep it open.
+     */
+    public void setServerConnectionIdleTimeout(int serverConnectionIdleTimeout) {
+        this.serverConnectionIdleTimeout = serverConnectionIdleTimeout;
+    }
+
+    public int getServerConnectionIdleTimeout() {
+        return serverConnectionIdleTimeout;
+    }
+
+    /**
+     * @return the monitor that closes the stream connections on which peers
+     *         are too slow or idle, with the number of connections closed.
+     */
+    public ConnectionActivityMonitor getConnectionActivityMonitor() {
+        return connectionActivityMonitor;
+    }
+
+    /**
+     * @return the counters and latency histograms of the stack.
+     */
+    public StackMetrics getStackMetrics() {
+        return stackMetrics;
+    }
+
+    /**
+     * @return the pool of the connections the stack sends TCP and TLS
+     *         messages on.
+     */
+    public ClientConnectionManager getClientConnectionManager() {
+        return ioHandler.getConnectionManager();
+    }
+
     /**
      * Get the default route string.
      *
@@ -2351,18 +2716,26 @@ public abstract class SIPTransactionStack implements
      */
     public MessageChannel createRawMessageChannel(String sourceIpAddress,
             int sourcePort, Hop nextHop) throws UnknownHostException {
-        Host targetHost;
+        return createRawMessageChannel(sourceIpAddress, sourcePort, nextHop, null);
+    }
+
+    /**
+     * Creates a raw message channel for the messages of a call, see
+     * {@link MessageProcessor#createMessageChannel(HostPort, String)}.
+     *
+     * @param callId
+     *            the Call-ID of the call, null if the message belongs to no
+     *            call.
+     */
+    public MessageChannel createRawMessageChannel(String sourceIpAddress,
+            int sourcePort, Hop nextHop, String callId) throws UnknownHostException {
         HostPort targetHostPort;
         Iterator processorIterator;
         MessageProcessor nextProcessor;
         MessageChannel newChannel;
 
         // Create the host/port of the target hop
-        targetHost = new Host();
-        targetHost.setHostname(nextHop.getHost());
-        targetHostPort = new HostPort();
-        targetHostPort.setHost(targetHost);
-        targetHostPort.setPort(nextHop.getPort());
+        targetHostPort = createTargetHostPort(nextHop);
 
         // Search each processor for the correct transport
         newChannel = null;
@@ -2380,7 +2753,7 @@ public abstract class SIPTransactionStack implements
                     // Create a channel to the target
                     // host/port
                     newChannel = nextProcessor
-                            .createMessageChannel(targetHostPort);
+                            .createMessageChannel(targetHostPort, callId);
                 } catch (UnknownHostException ex) {
                     if (logger.isLoggingEnabled())
                         logger.logException(ex);
@@ -2447,9 +2820,35 @@ public abstract class SIPTransactionStack implements
      *            -- the address resolver to set.
      */
     public void setAddressResolver(AddressResolver addressResolver) {
+        if (addressResolver instanceof DnsAddressResolver) {
+            ((DnsAddressResolver) addressResolver).setNameResolver(this.nameResolver);
+        }
         this.addressResolver = addressResolver;
     }
 
+    /**
+     * Get the resolver that the stack uses to look host names up.
+     *
+     * @return -- the name resolver of the stack.
+     */
+    public NameResolver getNameResolver() {
+        return this.nameResolver;
+    }
+
+    /**
+     * Create the host/port of a hop, with its address looked up through the
+     * name resolver of the stack.
+     */
+    private HostPort createTargetHostPort(Hop nextHop) throws UnknownHostException {
+        Host targetHost = new Host();
+        targetHost.setHostname(nextHop.getHost());
+        targetHost.setInetAddress(nameResolver.resolve(nextHop.getHost()));
+        HostPort targetHostPort = new HostPort();
+        targetHostPort.setHost(targetHost);
+        targetHostPort.setPort(nextHop.getPort());
+        return targetHostPort;
+    }
+
     /**
      * Set the logger factory.
      *
@@ -2726,11 +3125,14 @@ public abstract class SIPTransactionStack implements
         String fromTag = replacesHeader.getFromTag();
         String toTag = replacesHeader.getToTag();
         
-        for ( SIPDialog dialog : this.dialogTable.values() ) {
-            if ( dialog.getCallId().getCallId().equals(cid) 
-                    && fromTag.equalsIgnoreCase(dialog.lastResponseFromTag) 
-                    && toTag.equalsIgnoreCase(dialog.lastResponseToTag)) {
-                return dialog;
+        Set<SIPDialog> dialogs = this.dialogCallIdIndex.get(cid.toLowerCase());
+        if (dialogs != null) {
+            for ( SIPDialog dialog : dialogs ) {
+                if ( dialog.getCallId().getCallId().equals(cid) 
+                        && fromTag.equalsIgnoreCase(dialog.lastResponseFromTag) 
+                        && toTag.equalsIgnoreCase(dialog.lastResponseToTag)) {
+                    return dialog;
+                }
             }
         }
 
@@ -2752,18 +3154,21 @@ public abstract class SIPTransactionStack implements
         /*
          * Check if we can find this dialog in our dialog table.
          */
-        Dialog replacesDialog =  this.dialogTable.get(did);
+        Dialog replacesDialog =  this.dialogTable.get(MessageKey.valueOf(did));
         /*
          * This could be a forked dialog. Search for it.
          */
         if ( replacesDialog == null ) {
-            for (SIPClientTransaction ctx : this.clientTransactionTable
-                    .values()) {
-               if ( ctx.getDialog(did) != null ) {
-                   replacesDialog = ctx.getDialog(did);
-                   break;
+            Set<SIPClientTransaction> candidates = this.clientTransactionCallIdIndex
+                    .get(cid.toLowerCase());
+            if (candidates != null) {
+                for (SIPClientTransaction ctx : candidates) {
+                   if ( ctx.getDialog(did) != null ) {
+                       replacesDialog = ctx.getDialog(did);
+                       break;
+                   }
                }
-           }
+            }
         }
 
         return replacesDialog;
@@ -2792,7 +3197,7 @@ public abstract class SIPTransactionStack implements
             retval.append(":");
             retval.append(fromTag);
         }
-        return this.dialogTable.get(retval.toString().toLowerCase());
+        return this.dialogTable.get(MessageKey.valueOf(retval.toString()));
     }
 
     /**
@@ -2853,6 +3258,23 @@ public abstract class SIPTransactionStack implements
         this.sendUdpBufferSize = sendUdpBufferSize;
     }
 
+    /**
+     * Number of threads reading datagrams for each UDP listening point.
+     *
+     * @return the number of receiver threads
+     */
+    public int getUdpReceiverThreads() {
+        return udpReceiverThreads;
+    }
+
+    /**
+     * @return true if each UDP receiver thread reads from its own socket bound
+     *         with SO_REUSEPORT.
+     */
+    public boolean isUdpReusePort() {
+        return udpReusePort;
+    }
+
      /**
       * Flag that reqests checking of branch IDs on responses.
       *
@@ -3020,6 +3442,20 @@ public abstract class SIPTransactionStack implements
         return aggressiveCleanup;
     }
 
+    /**
+     * @param transactionTimerTicks true to run a periodic timer task per transaction
+     */
+    public void setTransactionTimerTicks(boolean transactionTimerTicks) {
+        this.transactionTimerTicks = transactionTimerTicks;
+    }
+
+    /**
+     * @return true if the transactions run a periodic timer task
+     */
+    public boolean isTransactionTimerTicks() {
+        return transactionTimerTicks;
+    }
+
 
 
     public int getEarlyDialogTimeout() {
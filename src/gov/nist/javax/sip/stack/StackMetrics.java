@@ -0,0 +1,407 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LatencyHistogram;
+import gov.nist.core.LogWriter;
+import gov.nist.core.StackLogger;
+import gov.nist.core.StripedCounters;
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.message.SIPResponse;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.sip.DialogState;
+import javax.sip.message.Request;
+
+/**
+ * The statistics of a stack. The counters and the latency histograms are
+ * updated in the message path by the threads that receive, send and deliver
+ * messages. They are striped so that these threads do not contend, which keeps
+ * the cost of a message to a few uncontended atomic additions. The gauges
+ * (transactions, dialogs, queues and connections) are read from the stack
+ * when asked for.
+ *
+ * @see SIPTransactionStack#getStackMetrics()
+ * @see StackMetricsSnapshot
+ */
+public class StackMetrics implements StackMetricsMXBean {
+
+    private static StackLogger logger = CommonLogger.getLogger(StackMetrics.class);
+
+    private static final String DOMAIN = "gov.nist.javax.sip";
+
+    /** Requests with a method not in this list are counted as OTHER. */
+    static final String[] METHODS = { Request.ACK, Request.BYE, Request.CANCEL,
+            Request.INFO, Request.INVITE, Request.MESSAGE, Request.NOTIFY,
+            Request.OPTIONS, Request.PRACK, Request.PUBLISH, Request.REFER,
+            Request.REGISTER, Request.SUBSCRIBE, Request.UPDATE, "OTHER" };
+
+    private static final String[] STATUS_CLASSES = { "1xx", "2xx", "3xx", "4xx",
+            "5xx", "6xx" };
+
+    // Indexed by DialogState.getValue().
+    private static final String[] DIALOG_STATES = { "EARLY", "CONFIRMED", "COMPLETED",
+            "TERMINATED" };
+
+    private static final Map<String, Integer> METHOD_INDEXES = new HashMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < METHODS.length - 1; i++) {
+            METHOD_INDEXES.put(METHODS[i], Integer.valueOf(i));
+        }
+    }
+
+    private static final int RETRANSMISSIONS_SENT = 0;
+
+    private static final int RETRANSMISSIONS_RECEIVED = 1;
+
+    private static final int CLIENT_TRANSACTION_TIMEOUTS = 2;
+
+    private static final int SERVER_TRANSACTION_TIMEOUTS = 3;
+
+    private static final int PARSE_ERRORS = 4;
+
+    // An hour in microseconds.
+    private static final long MAX_LISTENER_TIME = 3600L * 1000 * 1000;
+
+    // A day in milliseconds.
+    private static final long MAX_TRANSACTION_DURATION = 24L * 3600 * 1000;
+
+    private final SIPTransactionStack sipStack;
+
+    private final StripedCounters requestsReceived = new StripedCounters(METHODS.length);
+
+    private final StripedCounters requestsSent = new StripedCounters(METHODS.length);
+
+    private final StripedCounters responsesReceived = new StripedCounters(STATUS_CLASSES.length);
+
+    private final StripedCounters responsesSent = new StripedCounters(STATUS_CLASSES.length);
+
+    private final StripedCounters events = new StripedCounters(5);
+
+    private final LatencyHistogram listenerTime = new LatencyHistogram(MAX_LISTENER_TIME);
+
+    private final LatencyHistogram transactionDuration = new LatencyHistogram(
+            MAX_TRANSACTION_DURATION);
+
+    // The name this is registered under, null if it is not registered.
+    private Object mbeanName;
+
+    StackMetrics(SIPTransactionStack sipStack) {
+        this.sipStack = sipStack;
+    }
+
+    private static int getMethodIndex(String method) {
+        Integer index = method == null ? null : METHOD_INDEXES.get(method);
+        return index == null ? METHODS.length - 1 : index.intValue();
+    }
+
+    private static int getStatusClassIndex(int statusCode) {
+        return Math.min(Math.max(statusCode / 100, 1), STATUS_CLASSES.length) - 1;
+    }
+
+    /**
+     * Count a message received from the network.
+     */
+    public void messageReceived(SIPMessage sipMessage) {
+        if (sipMessage instanceof SIPRequest) {
+            requestsReceived.increment(getMethodIndex(((SIPRequest) sipMessage).getMethod()));
+        } else if (sipMessage instanceof SIPResponse) {
+            responsesReceived.increment(getStatusClassIndex(((SIPResponse) sipMessage)
+                    .getStatusCode()));
+        }
+    }
+
+    /**
+     * Count a message sent to the network.
+     */
+    public void messageSent(SIPMessage sipMessage) {
+        if (sipMessage instanceof SIPRequest) {
+            requestsSent.increment(getMethodIndex(((SIPRequest) sipMessage).getMethod()));
+        } else if (sipMessage instanceof SIPResponse) {
+            responseSent(((SIPResponse) sipMessage).getStatusCode());
+        }
+    }
+
+    /**
+     * Count a response sent to the network from its encoded form.
+     */
+    public void responseSent(int statusCode) {
+        responsesSent.increment(getStatusClassIndex(statusCode));
+    }
+
+    public void retransmissionSent() {
+        events.increment(RETRANSMISSIONS_SENT);
+    }
+
+    public void retransmissionReceived() {
+        events.increment(RETRANSMISSIONS_RECEIVED);
+    }
+
+    public void transactionTimedOut(SIPTransaction transaction) {
+        events.increment(transaction instanceof SIPClientTransaction ? CLIENT_TRANSACTION_TIMEOUTS
+                : SERVER_TRANSACTION_TIMEOUTS);
+    }
+
+    public void parseError() {
+        events.increment(PARSE_ERRORS);
+    }
+
+    /**
+     * Record the time an event spent in the listener.
+     */
+    public void recordListenerTime(long nanos) {
+        listenerTime.record(nanos / 1000);
+    }
+
+    /**
+     * Record the time between the creation of a transaction and its
+     * completion.
+     */
+    public void recordTransactionDuration(long millis) {
+        transactionDuration.record(millis);
+    }
+
+    public String getStackName() {
+        return sipStack.stackName;
+    }
+
+    private static Map<String, Long> toMap(String[] names, StripedCounters counters) {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < names.length; i++) {
+            map.put(names[i], Long.valueOf(counters.get(i)));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    public Map<String, Long> getRequestsReceived() {
+        return toMap(METHODS, requestsReceived);
+    }
+
+    public Map<String, Long> getRequestsSent() {
+        return toMap(METHODS, requestsSent);
+    }
+
+    public Map<String, Long> getResponsesReceived() {
+        return toMap(STATUS_CLASSES, responsesReceived);
+    }
+
+    public Map<String, Long> getResponsesSent() {
+        return toMap(STATUS_CLASSES, responsesSent);
+    }
+
+    public long getRetransmissionsSent() {
+        return events.get(RETRANSMISSIONS_SENT);
+    }
+
+    public long getRetransmissionsReceived() {
+        return events.get(RETRANSMISSIONS_RECEIVED);
+    }
+
+    public long getClientTransactionTimeouts() {
+        return events.get(CLIENT_TRANSACTION_TIMEOUTS);
+    }
+
+    public long getServerTransactionTimeouts() {
+        return events.get(SERVER_TRANSACTION_TIMEOUTS);
+    }
+
+    public long getParseErrors() {
+        return events.get(PARSE_ERRORS);
+    }
+
+    public int getClientTransactionCount() {
+        return sipStack.getClientTransactionTableSize();
+    }
+
+    public int getServerTransactionCount() {
+        return sipStack.getServerTransactionTableSize();
+    }
+
+    /**
+     * Go over the dialogs of the stack. A dialog that is in both the early
+     * and the established dialog tables is counted once.
+     */
+    public Map<String, Integer> getDialogCounts() {
+        Map<SIPDialog, SIPDialog> dialogs = new IdentityHashMap<SIPDialog, SIPDialog>();
+        for (SIPDialog dialog : sipStack.dialogTable.values()) {
+            dialogs.put(dialog, dialog);
+        }
+        for (SIPDialog dialog : sipStack.earlyDialogTable.values()) {
+            dialogs.put(dialog, dialog);
+        }
+        int[] counts = new int[DIALOG_STATES.length];
+        for (SIPDialog dialog : dialogs.keySet()) {
+            DialogState state = dialog.getState();
+            if (state != null && state.getValue() >= 0 && state.getValue() < counts.length) {
+                counts[state.getValue()]++;
+            }
+        }
+        Map<String, Integer> map = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < counts.length; i++) {
+            map.put(DIALOG_STATES[i], Integer.valueOf(counts[i]));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    public int getUdpQueueDepth() {
+        int depth = 0;
+        MessageProcessor[] processors = sipStack.getMessageProcessors();
+        for (int i = 0; i < processors.length; i++) {
+            if (processors[i] instanceof UDPMessageProcessor) {
+                depth += ((UDPMessageProcessor) processors[i]).getQueueDepth();
+            }
+        }
+        return depth;
+    }
+
+    public int getPostParsingQueueDepth() {
+        return sipStack.getPostParsingQueueDepth();
+    }
+
+    public int getEventQueueDepth() {
+        if (!(sipStack instanceof SipStackImpl)) {
+            return 0;
+        }
+        return ((SipStackImpl) sipStack).getEventQueueDepth();
+    }
+
+    public int getStreamConnectionCount() {
+        return sipStack.getConnectionActivityMonitor().getConnectionCount();
+    }
+
+    public int getClientConnectionCount() {
+        ClientConnectionManager connectionManager = sipStack.getClientConnectionManager();
+        return connectionManager == null ? 0 : connectionManager.getManagedConnectionCount();
+    }
+
+    private static Map<String, Long> summarize(LatencyHistogram.Snapshot snapshot) {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        map.put("count", Long.valueOf(snapshot.getCount()));
+        map.put("mean", Long.valueOf(Math.round(snapshot.getMean())));
+        map.put("p50", Long.valueOf(snapshot.getValueAtPercentile(50)));
+        map.put("p90", Long.valueOf(snapshot.getValueAtPercentile(90)));
+        map.put("p99", Long.valueOf(snapshot.getValueAtPercentile(99)));
+        map.put("p999", Long.valueOf(snapshot.getValueAtPercentile(99.9)));
+        map.put("max", Long.valueOf(snapshot.getMax()));
+        return Collections.unmodifiableMap(map);
+    }
+
+    public Map<String, Long> getListenerTimeMicros() {
+        return summarize(listenerTime.getSnapshot());
+    }
+
+    public Map<String, Long> getTransactionDurationMillis() {
+        return summarize(transactionDuration.getSnapshot());
+    }
+
+    /**
+     * @return the current values of the statistics.
+     */
+    public StackMetricsSnapshot getSnapshot() {
+        return new StackMetricsSnapshot(this, listenerTime.getSnapshot(),
+                transactionDuration.getSnapshot());
+    }
+
+    /**
+     * Register this in the platform MBean server under the name of the stack.
+     * Failures are logged, they do not prevent the stack from running (there
+     * is no javax.management on some platforms).
+     */
+    public synchronized void registerMBean() {
+        if (mbeanName != null) {
+            return;
+        }
+        try {
+            mbeanName = Registration.register(this, sipStack.stackName);
+        } catch (Throwable ex) {
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                logger.logDebug("Could not register the metrics of "
+                        + sipStack.stackName + " " + ex);
+            }
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
+        }
+        try {
+            Registration.unregister(mbeanName);
+        } catch (Throwable ex) {
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                logger.logDebug("Could not unregister the metrics of "
+                        + sipStack.stackName + " " + ex);
+            }
+        }
+        mbeanName = null;
+    }
+
+    /**
+     * @return the name the metrics are registered under, null if they are not
+     *         registered.
+     */
+    public synchronized String getMBeanName() {
+        return mbeanName == null ? null : mbeanName.toString();
+    }
+
+    /**
+     * Keeps the JMX classes out of StackMetrics so that it loads where there
+     * is no javax.management.
+     */
+    private static final class Registration {
+
+        static Object register(StackMetrics metrics, String stackName) throws Exception {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":type=StackMetrics,name="
+                    + ObjectName.quote(String.valueOf(stackName)));
+            if (server.isRegistered(name)) {
+                if (logger.isLoggingEnabled(LogWriter.TRACE_INFO)) {
+                    logger.logInfo("Another stack registered " + name
+                            + ", the metrics of this one are not registered");
+                }
+                return null;
+            }
+            server.registerMBean(metrics, name);
+            return name;
+        }
+
+        static void unregister(Object name) throws Exception {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean((ObjectName) name);
+        }
+    }
+}
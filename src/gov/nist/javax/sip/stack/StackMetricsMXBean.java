@@ -0,0 +1,137 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import java.util.Map;
+
+/**
+ * The management interface of the statistics of a stack. Each stack registers
+ * one in the platform MBean server under the name
+ * <code>gov.nist.javax.sip:type=StackMetrics,name="&lt;stack name&gt;"</code>
+ * unless gov.nist.javax.sip.METRICS_MBEAN is false. The counters add up from
+ * the creation of the stack, rates are left to the monitoring tool.
+ *
+ * @see StackMetrics
+ * @see gov.nist.javax.sip.SipStackExt#getMetricsSnapshot()
+ */
+public interface StackMetricsMXBean {
+
+    public String getStackName();
+
+    /**
+     * @return the number of requests received, by method. Retransmissions are
+     *         counted.
+     */
+    public Map<String, Long> getRequestsReceived();
+
+    /**
+     * @return the number of requests sent, by method. Retransmissions are
+     *         counted.
+     */
+    public Map<String, Long> getRequestsSent();
+
+    /**
+     * @return the number of responses received, by status class (1xx to 6xx).
+     */
+    public Map<String, Long> getResponsesReceived();
+
+    /**
+     * @return the number of responses sent, by status class (1xx to 6xx).
+     */
+    public Map<String, Long> getResponsesSent();
+
+    /**
+     * @return the number of requests and responses that the transactions
+     *         sent again.
+     */
+    public long getRetransmissionsSent();
+
+    /**
+     * @return the number of retransmitted requests and responses received by
+     *         existing transactions.
+     */
+    public long getRetransmissionsReceived();
+
+    public long getClientTransactionTimeouts();
+
+    public long getServerTransactionTimeouts();
+
+    /**
+     * @return the number of messages dropped because they could not be
+     *         parsed.
+     */
+    public long getParseErrors();
+
+    public int getClientTransactionCount();
+
+    public int getServerTransactionCount();
+
+    /**
+     * @return the number of dialogs, by DialogState (EARLY, CONFIRMED,
+     *         COMPLETED and TERMINATED).
+     */
+    public Map<String, Integer> getDialogCounts();
+
+    /**
+     * @return the number of datagrams waiting to be processed on the UDP
+     *         listening points.
+     */
+    public int getUdpQueueDepth();
+
+    /**
+     * @return the number of messages read from stream connections waiting
+     *         on the post parsing lanes.
+     */
+    public int getPostParsingQueueDepth();
+
+    /**
+     * @return the number of events waiting to be delivered to the listeners.
+     */
+    public int getEventQueueDepth();
+
+    /**
+     * @return the number of TCP and TLS connections being read.
+     */
+    public int getStreamConnectionCount();
+
+    /**
+     * @return the number of connections kept open to send messages on.
+     */
+    public int getClientConnectionCount();
+
+    /**
+     * @return count, mean, p50, p90, p99, p999 and max of the time spent in
+     *         the listeners for an event, in microseconds.
+     */
+    public Map<String, Long> getListenerTimeMicros();
+
+    /**
+     * @return count, mean, p50, p90, p99, p999 and max of the time between
+     *         the creation of a transaction and its completion, in
+     *         milliseconds.
+     */
+    public Map<String, Long> getTransactionDurationMillis();
+}
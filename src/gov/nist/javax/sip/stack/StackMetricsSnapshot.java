@@ -0,0 +1,235 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.LatencyHistogram;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * The statistics of a stack at one point in time. The counters add up from
+ * the creation of the stack, subtract two snapshots to get rates.
+ *
+ * @see StackMetrics
+ * @see gov.nist.javax.sip.SipStackExt#getMetricsSnapshot()
+ */
+public final class StackMetricsSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long timeStamp;
+
+    private final String stackName;
+
+    private final Map<String, Long> requestsReceived;
+
+    private final Map<String, Long> requestsSent;
+
+    private final Map<String, Long> responsesReceived;
+
+    private final Map<String, Long> responsesSent;
+
+    private final long retransmissionsSent;
+
+    private final long retransmissionsReceived;
+
+    private final long clientTransactionTimeouts;
+
+    private final long serverTransactionTimeouts;
+
+    private final long parseErrors;
+
+    private final int clientTransactionCount;
+
+    private final int serverTransactionCount;
+
+    private final Map<String, Integer> dialogCounts;
+
+    private final int udpQueueDepth;
+
+    private final int postParsingQueueDepth;
+
+    private final int eventQueueDepth;
+
+    private final int streamConnectionCount;
+
+    private final int clientConnectionCount;
+
+    private final LatencyHistogram.Snapshot listenerTime;
+
+    private final LatencyHistogram.Snapshot transactionDuration;
+
+    StackMetricsSnapshot(StackMetrics metrics, LatencyHistogram.Snapshot listenerTime,
+            LatencyHistogram.Snapshot transactionDuration) {
+        this.timeStamp = System.currentTimeMillis();
+        this.stackName = metrics.getStackName();
+        this.requestsReceived = metrics.getRequestsReceived();
+        this.requestsSent = metrics.getRequestsSent();
+        this.responsesReceived = metrics.getResponsesReceived();
+        this.responsesSent = metrics.getResponsesSent();
+        this.retransmissionsSent = metrics.getRetransmissionsSent();
+        this.retransmissionsReceived = metrics.getRetransmissionsReceived();
+        this.clientTransactionTimeouts = metrics.getClientTransactionTimeouts();
+        this.serverTransactionTimeouts = metrics.getServerTransactionTimeouts();
+        this.parseErrors = metrics.getParseErrors();
+        this.clientTransactionCount = metrics.getClientTransactionCount();
+        this.serverTransactionCount = metrics.getServerTransactionCount();
+        this.dialogCounts = metrics.getDialogCounts();
+        this.udpQueueDepth = metrics.getUdpQueueDepth();
+        this.postParsingQueueDepth = metrics.getPostParsingQueueDepth();
+        this.eventQueueDepth = metrics.getEventQueueDepth();
+        this.streamConnectionCount = metrics.getStreamConnectionCount();
+        this.clientConnectionCount = metrics.getClientConnectionCount();
+        this.listenerTime = listenerTime;
+        this.transactionDuration = transactionDuration;
+    }
+
+    /**
+     * @return when the snapshot was taken, in milliseconds since the epoch.
+     */
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public String getStackName() {
+        return stackName;
+    }
+
+    /**
+     * @see StackMetricsMXBean#getRequestsReceived()
+     */
+    public Map<String, Long> getRequestsReceived() {
+        return requestsReceived;
+    }
+
+    /**
+     * @see StackMetricsMXBean#getRequestsSent()
+     */
+    public Map<String, Long> getRequestsSent() {
+        return requestsSent;
+    }
+
+    /**
+     * @see StackMetricsMXBean#getResponsesReceived()
+     */
+    public Map<String, Long> getResponsesReceived() {
+        return responsesReceived;
+    }
+
+    /**
+     * @see StackMetricsMXBean#getResponsesSent()
+     */
+    public Map<String, Long> getResponsesSent() {
+        return responsesSent;
+    }
+
+    public long getRetransmissionsSent() {
+        return retransmissionsSent;
+    }
+
+    public long getRetransmissionsReceived() {
+        return retransmissionsReceived;
+    }
+
+    public long getClientTransactionTimeouts() {
+        return clientTransactionTimeouts;
+    }
+
+    public long getServerTransactionTimeouts() {
+        return serverTransactionTimeouts;
+    }
+
+    public long getParseErrors() {
+        return parseErrors;
+    }
+
+    public int getClientTransactionCount() {
+        return clientTransactionCount;
+    }
+
+    public int getServerTransactionCount() {
+        return serverTransactionCount;
+    }
+
+    /**
+     * @see StackMetricsMXBean#getDialogCounts()
+     */
+    public Map<String, Integer> getDialogCounts() {
+        return dialogCounts;
+    }
+
+    public int getUdpQueueDepth() {
+        return udpQueueDepth;
+    }
+
+    public int getPostParsingQueueDepth() {
+        return postParsingQueueDepth;
+    }
+
+    public int getEventQueueDepth() {
+        return eventQueueDepth;
+    }
+
+    public int getStreamConnectionCount() {
+        return streamConnectionCount;
+    }
+
+    public int getClientConnectionCount() {
+        return clientConnectionCount;
+    }
+
+    /**
+     * @return the time spent in the listeners for an event, in microseconds.
+     */
+    public LatencyHistogram.Snapshot getListenerTime() {
+        return listenerTime;
+    }
+
+    /**
+     * @return the time between the creation of a transaction and its
+     *         completion, in milliseconds.
+     */
+    public LatencyHistogram.Snapshot getTransactionDuration() {
+        return transactionDuration;
+    }
+
+    public String toString() {
+        return "StackMetricsSnapshot[" + stackName + " requestsReceived=" + requestsReceived
+                + " requestsSent=" + requestsSent + " responsesReceived=" + responsesReceived
+                + " responsesSent=" + responsesSent + " retransmissionsSent="
+                + retransmissionsSent + " retransmissionsReceived=" + retransmissionsReceived
+                + " clientTransactionTimeouts=" + clientTransactionTimeouts
+                + " serverTransactionTimeouts=" + serverTransactionTimeouts + " parseErrors="
+                + parseErrors + " clientTransactions=" + clientTransactionCount
+                + " serverTransactions=" + serverTransactionCount + " dialogs=" + dialogCounts
+                + " udpQueueDepth=" + udpQueueDepth + " postParsingQueueDepth="
+                + postParsingQueueDepth + " eventQueueDepth=" + eventQueueDepth
+                + " streamConnections=" + streamConnectionCount + " clientConnections="
+                + clientConnectionCount + " listenerTime=" + listenerTime
+                + " transactionDuration=" + transactionDuration + "]";
+    }
+}
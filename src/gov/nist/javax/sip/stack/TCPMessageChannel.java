@@ -97,11 +97,17 @@ public class TCPMessageChannel extends MessageChannel implements
 
     protected boolean isCached;
 
+    // Which of the parallel connections to the peer this channel uses.
+    private int connectionSlot;
+
     // Set here on initialization to avoid thread leak. See issue 266
     protected boolean isRunning = true;
 
     private Thread mythread;
 
+    // True while the socket read is the one accepted from the peer.
+    private boolean incoming;
+
     protected SIPTransactionStack sipStack;
 
     protected String myAddress;
@@ -154,6 +160,7 @@ public class TCPMessageChannel extends MessageChannel implements
         myAddress = msgProcessor.getIpAddress().getHostAddress();
         myClientInputStream = mySock.getInputStream();
         myClientOutputStream = mySock.getOutputStream();
+        incoming = true;
         mythread = new Thread(this);
         mythread.setDaemon(true);
         mythread.setName(threadName);
@@ -203,6 +210,23 @@ public class TCPMessageChannel extends MessageChannel implements
     }
 
 
+    /**
+     * Make this channel use one of the additional parallel connections to its
+     * peer, see MAX_CONNECTIONS_PER_DESTINATION.
+     */
+    protected void setConnectionSlot(int connectionSlot) {
+        this.connectionSlot = connectionSlot;
+        this.key = MessageChannel.getKey(peerAddress, peerPort, "TCP") + "/" + connectionSlot;
+    }
+
+    /**
+     * @return which of the parallel connections to the peer this channel
+     *         uses, 0 for the first one.
+     */
+    public int getConnectionSlot() {
+        return connectionSlot;
+    }
+
     /**
      * Returns "true" as this is a reliable transport.
      */
@@ -276,7 +300,7 @@ public class TCPMessageChannel extends MessageChannel implements
      *            is the message to send.
      * @param isClient
      */
-    private void sendMessage(byte[] msg, boolean isClient) throws IOException {
+    protected void sendMessage(byte[] msg, boolean isClient) throws IOException {
 
         if ( logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
             logger.logDebug("sendMessage isClient  = " + isClient);
@@ -342,11 +366,13 @@ public class TCPMessageChannel extends MessageChannel implements
                     && messageProcessor.getPort() == this.getPeerPort()
                     && messageProcessor.getTransport().equalsIgnoreCase(
                             this.getPeerProtocol())) {
+                // copy now, the sender may change its message once we return
+                final SIPMessage copy = sipMessage.copyForSelfRouting();
                 Runnable processMessageTask = new Runnable() {
 
                     public void run() {
                         try {
-                            processMessage((SIPMessage) sipMessage.clone());
+                            processMessage(copy);
                         } catch (Exception ex) {
                             if (logger
                                     .isLoggingEnabled(ServerLogger.TRACE_ERROR)) {
@@ -377,6 +403,7 @@ public class TCPMessageChannel extends MessageChannel implements
         // JvB: also retry for responses, if the connection is gone we should
         // try to reconnect
         this.sendMessage(msg, sipMessage instanceof SIPRequest );
+        sipStack.getStackMetrics().messageSent(sipMessage);
 
         // message was sent without any exception so let's set set port and
         // address before we feed it to the logger
@@ -442,6 +469,7 @@ public class TCPMessageChannel extends MessageChannel implements
             mySock = sock;
             this.myClientInputStream = mySock.getInputStream();
             this.myClientOutputStream = mySock.getOutputStream();
+            incoming = false;
             // start a new reader on this end of the pipe.
             Thread mythread = new Thread(this);
             mythread.setDaemon(true);
@@ -773,14 +801,16 @@ public class TCPMessageChannel extends MessageChannel implements
    public void run() {
         Pipeline hispipe = null;
         // Create a pipeline to connect to our message parser.
-        hispipe = new Pipeline(myClientInputStream, sipStack.readTimeout,
-                ((SIPTransactionStack) sipStack).getTimer());
+        hispipe = new Pipeline(myClientInputStream);
         // Create a pipelined message parser to read and parse
         // messages that we write out to him.
         myParser = new PipelinedMsgParser(sipStack, this, hispipe,
                 this.sipStack.getMaxMessageSize());
         // Start running the parser thread.
         myParser.processInput();
+        // Let the stack close the connection if the peer is too slow.
+        ConnectionActivityMonitor.Connection monitored = sipStack
+                .getConnectionActivityMonitor().register(myParser, incoming);
         // bug fix by Emmanuel Proulx
         int bufferSize = 4096;
         this.tcpMessageProcessor.useCount++;
@@ -855,6 +885,7 @@ public class TCPMessageChannel extends MessageChannel implements
                 }
             }
         } finally {
+            sipStack.getConnectionActivityMonitor().unregister(monitored);
             this.isRunning = false;
             this.tcpMessageProcessor.remove(this);
             this.tcpMessageProcessor.useCount--;
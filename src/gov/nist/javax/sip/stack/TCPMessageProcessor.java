@@ -214,6 +214,16 @@ public class TCPMessageProcessor extends MessageProcessor {
         incomingTcpMessageChannels.remove(tcpMessageChannel);
     }
 
+    public synchronized MessageChannel createMessageChannel(HostPort targetHostPort,
+            String callId) throws IOException {
+        TCPMessageChannel parallel = getParallelMessageChannel(
+                targetHostPort.getInetAddress(), targetHostPort.getPort(), callId);
+        if (parallel != null) {
+            return parallel;
+        }
+        return createMessageChannel(targetHostPort);
+    }
+
     public synchronized MessageChannel createMessageChannel(HostPort targetHostPort)
             throws IOException {
         String key = MessageChannel.getKey(targetHostPort, "TCP");
@@ -232,6 +242,40 @@ public class TCPMessageProcessor extends MessageProcessor {
         }
     }
 
+    /**
+     * With MAX_CONNECTIONS_PER_DESTINATION above 1, the calls to a
+     * destination are spread over that many channels, each with its own
+     * connection. The channel is picked from the Call-ID so that all the
+     * messages of a call, CANCEL and in-dialog requests included, leave on the
+     * same connection and keep their order. Returns the channel of one of the
+     * additional connections, or null if the channel of the first connection
+     * is to be used.
+     */
+    private TCPMessageChannel getParallelMessageChannel(InetAddress host, int port,
+            String callId) throws IOException {
+        int slots = sipStack.getMaxConnectionsPerDestination();
+        if (slots <= 1 || callId == null) {
+            return null;
+        }
+        int slot = (callId.hashCode() & Integer.MAX_VALUE) % slots;
+        if (slot == 0) {
+            return null;
+        }
+        String key = MessageChannel.getKey(host, port, "TCP") + "/" + slot;
+        TCPMessageChannel retval = (TCPMessageChannel) tcpMessageChannels.get(key);
+        if (retval == null) {
+            retval = new TCPMessageChannel(host, port, sipStack, this);
+            retval.setConnectionSlot(slot);
+            this.tcpMessageChannels.put(key, retval);
+            retval.isCached = true;
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                logger.logDebug("key " + key);
+                logger.logDebug("Creating " + retval);
+            }
+        }
+        return retval;
+    }
+
     protected synchronized void cacheMessageChannel(TCPMessageChannel messageChannel) {
         String key = messageChannel.getKey();
         TCPMessageChannel currentChannel = (TCPMessageChannel) tcpMessageChannels.get(key);
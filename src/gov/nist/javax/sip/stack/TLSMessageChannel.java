@@ -75,7 +75,7 @@ import javax.sip.message.Response;
  * @version 1.2 $Revision: 1.43 $ $Date: 2010/12/02 22:44:53 $
  */
 public final class TLSMessageChannel extends MessageChannel implements
-        SIPMessageListener, Runnable, RawMessageChannel {
+        SIPMessageListener, Runnable, RawMessageChannel, SecureMessageChannel {
     private static StackLogger logger = CommonLogger.getLogger(TLSMessageChannel.class);
     private Socket mySock;
 
@@ -91,6 +91,9 @@ public final class TLSMessageChannel extends MessageChannel implements
 
     private Thread mythread;
 
+    // True while the socket read is the one accepted from the peer.
+    private boolean incoming;
+
     private String myAddress;
 
     private int myPort;
@@ -157,6 +160,7 @@ public final class TLSMessageChannel extends MessageChannel implements
         myAddress = msgProcessor.getIpAddress().getHostAddress();
         myClientInputStream = mySock.getInputStream();
 
+        incoming = true;
         mythread = new Thread(this);
         mythread.setDaemon(true);
         mythread.setName(threadName);
@@ -319,6 +323,7 @@ public final class TLSMessageChannel extends MessageChannel implements
         long time = System.currentTimeMillis();
 
         this.sendMessage(msg, sipMessage instanceof SIPRequest);
+        sipStack.getStackMetrics().messageSent(sipMessage);
 
         // we didn't run into any problems while sending the message so let's
         // now set ports and addresses before feeding it to the logger.
@@ -368,6 +373,7 @@ public final class TLSMessageChannel extends MessageChannel implements
             mySock = sock;
             this.myClientInputStream = mySock.getInputStream();
 
+            incoming = false;
             // start a new reader on this end of the pipe.
             Thread mythread = new Thread(this);
             mythread.setDaemon(true);
@@ -684,14 +690,16 @@ public final class TLSMessageChannel extends MessageChannel implements
     public void run() {
         Pipeline hispipe = null;
         // Create a pipeline to connect to our message parser.
-        hispipe = new Pipeline(myClientInputStream, sipStack.readTimeout,
-                ((SIPTransactionStack) sipStack).getTimer());
+        hispipe = new Pipeline(myClientInputStream);
         // Create a pipelined message parser to read and parse
         // messages that we write out to him.
         myParser = new PipelinedMsgParser(sipStack, this, hispipe,
                 this.sipStack.getMaxMessageSize());
         // Start running the parser thread.
         myParser.processInput();
+        // Let the stack close the connection if the peer is too slow.
+        ConnectionActivityMonitor.Connection monitored = sipStack
+                .getConnectionActivityMonitor().register(myParser, incoming);
         // bug fix by Emmanuel Proulx
         int bufferSize = 4096;
         this.tlsMessageProcessor.useCount++;
@@ -761,6 +769,7 @@ public final class TLSMessageChannel extends MessageChannel implements
                 }
             }
         } finally {
+            sipStack.getConnectionActivityMonitor().unregister(monitored);
             this.isRunning = false;
             this.tlsMessageProcessor.remove(this);
             this.tlsMessageProcessor.useCount--;
@@ -45,10 +45,12 @@ import gov.nist.javax.sip.header.RequestLine;
 import gov.nist.javax.sip.header.StatusLine;
 import gov.nist.javax.sip.header.To;
 import gov.nist.javax.sip.header.Via;
+import gov.nist.javax.sip.message.EncodeBuffer;
 import gov.nist.javax.sip.message.SIPMessage;
 import gov.nist.javax.sip.message.SIPRequest;
 import gov.nist.javax.sip.message.SIPResponse;
 import gov.nist.javax.sip.parser.MessageParser;
+import gov.nist.javax.sip.parser.MessageParserExt;
 import gov.nist.javax.sip.parser.ParseExceptionListener;
 
 import java.io.IOException;
@@ -282,7 +284,10 @@ public class UDPMessageChannel extends MessageChannel implements
                 // Send a heartbeat to the thread auditor
                 threadHandle.ping();
                 try {
-                    packet = udpMessageProcessor.messageQueue.take().packet;
+                    DatagramQueuedMessageDispatch work = udpMessageProcessor.messageQueue.take();
+                    packet = work.packet;
+                    // count the time spent in the queue
+                    this.receptionTime = work.getReceptionTime();
                 } catch (InterruptedException ex) {
                     if (!udpMessageProcessor.isRunning)
                         return;
@@ -299,6 +304,13 @@ public class UDPMessageChannel extends MessageChannel implements
 
                 logger.logError(
                         "Error while processing incoming UDP packet", e);
+            } finally {
+                // The packet buffer goes back to the receiver threads.
+                if (packet != null) {
+                    this.incomingPacket = null;
+                    udpMessageProcessor.releasePacket(packet);
+                }
+                this.receptionTime = 0;
             }
 
             if (sipStack.threadPoolSize == -1) {
@@ -319,8 +331,7 @@ public class UDPMessageChannel extends MessageChannel implements
         int packetLength = packet.getLength();
         // Read bytes and put it in a eueue.
         byte[] bytes = packet.getData();
-        byte[] msgBytes = new byte[packetLength];
-        System.arraycopy(bytes, 0, msgBytes, 0, packetLength);
+        int packetOffset = packet.getOffset();
 
         // Do debug logging.
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
@@ -333,8 +344,18 @@ public class UDPMessageChannel extends MessageChannel implements
 
         SIPMessage sipMessage = null;
         try {
-            this.receptionTime = System.currentTimeMillis();
-            sipMessage = myParser.parseSIPMessage(msgBytes, true, false, this);
+            if (this.receptionTime == 0) {
+                this.receptionTime = System.currentTimeMillis();
+            }
+            if (myParser instanceof MessageParserExt) {
+                // Parse straight out of the datagram buffer.
+                sipMessage = ((MessageParserExt) myParser).parseSIPMessage(
+                        bytes, packetOffset, packetLength, true, false, this);
+            } else {
+                byte[] msgBytes = new byte[packetLength];
+                System.arraycopy(bytes, packetOffset, msgBytes, 0, packetLength);
+                sipMessage = myParser.parseSIPMessage(msgBytes, true, false, this);
+            }
             /*@see Issue 292 */
             if (sipMessage instanceof SIPRequest) {
                 String sipVersion = ((SIPRequest)sipMessage).getRequestLine().getSipVersion();
@@ -360,9 +381,10 @@ public class UDPMessageChannel extends MessageChannel implements
 
         } catch (ParseException ex) {
             // myParser = null; // let go of the parser reference.
+            sipStack.getStackMetrics().parseError();
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                 this.logger.logDebug(
-                        "Rejecting message !  " + new String(msgBytes));
+                        "Rejecting message !  " + new String(bytes, packetOffset, packetLength));
                 this.logger.logDebug(
                         "error message " + ex.getMessage());
                 this.logger.logException(ex);
@@ -370,7 +392,7 @@ public class UDPMessageChannel extends MessageChannel implements
 
             // JvB: send a 400 response for requests (except ACK)
             // Currently only UDP, @todo also other transports
-            String msgString = new String(msgBytes, 0, packetLength);
+            String msgString = new String(bytes, packetOffset, packetLength);
             if (!msgString.startsWith("SIP/") && !msgString.startsWith("ACK ")) {
 
                 String badReqRes = createBadReqRes(msgString, ex);
@@ -430,7 +452,7 @@ public class UDPMessageChannel extends MessageChannel implements
         if (sipMessage.getFrom() == null || sipMessage.getTo() == null
                 || sipMessage.getCallId() == null
                 || sipMessage.getCSeq() == null || topMostVia == null) {
-            String badmsg = new String(msgBytes);
+            String badmsg = new String(bytes, packetOffset, packetLength);
             if (logger.isLoggingEnabled()) {
                 this.logger
                         .logError("bad message " + badmsg);
@@ -501,6 +523,9 @@ public class UDPMessageChannel extends MessageChannel implements
      * @param sipMessage
      */
     public void processMessage(SIPMessage sipMessage) {
+        if (sipMessage.getReceptionTime() == 0) {
+            sipMessage.setReceptionTime(receptionTime);
+        }
         sipMessage.setRemoteAddress(this.peerAddress);
         sipMessage.setRemotePort(this.getPeerPort());
         sipMessage.setLocalPort(this.getPort());
@@ -689,11 +714,13 @@ public class UDPMessageChannel extends MessageChannel implements
                     if (messageChannel instanceof RawMessageChannel) {
 
                         final RawMessageChannel channel = (RawMessageChannel) messageChannel;
+                        // copy now, the sender may change its message once we return
+                        final SIPMessage copy = sipMessage.copyForSelfRouting();
                         Runnable processMessageTask = new Runnable() {
                             public void run() {
                                 try {
                                     ((RawMessageChannel) channel)
-                                            .processMessage((SIPMessage) sipMessage.clone());
+                                            .processMessage(copy);
                                 } catch (Exception ex) {
                                     if (logger
                                             .isLoggingEnabled(
@@ -716,10 +743,15 @@ public class UDPMessageChannel extends MessageChannel implements
                 }
             }
 
-            byte[] msg = sipMessage.encodeAsBytes(this.getTransport());
-
-            sendMessage(msg, peerAddress, peerPort, peerProtocol,
-                    sipMessage instanceof SIPRequest);
+            EncodeBuffer buffer = EncodeBuffer.acquire();
+            try {
+                sipMessage.encodeAsBytes(this.getTransport(), buffer);
+                sendMessage(buffer.getBytes(), buffer.getLength(), peerAddress, peerPort,
+                        peerProtocol, sipMessage instanceof SIPRequest);
+            } finally {
+                buffer.release();
+            }
+            sipStack.getStackMetrics().messageSent(sipMessage);
 
             // we didn't run into problems while sending so let's set ports and
             // addresses before feeding the message to the loggers.
@@ -759,6 +791,41 @@ public class UDPMessageChannel extends MessageChannel implements
      */
     protected void sendMessage(byte[] msg, InetAddress peerAddress,
             int peerPort, boolean reConnect) throws IOException {
+        sendMessage(msg, msg.length, peerAddress, peerPort, reConnect);
+    }
+
+    /**
+     * Encode the message into the buffer of the calling thread and send it. The
+     * datagram is sent before returning, so the buffer can be reused right away.
+     */
+    protected void encodeAndSendMessage(SIPMessage sipMessage, InetAddress peerAddress,
+            int peerPort) throws IOException {
+        EncodeBuffer buffer = EncodeBuffer.acquire();
+        try {
+            sipMessage.encodeAsBytes(this.getTransport(), buffer);
+            sendMessage(buffer.getBytes(), buffer.getLength(), peerAddress, peerPort,
+                    sipMessage instanceof SIPRequest);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Send the first length bytes of msg to a specified receiver address.
+     *
+     * @param msg
+     *            buffer holding the message.
+     * @param length
+     *            number of bytes of the message.
+     * @param peerAddress
+     *            Address of the place to send it to.
+     * @param peerPort
+     *            the port to send it to.
+     * @throws IOException
+     *             If there is trouble sending this message.
+     */
+    protected void sendMessage(byte[] msg, int length, InetAddress peerAddress,
+            int peerPort, boolean reConnect) throws IOException {
         // Via is not included in the request so silently drop the reply.
         if (logger.isLoggingEnabled(LogLevels.TRACE_INFO)
                 && this.sipStack.isLogStackTraceOnMessageSend()) {
@@ -776,13 +843,13 @@ public class UDPMessageChannel extends MessageChannel implements
                 this.logger.logDebug(
                         "sendMessage " + peerAddress.getHostAddress() + "/"
                                 + peerPort + "\n" + "messageSize =  "
-                                + msg.length + " message = " + new String(msg));
+                                + length + " message = " + new String(msg, 0, length));
                 this.logger
                         .logDebug("*******************\n");
             }
 
         }
-        DatagramPacket reply = new DatagramPacket(msg, msg.length, peerAddress,
+        DatagramPacket reply = new DatagramPacket(msg, length, peerAddress,
                 peerPort);
         try {
             DatagramSocket sock;
@@ -831,6 +898,28 @@ public class UDPMessageChannel extends MessageChannel implements
     protected void sendMessage(byte[] msg, InetAddress peerAddress,
             int peerPort, String peerProtocol, boolean retry)
             throws IOException {
+        sendMessage(msg, msg.length, peerAddress, peerPort, peerProtocol, retry);
+    }
+
+    /**
+     * Send the first length bytes of msg to a specified receiver address.
+     *
+     * @param msg
+     *            buffer holding the message.
+     * @param length
+     *            number of bytes of the message.
+     * @param peerAddress
+     *            Address of the place to send it to.
+     * @param peerPort
+     *            the port to send it to.
+     * @param peerProtocol
+     *            protocol to use to send.
+     * @throws IOException
+     *             If there is trouble sending this message.
+     */
+    protected void sendMessage(byte[] msg, int length, InetAddress peerAddress,
+            int peerPort, String peerProtocol, boolean retry)
+            throws IOException {
         // Via is not included in the request so silently drop the reply.
         if (peerPort == -1) {
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
@@ -843,11 +932,11 @@ public class UDPMessageChannel extends MessageChannel implements
                 this.logger.logDebug(
                         ":sendMessage " + peerAddress.getHostAddress() + "/"
                                 + peerPort + "\n" + " messageSize = "
-                                + msg.length);
+                                + length);
             }
         }
         if (peerProtocol.compareToIgnoreCase("UDP") == 0) {
-            DatagramPacket reply = new DatagramPacket(msg, msg.length,
+            DatagramPacket reply = new DatagramPacket(msg, length,
                     peerAddress, peerPort);
 
             try {
@@ -862,7 +951,7 @@ public class UDPMessageChannel extends MessageChannel implements
                 if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                     this.logger.logDebug(
                             "sendMessage " + peerAddress.getHostAddress() + "/"
-                                    + peerPort + "\n" + new String(msg));
+                                    + peerPort + "\n" + new String(msg, 0, length));
                 }
                 sock.send(reply);
                 if (!sipStack.udpFlag)
@@ -875,6 +964,12 @@ public class UDPMessageChannel extends MessageChannel implements
 
         } else {
             // Use TCP to talk back to the sender.
+            if (length != msg.length) {
+                // The bytes may be kept by the I/O handler, so they cannot stay in a reused buffer.
+                byte[] copy = new byte[length];
+                System.arraycopy(msg, 0, copy, 0, length);
+                msg = copy;
+            }
             Socket outputSocket = sipStack.ioHandler.sendBytes(
                     this.messageProcessor.getIpAddress(), peerAddress,
                     peerPort, "tcp", msg, retry, this);
@@ -40,17 +40,22 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.LinkedList;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Sit in a loop and handle incoming udp datagram messages. For each Datagram
  * packet, a new UDPMessageChannel is created (upto the max thread pool size).
  * Each UDP message is processed in its own thread).
+ * The datagrams are read by one or more receiver threads (UDP_RECEIVER_THREADS)
+ * into pooled buffers that are recycled once the message is parsed.
  *
  * @version 1.2 $Revision: 1.46 $ $Date: 2010/12/02 22:04:12 $
  *
@@ -98,6 +103,21 @@ public class UDPMessageProcessor extends MessageProcessor {
 
     protected DatagramSocket sock;
 
+    /**
+     * The sockets read by the receiver threads. They all are the same socket
+     * unless SO_REUSEPORT is used.
+     */
+    private DatagramSocket[] receiveSockets;
+
+    /**
+     * Packets with buffers of maxMessageSize, recycled once parsed.
+     */
+    private final ConcurrentLinkedQueue<DatagramPacket> packetPool = new ConcurrentLinkedQueue<DatagramPacket>();
+
+    private final AtomicInteger pooledPackets = new AtomicInteger();
+
+    private int maxPooledPackets;
+
     /**
      * A flag that is set to false to exit the message processor (suggestion by
      * Jeff Keyser).
@@ -135,20 +155,39 @@ public class UDPMessageProcessor extends MessageProcessor {
         }
 
         this.port = port;
+        int receiverThreads = Math.max(1, sipStack.getUdpReceiverThreads());
+        // Enough buffers for the datagrams being read and being processed.
+        this.maxPooledPackets = receiverThreads + Math.max(sipStack.threadPoolSize, 1);
         try {
-            this.sock = sipStack.getNetworkLayer().createDatagramSocket(port,
-                    ipAddress);
-            // Create a new datagram socket.
-            sock.setReceiveBufferSize(sipStack.getReceiveUdpBufferSize());
-            sock.setSendBufferSize(sipStack.getSendUdpBufferSize());
-
-            /**
-             * If the thread auditor is enabled, define a socket timeout value in order to
-             * prevent sock.receive() from blocking forever
-             */
-            if (sipStack.getThreadAuditor().isEnabled()) {
-                sock.setSoTimeout((int) sipStack.getThreadAuditor().getPingIntervalInMillisecs());
+            if (receiverThreads > 1 && sipStack.isUdpReusePort()) {
+                this.sock = createReusePortSocket(ipAddress, port);
+                if (this.sock == null && logger.isLoggingEnabled(LogWriter.TRACE_INFO)) {
+                    logger.logInfo("SO_REUSEPORT is not available, the UDP receiver threads share one socket");
+                }
+            }
+            if (this.sock == null) {
+                this.sock = sipStack.getNetworkLayer().createDatagramSocket(port,
+                        ipAddress);
+                this.receiveSockets = new DatagramSocket[receiverThreads];
+                for (int i = 0; i < receiverThreads; i++) {
+                    this.receiveSockets[i] = this.sock;
+                }
+            } else {
+                this.receiveSockets = new DatagramSocket[receiverThreads];
+                this.receiveSockets[0] = this.sock;
+                for (int i = 1; i < receiverThreads; i++) {
+                    this.receiveSockets[i] = createReusePortSocket(ipAddress, sock.getLocalPort());
+                    if (this.receiveSockets[i] == null) {
+                        throw new SocketException("Cannot bind with SO_REUSEPORT to " + sock.getLocalPort());
+                    }
+                }
             }
+            for (DatagramSocket socket : receiveSockets) {
+                if (socket != sock) {
+                    configureSocket(socket);
+                }
+            }
+            configureSocket(sock);
             if ( ipAddress.getHostAddress().equals(IN_ADDR_ANY)  ||
                  ipAddress.getHostAddress().equals(IN6_ADDR_ANY)){
                 // Store the address to which we are actually bound
@@ -159,11 +198,91 @@ public class UDPMessageProcessor extends MessageProcessor {
 
             }
         } catch (SocketException ex) {
+            closeSockets();
             throw new IOException(ex.getMessage());
         }
     }
 
+    private void configureSocket(DatagramSocket socket) throws SocketException {
+        socket.setReceiveBufferSize(sipStack.getReceiveUdpBufferSize());
+        socket.setSendBufferSize(sipStack.getSendUdpBufferSize());
+
+        /**
+         * If the thread auditor is enabled, define a socket timeout value in order to
+         * prevent sock.receive() from blocking forever
+         */
+        if (sipStack.getThreadAuditor().isEnabled()) {
+            socket.setSoTimeout((int) sipStack.getThreadAuditor().getPingIntervalInMillisecs());
+        }
+    }
+
+    /**
+     * Create a socket bound with SO_REUSEPORT. The option is looked up by
+     * reflection as it only exists from Java 9 on.
+     *
+     * @return the socket or null if SO_REUSEPORT is not supported.
+     */
+    private static DatagramSocket createReusePortSocket(InetAddress ipAddress, int port)
+            throws SocketException {
+        DatagramSocket socket = new DatagramSocket(null);
+        try {
+            Object reusePort = Class.forName("java.net.StandardSocketOptions")
+                    .getField("SO_REUSEPORT").get(null);
+            DatagramSocket.class.getMethod("setOption",
+                    Class.forName("java.net.SocketOption"), Object.class)
+                    .invoke(socket, reusePort, Boolean.TRUE);
+        } catch (Exception ex) {
+            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+                logger.logDebug("SO_REUSEPORT not supported " + ex);
+            socket.close();
+            return null;
+        }
+        try {
+            socket.bind(new InetSocketAddress(ipAddress, port));
+        } catch (SocketException ex) {
+            socket.close();
+            throw ex;
+        }
+        return socket;
+    }
+
+    private void closeSockets() {
+        if (sock != null) {
+            sock.close();
+        }
+        if (receiveSockets != null) {
+            for (DatagramSocket socket : receiveSockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a packet to receive a datagram into, from the pool if there is one.
+     */
+    protected DatagramPacket acquirePacket() {
+        DatagramPacket packet = packetPool.poll();
+        if (packet == null) {
+            byte message[] = new byte[this.maxMessageSize];
+            return new DatagramPacket(message, message.length);
+        }
+        pooledPackets.decrementAndGet();
+        packet.setLength(packet.getData().length);
+        return packet;
+    }
 
+    /**
+     * Give back a packet once its message has been parsed.
+     */
+    protected void releasePacket(DatagramPacket packet) {
+        if (pooledPackets.incrementAndGet() <= maxPooledPackets) {
+            packetPool.offer(packet);
+        } else {
+            pooledPackets.decrementAndGet();
+        }
+    }
 
     /**
      * Get port on which to listen for incoming stuff.
@@ -175,26 +294,12 @@ public class UDPMessageProcessor extends MessageProcessor {
     }
 
     /**
-     * Start our processor thread.
+     * Start our processor threads.
      */
     public void start() throws IOException {
 
 
         this.isRunning = true;
-        Thread thread = new Thread(this);
-        thread.setDaemon(true);
-        // Issue #32 on java.net
-        thread.setName("UDPMessageProcessorThread");
-        // Issue #184
-        thread.setPriority(Thread.MAX_PRIORITY);
-        thread.start();
-    }
-
-    /**
-     * Thread main routine.
-     */
-    public void run() {
-        // Check for running flag.
         this.messageChannels = new LinkedList();
         // start all our messageChannels (unless the thread pool size is
         // infinity.
@@ -206,7 +311,34 @@ public class UDPMessageProcessor extends MessageProcessor {
 
             }
         }
+        for (int i = 0; i < receiveSockets.length; i++) {
+            final DatagramSocket socket = receiveSockets[i];
+            Thread thread = new Thread(i == 0 ? this : new Runnable() {
+                public void run() {
+                    receive(socket);
+                }
+            });
+            thread.setDaemon(true);
+            // Issue #32 on java.net
+            thread.setName(receiveSockets.length == 1 ? "UDPMessageProcessorThread"
+                    : "UDPMessageProcessorThread-" + i);
+            // Issue #184
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.start();
+        }
+    }
+
+    /**
+     * Thread main routine.
+     */
+    public void run() {
+        receive(sock);
+    }
 
+    /**
+     * Read datagrams from the socket until the processor is stopped.
+     */
+    private void receive(DatagramSocket socket) {
         // Ask the auditor to monitor this thread
         ThreadAuditor.ThreadHandle threadHandle = sipStack.getThreadAuditor().addCurrentThread();
 
@@ -217,10 +349,13 @@ public class UDPMessageProcessor extends MessageProcessor {
                 // Let the thread auditor know we're up and running
                 threadHandle.ping();
 
-                int bufsize = this.maxMessageSize;
-                byte message[] = new byte[bufsize];
-                DatagramPacket packet = new DatagramPacket(message, bufsize);
-                sock.receive(packet);
+                DatagramPacket packet = acquirePacket();
+                try {
+                    socket.receive(packet);
+                } catch (IOException ex) {
+                    releasePacket(packet);
+                    throw ex;
+                }
                 
                 // Count of # of packets in process.
                 // this.useCount++;
@@ -265,7 +400,7 @@ public class UDPMessageProcessor extends MessageProcessor {
      */
     public void stop() {
             this.isRunning = false;
-            sock.close();        
+            closeSockets();
           // closing the channels
           for (Object messageChannel : messageChannels) {
 			((MessageChannel)messageChannel).close();
@@ -332,4 +467,11 @@ public class UDPMessageProcessor extends MessageProcessor {
     	return !messageQueue.isEmpty();
     }
 
+    /**
+     * @return the number of datagrams waiting to be processed.
+     */
+    public int getQueueDepth() {
+        return messageQueue.size();
+    }
+
 }
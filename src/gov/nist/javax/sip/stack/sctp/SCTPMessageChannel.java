@@ -16,7 +16,9 @@ import gov.nist.javax.sip.message.SIPRequest;
 import gov.nist.javax.sip.message.SIPResponse;
 import gov.nist.javax.sip.parser.ParseExceptionListener;
 import gov.nist.javax.sip.parser.StringMsgParser;
+import gov.nist.javax.sip.stack.CallIDOrderedExecutor;
 import gov.nist.javax.sip.stack.MessageChannel;
+import gov.nist.javax.sip.stack.QueuedMessageDispatchBase;
 import gov.nist.javax.sip.stack.SIPClientTransaction;
 import gov.nist.javax.sip.stack.SIPServerTransaction;
 import gov.nist.javax.sip.stack.SIPTransaction;
@@ -180,6 +182,7 @@ final class SCTPMessageChannel extends MessageChannel
 	public void sendMessage(SIPMessage sipMessage) throws IOException {
 		byte[] msg = sipMessage.encodeAsBytes( this.getTransport() );
 		this.sendMessage( msg, this.getPeerInetAddress(), this.getPeerPort(), false );
+		processor.getSIPStack().getStackMetrics().messageSent( sipMessage );
 	}
 
 	@Override
@@ -232,10 +235,27 @@ final class SCTPMessageChannel extends MessageChannel
 		rxBuffer.get( msg );
 		rxBuffer.compact();
 		try {
-			SIPMessage m = parser.parseSIPMessage( msg, true, true, this );
-			this.processMessage( m, rxTime );
+			final SIPMessage m = parser.parseSIPMessage( msg, true, true, this );
+			final long receptionTime = rxTime;
 			rxTime = 0;	// reset for next message
+			m.setReceptionTime( receptionTime );
+			CallIDOrderedExecutor executor = processor.getSIPStack().getCallIDOrderedExecutor();
+			if (executor != null) {
+				// several calls may share the association, process them in parallel
+				String callId = m.getCallId() == null ? null : m.getCallId().getCallId();
+				executor.execute( callId, new QueuedMessageDispatchBase() {
+					public void run() {
+						processMessage( m, receptionTime );
+					}
+					public long getReceptionTime() {
+						return receptionTime;
+					}
+				});
+			} else {
+				this.processMessage( m, receptionTime );
+			}
 		} catch (ParseException e) {
+			processor.getSIPStack().getStackMetrics().parseError();
 			logger.logException( e );
 			if ( logger.isLoggingEnabled( LogWriter.TRACE_DEBUG ) ) {
 				logger.logDebug( "Invalid message bytes=" + msg.length + ":" + new String(msg) );
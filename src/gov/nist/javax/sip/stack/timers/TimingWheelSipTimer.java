@@ -0,0 +1,402 @@
+/*
+* Conditions Of Use
+*
+* This software was developed by employees of the National Institute of
+* Standards and Technology (NIST), an agency of the Federal Government.
+* Pursuant to title 15 Untied States Code Section 105, works of NIST
+* employees are not subject to copyright protection in the United States
+* and are considered to be in the public domain.  As a result, a formal
+* license is not needed to use the software.
+*
+* This software is provided by NIST as a service and is expressly
+* provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+* OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+* AND DATA ACCURACY.  NIST does not warrant or make any representations
+* regarding the use of the software or the results thereof, including but
+* not limited to the correctness, accuracy, reliability or usefulness of
+* the software.
+*
+* Permission to use this software is contingent upon your acceptance
+* of the terms of this agreement
+*
+* .
+*
+*/
+package gov.nist.javax.sip.stack.timers;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogWriter;
+import gov.nist.core.StackLogger;
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.stack.SIPStackTimerTask;
+import gov.nist.javax.sip.stack.SIPTransactionStack;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * SIP Timer implementation based on a hashed timing wheel. Scheduling and
+ * cancelling a task are O(1) whatever the number of pending tasks: a task is
+ * put in the slot of the wheel its deadline falls in, along with the number
+ * of full turns of the wheel left before it is due, and a single wheel thread
+ * visits one slot per tick. Due tasks are handed to a pool of worker threads
+ * so that a slow task does not hold up the wheel.
+ * <p>
+ * The timer is configured with the following stack properties:
+ * <ul>
+ * <li><b>gov.nist.javax.sip.TIMER_WHEEL_TICK</b> the duration of a tick in
+ * milliseconds, which is also the resolution of the timer. Must divide
+ * {@link SIPTransactionStack#BASE_TIMER_INTERVAL} so that the transaction
+ * timers land exactly on a tick. Defaults to 50.</li>
+ * <li><b>gov.nist.javax.sip.TIMER_WHEEL_SIZE</b> the number of slots of the
+ * wheel, rounded up to a power of two. Defaults to 512.</li>
+ * <li><b>gov.nist.javax.sip.TIMER_THREADS</b> the number of threads running
+ * the due tasks. Defaults to the number of available processors.</li>
+ * </ul>
+ * A periodic task is put back on the wheel once it has run so that it never
+ * runs concurrently with itself.
+ *
+ */
+public class TimingWheelSipTimer implements SipTimer {
+	private static StackLogger logger = CommonLogger.getLogger(TimingWheelSipTimer.class);
+
+	private static final int DEFAULT_TICK = 50;
+	private static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+			AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+	protected AtomicBoolean started = new AtomicBoolean(false);
+	protected SipStackImpl sipStackImpl;
+
+	private long tickNanos;
+	private Slot[] wheel;
+	private int mask;
+	private long startTime;
+	// Only read and written by the wheel thread.
+	private long tick;
+
+	private final ConcurrentLinkedQueue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+	private Thread wheelThread;
+	private ExecutorService workers;
+
+	/*
+	 * (non-Javadoc)
+	 * @see gov.nist.javax.sip.stack.timers.SipTimer#start(gov.nist.javax.sip.SipStackImpl, java.util.Properties)
+	 */
+	public void start(SipStackImpl sipStack, Properties configurationProperties) {
+		sipStackImpl = sipStack;
+		int tickMillis = getIntProperty(configurationProperties, "gov.nist.javax.sip.TIMER_WHEEL_TICK", DEFAULT_TICK);
+		if (SIPTransactionStack.BASE_TIMER_INTERVAL % tickMillis != 0) {
+			if (logger.isLoggingEnabled(LogWriter.TRACE_WARN)) {
+				logger.logWarning("gov.nist.javax.sip.TIMER_WHEEL_TICK " + tickMillis
+						+ " does not divide the base timer interval, using " + DEFAULT_TICK);
+			}
+			tickMillis = DEFAULT_TICK;
+		}
+		int wheelSize = getIntProperty(configurationProperties, "gov.nist.javax.sip.TIMER_WHEEL_SIZE", DEFAULT_WHEEL_SIZE);
+		int normalizedSize = 1;
+		while (normalizedSize < wheelSize && normalizedSize < (1 << 30)) {
+			normalizedSize <<= 1;
+		}
+		int threads = getIntProperty(configurationProperties, "gov.nist.javax.sip.TIMER_THREADS",
+				Runtime.getRuntime().availableProcessors());
+
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		wheel = new Slot[normalizedSize];
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = new Slot();
+		}
+		mask = wheel.length - 1;
+		tick = 0;
+		startTime = System.nanoTime();
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "SIP-Timer-Worker-" + threadCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		started.set(true);
+		wheelThread = new Thread(new Runnable() {
+			public void run() {
+				runWheel();
+			}
+		}, "SIP-Timer-Wheel");
+		wheelThread.setDaemon(true);
+		wheelThread.start();
+		if(logger.isLoggingEnabled(StackLogger.TRACE_INFO)) {
+			logger.logInfo("the sip stack timer " + this.getClass().getName() + " has been started with a tick of "
+					+ tickMillis + " ms, " + wheel.length + " slots and " + threads + " threads");
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see gov.nist.javax.sip.stack.timers.SipTimer#stop()
+	 */
+	public void stop() {
+		if (!started.getAndSet(false)) {
+			return;
+		}
+		wheelThread.interrupt();
+		workers.shutdown();
+		pendingTimeouts.clear();
+		cancelledTimeouts.clear();
+		logger.logStackTrace(StackLogger.TRACE_DEBUG);
+		if(logger.isLoggingEnabled(StackLogger.TRACE_INFO)) {
+			logger.logInfo("the sip stack timer " + this.getClass().getName() + " has been stopped");
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see gov.nist.javax.sip.stack.timers.SipTimer#schedule(gov.nist.javax.sip.stack.SIPStackTimerTask, long)
+	 */
+	public boolean schedule(SIPStackTimerTask task, long delay) {
+		return schedule(task, delay, 0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see gov.nist.javax.sip.stack.timers.SipTimer#scheduleWithFixedDelay(gov.nist.javax.sip.stack.SIPStackTimerTask, long, long)
+	 */
+	public boolean scheduleWithFixedDelay(SIPStackTimerTask task, long delay, long period) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("period must be positive");
+		}
+		return schedule(task, delay, period);
+	}
+
+	private boolean schedule(SIPStackTimerTask task, long delay, long period) {
+		if(!started.get()) {
+			throw new IllegalStateException("The SIP Stack Timer has been stopped, no new tasks can be scheduled !");
+		}
+		Timeout timeout = new Timeout(task, period);
+		task.setSipTimerTask(timeout);
+		if (delay <= 0) {
+			dispatch(timeout);
+		} else {
+			timeout.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+			pendingTimeouts.add(timeout);
+		}
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see gov.nist.javax.sip.stack.timers.SipTimer#cancel(gov.nist.javax.sip.stack.SIPStackTimerTask)
+	 */
+	public boolean cancel(SIPStackTimerTask task) {
+		Object sipTimerTask = task.getSipTimerTask();
+		if (!(sipTimerTask instanceof Timeout)) {
+			return false;
+		}
+		Timeout timeout = (Timeout) sipTimerTask;
+		if (!STATE.compareAndSet(timeout, Timeout.PENDING, Timeout.CANCELLED)) {
+			return false;
+		}
+		task.cleanUpBeforeCancel();
+		task.setSipTimerTask(null);
+		// The wheel thread unlinks it from its slot.
+		cancelledTimeouts.add(timeout);
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see gov.nist.javax.sip.stack.timers.SipTimer#isStarted()
+	 */
+	public boolean isStarted() {
+		return started.get();
+	}
+
+	private void runWheel() {
+		while (started.get()) {
+			long deadline = startTime + (tick + 1) * tickNanos;
+			long sleepNanos = deadline - System.nanoTime();
+			if (sleepNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				} catch (InterruptedException e) {
+					continue;
+				}
+			}
+			try {
+				removeCancelled();
+				transferPending();
+				expire(wheel[(int) (tick & mask)]);
+			} catch (Exception e) {
+				logger.logError("SIP stack timer wheel failed", e);
+			}
+			tick++;
+		}
+	}
+
+	private void removeCancelled() {
+		Timeout timeout;
+		while ((timeout = cancelledTimeouts.poll()) != null) {
+			if (timeout.slot != null) {
+				timeout.slot.remove(timeout);
+			}
+		}
+	}
+
+	private void transferPending() {
+		// Bounded so that a burst of scheduling cannot stall the wheel.
+		for (int i = 0; i < 100000; i++) {
+			Timeout timeout = pendingTimeouts.poll();
+			if (timeout == null) {
+				return;
+			}
+			if (timeout.state != Timeout.PENDING) {
+				continue;
+			}
+			long dueTick = (timeout.deadline - startTime + tickNanos - 1) / tickNanos - 1;
+			// A deadline already passed goes into the current slot.
+			if (dueTick < tick) {
+				dueTick = tick;
+			}
+			timeout.remainingRounds = (dueTick - tick) / wheel.length;
+			wheel[(int) (dueTick & mask)].add(timeout);
+		}
+	}
+
+	private void expire(Slot slot) {
+		Timeout timeout = slot.head;
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.state != Timeout.PENDING) {
+				slot.remove(timeout);
+			} else if (timeout.remainingRounds <= 0) {
+				slot.remove(timeout);
+				dispatch(timeout);
+			} else {
+				timeout.remainingRounds--;
+			}
+			timeout = next;
+		}
+	}
+
+	private void dispatch(Timeout timeout) {
+		if (timeout.period == 0
+				&& !STATE.compareAndSet(timeout, Timeout.PENDING, Timeout.EXPIRED)) {
+			return;
+		}
+		try {
+			workers.execute(timeout);
+		} catch (RejectedExecutionException e) {
+			// stopped
+		}
+	}
+
+	private int getIntProperty(Properties configurationProperties, String name, int defaultValue) {
+		String value = configurationProperties == null ? null : configurationProperties.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			int intValue = Integer.parseInt(value.trim());
+			if (intValue > 0) {
+				return intValue;
+			}
+		} catch (NumberFormatException e) {
+		}
+		logger.logError("Bad configuration value for " + name + " : " + value);
+		return defaultValue;
+	}
+
+	/**
+	 * A scheduled task, linked in the slot of the wheel it is due in.
+	 */
+	final class Timeout implements Runnable {
+		static final int PENDING = 0;
+		static final int EXPIRED = 1;
+		static final int CANCELLED = 2;
+
+		final SIPStackTimerTask task;
+		final long period;
+		long deadline;
+		volatile int state = PENDING;
+
+		// Owned by the wheel thread.
+		long remainingRounds;
+		Slot slot;
+		Timeout next;
+		Timeout prev;
+
+		Timeout(SIPStackTimerTask task, long period) {
+			this.task = task;
+			this.period = period;
+		}
+
+		public void run() {
+			if (state != PENDING && period != 0) {
+				return;
+			}
+			try {
+				task.runTask();
+			} catch (Exception e) {
+				logger.logError("SIP stack timer task failed due to exception", e);
+			}
+			if (period != 0 && state == PENDING && started.get()) {
+				deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(period);
+				pendingTimeouts.add(this);
+			}
+		}
+	}
+
+	/**
+	 * Doubly linked list of the timeouts due in one slot of the wheel.
+	 */
+	private static final class Slot {
+		Timeout head;
+		Timeout tail;
+
+		void add(Timeout timeout) {
+			timeout.slot = this;
+			timeout.prev = tail;
+			timeout.next = null;
+			if (tail == null) {
+				head = timeout;
+			} else {
+				tail.next = timeout;
+			}
+			tail = timeout;
+		}
+
+		void remove(Timeout timeout) {
+			if (timeout.slot != this) {
+				return;
+			}
+			if (timeout.prev == null) {
+				head = timeout.next;
+			} else {
+				timeout.prev.next = timeout.next;
+			}
+			if (timeout.next == null) {
+				tail = timeout.prev;
+			} else {
+				timeout.next.prev = timeout.prev;
+			}
+			timeout.slot = null;
+			timeout.next = null;
+			timeout.prev = null;
+		}
+	}
+}
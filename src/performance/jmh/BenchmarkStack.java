@@ -0,0 +1,28 @@
+package performance.jmh;
+
+import gov.nist.javax.sip.SipStackImpl;
+
+import java.util.Properties;
+
+import javax.sip.SipFactory;
+
+/**
+ * Creates the stacks used by the benchmarks. The parsers and the transaction
+ * tables log through the stack logger, so even the benchmarks that do not send
+ * anything need a stack. Logging is turned off so that it is not measured.
+ */
+final class BenchmarkStack {
+
+    private BenchmarkStack() {
+    }
+
+    static SipStackImpl create(String name) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", name);
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        properties.setProperty("gov.nist.javax.sip.LOG_MESSAGE_CONTENT", "false");
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        return (SipStackImpl) sipFactory.createSipStack(properties);
+    }
+}
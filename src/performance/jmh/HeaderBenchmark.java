@@ -0,0 +1,88 @@
+package performance.jmh;
+
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.header.HeaderFactoryImpl;
+import gov.nist.javax.sip.parser.AddressParser;
+import gov.nist.javax.sip.parser.URLParser;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.header.Header;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Creation of headers from text and parsing of SIP URIs and name-addr
+ * addresses, as done by applications building requests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HeaderBenchmark {
+
+    private static final String SIP_URI = "sip:user1_public1@home1.net;transport=tcp;lr;ftag=1928301774";
+
+    private static final String ADDRESS = "\"John Doe\" <sip:user1_public1@home1.net;gr=urn:uuid:f81d4fae-7dec-11d0-a765-00a0c91e6bf6>";
+
+    private HeaderFactoryImpl headerFactory;
+
+    private SipStackImpl sipStack;
+
+    @Setup
+    public void setUp() throws Exception {
+        sipStack = BenchmarkStack.create("HeaderBenchmark");
+        headerFactory = new HeaderFactoryImpl();
+    }
+
+    @TearDown
+    public void tearDown() {
+        sipStack.stop();
+    }
+
+    @Benchmark
+    public Header createVia() throws ParseException {
+        return headerFactory.createHeader("Via",
+                "SIP/2.0/UDP pc33.atlanta.example.com:5060;branch=z9hG4bK776asdhds;rport");
+    }
+
+    @Benchmark
+    public Header createFrom() throws ParseException {
+        return headerFactory.createHeader("From",
+                "Alice <sip:alice@atlanta.example.com>;tag=1928301774");
+    }
+
+    @Benchmark
+    public Header createRecordRoute() throws ParseException {
+        return headerFactory.createHeader("Record-Route",
+                "<sip:proxy2.example.com;lr;ftag=1928301774>");
+    }
+
+    @Benchmark
+    public Header createPAssertedIdentity() throws ParseException {
+        return headerFactory.createHeader("P-Asserted-Identity",
+                "\"John Doe\" <sip:user1_public1@home1.net>");
+    }
+
+    @Benchmark
+    public Header createUnknownHeader() throws ParseException {
+        return headerFactory.createHeader("X-Custom-Header", "some value");
+    }
+
+    @Benchmark
+    public Object parseSipUri() throws ParseException {
+        return new URLParser(SIP_URI).sipURL(false);
+    }
+
+    @Benchmark
+    public Object parseAddress() throws ParseException {
+        return new AddressParser(ADDRESS).address(true);
+    }
+}
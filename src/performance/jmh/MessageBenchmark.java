@@ -0,0 +1,61 @@
+package performance.jmh;
+
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.ListeningPoint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Encoding and cloning of parsed messages. The message is parsed once and
+ * every header is accessed so that the measure does not depend on how lazily
+ * the parser builds the headers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageBenchmark {
+
+    @Param({ MessageCorpus.INVITE_SDP, MessageCorpus.REGISTER, MessageCorpus.IMS_INVITE,
+            MessageCorpus.OK_RECORD_ROUTE })
+    public String message;
+
+    private SIPMessage sipMessage;
+
+    private SipStackImpl sipStack;
+
+    @Setup
+    public void setUp() throws Exception {
+        sipStack = BenchmarkStack.create("MessageBenchmark");
+        sipMessage = new StringMsgParser().parseSIPMessage(MessageCorpus.getMessage(message),
+                true, false, null);
+        sipMessage.getHeaders();
+    }
+
+    @TearDown
+    public void tearDown() {
+        sipStack.stop();
+    }
+
+    @Benchmark
+    public byte[] encodeAsBytes() {
+        return sipMessage.encodeAsBytes(ListeningPoint.UDP);
+    }
+
+    @Benchmark
+    public Object cloneMessage() {
+        return sipMessage.clone();
+    }
+}
@@ -0,0 +1,147 @@
+package performance.jmh;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * The messages used by the benchmarks. They are modelled on real traffic: an
+ * INVITE with an SDP offer, a REGISTER, an IMS INVITE carrying the usual
+ * P-headers and a 200 OK to an INVITE with a Record-Route list.
+ */
+public final class MessageCorpus {
+
+    public static final String INVITE_SDP = "INVITE_SDP";
+
+    public static final String REGISTER = "REGISTER";
+
+    public static final String IMS_INVITE = "IMS_INVITE";
+
+    public static final String OK_RECORD_ROUTE = "OK_RECORD_ROUTE";
+
+    public static final String SDP = "v=0\r\n"
+            + "o=alice 2890844526 2890844526 IN IP4 pc33.atlanta.example.com\r\n"
+            + "s=Session SDP\r\n"
+            + "c=IN IP4 192.0.2.101\r\n"
+            + "b=AS:64\r\n"
+            + "t=0 0\r\n"
+            + "m=audio 49172 RTP/AVP 0 8 18 101\r\n"
+            + "a=rtpmap:0 PCMU/8000\r\n"
+            + "a=rtpmap:8 PCMA/8000\r\n"
+            + "a=rtpmap:18 G729/8000\r\n"
+            + "a=fmtp:18 annexb=no\r\n"
+            + "a=rtpmap:101 telephone-event/8000\r\n"
+            + "a=fmtp:101 0-15\r\n"
+            + "a=ptime:20\r\n"
+            + "a=sendrecv\r\n"
+            + "m=video 51372 RTP/AVP 96\r\n"
+            + "a=rtpmap:96 H264/90000\r\n"
+            + "a=fmtp:96 profile-level-id=42e01f;packetization-mode=1\r\n";
+
+    private static final String INVITE_SDP_HEADERS = "INVITE sip:bob@biloxi.example.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP pc33.atlanta.example.com:5060;branch=z9hG4bK776asdhds;rport\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "To: Bob <sip:bob@biloxi.example.com>\r\n"
+            + "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+            + "Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n"
+            + "CSeq: 314159 INVITE\r\n"
+            + "Contact: <sip:alice@pc33.atlanta.example.com;transport=udp>\r\n"
+            + "Allow: INVITE, ACK, CANCEL, OPTIONS, BYE, REFER, NOTIFY, MESSAGE, SUBSCRIBE, INFO\r\n"
+            + "Supported: replaces, timer, 100rel\r\n"
+            + "Session-Expires: 1800;refresher=uac\r\n"
+            + "Min-SE: 90\r\n"
+            + "User-Agent: Example UA 1.0\r\n"
+            + "Content-Type: application/sdp\r\n";
+
+    private static final String REGISTER_HEADERS = "REGISTER sip:registrar.biloxi.example.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/TCP bobspc.biloxi.example.com:5060;branch=z9hG4bKnashds7\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "To: Bob <sip:bob@biloxi.example.com>\r\n"
+            + "From: Bob <sip:bob@biloxi.example.com>;tag=456248\r\n"
+            + "Call-ID: 843817637684230@998sdasdh09\r\n"
+            + "CSeq: 1826 REGISTER\r\n"
+            + "Contact: <sip:bob@192.0.2.4;transport=tcp>;expires=7200;+sip.instance=\"<urn:uuid:00000000-0000-1000-8000-000A95A0E128>\";reg-id=1\r\n"
+            + "Authorization: Digest username=\"bob\", realm=\"biloxi.example.com\", "
+            + "nonce=\"dcd98b7102dd2f0e8b11d0f600bfb0c093\", uri=\"sip:registrar.biloxi.example.com\", "
+            + "response=\"245f23415f11432b3434341c022\", algorithm=MD5, qop=auth, nc=00000001, "
+            + "cnonce=\"0a4f113b\"\r\n"
+            + "Supported: path, outbound, gruu\r\n"
+            + "Expires: 7200\r\n"
+            + "User-Agent: Example UA 1.0\r\n";
+
+    private static final String IMS_INVITE_HEADERS = "INVITE tel:+1-212-555-2222 SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP pcscf1.visited1.net:5070;branch=z9hG4bK240f34.1\r\n"
+            + "Via: SIP/2.0/UDP [5555::aaa:bbb:ccc:ddd]:1357;comp=sigcomp;branch=z9hG4bKnashds7;received=5555::aaa:bbb:ccc:ddd\r\n"
+            + "Max-Forwards: 69\r\n"
+            + "Route: <sip:orig@scscf1.home1.net;lr>\r\n"
+            + "Record-Route: <sip:pcscf1.visited1.net:5070;lr>\r\n"
+            + "P-Asserted-Identity: \"John Doe\" <sip:user1_public1@home1.net>, <tel:+1-212-555-1111>\r\n"
+            + "P-Access-Network-Info: 3GPP-UTRAN-TDD; utran-cell-id-3gpp=234151D0FCE11\r\n"
+            + "P-Charging-Vector: icid-value=\"AyretyU0dm+6O2IrT5tAFrbHLso=023551024\"; orig-ioi=visited1.net\r\n"
+            + "P-Visited-Network-ID: \"Visited network number 1\"\r\n"
+            + "P-Preferred-Service: urn:urn-7:3gpp-service.ims.icsi.mmtel\r\n"
+            + "Privacy: none\r\n"
+            + "From: <sip:user1_public1@home1.net>;tag=171828\r\n"
+            + "To: <tel:+1-212-555-2222>\r\n"
+            + "Call-ID: cb03a0s09a2sdfglkj490333\r\n"
+            + "CSeq: 127 INVITE\r\n"
+            + "Require: sec-agree\r\n"
+            + "Supported: precondition, 100rel, gruu\r\n"
+            + "Contact: <sip:user1_public1@home1.net;gr=urn:uuid:f81d4fae-7dec-11d0-a765-00a0c91e6bf6;comp=sigcomp>;+g.3gpp.icsi-ref=\"urn%3Aurn-7%3A3gpp-service.ims.icsi.mmtel\"\r\n"
+            + "Accept-Contact: *;+g.3gpp.icsi-ref=\"urn%3Aurn-7%3A3gpp-service.ims.icsi.mmtel\"\r\n"
+            + "Allow: INVITE, ACK, CANCEL, BYE, PRACK, UPDATE, REFER, MESSAGE\r\n"
+            + "Content-Type: application/sdp\r\n";
+
+    private static final String OK_RECORD_ROUTE_HEADERS = "SIP/2.0 200 OK\r\n"
+            + "Via: SIP/2.0/UDP proxy3.example.com:5060;branch=z9hG4bK2d4790.3;received=192.0.2.3\r\n"
+            + "Via: SIP/2.0/UDP proxy2.example.com:5060;branch=z9hG4bK2d4790.2;received=192.0.2.2\r\n"
+            + "Via: SIP/2.0/UDP proxy1.example.com:5060;branch=z9hG4bK2d4790.1;received=192.0.2.1\r\n"
+            + "Via: SIP/2.0/UDP pc33.atlanta.example.com:5060;branch=z9hG4bK776asdhds;rport=5060;received=192.0.2.101\r\n"
+            + "Record-Route: <sip:proxy3.example.com;lr>, <sip:proxy2.example.com;lr;ftag=1928301774>\r\n"
+            + "Record-Route: <sip:proxy1.example.com;lr;transport=tcp>\r\n"
+            + "To: Bob <sip:bob@biloxi.example.com>;tag=a6c85cf\r\n"
+            + "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+            + "Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n"
+            + "CSeq: 314159 INVITE\r\n"
+            + "Contact: <sip:bob@192.0.2.4>\r\n"
+            + "Allow: INVITE, ACK, CANCEL, OPTIONS, BYE\r\n"
+            + "Supported: replaces, timer\r\n"
+            + "Session-Expires: 1800;refresher=uac\r\n"
+            + "Require: timer\r\n"
+            + "Server: Example UAS 1.0\r\n"
+            + "Content-Type: application/sdp\r\n";
+
+    private MessageCorpus() {
+    }
+
+    private static String message(String headers, String body) {
+        return headers + "Content-Length: " + body.length() + "\r\n\r\n" + body;
+    }
+
+    /**
+     * @param name -- one of the message names defined above.
+     * @return the text of the message.
+     */
+    public static String getMessageText(String name) {
+        if (INVITE_SDP.equals(name)) {
+            return message(INVITE_SDP_HEADERS, SDP);
+        } else if (REGISTER.equals(name)) {
+            return message(REGISTER_HEADERS, "");
+        } else if (IMS_INVITE.equals(name)) {
+            return message(IMS_INVITE_HEADERS, SDP);
+        } else if (OK_RECORD_ROUTE.equals(name)) {
+            return message(OK_RECORD_ROUTE_HEADERS, SDP);
+        }
+        throw new IllegalArgumentException("Unknown message " + name);
+    }
+
+    /**
+     * @param name -- one of the message names defined above.
+     * @return the message as it is read from the network.
+     */
+    public static byte[] getMessage(String name) {
+        try {
+            return getMessageText(name).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package performance.jmh;
+
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.parser.ByteMsgParser;
+import gov.nist.javax.sip.parser.MessageParser;
+import gov.nist.javax.sip.parser.NioPipelineParser;
+import gov.nist.javax.sip.parser.Pipeline;
+import gov.nist.javax.sip.parser.PipelinedMsgParser;
+import gov.nist.javax.sip.parser.SIPMessageListener;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.io.ByteArrayInputStream;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of complete messages, from a datagram with the StringMsgParser and
+ * the ByteMsgParser and from a stream with the PipelinedMsgParser and the
+ * NioPipelineParser.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParserBenchmark {
+
+    // Number of messages streamed through the pipelined parser per invocation.
+    private static final int PIPELINED_MESSAGES = 100;
+
+    // Size of the socket reads simulated for the stream parsers.
+    private static final int READ_SIZE = 4096;
+
+    @Param({ MessageCorpus.INVITE_SDP, MessageCorpus.REGISTER, MessageCorpus.IMS_INVITE,
+            MessageCorpus.OK_RECORD_ROUTE })
+    public String message;
+
+    private byte[] bytes;
+
+    // PIPELINED_MESSAGES messages back to back.
+    private byte[] stream;
+
+    private SipStackImpl sipStack;
+
+    private MessageParser stringMsgParser;
+
+    private MessageParser byteMsgParser;
+
+    private CountingListener listener;
+
+    static class CountingListener implements SIPMessageListener {
+
+        int count;
+
+        public void processMessage(SIPMessage msg) {
+            count++;
+        }
+
+        public void handleException(ParseException ex, SIPMessage sipMessage,
+                Class headerClass, String headerText, String messageText)
+                throws ParseException {
+            throw ex;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        bytes = MessageCorpus.getMessage(message);
+        sipStack = BenchmarkStack.create("ParserBenchmark");
+        stringMsgParser = new StringMsgParser();
+        byteMsgParser = new ByteMsgParser();
+        listener = new CountingListener();
+        stream = new byte[bytes.length * PIPELINED_MESSAGES];
+        for (int i = 0; i < PIPELINED_MESSAGES; i++) {
+            System.arraycopy(bytes, 0, stream, i * bytes.length, bytes.length);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        sipStack.stop();
+    }
+
+    @Benchmark
+    public SIPMessage stringMsgParser() throws ParseException {
+        return stringMsgParser.parseSIPMessage(bytes, true, false, null);
+    }
+
+    @Benchmark
+    public SIPMessage byteMsgParser() throws ParseException {
+        return byteMsgParser.parseSIPMessage(bytes, true, false, null);
+    }
+
+    /**
+     * Streams a batch of messages through a pipeline, in the chunks a socket
+     * read would return, and parses them on the calling thread, as a TCP
+     * message channel would.
+     */
+    @Benchmark
+    @OperationsPerInvocation(PIPELINED_MESSAGES)
+    public void pipelinedMsgParser(Blackhole blackhole) throws Exception {
+        Pipeline pipeline = new Pipeline(new ByteArrayInputStream(new byte[0]));
+        for (int offset = 0; offset < stream.length; offset += READ_SIZE) {
+            pipeline.write(stream, offset, Math.min(offset + READ_SIZE, stream.length));
+        }
+        pipeline.close();
+        listener.count = 0;
+        new PipelinedMsgParser(sipStack, listener, pipeline, 0).run();
+        if (listener.count != PIPELINED_MESSAGES) {
+            throw new IllegalStateException("Parsed " + listener.count + " messages");
+        }
+        blackhole.consume(listener.count);
+    }
+
+    /**
+     * Pushes the same stream to the parser of the NIO transport, which frames
+     * the messages on the reading thread without a pipeline.
+     */
+    @Benchmark
+    @OperationsPerInvocation(PIPELINED_MESSAGES)
+    public void nioPipelineParser(Blackhole blackhole) throws Exception {
+        listener.count = 0;
+        NioPipelineParser parser = new NioPipelineParser(sipStack, listener, 0);
+        for (int offset = 0; offset < stream.length; offset += READ_SIZE) {
+            parser.addBytes(stream, offset, Math.min(READ_SIZE, stream.length - offset));
+        }
+        if (listener.count != PIPELINED_MESSAGES) {
+            throw new IllegalStateException("Parsed " + listener.count + " messages");
+        }
+        blackhole.consume(listener.count);
+    }
+}
@@ -0,0 +1,35 @@
+package performance.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sdp.SdpFactory;
+import javax.sdp.SessionDescription;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing of the SDP offer carried by the INVITE of the corpus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SdpBenchmark {
+
+    private SdpFactory sdpFactory;
+
+    @Setup
+    public void setUp() {
+        sdpFactory = SdpFactory.getInstance();
+    }
+
+    @Benchmark
+    public SessionDescription parseSdp() throws Exception {
+        return sdpFactory.createSessionDescription(MessageCorpus.SDP);
+    }
+}
@@ -0,0 +1,121 @@
+package performance.jmh;
+
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.message.SIPResponse;
+import gov.nist.javax.sip.stack.SIPTransaction;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.ClientTransaction;
+import javax.sip.ListeningPoint;
+import javax.sip.SipFactory;
+import javax.sip.SipProvider;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Matching of responses to client transactions with
+ * SIPTransactionStack.findTransaction, with the transaction table holding the
+ * given number of transactions. Nothing is sent, the transactions are only
+ * created.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransactionLookupBenchmark {
+
+    private static final int PORT = 15060;
+
+    // Number of distinct responses looked up in turn.
+    private static final int RESPONSES = 1024;
+
+    @Param({ "1000", "100000" })
+    public int transactions;
+
+    private SipStackImpl sipStack;
+
+    private SIPResponse[] responses;
+
+    private SIPResponse unknownResponse;
+
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        sipStack = BenchmarkStack.create("TransactionLookupBenchmark");
+        SipFactory sipFactory = SipFactory.getInstance();
+        AddressFactory addressFactory = sipFactory.createAddressFactory();
+        HeaderFactory headerFactory = sipFactory.createHeaderFactory();
+        MessageFactory messageFactory = sipFactory.createMessageFactory();
+        ListeningPoint listeningPoint = sipStack.createListeningPoint("127.0.0.1", PORT, "udp");
+        SipProvider provider = sipStack.createSipProvider(listeningPoint);
+
+        SipURI fromUri = addressFactory.createSipURI("alice", "atlanta.example.com");
+        SipURI toUri = addressFactory.createSipURI("bob", "127.0.0.1:5060");
+        responses = new SIPResponse[RESPONSES];
+        int stride = Math.max(1, transactions / RESPONSES);
+        for (int i = 0; i < transactions; i++) {
+            FromHeader from = headerFactory.createFromHeader(
+                    addressFactory.createAddress(fromUri), Integer.toString(i));
+            ToHeader to = headerFactory.createToHeader(addressFactory.createAddress(toUri), null);
+            ArrayList<ViaHeader> vias = new ArrayList<ViaHeader>();
+            vias.add(headerFactory.createViaHeader("127.0.0.1", PORT, "udp", null));
+            CSeqHeader cseq = headerFactory.createCSeqHeader(1L, Request.MESSAGE);
+            Request request = messageFactory.createRequest(toUri, Request.MESSAGE,
+                    provider.getNewCallId(), cseq, from, to, vias,
+                    headerFactory.createMaxForwardsHeader(70));
+            ClientTransaction ct = provider.getNewClientTransaction(request);
+            if (i % stride == 0 && i / stride < RESPONSES) {
+                responses[i / stride] = (SIPResponse) messageFactory.createResponse(
+                        Response.OK, ct.getRequest());
+            }
+        }
+        for (int i = 0; i < RESPONSES; i++) {
+            if (responses[i] == null) {
+                responses[i] = responses[i % Math.min(transactions, RESPONSES)];
+            }
+        }
+        unknownResponse = (SIPResponse) responses[0].clone();
+        unknownResponse.getTopmostVia().setBranch("z9hG4bK-unknown-branch");
+    }
+
+    @TearDown
+    public void tearDown() {
+        sipStack.stop();
+    }
+
+    @Benchmark
+    public SIPTransaction findTransaction() {
+        SIPResponse response = responses[next];
+        next = (next + 1) & (RESPONSES - 1);
+        SIPTransaction transaction = sipStack.findTransaction(response, false);
+        if (transaction == null) {
+            throw new IllegalStateException("No transaction for " + response.getFirstLine());
+        }
+        return transaction;
+    }
+
+    @Benchmark
+    public SIPTransaction findUnknownTransaction() {
+        return sipStack.findTransaction(unknownResponse, false);
+    }
+}
@@ -0,0 +1,99 @@
+package performance.parser;
+
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.parser.MessageParser;
+import gov.nist.javax.sip.parser.MessageParserFactory;
+import gov.nist.javax.sip.parser.StringMsgParserFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Parses the same INVITE over and over with each of the given message parser
+ * factories and prints the time and the number of bytes allocated per message.
+ * The allocated bytes are read from the HotSpot thread MXBean; on a VM that
+ * does not have it only the time is printed.
+ * <p>
+ * Usage: java performance.parser.MessageParserBenchmark [iterations]
+ * [factory class names...]. Without factories the default
+ * StringMsgParserFactory is measured.
+ */
+public class MessageParserBenchmark {
+
+    static final String INVITE = "INVITE sip:bob@biloxi.example.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP pc33.atlanta.example.com:5060;branch=z9hG4bK776asdhds;rport\r\n"
+            + "Via: SIP/2.0/UDP bigbox3.site3.atlanta.example.com;branch=z9hG4bK77ef4c2312983.1;received=192.0.2.2\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "To: Bob <sip:bob@biloxi.example.com>\r\n"
+            + "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+            + "Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n"
+            + "CSeq: 314159 INVITE\r\n"
+            + "Contact: <sip:alice@pc33.atlanta.example.com;transport=udp>\r\n"
+            + "Record-Route: <sip:p1.example.com;lr>\r\n"
+            + "Allow: INVITE, ACK, CANCEL, OPTIONS, BYE, REFER, NOTIFY, MESSAGE, SUBSCRIBE, INFO\r\n"
+            + "Supported: replaces, timer\r\n"
+            + "User-Agent: Example UA 1.0\r\n"
+            + "Subject: Performance test\r\n"
+            + "X-Custom-Header: some value\r\n"
+            + "Content-Type: application/sdp\r\n"
+            + "Content-Length: 140\r\n"
+            + "\r\n"
+            + "v=0\r\n"
+            + "o=alice 2890844526 2890844526 IN IP4 pc33.atlanta.example.com\r\n"
+            + "s=-\r\n"
+            + "c=IN IP4 pc33.atlanta.example.com\r\n"
+            + "t=0 0\r\n"
+            + "m=audio 49172 RTP/AVP 0\r\n";
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        String[] factories = args.length > 1 ? new String[args.length - 1]
+                : new String[] { StringMsgParserFactory.class.getName() };
+        if (args.length > 1) {
+            System.arraycopy(args, 1, factories, 0, factories.length);
+        }
+        byte[] message = INVITE.getBytes("UTF-8");
+        for (String factoryName : factories) {
+            MessageParserFactory factory = (MessageParserFactory) Class.forName(factoryName)
+                    .newInstance();
+            MessageParser parser = factory.createMessageParser(null);
+            // warm up
+            run(parser, message, iterations);
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            run(parser, message, iterations);
+            long elapsed = System.nanoTime() - start;
+            long bytesAfter = allocatedBytes();
+            System.out.println(factoryName + ": " + (elapsed / iterations) + " ns/msg"
+                    + (bytesBefore < 0 ? "" : ", " + (bytesAfter - bytesBefore) / iterations
+                            + " bytes allocated/msg"));
+        }
+    }
+
+    private static void run(MessageParser parser, byte[] message, int iterations)
+            throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            SIPMessage sipMessage = parser.parseSIPMessage(message, true, false, null);
+            // touch the message so that the work cannot be skipped
+            if (sipMessage.getCallId() == null || sipMessage.getTopmostVia() == null) {
+                throw new IllegalStateException("Bad parse");
+            }
+        }
+    }
+
+    /**
+     * @return the bytes allocated so far by this thread or -1 if the VM cannot tell.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        try {
+            Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod(
+                    "getThreadAllocatedBytes", long.class);
+            return ((Long) method.invoke(threadMXBean, Thread.currentThread().getId()))
+                    .longValue();
+        } catch (Exception ex) {
+            return -1;
+        }
+    }
+}
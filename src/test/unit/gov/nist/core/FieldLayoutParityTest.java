@@ -0,0 +1,263 @@
+package test.unit.gov.nist.core;
+
+import gov.nist.core.GenericObject;
+import gov.nist.core.GenericObjectList;
+import gov.nist.javax.sip.address.NetObject;
+import gov.nist.javax.sip.header.SIPHeader;
+import gov.nist.javax.sip.header.SIPHeaderList;
+import gov.nist.javax.sip.header.SIPObject;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the field wise equals and match of GenericObject, SIPObject and
+ * NetObject, which use the precomputed field layouts, give the same answers as
+ * the former implementations that introspected the classes on each call.
+ */
+public class FieldLayoutParityTest extends TestCase {
+
+    private static final String[] HEADERS = {
+        "Allow: INVITE", "Allow: ACK", "Allow: invite",
+        "Expires: 3600", "Expires: 60",
+        "Subject: hello", "Subject: bye", "Subject: ",
+        "Priority: urgent", "Priority: normal",
+        "Event: presence;id=1", "Event: presence;id=2", "Event: Presence",
+        "Content-Disposition: session;handling=required",
+        "Content-Disposition: render",
+        "Accept: application/sdp", "Accept: text/plain;q=0.5",
+        "Supported: 100rel", "Supported: timer", "Require: 100rel",
+        "Retry-After: 30 (busy);duration=10", "Retry-After: 40",
+        "Timestamp: 54.0 1.5", "Timestamp: 54",
+        "Authorization: Digest username=\"a\", realm=\"r\", nonce=\"n\", uri=\"sip:b@c\", response=\"0123\"",
+        "Authorization: Digest username=\"a\", realm=\"r\", nonce=\"n\", uri=\"sip:b@c\", response=\"4567\"",
+        "WWW-Authenticate: Digest realm=\"r\", nonce=\"n\", qop=\"auth\"",
+        "User-Agent: foo/1.0", "User-Agent: bar/2.0", "Server: bar",
+        "Warning: 370 devnull \"unavailable\"", "Warning: 399 devnull \"other\"",
+        "Session-Expires: 1800;refresher=uac", "Session-Expires: 90",
+        "Min-SE: 90", "Reason: SIP;cause=200;text=\"Call completed\"",
+        "Privacy: id", "Privacy: header",
+        "P-Asserted-Identity: <sip:a@b.com>", "P-Asserted-Identity: <sip:c@b.com>",
+        "P-Preferred-Identity: <sip:a@b.com>",
+        "P-Charging-Vector: icid-value=1;orig-ioi=x",
+        "P-Called-Party-ID: <sip:a@b.com>",
+        "P-Access-Network-Info: 3GPP-UTRAN-TDD; utran-cell-id-3gpp=23456789ABCDE",
+        "Refer-To: <sip:a@b.com>", "Referred-By: <sip:a@b.com>",
+        "Replaces: abc;to-tag=1;from-tag=2", "Join: abc;to-tag=1;from-tag=2",
+        "Path: <sip:p1@x.com;lr>", "Service-Route: <sip:s@x.com;lr>",
+        "Date: Sat, 13 Nov 2010 23:29:00 GMT",
+        "Call-Info: <http://x.com/y>;purpose=icon", "Alert-Info: <http://x.com/ring>",
+        "In-Reply-To: abc@x.com", "Organization: NIST",
+        "Content-Encoding: gzip", "Content-Language: en", "MIME-Version: 1.0",
+        "RSeq: 1", "RSeq: 2", "RAck: 1 1 INVITE", "RAck: 2 1 INVITE",
+        "SIP-ETag: abc", "SIP-If-Match: abc",
+        "Accept-Encoding: gzip", "Accept-Language: en;q=0.5",
+        "Proxy-Require: foo", "Unsupported: foo",
+        "Error-Info: <sip:x@y.com>", "Allow-Events: presence",
+        "Subscription-State: active;expires=60", "Subscription-State: terminated",
+        "Reply-To: <sip:a@b.com>", "Record-Route: <sip:p1@x.com;lr>",
+        "Contact: <sip:a@b.com>;expires=60", "From: <sip:a@b.com>;tag=1",
+        "Via: SIP/2.0/UDP a.com:5060;branch=z9hG4bK1",
+    };
+
+    private List<GenericObject> parseCorpus() throws Exception {
+        List<GenericObject> corpus = new ArrayList<GenericObject>();
+        for (int i = 0; i < HEADERS.length; i++) {
+            SIPHeader header = StringMsgParser.parseSIPHeader(HEADERS[i] + "\n");
+            corpus.add(header);
+            corpus.add((GenericObject) header.clone());
+            if (header instanceof SIPHeaderList) {
+                for (Iterator<?> it = ((SIPHeaderList<?>) header).iterator(); it.hasNext();) {
+                    GenericObject element = (GenericObject) it.next();
+                    corpus.add(element);
+                    corpus.add((GenericObject) element.clone());
+                }
+            }
+        }
+        StringMsgParser parser = new StringMsgParser();
+        corpus.add(parser.parseUrl("tel:+1-201-555-0123;phone-context=x.com"));
+        corpus.add(parser.parseUrl("tel:+1-201-555-0123;phone-context=x.com"));
+        corpus.add(parser.parseUrl("tel:+1-201-555-0199"));
+        corpus.add(parser.parseUrl("http://x.com/y"));
+        return corpus;
+    }
+
+    private static Class<?> declaringClass(Object o, String name) throws Exception {
+        return o.getClass().getMethod(name, new Class[] { Object.class }).getDeclaringClass();
+    }
+
+    public void testParity() throws Exception {
+        List<GenericObject> corpus = parseCorpus();
+        int equalsChecked = 0;
+        int matchChecked = 0;
+        for (GenericObject a : corpus) {
+            Class<?> equalsImpl = declaringClass(a, "equals");
+            Class<?> matchImpl = declaringClass(a, "match");
+            for (GenericObject b : corpus) {
+                if (a.getClass() != b.getClass()) {
+                    continue;
+                }
+                String pair = a.getClass().getName() + " [" + a.encode() + "] [" + b.encode() + "]";
+                if (equalsImpl == SIPObject.class || equalsImpl == NetObject.class
+                        || equalsImpl == GenericObject.class) {
+                    assertEquals("equals " + pair, reflectiveEquals(a, b, equalsImpl), a.equals(b));
+                    equalsChecked++;
+                }
+                if (matchImpl == SIPObject.class || matchImpl == NetObject.class
+                        || matchImpl == GenericObject.class) {
+                    assertEquals("match " + pair, reflectiveMatch(a, b, matchImpl), a.match(b));
+                    matchChecked++;
+                }
+            }
+        }
+        assertTrue(equalsChecked > 100);
+        assertTrue(matchChecked > 100);
+    }
+
+    public void testCloneIsEqual() throws Exception {
+        for (GenericObject a : parseCorpus()) {
+            GenericObject clone = (GenericObject) a.clone();
+            assertNotSame(a, clone);
+            assertEquals(a.encode(), a, clone);
+            assertTrue(a.encode(), a.match(clone));
+        }
+    }
+
+    /**
+     * The former introspection based equals of the given base class.
+     */
+    private static boolean reflectiveEquals(Object self, Object that, Class<?> base)
+            throws Exception {
+        Class<?> myclass = self.getClass();
+        while (true) {
+            Field[] fields = myclass.getDeclaredFields();
+            for (int i = 0; i < fields.length; i++) {
+                Field f = fields[i];
+                if (!compared(f)) {
+                    continue;
+                }
+                if (f.getType().isPrimitive()) {
+                    if (!primitiveEquals(f, self, that)) {
+                        return false;
+                    }
+                } else if (f.get(that) == f.get(self)) {
+                    if (base == GenericObject.class) {
+                        return true;
+                    }
+                } else if (f.get(self) == null || f.get(that) == null) {
+                    if (base != NetObject.class || f.get(self) == null) {
+                        return false;
+                    }
+                    if (!f.get(self).equals(f.get(that))) {
+                        return false;
+                    }
+                } else if (!f.get(self).equals(f.get(that))) {
+                    return false;
+                }
+            }
+            if (myclass.equals(base)) {
+                break;
+            }
+            myclass = myclass.getSuperclass();
+        }
+        return true;
+    }
+
+    /**
+     * The former introspection based match of the given base class.
+     */
+    private static boolean reflectiveMatch(Object self, Object other, Class<?> base)
+            throws Exception {
+        if (other == null) {
+            return true;
+        }
+        Class<?> myclass = self.getClass();
+        while (true) {
+            Field[] fields = myclass.getDeclaredFields();
+            for (int i = 0; i < fields.length; i++) {
+                Field f = fields[i];
+                if (!compared(f)) {
+                    continue;
+                }
+                if (f.getType().isPrimitive()) {
+                    if (!primitiveEquals(f, self, other)) {
+                        return false;
+                    }
+                    continue;
+                }
+                Object myObj = f.get(self);
+                Object hisObj = f.get(other);
+                if (hisObj != null && myObj == null) {
+                    return false;
+                } else if (hisObj == null) {
+                    continue;
+                } else if (hisObj instanceof String && myObj instanceof String) {
+                    String his = (String) hisObj;
+                    if ((base == NetObject.class ? his : his.trim()).equals("")) {
+                        continue;
+                    }
+                    if (((String) myObj).compareToIgnoreCase(his) != 0) {
+                        return false;
+                    }
+                } else if (base != GenericObject.class
+                        && myObj instanceof GenericObject
+                        && hisObj instanceof GenericObject
+                        && myObj.getClass().equals(hisObj.getClass())
+                        && ((GenericObject) hisObj).getMatcher() != null) {
+                    if (!((GenericObject) hisObj).getMatcher().match(
+                            ((GenericObject) myObj).encode())) {
+                        return false;
+                    }
+                } else if (myObj instanceof GenericObject
+                        && !((GenericObject) myObj).match(hisObj)) {
+                    return false;
+                } else if (myObj instanceof GenericObjectList
+                        && !((GenericObjectList) myObj).match(hisObj)) {
+                    return false;
+                }
+            }
+            if (base == GenericObject.class || myclass.equals(base)) {
+                break;
+            }
+            myclass = myclass.getSuperclass();
+        }
+        return true;
+    }
+
+    private static boolean compared(Field f) {
+        if (Modifier.isPrivate(f.getModifiers())) {
+            return false;
+        }
+        if (f.getName().equals("stringRepresentation") || f.getName().equals("indentation")) {
+            return false;
+        }
+        f.setAccessible(true);
+        return true;
+    }
+
+    private static boolean primitiveEquals(Field f, Object a, Object b) throws Exception {
+        String fname = f.getType().toString();
+        if (fname.equals("int")) {
+            return f.getInt(a) == f.getInt(b);
+        } else if (fname.equals("short")) {
+            return f.getShort(a) == f.getShort(b);
+        } else if (fname.equals("char")) {
+            return f.getChar(a) == f.getChar(b);
+        } else if (fname.equals("long")) {
+            return f.getLong(a) == f.getLong(b);
+        } else if (fname.equals("boolean")) {
+            return f.getBoolean(a) == f.getBoolean(b);
+        } else if (fname.equals("double")) {
+            return f.getDouble(a) == f.getDouble(b);
+        } else if (fname.equals("float")) {
+            return f.getFloat(a) == f.getFloat(b);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,73 @@
+package test.unit.gov.nist.core;
+
+import gov.nist.core.LatencyHistogram;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " got " + actual,
+                Math.abs(actual - expected) <= expected / 32 + 1);
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram(1L << 40);
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(100000, snapshot.getCount());
+        assertEquals(100000, snapshot.getMax());
+        assertEquals(50000.5, snapshot.getMean(), 0.001);
+        assertWithin(50000, snapshot.getValueAtPercentile(50));
+        assertWithin(99000, snapshot.getValueAtPercentile(99));
+        assertWithin(99900, snapshot.getValueAtPercentile(99.9));
+        assertEquals(100000, snapshot.getValueAtPercentile(100));
+        assertEquals(1, snapshot.getValueAtPercentile(0));
+    }
+
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram(1000);
+        histogram.record(3);
+        histogram.record(3);
+        histogram.record(17);
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(3, snapshot.getValueAtPercentile(50));
+        assertEquals(17, snapshot.getValueAtPercentile(90));
+    }
+
+    public void testOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram(1000);
+        histogram.record(-5);
+        histogram.record(1000000);
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(0, new LatencyHistogram(10).getSnapshot().getValueAtPercentile(99));
+    }
+
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram(1L << 20);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int value = i + 1;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record(value);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(80000, snapshot.getCount());
+        assertEquals(4.5, snapshot.getMean(), 0.001);
+        assertEquals(8, snapshot.getMax());
+    }
+}
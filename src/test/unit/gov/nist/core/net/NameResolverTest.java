@@ -0,0 +1,216 @@
+package test.unit.gov.nist.core.net;
+
+import gov.nist.core.net.NameResolutionListener;
+import gov.nist.core.net.NameResolver;
+import gov.nist.core.net.NameSource;
+import gov.nist.javax.sip.SipStackImpl;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sip.ClientTransaction;
+import javax.sip.ListeningPoint;
+import javax.sip.SipFactory;
+import javax.sip.SipProvider;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+
+import junit.framework.TestCase;
+
+public class NameResolverTest extends TestCase {
+
+    private static final int PORT = 5093;
+
+    private static final int PEER_PORT = 5094;
+
+    private SipStackImpl sipStack;
+
+    private NameResolver resolver;
+
+    private ZoneNameSource zone;
+
+    /**
+     * Serves names from a table, optionally holding the lookups until released.
+     */
+    static class ZoneNameSource implements NameSource {
+        final Map<String, InetAddress> names = new HashMap<String, InetAddress>();
+
+        final AtomicInteger lookups = new AtomicInteger();
+
+        volatile CountDownLatch gate;
+
+        public InetAddress[] lookup(String hostName) throws UnknownHostException {
+            lookups.incrementAndGet();
+            CountDownLatch latch = gate;
+            if (latch != null) {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    throw new UnknownHostException(hostName);
+                }
+            }
+            InetAddress address = names.get(hostName.toLowerCase());
+            if (address == null) {
+                throw new UnknownHostException(hostName);
+            }
+            return new InetAddress[] { address };
+        }
+    }
+
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "nameresolver");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        sipStack = (SipStackImpl) SipFactory.getInstance().createSipStack(properties);
+        resolver = sipStack.getNameResolver();
+        zone = new ZoneNameSource();
+        zone.names.put("proxy.example.com", InetAddress.getByName("127.0.0.1"));
+        resolver.setNameSource(zone);
+    }
+
+    public void tearDown() throws Exception {
+        sipStack.stop();
+    }
+
+    public void testCache() throws Exception {
+        assertEquals("127.0.0.1", resolver.resolve("proxy.example.com").getHostAddress());
+        assertEquals("127.0.0.1", resolver.resolve("PROXY.example.com").getHostAddress());
+        assertEquals(1, zone.lookups.get());
+        assertTrue(resolver.isCached("proxy.example.com"));
+    }
+
+    public void testIpAddressIsNotLookedUp() throws Exception {
+        assertEquals("10.0.0.1", resolver.resolve("10.0.0.1").getHostAddress());
+        assertEquals(InetAddress.getByName("::1"), resolver.resolve("[::1]"));
+        assertEquals(0, zone.lookups.get());
+    }
+
+    public void testNegativeCache() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.resolve("unknown.example.com");
+                fail("resolved an unknown name");
+            } catch (UnknownHostException ex) {
+            }
+        }
+        assertEquals(1, zone.lookups.get());
+    }
+
+    public void testExpiry() throws Exception {
+        resolver.setTtl(50);
+        resolver.resolve("proxy.example.com");
+        Thread.sleep(100);
+        assertFalse(resolver.isCached("proxy.example.com"));
+        resolver.resolve("proxy.example.com");
+        assertEquals(2, zone.lookups.get());
+    }
+
+    public void testConcurrentLookupsAreCoalesced() throws Exception {
+        zone.gate = new CountDownLatch(1);
+        final ArrayList<InetAddress> results = new ArrayList<InetAddress>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        InetAddress address = resolver.resolve("proxy.example.com");
+                        synchronized (results) {
+                            results.add(address);
+                        }
+                    } catch (UnknownHostException ex) {
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        Thread.sleep(200);
+        zone.gate.countDown();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join(5000);
+        }
+        assertEquals(threads.length, results.size());
+        assertEquals(1, zone.lookups.get());
+    }
+
+    public void testBackgroundResolution() throws Exception {
+        zone.gate = new CountDownLatch(1);
+        final CountDownLatch resolved = new CountDownLatch(2);
+        final ArrayList<Object> answers = new ArrayList<Object>();
+        NameResolutionListener listener = new NameResolutionListener() {
+            public void nameResolved(String hostName, InetAddress address) {
+                synchronized (answers) {
+                    answers.add(address);
+                }
+                resolved.countDown();
+            }
+
+            public void nameResolutionFailed(String hostName, UnknownHostException ex) {
+                synchronized (answers) {
+                    answers.add(ex);
+                }
+                resolved.countDown();
+            }
+        };
+        // Neither call waits for the blocked name source.
+        resolver.resolve("proxy.example.com", listener);
+        resolver.resolve("proxy.example.com", listener);
+        assertEquals(2, resolved.getCount());
+        zone.gate.countDown();
+        assertTrue(resolved.await(5, TimeUnit.SECONDS));
+        assertEquals(1, zone.lookups.get());
+        assertEquals(InetAddress.getByName("127.0.0.1"), answers.get(0));
+        assertEquals(InetAddress.getByName("127.0.0.1"), answers.get(1));
+    }
+
+    public void testRequestSentToResolvedHost() throws Exception {
+        zone.names.put("peer.example.com", InetAddress.getByName("127.0.0.1"));
+        DatagramSocket peer = new DatagramSocket(PEER_PORT, InetAddress.getByName("127.0.0.1"));
+        try {
+            SipFactory sipFactory = SipFactory.getInstance();
+            AddressFactory addressFactory = sipFactory.createAddressFactory();
+            HeaderFactory headerFactory = sipFactory.createHeaderFactory();
+            MessageFactory messageFactory = sipFactory.createMessageFactory();
+            ListeningPoint lp = sipStack.createListeningPoint("127.0.0.1", PORT, "udp");
+            SipProvider provider = sipStack.createSipProvider(lp);
+
+            SipURI fromUri = addressFactory.createSipURI("alice", "127.0.0.1");
+            FromHeader from = headerFactory.createFromHeader(
+                    addressFactory.createAddress(fromUri), "12345");
+            SipURI toUri = addressFactory.createSipURI("bob", "peer.example.com:" + PEER_PORT);
+            ToHeader to = headerFactory.createToHeader(addressFactory.createAddress(toUri), null);
+            ArrayList<ViaHeader> vias = new ArrayList<ViaHeader>();
+            vias.add(headerFactory.createViaHeader("127.0.0.1", PORT, "udp", null));
+            CSeqHeader cseq = headerFactory.createCSeqHeader(1L, Request.MESSAGE);
+            Request request = messageFactory.createRequest(toUri, Request.MESSAGE,
+                    provider.getNewCallId(), cseq, from, to, vias,
+                    headerFactory.createMaxForwardsHeader(70));
+            ClientTransaction ct = provider.getNewClientTransaction(request);
+            ct.sendRequest();
+
+            peer.setSoTimeout(5000);
+            byte[] buffer = new byte[4096];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            peer.receive(packet);
+            assertTrue(new String(buffer, 0, packet.getLength(), "UTF-8").startsWith("MESSAGE "));
+            assertTrue(resolver.isCached("peer.example.com"));
+        } finally {
+            peer.close();
+        }
+    }
+}
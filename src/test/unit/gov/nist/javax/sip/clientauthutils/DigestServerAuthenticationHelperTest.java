@@ -0,0 +1,296 @@
+package test.unit.gov.nist.javax.sip.clientauthutils;
+
+import gov.nist.javax.sip.clientauthutils.DigestServerAuthenticationHelper;
+import gov.nist.javax.sip.header.HeaderFactoryImpl;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.message.SIPResponse;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.sip.header.ProxyAuthenticateHeader;
+import javax.sip.header.WWWAuthenticateHeader;
+
+import junit.framework.TestCase;
+
+public class DigestServerAuthenticationHelperTest extends TestCase {
+
+    private static final String REALM = "biloxi.example.com";
+
+    private static final String URI = "sip:biloxi.example.com";
+
+    private static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes();
+
+    private static String hex(byte[] bytes) {
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.append(Integer.toHexString((bytes[i] >> 4) & 0xf));
+            buffer.append(Integer.toHexString(bytes[i] & 0xf));
+        }
+        return buffer.toString();
+    }
+
+    private static String h(String algorithm, String data) throws Exception {
+        String name = algorithm.toUpperCase().replace("-SESS", "");
+        if (name.equals("SHA-512-256")) {
+            name = "SHA-512/256";
+        }
+        return hex(MessageDigest.getInstance(name).digest(data.getBytes("UTF-8")));
+    }
+
+    private static String response(String algorithm, String user, String password,
+            String nonce, String nc, String cnonce, String qop) throws Exception {
+        String ha1 = h(algorithm, user + ":" + REALM + ":" + password);
+        if (algorithm.toLowerCase().endsWith("-sess")) {
+            ha1 = h(algorithm, ha1 + ":" + nonce + ":" + cnonce);
+        }
+        String ha2 = h(algorithm, "REGISTER:" + URI);
+        if (qop == null) {
+            return h(algorithm, ha1 + ":" + nonce + ":" + ha2);
+        }
+        return h(algorithm, ha1 + ":" + nonce + ":" + nc + ":" + cnonce + ":" + qop + ":" + ha2);
+    }
+
+    private static SIPRequest register(String header, String algorithm, String user,
+            String password, String nonce, int nc) throws Exception {
+        String count = nc < 0 ? null : String.format("%08x", nc);
+        String qop = nc < 0 ? null : "auth";
+        String cnonce = "0a4f113b";
+        StringBuilder credentials = new StringBuilder();
+        credentials.append("Digest username=\"").append(user).append("\",realm=\"").append(REALM)
+                .append("\",nonce=\"").append(nonce).append("\",uri=\"").append(URI)
+                .append("\",response=\"").append(response(algorithm, user, password, nonce,
+                        count, cnonce, qop)).append("\",algorithm=").append(algorithm);
+        if (qop != null) {
+            credentials.append(",qop=auth,nc=").append(count).append(",cnonce=\"")
+                    .append(cnonce).append("\"");
+        } else if (algorithm.toLowerCase().endsWith("-sess")) {
+            credentials.append(",cnonce=\"").append(cnonce).append("\"");
+        }
+        String text = "REGISTER " + URI + " SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP bobspc.biloxi.example.com:5060;branch=z9hG4bKnashds7\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "To: Bob <sip:" + user + "@biloxi.example.com>\r\n"
+            + "From: Bob <sip:" + user + "@biloxi.example.com>;tag=456248\r\n"
+            + "Call-ID: 843817637684230@998sdasdh09\r\n"
+            + "CSeq: 1826 REGISTER\r\n"
+            + header + ": " + credentials + "\r\n"
+            + "Content-Length: 0\r\n\r\n";
+        return (SIPRequest) new StringMsgParser().parseSIPMessage(text.getBytes("UTF-8"), true,
+                false, null);
+    }
+
+    private static SIPRequest register(String algorithm, String password, String nonce, int nc)
+            throws Exception {
+        return register("Authorization", algorithm, "bob", password, nonce, nc);
+    }
+
+    private static String challenge(DigestServerAuthenticationHelper helper, int statusCode)
+            throws Exception {
+        String text = "SIP/2.0 " + statusCode + " Unauthorized\r\n"
+            + "Via: SIP/2.0/UDP bobspc.biloxi.example.com:5060;branch=z9hG4bKnashds7\r\n"
+            + "To: Bob <sip:bob@biloxi.example.com>;tag=2493k59kd\r\n"
+            + "From: Bob <sip:bob@biloxi.example.com>;tag=456248\r\n"
+            + "Call-ID: 843817637684230@998sdasdh09\r\n"
+            + "CSeq: 1826 REGISTER\r\n"
+            + "Content-Length: 0\r\n\r\n";
+        SIPResponse response = (SIPResponse) new StringMsgParser().parseSIPMessage(
+                text.getBytes("UTF-8"), true, false, null);
+        helper.generateChallenge(new HeaderFactoryImpl(), response, REALM, false);
+        WWWAuthenticateHeader authenticate;
+        if (statusCode == 401) {
+            authenticate = (WWWAuthenticateHeader) response.getHeader(WWWAuthenticateHeader.NAME);
+        } else {
+            authenticate = (WWWAuthenticateHeader) response.getHeader(ProxyAuthenticateHeader.NAME);
+        }
+        assertEquals(REALM, authenticate.getRealm());
+        assertEquals("auth", authenticate.getQop());
+        assertEquals(helper.getAlgorithm(), authenticate.getAlgorithm());
+        return authenticate.getNonce();
+    }
+
+    public void testAuthenticate() throws Exception {
+        DigestServerAuthenticationHelper helper = new DigestServerAuthenticationHelper();
+        String nonce = challenge(helper, 401);
+        assertFalse(nonce.equals(challenge(helper, 401)));
+        assertEquals(DigestServerAuthenticationHelper.AUTHENTICATED,
+                helper.authenticatePlainTextPassword(register("MD5", "zanzibar", nonce, 1),
+                        "zanzibar"));
+        String hashed = helper.hashPassword("bob", REALM, "zanzibar");
+        assertEquals(h("MD5", "bob:" + REALM + ":zanzibar"), hashed);
+        assertEquals(DigestServerAuthenticationHelper.AUTHENTICATED,
+                helper.authenticateHashedPassword(register("MD5", "zanzibar", nonce, 2), hashed));
+        assertEquals(DigestServerAuthenticationHelper.FAILED,
+                helper.authenticatePlainTextPassword(register("MD5", "zanzibar", nonce, 3),
+                        "wrong"));
+        assertEquals(DigestServerAuthenticationHelper.FAILED,
+                helper.authenticatePlainTextPassword(register("SHA-256", "zanzibar", nonce, 4),
+                        "zanzibar"));
+        SIPRequest proxied = register("Proxy-Authorization", "MD5", "bob", "zanzibar",
+                challenge(helper, 407), 1);
+        assertEquals(DigestServerAuthenticationHelper.AUTHENTICATED,
+                helper.authenticatePlainTextPassword(proxied, "zanzibar"));
+        proxied.removeHeader("Proxy-Authorization");
+        assertEquals(DigestServerAuthenticationHelper.NO_CREDENTIALS,
+                helper.authenticatePlainTextPassword(proxied, "zanzibar"));
+    }
+
+    public void testAlgorithms() throws Exception {
+        String[] algorithms = { "SHA-256", "SHA-512-256", "MD5-sess", "SHA-256-sess" };
+        for (int i = 0; i < algorithms.length; i++) {
+            DigestServerAuthenticationHelper helper = new DigestServerAuthenticationHelper(
+                    algorithms[i]);
+            String nonce = challenge(helper, 401);
+            assertEquals(algorithms[i], DigestServerAuthenticationHelper.AUTHENTICATED,
+                    helper.authenticatePlainTextPassword(register(algorithms[i], "zanzibar",
+                            nonce, 1), "zanzibar"));
+            assertEquals(algorithms[i], DigestServerAuthenticationHelper.AUTHENTICATED,
+                    helper.authenticateHashedPassword(register(algorithms[i], "zanzibar",
+                            nonce, 2), helper.hashPassword("bob", REALM, "zanzibar")));
+            assertEquals(algorithms[i], DigestServerAuthenticationHelper.FAILED,
+                    helper.authenticatePlainTextPassword(register(algorithms[i], "zanzibar",
+                            nonce, 3), "wrong"));
+        }
+        try {
+            new DigestServerAuthenticationHelper("SHA-1");
+            fail("SHA-1 is not a digest algorithm");
+        } catch (java.security.NoSuchAlgorithmException ex) {
+        }
+    }
+
+    public void testNonceSignature() throws Exception {
+        DigestServerAuthenticationHelper helper = new DigestServerAuthenticationHelper("MD5",
+                SECRET, 60, 1000);
+        DigestServerAuthenticationHelper peer = new DigestServerAuthenticationHelper("MD5",
+                SECRET, 60, 1000);
+        DigestServerAuthenticationHelper other = new DigestServerAuthenticationHelper();
+        String nonce = challenge(helper, 401);
+        assertEquals(DigestServerAuthenticationHelper.AUTHENTICATED,
+                peer.authenticatePlainTextPassword(register("MD5", "zanzibar", nonce, 1),
+                        "zanzibar"));
+        assertEquals(DigestServerAuthenticationHelper.FAILED,
+                other.authenticatePlainTextPassword(register("MD5", "zanzibar", nonce, 1),
+                        "zanzibar"));
+        char last = nonce.charAt(nonce.length() - 1);
+        String forged = nonce.substring(0, nonce.length() - 1) + (last == '0' ? '1' : '0');
+        assertEquals(DigestServerAuthenticationHelper.FAILED,
+                helper.authenticatePlainTextPassword(register("MD5", "zanzibar", forged, 1),
+                        "zanzibar"));
+        assertEquals(DigestServerAuthenticationHelper.FAILED,
+                helper.authenticatePlainTextPassword(register("MD5", "zanzibar", "abc", 1),
+                        "zanzibar"));
+    }
+
+    public void testReplay() throws Exception {
+        DigestServerAuthenticationHelper helper = new DigestServerAuthenticationHelper();
+        String nonce = challenge(helper, 401);
+        int[] counts = { 5, 1, 3, 40, 9, 10 };
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals(DigestServerAuthenticationHelper.AUTHENTICATED,
+                    helper.authenticatePlainTextPassword(register("MD5", "zanzibar", nonce,
+                            counts[i]), "zanzibar"));
+        }
+        // Seen before, or too old to tell.
+        int[] replays = { 40, 9, 5, 1 };
+        for (int i = 0; i < replays.length; i++) {
+            assertEquals(DigestServerAuthenticationHelper.FAILED,
+                    helper.authenticatePlainTextPassword(register("MD5", "zanzibar", nonce,
+                            replays[i]), "zanzibar"));
+        }
+        assertEquals(DigestServerAuthenticationHelper.FAILED,
+                helper.authenticatePlainTextPassword(register("MD5", "zanzibar", nonce, 0),
+                        "zanzibar"));
+    }
+
+    public void testReplayWithoutQop() throws Exception {
+        DigestServerAuthenticationHelper helper = new DigestServerAuthenticationHelper();
+        String nonce = challenge(helper, 401);
+        assertEquals(DigestServerAuthenticationHelper.AUTHENTICATED,
+                helper.authenticatePlainTextPassword(register("MD5", "zanzibar", nonce, -1),
+                        "zanzibar"));
+        assertEquals(DigestServerAuthenticationHelper.FAILED,
+                helper.authenticatePlainTextPassword(register("MD5", "zanzibar", nonce, -1),
+                        "zanzibar"));
+    }
+
+    public void testStaleNonce() throws Exception {
+        DigestServerAuthenticationHelper helper = new DigestServerAuthenticationHelper("MD5",
+                SECRET, 1, 1000);
+        String nonce = challenge(helper, 401);
+        Thread.sleep(1100);
+        assertEquals(DigestServerAuthenticationHelper.STALE_NONCE,
+                helper.authenticatePlainTextPassword(register("MD5", "zanzibar", nonce, 1),
+                        "zanzibar"));
+        assertEquals(DigestServerAuthenticationHelper.FAILED,
+                helper.authenticatePlainTextPassword(register("MD5", "zanzibar", nonce, 1),
+                        "wrong"));
+    }
+
+    public void testEviction() throws Exception {
+        DigestServerAuthenticationHelper helper = new DigestServerAuthenticationHelper("MD5",
+                SECRET, 60, 4);
+        String[] nonces = new String[8];
+        for (int i = 0; i < nonces.length; i++) {
+            nonces[i] = challenge(helper, 401);
+            Thread.sleep(2);
+        }
+        for (int i = 0; i < nonces.length; i++) {
+            helper.authenticatePlainTextPassword(register("MD5", "zanzibar", nonces[i], 1),
+                    "zanzibar");
+        }
+        // The oldest nonces lost their counts and must not be replayable.
+        assertEquals(DigestServerAuthenticationHelper.STALE_NONCE,
+                helper.authenticatePlainTextPassword(register("MD5", "zanzibar", nonces[0], 1),
+                        "zanzibar"));
+        assertEquals(DigestServerAuthenticationHelper.FAILED,
+                helper.authenticatePlainTextPassword(register("MD5", "zanzibar", nonces[7], 1),
+                        "zanzibar"));
+        assertEquals(DigestServerAuthenticationHelper.AUTHENTICATED,
+                helper.authenticatePlainTextPassword(register("MD5", "zanzibar", nonces[7], 2),
+                        "zanzibar"));
+    }
+
+    public void testBurst() throws Exception {
+        DigestServerAuthenticationHelper helper = new DigestServerAuthenticationHelper(
+                "SHA-256");
+        int count = 2000;
+        SIPRequest[] requests = new SIPRequest[count];
+        String[] passwords = new String[count];
+        for (int i = 0; i < count; i++) {
+            String user = "user" + i;
+            requests[i] = register("Authorization", "SHA-256", user, "secret" + i,
+                    challenge(helper, 401), 1);
+            passwords[i] = helper.hashPassword(user, REALM, i == 7 ? "wrong" : "secret" + i);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            int[] results = helper.authenticateHashedPasswords(requests, passwords, executor);
+            for (int i = 0; i < count; i++) {
+                assertEquals(i == 7 ? DigestServerAuthenticationHelper.FAILED
+                        : DigestServerAuthenticationHelper.AUTHENTICATED, results[i]);
+            }
+            results = helper.authenticateHashedPasswords(requests, passwords, executor);
+            for (int i = 0; i < count; i++) {
+                assertEquals(DigestServerAuthenticationHelper.FAILED, results[i]);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testLegacyMethods() throws Exception {
+        DigestServerAuthenticationHelper helper = new DigestServerAuthenticationHelper();
+        String nonce = "dcd98b7102dd2f0e8b11d0f600bfb0c093";
+        SIPRequest request = register("Proxy-Authorization", "MD5", "bob", "zanzibar", nonce,
+                -1);
+        assertTrue(new DigestServerAuthenticationHelper().doAuthenticatePlainTextPassword(
+                request, "zanzibar"));
+        assertTrue(helper.doAuthenticateHashedPassword(request, h("MD5", "bob:" + REALM
+                + ":zanzibar")));
+        assertFalse(helper.doAuthenticatePlainTextPassword(request, "wrong"));
+        request = register("Proxy-Authorization", "MD5", "bob", "zanzibar", nonce, 1);
+        assertTrue(helper.doAuthenticatePlainTextPassword(request, "zanzibar"));
+    }
+}
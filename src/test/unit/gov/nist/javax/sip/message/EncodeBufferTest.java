@@ -0,0 +1,89 @@
+package test.unit.gov.nist.javax.sip.message;
+
+import gov.nist.javax.sip.message.EncodeBuffer;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class EncodeBufferTest extends TestCase {
+
+    private static final String INVITE =
+        "INVITE sip:bob@biloxi.example.com SIP/2.0\r\n"
+        + "Via: SIP/2.0/UDP pc33.atlanta.example.com;branch=z9hG4bK776asdhds\r\n"
+        + "Max-Forwards: 70\r\n"
+        + "To: Bob <sip:bob@biloxi.example.com>\r\n"
+        + "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+        + "Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n"
+        + "CSeq: 314159 INVITE\r\n"
+        + "Contact: <sip:alice@pc33.atlanta.example.com>\r\n"
+        + "Content-Type: application/sdp\r\n"
+        + "Content-Length: 4\r\n\r\n"
+        + "v=0\n";
+
+    private static final String OK =
+        "SIP/2.0 200 OK\r\n"
+        + "Via: SIP/2.0/UDP pc33.atlanta.example.com;branch=z9hG4bK776asdhds\r\n"
+        + "To: Bob <sip:bob@biloxi.example.com>;tag=a6c85cf\r\n"
+        + "From: \"\u0442\u0435\u043b\u0435 C\u043d\u043e\u043c\" <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+        + "Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n"
+        + "CSeq: 314159 INVITE\r\n"
+        + "Content-Length: 0\r\n\r\n";
+
+    private SIPMessage parse(String text) throws Exception {
+        return new StringMsgParser().parseSIPMessage(text.getBytes("UTF-8"), true, false, null);
+    }
+
+    public void testRequestMatchesEncode() throws Exception {
+        SIPMessage request = parse(INVITE);
+        byte[] bytes = request.encodeAsBytes("UDP");
+        assertTrue(Arrays.equals(request.encode().getBytes("UTF-8"), bytes));
+    }
+
+    public void testNonAsciiResponseMatchesEncode() throws Exception {
+        SIPMessage response = parse(OK);
+        byte[] bytes = response.encodeAsBytes("TCP");
+        assertTrue(Arrays.equals(response.encode().getBytes("UTF-8"), bytes));
+        assertEquals(response.encode(), parse(new String(bytes, "UTF-8")).encode());
+    }
+
+    public void testNullRequest() throws Exception {
+        SIPRequest keepalive = new SIPRequest();
+        keepalive.setNullRequest();
+        assertEquals("\r\n\r\n", new String(keepalive.encodeAsBytes("UDP"), "UTF-8"));
+    }
+
+    public void testBufferReuse() throws Exception {
+        SIPMessage request = parse(INVITE);
+        EncodeBuffer buffer = EncodeBuffer.acquire();
+        try {
+            request.encodeAsBytes("UDP", buffer);
+            // A nested acquire must not hand out the buffer that is in use.
+            EncodeBuffer nested = EncodeBuffer.acquire();
+            assertNotSame(buffer, nested);
+            nested.release();
+            assertEquals(request.encode(), new String(buffer.getBytes(), 0, buffer.getLength(), "UTF-8"));
+        } finally {
+            buffer.release();
+        }
+        EncodeBuffer again = EncodeBuffer.acquire();
+        assertSame(buffer, again);
+        assertEquals(0, again.getLength());
+        again.release();
+    }
+
+    public void testCharset() throws Exception {
+        EncodeBuffer buffer = EncodeBuffer.acquire();
+        try {
+            buffer.appendText("ab\u00e9", "ISO-8859-1");
+            buffer.appendText("c\u00e9", "UTF-8");
+            assertTrue(Arrays.equals(new byte[] { 'a', 'b', (byte) 0xe9, 'c', (byte) 0xc3, (byte) 0xa9 },
+                    buffer.toByteArray()));
+        } finally {
+            buffer.release();
+        }
+    }
+}
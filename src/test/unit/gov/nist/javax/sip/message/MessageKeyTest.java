@@ -0,0 +1,110 @@
+package test.unit.gov.nist.javax.sip.message;
+
+import gov.nist.javax.sip.Utils;
+import gov.nist.javax.sip.message.MessageKey;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.message.SIPResponse;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import junit.framework.TestCase;
+
+public class MessageKeyTest extends TestCase {
+
+    private static final String INVITE =
+        "INVITE sip:bob@biloxi.example.com SIP/2.0\r\n"
+        + "Via: SIP/2.0/UDP pc33.atlanta.example.com;branch=z9hG4bK776asdhds\r\n"
+        + "Max-Forwards: 70\r\n"
+        + "To: Bob <sip:bob@biloxi.example.com>\r\n"
+        + "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+        + "Call-ID: A84b4c76e66710@pc33.atlanta.example.com\r\n"
+        + "CSeq: 314159 INVITE\r\n"
+        + "Content-Length: 0\r\n\r\n";
+
+    private static final String CANCEL =
+        "CANCEL sip:bob@biloxi.example.com SIP/2.0\r\n"
+        + "Via: SIP/2.0/UDP pc33.atlanta.example.com;branch=Z9HG4BK776ASDHDS\r\n"
+        + "Max-Forwards: 70\r\n"
+        + "To: Bob <sip:bob@biloxi.example.com>\r\n"
+        + "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+        + "Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n"
+        + "CSeq: 314159 CANCEL\r\n"
+        + "Content-Length: 0\r\n\r\n";
+
+    private static final String OK =
+        "SIP/2.0 200 OK\r\n"
+        + "Via: SIP/2.0/UDP pc33.atlanta.example.com;branch=z9hG4bK776ASDHDS\r\n"
+        + "To: Bob <sip:bob@biloxi.example.com>;tag=A6C85CF\r\n"
+        + "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+        + "Call-ID: a84b4c76e66710@PC33.atlanta.example.com\r\n"
+        + "CSeq: 314159 INVITE\r\n"
+        + "Content-Length: 0\r\n\r\n";
+
+    private static final String RFC2543_INVITE =
+        "INVITE sip:bob@biloxi.example.com SIP/2.0\r\n"
+        + "Via: SIP/2.0/UDP pc33.atlanta.example.com\r\n"
+        + "To: Bob <sip:bob@biloxi.example.com>\r\n"
+        + "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+        + "Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n"
+        + "CSeq: 314159 INVITE\r\n"
+        + "Content-Length: 0\r\n\r\n";
+
+    private SIPMessage parse(String text) throws Exception {
+        return new StringMsgParser().parseSIPMessage(text.getBytes("UTF-8"), true, false, null);
+    }
+
+    public void testValueOf() {
+        MessageKey key = MessageKey.valueOf("Z9hG4bK-Abc:Cancel");
+        assertEquals(MessageKey.valueOf("z9hg4bk-abc:cancel"), key);
+        assertEquals(MessageKey.valueOf("z9hg4bk-abc:cancel").hashCode(), key.hashCode());
+        assertEquals("z9hg4bk-abc:cancel", key.toString());
+        assertTrue(key.startsWithIgnoreCase("z9hG4bK"));
+        assertFalse(key.equals(MessageKey.valueOf("z9hg4bk-abd:cancel")));
+        assertFalse(MessageKey.valueOf("x").startsWithIgnoreCase("xy"));
+        assertNull(MessageKey.valueOf(null));
+        assertEquals("caf\u00e9", MessageKey.valueOf("CAF\u00c9").toString());
+    }
+
+    public void testTransactionKeys() throws Exception {
+        SIPRequest invite = (SIPRequest) parse(INVITE);
+        SIPResponse ok = (SIPResponse) parse(OK);
+        SIPRequest cancel = (SIPRequest) parse(CANCEL);
+        assertEquals(invite.getTransactionKey(), ok.getTransactionKey());
+        assertEquals(invite.getTransactionId(), invite.getTransactionKey().toString());
+        assertEquals("z9hg4bk776asdhds", invite.getTransactionId());
+        assertFalse(invite.getTransactionKey().equals(cancel.getTransactionKey()));
+        assertEquals("z9hg4bk776asdhds:cancel", cancel.getTransactionId());
+        assertSame(invite.getTransactionKey(), invite.getTransactionKey());
+
+        invite.getTopmostVia().setBranch("z9hG4bKother");
+        assertEquals(MessageKey.valueOf("z9hg4bkother"), invite.getTransactionKey());
+
+        SIPRequest old = (SIPRequest) parse(RFC2543_INVITE);
+        assertEquals(MessageKey.valueOf(old.getTransactionId()), old.getTransactionKey());
+        assertEquals("1928301774-a84b4c76e66710-pc33.atlanta.example.com-314159-invite"
+                + "-pc33.atlanta.example.com-5060" + Utils.getSignature(), old.getTransactionId());
+        assertSame(old.getTransactionKey(), old.getTransactionKey());
+
+        old.getCSeq().setSeqNumber(314160);
+        old.getTopmostVia().setPort(5070);
+        assertEquals("1928301774-a84b4c76e66710-pc33.atlanta.example.com-314160-invite"
+                + "-pc33.atlanta.example.com-5070" + Utils.getSignature(), old.getTransactionId());
+    }
+
+    public void testDialogKeys() throws Exception {
+        SIPRequest invite = (SIPRequest) parse(INVITE);
+        SIPResponse ok = (SIPResponse) parse(OK);
+        assertEquals("a84b4c76e66710@pc33.atlanta.example.com:1928301774:a6c85cf",
+                ok.getDialogId(false));
+        assertEquals("a84b4c76e66710@pc33.atlanta.example.com:a6c85cf:1928301774",
+                ok.getDialogId(true));
+        assertEquals(MessageKey.valueOf(ok.getDialogId(true)), ok.getDialogKey(true));
+        assertSame(ok.getDialogKey(false), ok.getDialogKey(false));
+
+        assertEquals("a84b4c76e66710@pc33.atlanta.example.com:1928301774",
+                invite.getDialogId(false));
+        invite.getTo().setTag("a6c85cf");
+        assertEquals(ok.getDialogKey(false), invite.getDialogKey(false));
+        assertEquals(ok.getDialogKey(true), invite.getDialogKey(true));
+    }
+}
@@ -0,0 +1,130 @@
+package test.unit.gov.nist.javax.sip.message;
+
+import gov.nist.javax.sip.header.Subject;
+import gov.nist.javax.sip.header.Via;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.message.SIPResponse;
+import gov.nist.javax.sip.parser.ByteMsgParser;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+
+import javax.sip.header.Header;
+
+import junit.framework.TestCase;
+
+public class SelfRoutingCopyTest extends TestCase {
+
+    private static final String INVITE =
+        "INVITE sip:bob@biloxi.example.com SIP/2.0\r\n"
+        + "Via: SIP/2.0/UDP pc33.atlanta.example.com;branch=z9hG4bK776asdhds\r\n"
+        + "Via: SIP/2.0/UDP bigbox3.site3.atlanta.example.com;branch=z9hG4bK77ef4c2312983.1\r\n"
+        + "Max-Forwards: 70\r\n"
+        + "To: Bob <sip:bob@biloxi.example.com>\r\n"
+        + "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+        + "Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n"
+        + "CSeq: 314159 INVITE\r\n"
+        + "Contact: <sip:alice@pc33.atlanta.example.com>\r\n"
+        + "Subject: lunch\r\n"
+        + "User-Agent: softphone/1.0\r\n"
+        + "Supported: 100rel, timer\r\n"
+        + "Allow: INVITE, ACK, CANCEL, BYE\r\n"
+        + "P-Asserted-Identity: <sip:alice@atlanta.example.com>\r\n"
+        + "X-Custom: one\r\n"
+        + "X-Custom: two\r\n"
+        + "Content-Type: application/sdp\r\n"
+        + "Content-Length: 4\r\n\r\n"
+        + "v=0\n";
+
+    private static final String OK =
+        "SIP/2.0 200 OK\r\n"
+        + "Via: SIP/2.0/UDP pc33.atlanta.example.com;branch=z9hG4bK776asdhds\r\n"
+        + "To: Bob <sip:bob@biloxi.example.com>;tag=a6c85cf\r\n"
+        + "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+        + "Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n"
+        + "CSeq: 314159 INVITE\r\n"
+        + "Server: proxy/2.0\r\n"
+        + "Content-Length: 0\r\n\r\n";
+
+    private SIPMessage parse(String text) throws Exception {
+        return new StringMsgParser().parseSIPMessage(text.getBytes("UTF-8"), true, false, null);
+    }
+
+    private List<String> headers(SIPMessage message, String name) {
+        List<String> values = new ArrayList<String>();
+        for (ListIterator< ? > it = message.getHeaders(name); it.hasNext();) {
+            values.add(((Header) it.next()).toString());
+        }
+        return values;
+    }
+
+    private void assertSameHeaders(SIPMessage expected, SIPMessage actual) {
+        for (Iterator<String> names = expected.getHeaderNames(); names.hasNext();) {
+            String name = names.next();
+            assertEquals(name, headers(expected, name), headers(actual, name));
+        }
+        assertEquals(expected.encode().length(), actual.encode().length());
+    }
+
+    public void testRequestCopy() throws Exception {
+        SIPRequest invite = (SIPRequest) parse(INVITE);
+        SIPRequest copy = (SIPRequest) invite.copyForSelfRouting();
+        assertEquals(invite.getRequestLine().encode(), copy.getRequestLine().encode());
+        assertNotSame(invite.getRequestLine(), copy.getRequestLine());
+        assertEquals("v=0\n", new String(copy.getRawContent(), "UTF-8"));
+        assertSameHeaders(invite, copy);
+        assertEquals(invite.getTransactionId(), copy.getTransactionId());
+        assertEquals(invite.getDialogId(true), copy.getDialogId(true));
+    }
+
+    public void testResponseCopy() throws Exception {
+        SIPResponse ok = (SIPResponse) parse(OK);
+        SIPResponse copy = (SIPResponse) ok.copyForSelfRouting();
+        assertEquals(200, copy.getStatusCode());
+        assertNotSame(ok.getStatusLine(), copy.getStatusLine());
+        assertSameHeaders(ok, copy);
+    }
+
+    public void testCopiesAreIsolated() throws Exception {
+        SIPRequest invite = (SIPRequest) parse(INVITE);
+        SIPRequest copy = (SIPRequest) invite.copyForSelfRouting();
+
+        // changes on the receiving side
+        ((Via) copy.getTopmostVia()).setParameter("received", "10.0.0.1");
+        ((Subject) copy.getHeader("Subject")).setSubject("dinner");
+        copy.getRequestLine().setMethod("OPTIONS");
+        // changes on the sending side after the hand off
+        invite.addHeader("X-Custom: three");
+        invite.getHeader("User-Agent");
+        invite.removeHeader("User-Agent");
+        invite.addHeader("User-Agent: softphone/2.0");
+
+        assertNull(invite.getTopmostVia().getParameter("received"));
+        assertEquals("lunch", ((Subject) invite.getHeader("Subject")).getSubject());
+        assertEquals("INVITE", invite.getRequestLine().getMethod());
+        assertEquals(3, headers(invite, "X-Custom").size());
+        assertEquals(2, headers(copy, "X-Custom").size());
+        assertTrue(headers(copy, "User-Agent").get(0).indexOf("softphone/1.0") > 0);
+    }
+
+    public void testCopyLeavesLazyHeadersOfOriginal() throws Exception {
+        SIPRequest invite = (SIPRequest) new ByteMsgParser().parseSIPMessage(
+                INVITE.getBytes("UTF-8"), true, false, null);
+        // Parse one lazy header so that the copy gets it as a parsed header.
+        assertEquals("lunch", ((Subject) invite.getHeader("Subject")).getSubject());
+        // Encoding the body parses the lazy Content-Type, do it before taking
+        // the reference encoding.
+        invite.encode();
+        String encoded = invite.encode();
+        SIPRequest copy = (SIPRequest) invite.copyForSelfRouting();
+        assertEquals(encoded, invite.encode());
+        assertEquals(encoded.length(), copy.encode().length());
+        assertEquals(1, headers(copy, "Subject").size());
+        assertEquals(1, headers(invite, "User-Agent").size());
+        assertEquals(1, headers(copy, "User-Agent").size());
+    }
+}
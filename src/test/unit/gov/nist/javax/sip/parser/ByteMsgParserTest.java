@@ -0,0 +1,198 @@
+package test.unit.gov.nist.javax.sip.parser;
+
+import gov.nist.javax.sip.header.Allow;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.message.SIPResponse;
+import gov.nist.javax.sip.parser.ByteMsgParser;
+import gov.nist.javax.sip.parser.ParseExceptionListener;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.ListIterator;
+
+import javax.sip.header.ContactHeader;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the byte level parser builds the same messages as the
+ * StringMsgParser.
+ */
+public class ByteMsgParserTest extends TestCase {
+
+    private static final String BODY = "v=0\r\n"
+            + "o=alice 2890844526 2890844526 IN IP4 10.0.0.1\r\n"
+            + "s=-\r\n"
+            + "c=IN IP4 10.0.0.1\r\n"
+            + "t=0 0\r\n";
+
+    private static final String INVITE = "INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK776asdhds\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "To: Bob <sip:bob@biloxi.com>\r\n"
+            + "From: Alice <sip:alice@atlanta.com>;tag=1928301774\r\n"
+            + "Call-ID: a84b4c76e66710@pc33.atlanta.com\r\n"
+            + "CSeq: 314159 INVITE\r\n"
+            + "Contact: <sip:alice@pc33.atlanta.com>\r\n"
+            + "Subject: lunch\r\n"
+            + "Content-Type: application/sdp\r\n"
+            + "Content-Length: " + BODY.length() + "\r\n"
+            + "\r\n" + BODY;
+
+    private static final String COMPACT = "SIP/2.0 200 OK\r\n"
+            + "v: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK776asdhds\r\n"
+            + "t: Bob <sip:bob@biloxi.com>;tag=a6c85cf\r\n"
+            + "f: Alice <sip:alice@atlanta.com>;tag=1928301774\r\n"
+            + "i: a84b4c76e66710@pc33.atlanta.com\r\n"
+            + "CSEQ:   314159   invite  \r\n"
+            + "l: 0\r\n"
+            + "\r\n";
+
+    private static final String FOLDED = "OPTIONS sip:carol@chicago.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bKhjhs8ass877\r\n"
+            + "To: <sip:carol@chicago.com>\r\n"
+            + "From: \"Jörg\" <sip:alice@atlanta.com>;tag=1928301774\r\n"
+            + "Call-ID: a84b4c76e66710\r\n"
+            + "CSeq: 63104 FOOBAR\r\n"
+            + "Subject: lunch\r\n"
+            + "   at noon\r\n"
+            + "Max-Forwards: 300\r\n"
+            + "Content-Length: 0\r\n"
+            + "\r\n";
+
+    private static final String PASS_THROUGH = "INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK776asdhds\r\n"
+            + "To: Bob <sip:bob@biloxi.com>\r\n"
+            + "From: Alice <sip:alice@atlanta.com>;tag=1928301774\r\n"
+            + "Call-ID: a84b4c76e66710@pc33.atlanta.com\r\n"
+            + "CSeq: 314159 INVITE\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "Allow:INVITE,ACK ,  BYE\r\n"
+            + "Contact: <sip:alice@pc33.atlanta.com>\r\n"
+            + "Contact: <sip:alice@10.0.0.1>;q=0.5\r\n"
+            + "User-Agent:   Example  UA/1.0\r\n"
+            + "Timestamp: 54\r\n"
+            + "Expires: never\r\n"
+            + "Content-Length: 0\r\n"
+            + "\r\n";
+
+    private void assertSameMessage(String text) throws Exception {
+        byte[] bytes = text.getBytes("UTF-8");
+        SIPMessage expected = new StringMsgParser().parseSIPMessage(bytes,
+                true, false, null);
+        SIPMessage actual = new ByteMsgParser().parseSIPMessage(bytes, true,
+                false, null);
+        assertEquals(expected.encode(), actual.encode());
+        assertEquals(expected, actual);
+        assertEquals(expected.getSize(), actual.getSize());
+    }
+
+    public void testSameAsStringParser() throws Exception {
+        assertSameMessage(INVITE);
+        assertSameMessage(COMPACT);
+    }
+
+    public void testFoldedAndFallbackHeaders() throws Exception {
+        SIPMessage message = new ByteMsgParser().parseSIPMessage(
+                FOLDED.getBytes("UTF-8"), true, false, null);
+        assertEquals("lunch at noon", message.getHeader("Subject").toString()
+                .substring("Subject: ".length()).trim());
+        assertEquals("FOOBAR", message.getCSeq().getMethod());
+        assertEquals(63104, message.getCSeq().getSeqNumber());
+        assertEquals("Jörg", message.getFrom().getAddress()
+                .getDisplayName());
+        // Out of range, left to the header parser which drops it.
+        assertNull(message.getHeader("Max-Forwards"));
+    }
+
+    public void testParseFromOffset() throws Exception {
+        byte[] bytes = INVITE.getBytes("UTF-8");
+        byte[] buffer = new byte[bytes.length + 20];
+        System.arraycopy(bytes, 0, buffer, 10, bytes.length);
+        SIPMessage message = new ByteMsgParser().parseSIPMessage(buffer, 10,
+                bytes.length, true, false, null);
+        assertTrue(message instanceof SIPRequest);
+        assertEquals(BODY, new String(message.getRawContent(), "UTF-8"));
+        assertEquals(new StringMsgParser().parseSIPMessage(bytes, true,
+                false, null).encode(), message.encode());
+    }
+
+    public void testBadHeaderReported() throws Exception {
+        String text = INVITE.replace("Max-Forwards: 70", "Max-Forwards: abc");
+        final ArrayList<String> reported = new ArrayList<String>();
+        SIPMessage message = new ByteMsgParser().parseSIPMessage(
+                text.getBytes("UTF-8"), true, false,
+                new ParseExceptionListener() {
+                    public void handleException(ParseException ex,
+                            SIPMessage sipMessage, Class headerClass,
+                            String headerText, String messageText) {
+                        reported.add(headerText);
+                    }
+                });
+        assertEquals(1, reported.size());
+        assertEquals("Max-Forwards: abc", reported.get(0));
+        assertNull(message.getHeader("Max-Forwards"));
+    }
+
+    public void testJunkAtEndOfMessage() throws Exception {
+        String text = COMPACT.substring(0, COMPACT.length() - 2) + " \r\n";
+        try {
+            new ByteMsgParser().parseSIPMessage(text.getBytes("UTF-8"), true,
+                    true, null);
+            fail("Should throw a ParseException");
+        } catch (ParseException ex) {
+            // expected
+        }
+    }
+
+    public void testOnlyControlCharacters() throws Exception {
+        assertNull(new ByteMsgParser().parseSIPMessage("\r\n\r\n".getBytes(),
+                true, false, null));
+    }
+
+    public void testUntouchedHeadersPassedThrough() throws Exception {
+        SIPMessage message = new ByteMsgParser().parseSIPMessage(
+                PASS_THROUGH.getBytes("UTF-8"), true, false, null);
+        String encoded = new String(message.encodeAsBytes("UDP"), "UTF-8");
+        assertTrue(encoded.indexOf("Allow:INVITE,ACK ,  BYE\r\n") > 0);
+        assertTrue(encoded.indexOf("User-Agent:   Example  UA/1.0\r\n") > 0);
+        assertTrue(encoded.indexOf("Expires: never\r\n") > 0);
+        assertTrue(message.hasHeader("Allow"));
+        assertFalse(message.hasHeader("Subject"));
+
+        // Once asked for, a header is parsed and encoded canonically.
+        assertEquals("INVITE", ((Allow) message.getHeader("Allow")).getMethod());
+        encoded = message.encode();
+        assertTrue(encoded.indexOf("Allow:INVITE,ACK ,  BYE") < 0);
+        assertTrue(encoded.indexOf("Allow: INVITE,ACK,BYE\r\n") > 0);
+        assertTrue(encoded.indexOf("User-Agent:   Example  UA/1.0\r\n") > 0);
+    }
+
+    public void testLazyHeaderAccess() throws Exception {
+        SIPRequest request = (SIPRequest) new ByteMsgParser().parseSIPMessage(
+                PASS_THROUGH.getBytes("UTF-8"), true, false, null);
+        SIPRequest copy = (SIPRequest) request.clone();
+
+        int contacts = 0;
+        for (ListIterator<?> it = request.getHeaders(ContactHeader.NAME); it.hasNext(); it.next())
+            contacts++;
+        assertEquals(2, contacts);
+
+        // The malformed Expires is kept as an unrecognized header.
+        assertNull(request.getHeader("Expires"));
+        assertTrue(request.encode().indexOf("Expires: never\r\n") > 0);
+
+        request.removeHeader("User-Agent");
+        assertNull(request.getHeader("User-Agent"));
+        assertNotNull(copy.getHeader("User-Agent"));
+
+        SIPResponse response = copy.createResponse(200);
+        assertNotNull(response.getHeader("Timestamp"));
+
+        SIPMessage eager = new ByteMsgParser(false).parseSIPMessage(
+                PASS_THROUGH.getBytes("UTF-8"), true, false, null);
+        assertEquals(eager, copy);
+    }
+}
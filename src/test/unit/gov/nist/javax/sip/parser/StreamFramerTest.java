@@ -0,0 +1,156 @@
+package test.unit.gov.nist.javax.sip.parser;
+
+import gov.nist.javax.sip.parser.StreamFramer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class StreamFramerTest extends TestCase {
+
+    private static final String MESSAGE = "MESSAGE sip:bob@biloxi.example.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/TCP client.atlanta.example.com:5060;branch=z9hG4bK74bf9\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "From: Alice <sip:alice@atlanta.example.com>;tag=9fxced76sl\r\n"
+            + "To: Bob <sip:bob@biloxi.example.com>\r\n"
+            + "Call-ID: 3848276298220188511@atlanta.example.com\r\n"
+            + "CSeq: 1 MESSAGE\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "Content-Length: 12\r\n\r\n"
+            + "Hello\r\nworld";
+
+    private static final String COMPACT = "SIP/2.0 200 OK\r\n"
+            + "v: SIP/2.0/TCP client.atlanta.example.com:5060;branch=z9hG4bK74bf9\r\n"
+            + "f: <sip:alice@atlanta.example.com>;tag=9fxced76sl\r\n"
+            + "t: <sip:bob@biloxi.example.com>;tag=314159\r\n"
+            + "i: 3848276298220188511@atlanta.example.com\r\n"
+            + "CSeq: 1 MESSAGE\r\n"
+            + "l :\r\n  3\r\n\r\n"
+            + "abc";
+
+    private static final String NO_BODY = "OPTIONS sip:carol@chicago.example.com SIP/2.0\n"
+            + "Via: SIP/2.0/TCP pc33.atlanta.example.com;branch=z9hG4bKhjhs8ass877\n"
+            + "Call-ID: a84b4c76e66710\n"
+            + "CSeq: 63104 OPTIONS\n\n";
+
+    private static class Frames implements StreamFramer.Listener {
+
+        List<String> messages = new ArrayList<String>();
+
+        List<String> bodies = new ArrayList<String>();
+
+        String oversized;
+
+        public void processFrame(byte[] buffer, int offset, int headerLength,
+                int contentLength) throws IOException {
+            messages.add(new String(buffer, offset, headerLength + contentLength, "UTF-8"));
+            bodies.add(new String(buffer, offset + headerLength, contentLength, "UTF-8"));
+        }
+
+        public void processOversizedFrame(byte[] buffer, int offset,
+                int headerLength, int contentLength) throws IOException {
+            oversized = new String(buffer, offset, headerLength, "UTF-8");
+        }
+    }
+
+    private static byte[] bytes(String s) throws Exception {
+        return s.getBytes("UTF-8");
+    }
+
+    public void testMessagesInOneChunk() throws Exception {
+        Frames frames = new Frames();
+        StreamFramer framer = new StreamFramer(frames, 0);
+        byte[] stream = bytes(MESSAGE + "\r\n\r\n" + COMPACT + "\r\n" + NO_BODY);
+        framer.addBytes(stream, 0, stream.length);
+        assertEquals(3, frames.messages.size());
+        assertEquals(MESSAGE, frames.messages.get(0));
+        assertEquals("Hello\r\nworld", frames.bodies.get(0));
+        assertEquals(COMPACT, frames.messages.get(1));
+        assertEquals("abc", frames.bodies.get(1));
+        assertEquals(NO_BODY, frames.messages.get(2));
+        assertFalse(framer.hasPartialMessage());
+    }
+
+    public void testEverySplit() throws Exception {
+        byte[] stream = bytes("\r\n\r\n" + MESSAGE + COMPACT + "\r\n\r\n" + NO_BODY + MESSAGE);
+        for (int split = 1; split < stream.length; split++) {
+            Frames frames = new Frames();
+            StreamFramer framer = new StreamFramer(frames, 0);
+            framer.addBytes(stream, 0, split);
+            framer.addBytes(stream, split, stream.length - split);
+            assertEquals("split at " + split, 4, frames.messages.size());
+            assertEquals(MESSAGE, frames.messages.get(0));
+            assertEquals(COMPACT, frames.messages.get(1));
+            assertEquals(NO_BODY, frames.messages.get(2));
+            assertEquals(MESSAGE, frames.messages.get(3));
+        }
+    }
+
+    public void testByteAtATime() throws Exception {
+        Frames frames = new Frames();
+        StreamFramer framer = new StreamFramer(frames, 0);
+        byte[] stream = bytes(MESSAGE + "\r\n\r\n" + COMPACT);
+        for (int i = 0; i < stream.length; i++) {
+            framer.addBytes(stream, i, 1);
+            if (i < MESSAGE.length() - 1) {
+                assertTrue(framer.hasPartialMessage());
+            }
+        }
+        assertFalse(framer.hasPartialMessage());
+        assertEquals(2, frames.messages.size());
+        assertEquals(MESSAGE, frames.messages.get(0));
+        assertEquals(COMPACT, frames.messages.get(1));
+    }
+
+    public void testKeepAlivesOnly() throws Exception {
+        Frames frames = new Frames();
+        StreamFramer framer = new StreamFramer(frames, 100);
+        byte[] ping = bytes("\r\n\r\n");
+        for (int i = 0; i < 100; i++) {
+            framer.addBytes(ping, 0, ping.length);
+        }
+        assertTrue(frames.messages.isEmpty());
+        assertFalse(framer.hasPartialMessage());
+    }
+
+    public void testBodyTooLarge() throws Exception {
+        Frames frames = new Frames();
+        int headerLength = MESSAGE.length() - 12;
+        StreamFramer framer = new StreamFramer(frames, headerLength + 12);
+        byte[] stream = bytes(MESSAGE);
+        try {
+            framer.addBytes(stream, 0, stream.length);
+            fail("Accepted a message of the maximum size");
+        } catch (IOException ex) {
+        }
+        assertTrue(frames.messages.isEmpty());
+        assertEquals(MESSAGE.substring(0, headerLength), frames.oversized);
+        try {
+            framer.addBytes(stream, 0, stream.length);
+            fail("Framed after a failure");
+        } catch (IOException ex) {
+        }
+
+        frames = new Frames();
+        framer = new StreamFramer(frames, headerLength + 13);
+        framer.addBytes(stream, 0, stream.length);
+        assertEquals(1, frames.messages.size());
+    }
+
+    public void testHeadersTooLarge() throws Exception {
+        Frames frames = new Frames();
+        StreamFramer framer = new StreamFramer(frames, 50);
+        byte[] stream = bytes(NO_BODY);
+        try {
+            for (int i = 0; i < stream.length; i++) {
+                framer.addBytes(stream, i, 1);
+            }
+            fail("Accepted headers over the maximum size");
+        } catch (IOException ex) {
+        }
+        assertTrue(frames.messages.isEmpty());
+        assertNull(frames.oversized);
+    }
+}
@@ -0,0 +1,237 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.header.RetryAfter;
+import gov.nist.javax.sip.header.Via;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.message.SIPResponse;
+import gov.nist.javax.sip.parser.StringMsgParser;
+import gov.nist.javax.sip.stack.AdaptiveCongestionControlMessageValve;
+import gov.nist.javax.sip.stack.MessageChannel;
+import gov.nist.javax.sip.stack.SIPTransactionStack;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.sip.SipFactory;
+
+import junit.framework.TestCase;
+
+public class AdaptiveCongestionControlMessageValveTest extends TestCase {
+
+    private static final int TARGET = 50;
+
+    private static final int INTERVAL = 100;
+
+    private SipStackImpl sipStack;
+
+    private AdaptiveCongestionControlMessageValve valve;
+
+    private Channel channel;
+
+    private int sequence;
+
+    /**
+     * Collects the responses sent by the valve.
+     */
+    class Channel extends MessageChannel {
+        List<SIPResponse> sent = new ArrayList<SIPResponse>();
+
+        public void sendMessage(SIPMessage sipMessage) throws IOException {
+            sent.add((SIPResponse) sipMessage);
+        }
+
+        public void close() {
+        }
+
+        public SIPTransactionStack getSIPStack() {
+            return sipStack;
+        }
+
+        public String getTransport() {
+            return "UDP";
+        }
+
+        public boolean isReliable() {
+            return false;
+        }
+
+        public boolean isSecure() {
+            return false;
+        }
+
+        public String getPeerAddress() {
+            return "127.0.0.1";
+        }
+
+        protected InetAddress getPeerInetAddress() {
+            return null;
+        }
+
+        protected String getPeerProtocol() {
+            return "UDP";
+        }
+
+        public int getPeerPort() {
+            return 5060;
+        }
+
+        public int getPeerPacketSourcePort() {
+            return 5060;
+        }
+
+        public InetAddress getPeerPacketSourceAddress() {
+            return null;
+        }
+
+        public String getKey() {
+            return "test";
+        }
+
+        public String getViaHost() {
+            return "127.0.0.1";
+        }
+
+        public int getViaPort() {
+            return 5060;
+        }
+
+        protected void sendMessage(byte[] message, InetAddress receiverAddress,
+                int receiverPort, boolean reconnectFlag) throws IOException {
+        }
+    }
+
+    public void setUp() throws Exception {
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.resetFactory();
+        sipFactory.setPathName("gov.nist");
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "adaptivevalve");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        properties.setProperty("gov.nist.javax.sip.OVERLOAD_TARGET_DELAY", Integer.toString(TARGET));
+        properties.setProperty("gov.nist.javax.sip.OVERLOAD_INTERVAL", Integer.toString(INTERVAL));
+        properties.setProperty("gov.nist.javax.sip.OVERLOAD_RETRY_AFTER", "7");
+        sipStack = (SipStackImpl) sipFactory.createSipStack(properties);
+        valve = new AdaptiveCongestionControlMessageValve();
+        valve.init(sipStack);
+        channel = new Channel();
+    }
+
+    public void tearDown() throws Exception {
+        valve.destroy();
+        sipStack.stop();
+    }
+
+    private SIPRequest request(String method, String toTag, String via, long delay) throws Exception {
+        int n = sequence++;
+        String text = method + " sip:bob@127.0.0.1 SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP 127.0.0.1:5070;branch=z9hG4bK" + n + via + "\r\n"
+                + "Max-Forwards: 70\r\n"
+                + "From: <sip:alice@127.0.0.1>;tag=1\r\n"
+                + "To: <sip:bob@127.0.0.1>" + (toTag == null ? "" : ";tag=" + toTag) + "\r\n"
+                + "Call-ID: " + n + "@127.0.0.1\r\n"
+                + "CSeq: 1 " + method + "\r\n"
+                + "Content-Length: 0\r\n\r\n";
+        SIPRequest request = (SIPRequest) new StringMsgParser().parseSIPMessage(
+                text.getBytes("UTF-8"), true, false, null);
+        request.setReceptionTime(System.currentTimeMillis() - delay);
+        return request;
+    }
+
+    private boolean admit(String method, String toTag, long delay) throws Exception {
+        return valve.processRequest(request(method, toTag, "", delay), channel);
+    }
+
+    /**
+     * Keep the delay above the target for an interval.
+     */
+    private void overload() throws Exception {
+        assertTrue(admit("INVITE", null, 2 * TARGET));
+        Thread.sleep(INTERVAL + 20);
+        assertFalse(admit("INVITE", null, 2 * TARGET));
+        assertTrue(valve.isOverloaded());
+    }
+
+    public void testShortBurstIsTolerated() throws Exception {
+        assertTrue(admit("INVITE", null, 2 * TARGET));
+        assertTrue(admit("REGISTER", null, 2 * TARGET));
+        assertFalse(valve.isOverloaded());
+        // back below the target before the interval ends
+        assertTrue(admit("INVITE", null, 0));
+        Thread.sleep(INTERVAL + 20);
+        assertTrue(admit("INVITE", null, 2 * TARGET));
+        assertEquals(0, valve.getShedRequests());
+        assertEquals(2 * TARGET, valve.getLastSojournTime(), 10);
+    }
+
+    public void testShedsNewRequestsFirst() throws Exception {
+        overload();
+        assertFalse(admit("REGISTER", null, 2 * TARGET));
+        assertFalse(admit("INVITE", null, 2 * TARGET));
+        for (String method : new String[] { "BYE", "ACK", "CANCEL", "PRACK" }) {
+            assertTrue(method, admit(method, "2", 2 * TARGET));
+        }
+        // other requests are rejected at the CoDel rate
+        assertFalse(admit("INFO", "2", 2 * TARGET));
+        assertTrue(admit("INFO", "2", 2 * TARGET));
+        assertTrue(admit("INVITE", "2", 2 * TARGET));
+        assertEquals(1, valve.getOverloadEpisodes());
+        assertEquals(4, valve.getShedRequests());
+
+        // the overload ends as soon as the delay is below the target
+        assertTrue(admit("INVITE", null, 0));
+        assertFalse(valve.isOverloaded());
+        assertTrue(admit("INVITE", null, 2 * TARGET));
+    }
+
+    public void testListenerLatency() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            valve.requestProcessed(null, 4 * TARGET);
+        }
+        assertTrue(valve.getListenerLatency() > TARGET);
+        // slow listener with empty queues
+        assertTrue(admit("INVITE", null, 0));
+        Thread.sleep(INTERVAL + 20);
+        assertFalse(admit("INVITE", null, 0));
+        for (int i = 0; i < 50; i++) {
+            valve.requestProcessed(null, 0);
+        }
+        assertTrue(admit("INVITE", null, 0));
+    }
+
+    public void testRecoversWhenListenerSpeedsUp() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            valve.requestProcessed(null, 4 * TARGET);
+        }
+        assertTrue(admit("REGISTER", null, 0));
+        Thread.sleep(INTERVAL + 20);
+        assertFalse(admit("REGISTER", null, 0));
+        assertTrue(valve.isOverloaded());
+        // Every REGISTER is rejected so the listener gets no new request and
+        // its average stays high. Once it is old it no longer counts.
+        Thread.sleep(INTERVAL);
+        assertTrue(admit("REGISTER", null, 0));
+        assertFalse(valve.isOverloaded());
+    }
+
+    public void testRejectionResponse() throws Exception {
+        overload();
+        assertEquals(1, channel.sent.size());
+        SIPResponse response = channel.sent.get(0);
+        assertEquals(503, response.getStatusCode());
+        assertEquals(7, ((RetryAfter) response.getHeader(RetryAfter.NAME)).getRetryAfter());
+        assertNull(response.getTopmostVia().getParameter("oc"));
+
+        // a client doing RFC 7339 overload control is told how much to shed
+        assertFalse(valve.processRequest(request("INVITE", null, ";oc", 2 * TARGET), channel));
+        Via via = channel.sent.get(1).getTopmostVia();
+        assertEquals("100", via.getParameter("oc"));
+        assertEquals("loss", via.getParameter("oc-algo"));
+        assertEquals(Integer.toString(INTERVAL), via.getParameter("oc-validity"));
+        assertNotNull(via.getParameter("oc-seq"));
+    }
+}
@@ -0,0 +1,166 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.parser.StringMsgParser;
+import gov.nist.javax.sip.stack.BinaryServerLog;
+
+import java.io.File;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Properties;
+
+import javax.sip.SipFactory;
+
+import junit.framework.TestCase;
+import tools.tracesviewer.LogFileParser;
+import tools.tracesviewer.MessageLogList;
+import tools.tracesviewer.TracesMessage;
+
+public class BinaryServerLogTest extends TestCase {
+
+    private static final String INVITE = "INVITE sip:bob@biloxi.example.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP client.atlanta.example.com:5060;branch=z9hG4bK74bf9\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "From: Alice <sip:alice@atlanta.example.com>;tag=9fxced76sl\r\n"
+            + "To: Bob <sip:bob@biloxi.example.com>\r\n"
+            + "Call-ID: 3848276298220188511@atlanta.example.com\r\n"
+            + "CSeq: 1 INVITE\r\n"
+            + "Content-Type: application/sdp\r\n"
+            + "Content-Length: 6\r\n\r\n"
+            + "v=0\r\n\r\n";
+
+    private static final String RINGING = "SIP/2.0 180 Ringing\r\n"
+            + "Via: SIP/2.0/UDP client.atlanta.example.com:5060;branch=z9hG4bK74bf9\r\n"
+            + "From: Alice <sip:alice@atlanta.example.com>;tag=9fxced76sl\r\n"
+            + "To: Bob <sip:bob@biloxi.example.com>;tag=8321234356\r\n"
+            + "Call-ID: 3848276298220188511@atlanta.example.com\r\n"
+            + "CSeq: 1 INVITE\r\n"
+            + "Content-Length: 0\r\n\r\n";
+
+    private static final String OPTIONS = "OPTIONS sip:carol@chicago.example.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP pc33.atlanta.example.com;branch=z9hG4bKhjhs8ass877\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+            + "To: <sip:carol@chicago.example.com>\r\n"
+            + "Call-ID: a84b4c76e66710\r\n"
+            + "CSeq: 63104 OPTIONS\r\n"
+            + "Content-Length: 0\r\n\r\n";
+
+    private SipStackImpl sipStack;
+
+    private File logFile;
+
+    public void setUp() throws Exception {
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.resetFactory();
+        sipFactory.setPathName("gov.nist");
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "binaryserverlog");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        sipStack = (SipStackImpl) sipFactory.createSipStack(properties);
+        logFile = File.createTempFile("binaryserverlog", ".trace");
+        logFile.delete();
+    }
+
+    public void tearDown() throws Exception {
+        sipStack.stop();
+        for (int i = 0; i < 5; i++) {
+            new File(logFile.getPath() + (i == 0 ? "" : "." + i)).delete();
+        }
+    }
+
+    private BinaryServerLog createLog(Properties extra) {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "binaryserverlog");
+        properties.setProperty("gov.nist.javax.sip.SERVER_LOG", logFile.getPath());
+        properties.setProperty("gov.nist.javax.sip.LOG_MESSAGE_CONTENT", "true");
+        properties.putAll(extra);
+        BinaryServerLog log = new BinaryServerLog();
+        log.setSipStack(sipStack);
+        log.setStackProperties(properties);
+        return log;
+    }
+
+    private SIPMessage parse(String text) throws Exception {
+        return new StringMsgParser().parseSIPMessage(text.getBytes("UTF-8"), true, false, null);
+    }
+
+    public void testTraceViewerReadsTrace() throws Exception {
+        BinaryServerLog log = createLog(new Properties());
+        log.logMessage(parse(INVITE), "10.0.0.1:5060", "10.0.0.2:5060", false, 1000);
+        log.logMessage(parse(RINGING), "10.0.0.2:5060", "10.0.0.1:5060", "ok", true, 1010);
+        log.logMessage(parse(OPTIONS), "10.0.0.1:5060", "10.0.0.3:5060", true, 1020);
+        log.closeLogFile();
+        assertEquals(3, log.getWrittenMessages());
+        assertEquals(0, log.getDroppedMessages());
+
+        assertTrue(LogFileParser.isBinaryLogFile(logFile.getPath()));
+        LogFileParser parser = new LogFileParser();
+        Hashtable traces = parser.parseLogsFromFile(logFile.getPath());
+        assertEquals("binaryserverlog", parser.logName);
+        assertEquals(2, traces.size());
+
+        MessageLogList call = (MessageLogList) traces.get("3848276298220188511@atlanta.example.com");
+        assertEquals(2, call.size());
+        Iterator it = call.iterator();
+        TracesMessage invite = (TracesMessage) it.next();
+        assertEquals("INVITE sip:bob@biloxi.example.com SIP/2.0", invite.getFirstLine());
+        assertEquals("10.0.0.1:5060", invite.getFrom());
+        assertEquals("1000", invite.getTime());
+        assertEquals("z9hg4bk74bf9", invite.getTransactionId());
+        assertTrue(invite.getMessageString().endsWith("v=0\r\n\r\n"));
+        TracesMessage ringing = (TracesMessage) it.next();
+        assertEquals("SIP/2.0 180 Ringing", ringing.getFirstLine());
+        assertEquals("ok", ringing.getStatusInfo());
+    }
+
+    public void testDropsWhenBufferIsFull() throws Exception {
+        Properties extra = new Properties();
+        extra.setProperty("gov.nist.javax.sip.SERVER_LOG_BUFFER_SIZE", "4");
+        BinaryServerLog log = createLog(extra);
+        SIPMessage message = parse(OPTIONS);
+        for (int i = 0; i < 5000; i++) {
+            log.logMessage(message, "10.0.0.1:5060", "10.0.0.3:5060", true, i);
+        }
+        log.closeLogFile();
+        assertEquals(5000, log.getWrittenMessages() + log.getDroppedMessages());
+        assertTrue(log.getWrittenMessages() > 0);
+
+        // The list sorts the records with LogComparator, which takes two
+        // records with the same identity hash code for the same one, so it
+        // may hold fewer records than the file.
+        Hashtable traces = new LogFileParser().parseLogsFromFile(logFile.getPath());
+        MessageLogList call = (MessageLogList) traces.get("a84b4c76e66710");
+        assertFalse(call.isEmpty());
+        assertTrue(call.size() <= log.getWrittenMessages());
+    }
+
+    public void testRotation() throws Exception {
+        Properties extra = new Properties();
+        extra.setProperty("gov.nist.javax.sip.SERVER_LOG_MAX_FILE_SIZE", "2000");
+        extra.setProperty("gov.nist.javax.sip.SERVER_LOG_MAX_FILES", "3");
+        BinaryServerLog log = createLog(extra);
+        SIPMessage message = parse(OPTIONS);
+        for (int i = 0; i < 100; i++) {
+            log.logMessage(message, "10.0.0.1:5060", "10.0.0.3:5060", true, i);
+            if (i % 10 == 9) {
+                // let the writer catch up so that nothing is dropped
+                Thread.sleep(20);
+            }
+        }
+        log.closeLogFile();
+        assertEquals(0, log.getDroppedMessages());
+
+        assertTrue(logFile.exists());
+        assertTrue(new File(logFile.getPath() + ".1").exists());
+        assertTrue(new File(logFile.getPath() + ".2").exists());
+        assertFalse(new File(logFile.getPath() + ".3").exists());
+        for (int i = 0; i < 3; i++) {
+            String name = logFile.getPath() + (i == 0 ? "" : "." + i);
+            assertTrue(name, new File(name).length() <= 2000 + 1000);
+            Hashtable traces = new LogFileParser().parseLogsFromFile(name);
+            assertFalse(name, ((MessageLogList) traces.get("a84b4c76e66710")).isEmpty());
+        }
+    }
+}
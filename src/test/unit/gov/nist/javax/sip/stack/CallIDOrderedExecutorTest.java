@@ -0,0 +1,190 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.stack.CallIDOrderedExecutor;
+import gov.nist.javax.sip.stack.QueuedMessageDispatchBase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.SipFactory;
+import javax.sip.SipStack;
+
+import junit.framework.TestCase;
+
+public class CallIDOrderedExecutorTest extends TestCase {
+
+    private SipStack sipStack;
+
+    private CallIDOrderedExecutor executor;
+
+    public void setUp() throws Exception {
+        // the executor logs through the stack logger
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.resetFactory();
+        sipFactory.setPathName("gov.nist");
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "callidorderedexecutor");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        sipStack = sipFactory.createSipStack(properties);
+    }
+
+    public void tearDown() throws Exception {
+        if (executor != null) {
+            executor.stop();
+        }
+        sipStack.stop();
+    }
+
+    class Task implements QueuedMessageDispatchBase {
+        final List<Integer> log;
+        final int seq;
+        final long receptionTime;
+        final CountDownLatch done;
+
+        Task(List<Integer> log, int seq, long receptionTime, CountDownLatch done) {
+            this.log = log;
+            this.seq = seq;
+            this.receptionTime = receptionTime;
+            this.done = done;
+        }
+
+        public void run() {
+            log.add(seq);
+            if (done != null) {
+                done.countDown();
+            }
+        }
+
+        public long getReceptionTime() {
+            return receptionTime;
+        }
+    }
+
+    /**
+     * Occupy the lane of the given Call-ID until the returned latch is released.
+     */
+    private CountDownLatch blockLane(String callId) throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(callId, new QueuedMessageDispatchBase() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                }
+            }
+
+            public long getReceptionTime() {
+                return System.currentTimeMillis();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    /**
+     * A lane counts a message once it ran, after the task completed, so wait
+     * for the count to catch up.
+     */
+    private long awaitExecutedCount(int firstLane, int lastLane, long expected)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            long executed = 0;
+            for (int lane = firstLane; lane <= lastLane; lane++) {
+                executed += executor.getExecutedCount(lane);
+            }
+            if (executed >= expected || System.currentTimeMillis() > deadline) {
+                return executed;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    public void testMessagesOfACallStayInOrder() throws Exception {
+        executor = new CallIDOrderedExecutor(4, 0);
+        final int calls = 20;
+        final int messages = 500;
+        final List<List<Integer>> logs = new ArrayList<List<Integer>>();
+        for (int i = 0; i < calls; i++) {
+            logs.add(Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+        final CountDownLatch done = new CountDownLatch(calls * messages);
+        // two readers, each owning half of the calls, like two connections
+        Thread[] readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            final int first = r;
+            readers[r] = new Thread() {
+                public void run() {
+                    for (int seq = 0; seq < messages; seq++) {
+                        for (int call = first; call < calls; call += 2) {
+                            executor.execute("call-" + call + "@example.com",
+                                    new Task(logs.get(call), seq, System.currentTimeMillis(), done));
+                        }
+                    }
+                }
+            };
+            readers[r].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int call = 0; call < calls; call++) {
+            List<Integer> log = logs.get(call);
+            assertEquals(messages, log.size());
+            for (int seq = 0; seq < messages; seq++) {
+                assertEquals("call " + call, seq, log.get(seq).intValue());
+            }
+        }
+        assertEquals(calls * messages,
+                awaitExecutedCount(0, executor.getLaneCount() - 1, calls * messages));
+    }
+
+    public void testLaneDepth() throws Exception {
+        executor = new CallIDOrderedExecutor(2, 0);
+        String callId = "depth@example.com";
+        int lane = executor.getLane(callId);
+        assertEquals(lane, executor.getLane(callId));
+        CountDownLatch release = blockLane(callId);
+        List<Integer> log = Collections.synchronizedList(new ArrayList<Integer>());
+        CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            executor.execute(callId, new Task(log, i, System.currentTimeMillis(), done));
+        }
+        assertEquals(5, executor.getQueueDepth(lane));
+        assertTrue(executor.getMaxQueueDepth(lane) >= 5);
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.getQueueDepth(lane));
+        assertEquals(6, awaitExecutedCount(lane, lane, 6));
+    }
+
+    public void testStaleMessagesAreDropped() throws Exception {
+        executor = new CallIDOrderedExecutor(1, 100);
+        String callId = "stale@example.com";
+        CountDownLatch release = blockLane(callId);
+        List<Integer> log = Collections.synchronizedList(new ArrayList<Integer>());
+        long old = System.currentTimeMillis() - 1000;
+        for (int i = 0; i < 3; i++) {
+            executor.execute(callId, new Task(log, i, old, null));
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(callId, new Task(log, 3, System.currentTimeMillis() + 10000, done));
+        // the auditor runs every 2 seconds
+        long end = System.currentTimeMillis() + 5000;
+        while (executor.getRejectedCount() < 3 && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        assertEquals(3, executor.getRejectedCount());
+        assertEquals(1, executor.getQueueDepth(0));
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(Integer.valueOf(3)), log);
+    }
+}
@@ -0,0 +1,347 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.SipListenerExt;
+import gov.nist.javax.sip.stack.ClientConnectionManager;
+import gov.nist.javax.sip.stack.SIPTransactionStack;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.DialogTimeoutEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.SipException;
+import javax.sip.SipFactory;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import junit.framework.TestCase;
+
+public class ClientConnectionManagerTest extends TestCase {
+
+    private static final int PORT = 5093;
+
+    private static final int PEER_PORT = 5094;
+
+    private static final int OTHER_PEER_PORT = 5095;
+
+    private static final int CLOSED_PORT = 5096;
+
+    private AddressFactory addressFactory;
+
+    private MessageFactory messageFactory;
+
+    private HeaderFactory headerFactory;
+
+    private SipStack sipStack;
+
+    private SipProvider provider;
+
+    private ArrayList<ServerSocket> peers = new ArrayList<ServerSocket>();
+
+    private void createStack(Properties extra) throws Exception {
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.resetFactory();
+        sipFactory.setPathName("gov.nist");
+        addressFactory = sipFactory.createAddressFactory();
+        messageFactory = sipFactory.createMessageFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "connectionmanager");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        properties.putAll(extra);
+        sipStack = sipFactory.createSipStack(properties);
+        ListeningPoint lp = sipStack.createListeningPoint("127.0.0.1", PORT, "tcp");
+        provider = sipStack.createSipProvider(lp);
+    }
+
+    public void tearDown() throws Exception {
+        if (sipStack != null) {
+            sipStack.stop();
+        }
+        for (ServerSocket peer : peers) {
+            peer.close();
+        }
+    }
+
+    private ServerSocket peer(int port) throws Exception {
+        ServerSocket peer = new ServerSocket(port, 10, InetAddress.getByName("127.0.0.1"));
+        peers.add(peer);
+        return peer;
+    }
+
+    private ClientConnectionManager getConnectionManager() {
+        return ((SIPTransactionStack) sipStack).getClientConnectionManager();
+    }
+
+    private void send(int port) throws Exception {
+        send(port, provider.getNewCallId());
+    }
+
+    private void send(int port, CallIdHeader callId) throws Exception {
+        SipURI fromUri = addressFactory.createSipURI("alice", "127.0.0.1");
+        FromHeader from = headerFactory.createFromHeader(
+                addressFactory.createAddress(fromUri), "12345");
+        SipURI toUri = addressFactory.createSipURI("bob", "127.0.0.1:" + port);
+        toUri.setTransportParam("tcp");
+        ToHeader to = headerFactory.createToHeader(addressFactory.createAddress(toUri), null);
+        ArrayList<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", PORT, "tcp", null));
+        CSeqHeader cseq = headerFactory.createCSeqHeader(1L, Request.MESSAGE);
+        Request request = messageFactory.createRequest(toUri, Request.MESSAGE,
+                callId, cseq, from, to, vias,
+                headerFactory.createMaxForwardsHeader(70));
+        provider.sendRequest(request);
+    }
+
+    private static boolean receivesEndOfStream(Socket socket) throws Exception {
+        socket.setSoTimeout(2000);
+        InputStream in = socket.getInputStream();
+        byte[] buffer = new byte[4096];
+        try {
+            while (true) {
+                if (in.read(buffer) == -1) {
+                    return true;
+                }
+            }
+        } catch (SocketTimeoutException ex) {
+            return false;
+        }
+    }
+
+    public void testConnectionIsPooledAndReported() throws Exception {
+        createStack(new Properties());
+        ServerSocket peer = peer(PEER_PORT);
+        send(PEER_PORT);
+        send(PEER_PORT);
+        Socket socket = peer.accept();
+        peer.setSoTimeout(500);
+        try {
+            peer.accept();
+            fail("Opened a second connection");
+        } catch (SocketTimeoutException ex) {
+        }
+        ClientConnectionManager.DestinationStatistics stats = getConnectionManager()
+                .getDestinationStatistics("127.0.0.1:" + PEER_PORT);
+        assertEquals(1, stats.getConnectCount());
+        assertEquals(0, stats.getConnectFailures());
+        assertEquals(1, stats.getOpenConnections());
+        assertEquals(0, stats.getPendingSends());
+        socket.close();
+    }
+
+    public void testConnectFailureIsReportedAndBackedOff() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("gov.nist.javax.sip.CONNECTION_FAILURE_BACKOFF", "60000");
+        createStack(properties);
+        try {
+            send(CLOSED_PORT);
+            fail("Sent to a closed port");
+        } catch (SipException ex) {
+        }
+        try {
+            send(CLOSED_PORT);
+            fail("Sent to a closed port");
+        } catch (SipException ex) {
+        }
+        ClientConnectionManager.DestinationStatistics stats = getConnectionManager()
+                .getDestinationStatistics("127.0.0.1:" + CLOSED_PORT);
+        // the second message did not try to connect
+        assertEquals(1, stats.getConnectFailures());
+        assertEquals(0, stats.getConnectCount());
+        assertNotNull(stats.getLastFailure());
+    }
+
+    public void testAcceptedConnectionsAreNotReported() throws Exception {
+        createStack(new Properties());
+        provider.addSipListener(new SipListenerExt() {
+            public void processRequest(RequestEvent requestEvent) {
+                try {
+                    provider.sendResponse(messageFactory.createResponse(Response.OK,
+                            requestEvent.getRequest()));
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+
+            public void processResponse(ResponseEvent responseEvent) {
+            }
+
+            public void processTimeout(TimeoutEvent timeoutEvent) {
+            }
+
+            public void processIOException(IOExceptionEvent exceptionEvent) {
+            }
+
+            public void processTransactionTerminated(TransactionTerminatedEvent event) {
+            }
+
+            public void processDialogTerminated(DialogTerminatedEvent event) {
+            }
+
+            public void processDialogTimeout(DialogTimeoutEvent timeoutEvent) {
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            Socket socket = new Socket("127.0.0.1", PORT);
+            try {
+                String options = "OPTIONS sip:bob@127.0.0.1:" + PORT + " SIP/2.0\r\n"
+                        + "Via: SIP/2.0/TCP 127.0.0.1:" + socket.getLocalPort()
+                        + ";branch=z9hG4bKaccepted" + i + "\r\n"
+                        + "Max-Forwards: 70\r\n"
+                        + "From: <sip:alice@127.0.0.1>;tag=1928301774\r\n"
+                        + "To: <sip:bob@127.0.0.1>\r\n"
+                        + "Call-ID: accepted" + i + "@127.0.0.1\r\n"
+                        + "CSeq: 1 OPTIONS\r\n"
+                        + "Content-Length: 0\r\n\r\n";
+                OutputStream out = socket.getOutputStream();
+                out.write(options.getBytes("UTF-8"));
+                out.flush();
+                socket.setSoTimeout(5000);
+                // the response comes back once the connection is pooled
+                byte[] buffer = new byte[12];
+                int read = 0;
+                while (read < buffer.length) {
+                    int n = socket.getInputStream().read(buffer, read, buffer.length - read);
+                    assertTrue("No response", n != -1);
+                    read += n;
+                }
+                assertEquals("SIP/2.0 200 ", new String(buffer, "UTF-8"));
+            } finally {
+                socket.close();
+            }
+        }
+        assertTrue(getConnectionManager().getDestinationStatistics().isEmpty());
+    }
+
+    public void testSendGivesUpWaitingForHangingConnect() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("gov.nist.javax.sip.CONNECTION_WAIT_TIMEOUT", "500");
+        properties.setProperty("gov.nist.javax.sip.CONNECTION_FAILURE_BACKOFF", "60000");
+        createStack(properties);
+        // Fill the accept queue of a peer that never accepts, the connects to
+        // it hang.
+        ServerSocket peer = new ServerSocket(PEER_PORT, 1, InetAddress.getByName("127.0.0.1"));
+        peers.add(peer);
+        ArrayList<Socket> queued = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i < 20; i++) {
+                Socket socket = new Socket();
+                queued.add(socket);
+                try {
+                    socket.connect(new InetSocketAddress("127.0.0.1", PEER_PORT), 200);
+                } catch (SocketTimeoutException ex) {
+                    break;
+                }
+            }
+            long start = System.currentTimeMillis();
+            try {
+                send(PEER_PORT);
+                fail("Sent on a hanging connect");
+            } catch (SipException ex) {
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("waited " + elapsed + " ms", elapsed >= 400 && elapsed < 3000);
+            // the connect is still pending, the next message fails right away
+            start = System.currentTimeMillis();
+            try {
+                send(PEER_PORT);
+                fail("Sent on a hanging connect");
+            } catch (SipException ex) {
+            }
+            elapsed = System.currentTimeMillis() - start;
+            assertTrue("waited " + elapsed + " ms", elapsed < 300);
+            assertEquals(0, getConnectionManager().getDestinationStatistics(
+                    "127.0.0.1:" + PEER_PORT).getPendingSends());
+        } finally {
+            for (Socket socket : queued) {
+                socket.close();
+            }
+        }
+    }
+
+    public void testLeastRecentlyUsedConnectionIsEvicted() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("gov.nist.javax.sip.MAX_CONNECTIONS", "1");
+        createStack(properties);
+        ServerSocket peer = peer(PEER_PORT);
+        ServerSocket otherPeer = peer(OTHER_PEER_PORT);
+        send(PEER_PORT);
+        Socket socket = peer.accept();
+        send(OTHER_PEER_PORT);
+        Socket otherSocket = otherPeer.accept();
+        assertTrue(receivesEndOfStream(socket));
+        assertEquals(1, getConnectionManager().getEvictionCount());
+        assertEquals(1, getConnectionManager().getManagedConnectionCount());
+        socket.close();
+        otherSocket.close();
+    }
+
+    public void testParallelConnectionsPerDestination() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("gov.nist.javax.sip.MAX_CONNECTIONS_PER_DESTINATION", "2");
+        createStack(properties);
+        ServerSocket peer = peer(PEER_PORT);
+        // the calls are spread by Call-ID, with 20 of them both connections
+        // are all but certainly used
+        for (int i = 0; i < 20; i++) {
+            send(PEER_PORT);
+        }
+        Socket first = peer.accept();
+        Socket second = peer.accept();
+        peer.setSoTimeout(500);
+        try {
+            peer.accept();
+            fail("Opened a third connection");
+        } catch (SocketTimeoutException ex) {
+        }
+        assertEquals(2, getConnectionManager().getDestinationStatistics("127.0.0.1:" + PEER_PORT)
+                .getConnectCount());
+        first.close();
+        second.close();
+    }
+
+    public void testMessagesOfACallShareAConnection() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("gov.nist.javax.sip.MAX_CONNECTIONS_PER_DESTINATION", "4");
+        createStack(properties);
+        ServerSocket peer = peer(PEER_PORT);
+        CallIdHeader callId = provider.getNewCallId();
+        for (int i = 0; i < 8; i++) {
+            send(PEER_PORT, callId);
+        }
+        Socket socket = peer.accept();
+        peer.setSoTimeout(500);
+        try {
+            peer.accept();
+            fail("Sent a message of the call on a second connection");
+        } catch (SocketTimeoutException ex) {
+        }
+        assertEquals(1, getConnectionManager().getDestinationStatistics("127.0.0.1:" + PEER_PORT)
+                .getConnectCount());
+        socket.close();
+    }
+}
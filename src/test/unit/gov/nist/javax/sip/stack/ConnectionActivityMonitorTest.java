@@ -0,0 +1,153 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.stack.ConnectionActivityMonitor;
+import gov.nist.javax.sip.stack.SIPTransactionStack;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Properties;
+
+import javax.sip.ListeningPoint;
+import javax.sip.SipFactory;
+import javax.sip.SipStack;
+
+import junit.framework.TestCase;
+
+public class ConnectionActivityMonitorTest extends TestCase {
+
+    private static final int PORT = 5097;
+
+    private static final String PARTIAL_MESSAGE = "OPTIONS sip:bob@127.0.0.1 SIP/2.0\r\n"
+            + "Via: SIP/2.0/TCP 127.0.0.1:5098;branch=z9hG4bK776asdhds\r\n"
+            + "Call-ID: a84b4c76e66710@127.0.0.1\r\n";
+
+    private SipStack sipStack;
+
+    private Socket socket;
+
+    private void createStack(String transport, Properties extra) throws Exception {
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.resetFactory();
+        sipFactory.setPathName("gov.nist");
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "activitymonitor");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        properties.putAll(extra);
+        sipStack = sipFactory.createSipStack(properties);
+        ListeningPoint lp = sipStack.createListeningPoint("127.0.0.1", PORT, transport);
+        sipStack.createSipProvider(lp);
+        socket = new Socket("127.0.0.1", PORT);
+    }
+
+    public void tearDown() throws Exception {
+        if (socket != null) {
+            socket.close();
+        }
+        if (sipStack != null) {
+            sipStack.stop();
+        }
+    }
+
+    private ConnectionActivityMonitor getMonitor() {
+        return ((SIPTransactionStack) sipStack).getConnectionActivityMonitor();
+    }
+
+    private boolean isClosedByStack() throws Exception {
+        socket.setSoTimeout(3000);
+        InputStream in = socket.getInputStream();
+        try {
+            return in.read() == -1;
+        } catch (SocketTimeoutException ex) {
+            return false;
+        }
+    }
+
+    private void checkReadTimeout(Properties properties) throws Exception {
+        properties.setProperty("gov.nist.javax.sip.READ_TIMEOUT", "500");
+        createStack("tcp", properties);
+        OutputStream out = socket.getOutputStream();
+        out.write(PARTIAL_MESSAGE.getBytes());
+        out.flush();
+        assertTrue(isClosedByStack());
+        assertEquals(1, getMonitor().getReadTimeoutCloseCount());
+        assertEquals(0, getMonitor().getIdleCloseCount());
+    }
+
+    public void testSlowMessageIsClosed() throws Exception {
+        checkReadTimeout(new Properties());
+    }
+
+    public void testSlowMessageIsClosedNio() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY",
+                "gov.nist.javax.sip.stack.NioMessageProcessorFactory");
+        checkReadTimeout(properties);
+    }
+
+    private void checkSteadyMessage(Properties properties) throws Exception {
+        properties.setProperty("gov.nist.javax.sip.READ_TIMEOUT", "500");
+        createStack("tcp", properties);
+        OutputStream out = socket.getOutputStream();
+        out.write(PARTIAL_MESSAGE.getBytes());
+        out.flush();
+        // the message takes longer than the timeout but never stalls for it
+        for (int i = 0; i < 8; i++) {
+            Thread.sleep(200);
+            out.write(("X-Header-" + i + ": slow\r\n").getBytes());
+            out.flush();
+        }
+        socket.setSoTimeout(200);
+        try {
+            socket.getInputStream().read();
+            fail("Connection closed");
+        } catch (SocketTimeoutException ex) {
+        }
+        assertEquals(0, getMonitor().getReadTimeoutCloseCount());
+    }
+
+    public void testSteadyMessageIsNotClosed() throws Exception {
+        checkSteadyMessage(new Properties());
+    }
+
+    public void testSteadyMessageIsNotClosedNio() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY",
+                "gov.nist.javax.sip.stack.NioMessageProcessorFactory");
+        checkSteadyMessage(properties);
+    }
+
+    public void testKeepAlivesAreNotSlow() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("gov.nist.javax.sip.READ_TIMEOUT", "500");
+        createStack("tcp", properties);
+        OutputStream out = socket.getOutputStream();
+        for (int i = 0; i < 8; i++) {
+            out.write("\r\n\r\n".getBytes());
+            out.flush();
+            Thread.sleep(200);
+        }
+        socket.setSoTimeout(200);
+        try {
+            socket.getInputStream().read();
+            fail("Connection closed");
+        } catch (SocketTimeoutException ex) {
+        }
+        assertEquals(0, getMonitor().getReadTimeoutCloseCount());
+    }
+
+    public void testIdleConnectionIsClosed() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("gov.nist.javax.sip.SERVER_CONNECTION_IDLE_TIMEOUT", "500");
+        createStack("tcp", properties);
+        // wait for the stack to pick up the connection
+        for (int i = 0; i < 20 && getMonitor().getConnectionCount() == 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, getMonitor().getConnectionCount());
+        assertTrue(isClosedByStack());
+        assertEquals(1, getMonitor().getIdleCloseCount());
+        assertEquals(0, getMonitor().getConnectionCount());
+    }
+}
@@ -0,0 +1,309 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.core.net.DnsLookup;
+import gov.nist.core.net.NameSource;
+import gov.nist.core.net.NaptrRecord;
+import gov.nist.core.net.SrvRecord;
+import gov.nist.javax.sip.DnsAddressResolver;
+import gov.nist.javax.sip.SipListenerExt;
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.address.RouterExt;
+import gov.nist.javax.sip.stack.SIPClientTransaction;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sip.ClientTransaction;
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.DialogTimeoutEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.SipFactory;
+import javax.sip.SipProvider;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.Hop;
+import javax.sip.address.SipURI;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+
+import junit.framework.TestCase;
+
+/**
+ * Routes requests with the RFC 3263 resolver against an in-process zone.
+ */
+public class DnsAddressResolverTest extends TestCase {
+
+    private static final int PORT = 5095;
+
+    private static final int PEER_PORT_1 = 5096;
+
+    private static final int PEER_PORT_2 = 5097;
+
+    private SipStackImpl sipStack;
+
+    private SipProvider provider;
+
+    private AddressFactory addressFactory;
+
+    private MessageFactory messageFactory;
+
+    private HeaderFactory headerFactory;
+
+    private volatile int timeouts;
+
+    /**
+     * Serves NAPTR and SRV records from tables.
+     */
+    public static class ZoneDnsLookup implements DnsLookup {
+        static final Map<String, NaptrRecord[]> naptr = new HashMap<String, NaptrRecord[]>();
+
+        static final Map<String, SrvRecord[]> srv = new HashMap<String, SrvRecord[]>();
+
+        static final AtomicInteger lookups = new AtomicInteger();
+
+        public NaptrRecord[] lookupNaptr(String domain) throws IOException {
+            lookups.incrementAndGet();
+            NaptrRecord[] records = naptr.get(domain.toLowerCase());
+            return records == null ? new NaptrRecord[0] : records;
+        }
+
+        public SrvRecord[] lookupSrv(String name) throws IOException {
+            lookups.incrementAndGet();
+            SrvRecord[] records = srv.get(name.toLowerCase());
+            return records == null ? new SrvRecord[0] : records;
+        }
+    }
+
+    static class ZoneNameSource implements NameSource {
+        final Map<String, InetAddress[]> names = new HashMap<String, InetAddress[]>();
+
+        public InetAddress[] lookup(String hostName) throws UnknownHostException {
+            InetAddress[] addresses = names.get(hostName.toLowerCase());
+            if (addresses == null) {
+                throw new UnknownHostException(hostName);
+            }
+            return addresses;
+        }
+    }
+
+    class Listener implements SipListenerExt {
+
+        public void processRequest(RequestEvent requestEvent) {
+        }
+
+        public void processResponse(ResponseEvent responseEvent) {
+        }
+
+        public void processTimeout(TimeoutEvent timeoutEvent) {
+            timeouts++;
+        }
+
+        public void processIOException(IOExceptionEvent exceptionEvent) {
+        }
+
+        public void processTransactionTerminated(TransactionTerminatedEvent event) {
+        }
+
+        public void processDialogTerminated(DialogTerminatedEvent event) {
+        }
+
+        public void processDialogTimeout(DialogTimeoutEvent timeoutEvent) {
+        }
+    }
+
+    public void setUp() throws Exception {
+        ZoneDnsLookup.naptr.clear();
+        ZoneDnsLookup.srv.clear();
+        ZoneDnsLookup.lookups.set(0);
+
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.resetFactory();
+        sipFactory.setPathName("gov.nist");
+        addressFactory = sipFactory.createAddressFactory();
+        messageFactory = sipFactory.createMessageFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "dnsaddressresolver");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        properties.setProperty("gov.nist.javax.sip.ADDRESS_RESOLVER",
+                DnsAddressResolver.class.getName());
+        properties.setProperty("gov.nist.javax.sip.DNS_LOOKUP",
+                ZoneDnsLookup.class.getName());
+        properties.setProperty("gov.nist.javax.sip.DNS_BLACKLIST_TIME", "1");
+        sipStack = (SipStackImpl) sipFactory.createSipStack(properties);
+
+        ZoneNameSource zone = new ZoneNameSource();
+        zone.names.put("a.example.com", new InetAddress[] { InetAddress.getByName("10.0.0.1") });
+        zone.names.put("b.example.com", new InetAddress[] { InetAddress.getByName("10.0.0.2"),
+                InetAddress.getByName("10.0.0.3") });
+        zone.names.put("plain.example.com", new InetAddress[] { InetAddress.getByName("10.0.0.4") });
+        zone.names.put("localhost.example.com", new InetAddress[] { InetAddress.getByName("127.0.0.1") });
+        sipStack.getNameResolver().setNameSource(zone);
+
+        ListeningPoint udp = sipStack.createListeningPoint("127.0.0.1", PORT, "udp");
+        ListeningPoint tcp = sipStack.createListeningPoint("127.0.0.1", PORT, "tcp");
+        provider = sipStack.createSipProvider(udp);
+        provider.addListeningPoint(tcp);
+        provider.addSipListener(new Listener());
+    }
+
+    public void tearDown() throws Exception {
+        sipStack.stop();
+    }
+
+    private Request createRequest(String uri) throws Exception {
+        SipURI fromUri = addressFactory.createSipURI("alice", "127.0.0.1");
+        FromHeader from = headerFactory.createFromHeader(
+                addressFactory.createAddress(fromUri), "12345");
+        SipURI requestUri = (SipURI) addressFactory.createURI(uri);
+        ToHeader to = headerFactory.createToHeader(addressFactory.createAddress(requestUri), null);
+        ArrayList<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", PORT, "udp", null));
+        CSeqHeader cseq = headerFactory.createCSeqHeader(1L, Request.MESSAGE);
+        return messageFactory.createRequest(requestUri, Request.MESSAGE,
+                provider.getNewCallId(), cseq, from, to, vias,
+                headerFactory.createMaxForwardsHeader(70));
+    }
+
+    private List<String> getNextHops(String uri) throws Exception {
+        List<String> hops = new ArrayList<String>();
+        ListIterator<?> it = sipStack.getRouter().getNextHops(createRequest(uri));
+        while (it.hasNext()) {
+            hops.add(it.next().toString());
+        }
+        return hops;
+    }
+
+    public void testNaptrSelectsTransport() throws Exception {
+        ZoneDnsLookup.naptr.put("example.com", new NaptrRecord[] {
+                new NaptrRecord(20, 50, "s", "SIP+D2U", "", "_sip._udp.example.com"),
+                new NaptrRecord(10, 50, "s", "SIP+D2T", "", "_sip._tcp.example.com"),
+                new NaptrRecord(10, 60, "s", "SIPS+D2T", "", "_sips._tcp.example.com") });
+        ZoneDnsLookup.srv.put("_sip._tcp.example.com", new SrvRecord[] {
+                new SrvRecord(10, 0, 5070, "a.example.com") });
+        ZoneDnsLookup.srv.put("_sips._tcp.example.com", new SrvRecord[] {
+                new SrvRecord(10, 0, 5071, "a.example.com") });
+        ZoneDnsLookup.srv.put("_sip._udp.example.com", new SrvRecord[] {
+                new SrvRecord(10, 0, 5060, "b.example.com") });
+
+        // no TLS listening point, the SIPS record is left out
+        List<String> hops = getNextHops("sip:bob@example.com");
+        assertEquals("[10.0.0.1:5070/TCP, 10.0.0.2:5060/UDP, 10.0.0.3:5060/UDP]",
+                hops.toString());
+    }
+
+    public void testTransportParameterSkipsNaptr() throws Exception {
+        ZoneDnsLookup.naptr.put("example.com", new NaptrRecord[] {
+                new NaptrRecord(10, 50, "s", "SIP+D2T", "", "_sip._tcp.example.com") });
+        ZoneDnsLookup.srv.put("_sip._tcp.example.com", new SrvRecord[] {
+                new SrvRecord(10, 0, 5070, "a.example.com") });
+        ZoneDnsLookup.srv.put("_sip._udp.example.com", new SrvRecord[] {
+                new SrvRecord(10, 0, 5072, "a.example.com") });
+
+        List<String> hops = getNextHops("sip:bob@example.com;transport=udp");
+        assertEquals("[10.0.0.1:5072/UDP]", hops.toString());
+        assertEquals(1, ZoneDnsLookup.lookups.get());
+    }
+
+    public void testAddressWithoutSrvRecords() throws Exception {
+        assertEquals("[10.0.0.4:5060/UDP]", getNextHops("sip:bob@plain.example.com").toString());
+        assertEquals("[10.0.0.4:5080/UDP]", getNextHops("sip:bob@plain.example.com:5080").toString());
+        assertEquals("[10.0.0.5:5060/UDP]", getNextHops("sip:bob@10.0.0.5").toString());
+    }
+
+    public void testSrvPriorityAndWeight() throws Exception {
+        ZoneDnsLookup.srv.put("_sip._udp.carrier.net", new SrvRecord[] {
+                new SrvRecord(20, 0, 5060, "plain.example.com"),
+                new SrvRecord(10, 10, 5060, "b.example.com"),
+                new SrvRecord(10, 90, 5060, "a.example.com") });
+        int first = 0;
+        for (int i = 0; i < 1000; i++) {
+            List<String> hops = getNextHops("sip:bob@carrier.net");
+            assertEquals(4, hops.size());
+            assertEquals("10.0.0.4:5060/UDP", hops.get(3));
+            if (hops.get(0).equals("10.0.0.1:5060/UDP")) {
+                first++;
+            }
+        }
+        assertTrue("Weighted selection picked the heavy target " + first + " times",
+                first > 800 && first < 970);
+        // the answers are cached
+        assertEquals(2, ZoneDnsLookup.lookups.get());
+    }
+
+    public void testTimedOutHopIsBlacklisted() throws Exception {
+        ZoneDnsLookup.srv.put("_sip._udp.carrier.net", new SrvRecord[] {
+                new SrvRecord(10, 0, 5060, "a.example.com"),
+                new SrvRecord(20, 0, 5060, "plain.example.com") });
+        Request request = createRequest("sip:bob@carrier.net");
+        Hop hop = sipStack.getRouter().getNextHop(request);
+        assertEquals("10.0.0.1:5060/UDP", hop.toString());
+
+        ((RouterExt) sipStack.getRouter()).transactionTimeout(hop);
+        assertEquals("[10.0.0.4:5060/UDP, 10.0.0.1:5060/UDP]",
+                getNextHops("sip:bob@carrier.net").toString());
+
+        Thread.sleep(1100);
+        assertEquals("10.0.0.1:5060/UDP",
+                sipStack.getRouter().getNextHop(createRequest("sip:bob@carrier.net")).toString());
+    }
+
+    public void testFailoverAfterTimerF() throws Exception {
+        ZoneDnsLookup.srv.put("_sip._udp.trunk.example.com", new SrvRecord[] {
+                new SrvRecord(10, 0, PEER_PORT_1, "localhost.example.com"),
+                new SrvRecord(20, 0, PEER_PORT_2, "localhost.example.com") });
+        DatagramSocket peer1 = new DatagramSocket(PEER_PORT_1, InetAddress.getByName("127.0.0.1"));
+        DatagramSocket peer2 = new DatagramSocket(PEER_PORT_2, InetAddress.getByName("127.0.0.1"));
+        try {
+            ClientTransaction ct = provider.getNewClientTransaction(
+                    createRequest("sip:bob@trunk.example.com"));
+            ((SIPClientTransaction) ct).setRetransmitTimer(50);
+            ct.sendRequest();
+            assertTrue(receive(peer1, 1000));
+            // nobody answers, timer F fires after 64 * T1
+            long end = System.currentTimeMillis() + 64 * 50 + 2000;
+            while (timeouts == 0 && System.currentTimeMillis() < end) {
+                Thread.sleep(50);
+            }
+            assertEquals(1, timeouts);
+
+            ct = provider.getNewClientTransaction(createRequest("sip:bob@trunk.example.com"));
+            ct.sendRequest();
+            assertTrue("Not sent to the second target", receive(peer2, 1000));
+        } finally {
+            peer1.close();
+            peer2.close();
+        }
+    }
+
+    private boolean receive(DatagramSocket socket, int timeout) throws Exception {
+        socket.setSoTimeout(timeout);
+        byte[] buffer = new byte[4096];
+        try {
+            socket.receive(new DatagramPacket(buffer, buffer.length));
+            return true;
+        } catch (SocketTimeoutException ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.SipListenerExt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Properties;
+
+import javax.sip.ClientTransaction;
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.DialogTimeoutEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.ServerTransaction;
+import javax.sip.SipFactory;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.MaxForwardsHeader;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import junit.framework.TestCase;
+
+/**
+ * Sends MESSAGE requests on several calls to a non re-entrant listener whose
+ * events are delivered by several event scanner threads, and checks that the
+ * requests of a call are always delivered by the same thread while different
+ * calls are spread over the threads.
+ */
+public class EventScannerLanesTest extends TestCase {
+
+    private static final int SERVER_PORT = 5097;
+
+    private static final int CLIENT_PORT = 5098;
+
+    private static final int CALLS = 32;
+
+    private static final int MESSAGES_PER_CALL = 4;
+
+    private AddressFactory addressFactory;
+
+    private MessageFactory messageFactory;
+
+    private HeaderFactory headerFactory;
+
+    private SipStack serverStack;
+
+    private SipStack clientStack;
+
+    private SipProvider clientProvider;
+
+    private final HashMap<String, HashSet<String>> threadsByCallId = new HashMap<String, HashSet<String>>();
+
+    private int okResponses;
+
+    class Server implements SipListenerExt {
+
+        public void processRequest(RequestEvent requestEvent) {
+            Request request = requestEvent.getRequest();
+            try {
+                String callId = ((CallIdHeader) request.getHeader(CallIdHeader.NAME))
+                        .getCallId();
+                synchronized (threadsByCallId) {
+                    HashSet<String> threads = threadsByCallId.get(callId);
+                    if (threads == null) {
+                        threads = new HashSet<String>();
+                        threadsByCallId.put(callId, threads);
+                    }
+                    threads.add(Thread.currentThread().getName());
+                }
+                ServerTransaction st = ((SipProvider) requestEvent.getSource())
+                        .getNewServerTransaction(request);
+                st.sendResponse(messageFactory.createResponse(Response.OK, request));
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                fail("Unexpected exception " + ex);
+            }
+        }
+
+        public void processResponse(ResponseEvent responseEvent) {
+        }
+
+        public void processTimeout(TimeoutEvent timeoutEvent) {
+        }
+
+        public void processIOException(IOExceptionEvent exceptionEvent) {
+        }
+
+        public void processTransactionTerminated(TransactionTerminatedEvent event) {
+        }
+
+        public void processDialogTerminated(DialogTerminatedEvent event) {
+        }
+
+        public void processDialogTimeout(DialogTimeoutEvent timeoutEvent) {
+        }
+    }
+
+    class Client implements SipListenerExt {
+
+        public void processRequest(RequestEvent requestEvent) {
+        }
+
+        public void processResponse(ResponseEvent responseEvent) {
+            if (responseEvent.getResponse().getStatusCode() == Response.OK) {
+                synchronized (EventScannerLanesTest.this) {
+                    okResponses++;
+                    EventScannerLanesTest.this.notifyAll();
+                }
+            }
+        }
+
+        public void processTimeout(TimeoutEvent timeoutEvent) {
+        }
+
+        public void processIOException(IOExceptionEvent exceptionEvent) {
+        }
+
+        public void processTransactionTerminated(TransactionTerminatedEvent event) {
+        }
+
+        public void processDialogTerminated(DialogTerminatedEvent event) {
+        }
+
+        public void processDialogTimeout(DialogTimeoutEvent timeoutEvent) {
+        }
+    }
+
+    private SipStack createStack(String name, int eventScannerThreads) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", name);
+        properties.setProperty("gov.nist.javax.sip.EVENT_SCANNER_THREADS",
+                Integer.toString(eventScannerThreads));
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        return SipFactory.getInstance().createSipStack(properties);
+    }
+
+    public void setUp() throws Exception {
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        addressFactory = sipFactory.createAddressFactory();
+        messageFactory = sipFactory.createMessageFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+
+        serverStack = createStack("lanesserver", 4);
+        ListeningPoint serverLp = serverStack.createListeningPoint("127.0.0.1", SERVER_PORT, "udp");
+        serverStack.createSipProvider(serverLp).addSipListener(new Server());
+
+        clientStack = createStack("lanesclient", 1);
+        ListeningPoint clientLp = clientStack.createListeningPoint("127.0.0.1", CLIENT_PORT, "udp");
+        clientProvider = clientStack.createSipProvider(clientLp);
+        clientProvider.addSipListener(new Client());
+    }
+
+    public void tearDown() throws Exception {
+        clientStack.stop();
+        serverStack.stop();
+    }
+
+    private Request createMessage(CallIdHeader callId, long cseq) throws Exception {
+        SipURI fromUri = addressFactory.createSipURI("alice", "127.0.0.1");
+        FromHeader from = headerFactory.createFromHeader(
+                addressFactory.createAddress(fromUri), "12345");
+        SipURI toUri = addressFactory.createSipURI("bob", "127.0.0.1:" + SERVER_PORT);
+        ToHeader to = headerFactory.createToHeader(addressFactory.createAddress(toUri), null);
+        SipURI requestUri = addressFactory.createSipURI("bob", "127.0.0.1:" + SERVER_PORT);
+        ArrayList<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", CLIENT_PORT, "udp", null));
+        CSeqHeader cseqHeader = headerFactory.createCSeqHeader(cseq, Request.MESSAGE);
+        MaxForwardsHeader maxForwards = headerFactory.createMaxForwardsHeader(70);
+        return messageFactory.createRequest(requestUri, Request.MESSAGE, callId,
+                cseqHeader, from, to, vias, maxForwards);
+    }
+
+    public void testEventsOfACallStayOnOneThread() throws Exception {
+        CallIdHeader[] callIds = new CallIdHeader[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            callIds[i] = clientProvider.getNewCallId();
+        }
+        for (int cseq = 1; cseq <= MESSAGES_PER_CALL; cseq++) {
+            for (int i = 0; i < CALLS; i++) {
+                ClientTransaction ct = clientProvider.getNewClientTransaction(
+                        createMessage(callIds[i], cseq));
+                ct.sendRequest();
+            }
+        }
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + 20000;
+            while (okResponses < CALLS * MESSAGES_PER_CALL
+                    && System.currentTimeMillis() < deadline) {
+                wait(500);
+            }
+        }
+        assertEquals("All the requests should be answered", CALLS * MESSAGES_PER_CALL,
+                okResponses);
+        HashSet<String> allThreads = new HashSet<String>();
+        synchronized (threadsByCallId) {
+            assertEquals(CALLS, threadsByCallId.size());
+            for (HashSet<String> threads : threadsByCallId.values()) {
+                assertEquals("A call should be delivered by a single thread", 1,
+                        threads.size());
+                allThreads.addAll(threads);
+            }
+        }
+        assertTrue("The calls should be spread over the event scanner threads",
+                allThreads.size() > 1);
+        for (String name : allThreads) {
+            assertTrue(name, name.startsWith("EventScannerThread-"));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.Utils;
+import gov.nist.javax.sip.header.Via;
+import gov.nist.javax.sip.message.SIPResponse;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.sip.message.Response;
+
+import junit.framework.TestCase;
+
+public class LockFreeIdGenerationTest extends TestCase {
+
+    private static final int THREADS = 8;
+
+    private static final int IDS_PER_THREAD = 20000;
+
+    public void setUp() {
+        Utils.setLockFreeIdGeneration(true);
+    }
+
+    public void tearDown() {
+        Utils.setLockFreeIdGeneration(false);
+    }
+
+    public void testFormat() throws Exception {
+        Utils utils = Utils.getInstance();
+        String branch = utils.generateBranchId();
+        assertTrue(branch, branch.matches("z9hG4bK-" + Utils.getSignature() + "-[0-9a-f]{32}"));
+        String callId = utils.generateCallIdentifier("10.0.0.1");
+        assertTrue(callId, callId.matches("[0-9a-f]{32}@10\\.0\\.0\\.1"));
+        String tag = utils.generateTag();
+        assertTrue(tag, tag.matches("[0-9a-f]{8}"));
+
+        SIPResponse response = new SIPResponse();
+        response.setStatusCode(Response.OK);
+        Via via = new Via();
+        via.setBranch(branch);
+        response.addHeader(via);
+        assertTrue(utils.responseBelongsToUs(response));
+    }
+
+    public void testUniqueAcrossThreads() throws Exception {
+        final Set<String> branches = Collections.synchronizedSet(new HashSet<String>());
+        final Set<String> callIds = Collections.synchronizedSet(new HashSet<String>());
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    Utils utils = Utils.getInstance();
+                    for (int j = 0; j < IDS_PER_THREAD; j++) {
+                        branches.add(utils.generateBranchId());
+                        callIds.add(utils.generateCallIdentifier("example.com"));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].join();
+        }
+        assertEquals(THREADS * IDS_PER_THREAD, branches.size());
+        assertEquals(THREADS * IDS_PER_THREAD, callIds.size());
+    }
+}
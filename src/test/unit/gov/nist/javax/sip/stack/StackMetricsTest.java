@@ -0,0 +1,261 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.SipListenerExt;
+import gov.nist.javax.sip.SipStackExt;
+import gov.nist.javax.sip.stack.StackMetricsSnapshot;
+
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import javax.sip.ClientTransaction;
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.DialogTimeoutEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.ServerTransaction;
+import javax.sip.SipFactory;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import junit.framework.TestCase;
+
+/**
+ * Sends OPTIONS requests between two stacks over UDP and checks the
+ * statistics of both, through the snapshot and through JMX.
+ */
+public class StackMetricsTest extends TestCase {
+
+    private static final int SERVER_PORT = 5101;
+
+    private static final int CLIENT_PORT = 5102;
+
+    private static final int REQUESTS = 10;
+
+    private SipFactory sipFactory;
+
+    private AddressFactory addressFactory;
+
+    private MessageFactory messageFactory;
+
+    private HeaderFactory headerFactory;
+
+    private SipStack serverStack;
+
+    private SipStack clientStack;
+
+    private SipProvider clientProvider;
+
+    private int okResponses;
+
+    class Server implements SipListenerExt {
+
+        public void processRequest(RequestEvent requestEvent) {
+            Request request = requestEvent.getRequest();
+            try {
+                ServerTransaction st = ((SipProvider) requestEvent.getSource())
+                        .getNewServerTransaction(request);
+                st.sendResponse(messageFactory.createResponse(Response.OK, request));
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                fail("Unexpected exception " + ex);
+            }
+        }
+
+        public void processResponse(ResponseEvent responseEvent) {
+        }
+
+        public void processTimeout(TimeoutEvent timeoutEvent) {
+        }
+
+        public void processIOException(IOExceptionEvent exceptionEvent) {
+        }
+
+        public void processTransactionTerminated(TransactionTerminatedEvent event) {
+        }
+
+        public void processDialogTerminated(DialogTerminatedEvent event) {
+        }
+
+        public void processDialogTimeout(DialogTimeoutEvent timeoutEvent) {
+        }
+    }
+
+    class Client implements SipListenerExt {
+
+        public void processRequest(RequestEvent requestEvent) {
+        }
+
+        public void processResponse(ResponseEvent responseEvent) {
+            if (responseEvent.getResponse().getStatusCode() == Response.OK) {
+                synchronized (StackMetricsTest.this) {
+                    okResponses++;
+                    StackMetricsTest.this.notifyAll();
+                }
+            }
+        }
+
+        public void processTimeout(TimeoutEvent timeoutEvent) {
+        }
+
+        public void processIOException(IOExceptionEvent exceptionEvent) {
+        }
+
+        public void processTransactionTerminated(TransactionTerminatedEvent event) {
+        }
+
+        public void processDialogTerminated(DialogTerminatedEvent event) {
+        }
+
+        public void processDialogTimeout(DialogTimeoutEvent timeoutEvent) {
+        }
+    }
+
+    public void setUp() throws Exception {
+        sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        addressFactory = sipFactory.createAddressFactory();
+        messageFactory = sipFactory.createMessageFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+
+        serverStack = createStack("metricsserver", true);
+        ListeningPoint serverLp = serverStack.createListeningPoint("127.0.0.1", SERVER_PORT, "udp");
+        serverStack.createSipProvider(serverLp).addSipListener(new Server());
+
+        clientStack = createStack("metricsclient", false);
+        ListeningPoint clientLp = clientStack.createListeningPoint("127.0.0.1", CLIENT_PORT, "udp");
+        clientProvider = clientStack.createSipProvider(clientLp);
+        clientProvider.addSipListener(new Client());
+    }
+
+    public void tearDown() throws Exception {
+        if (clientStack != null) {
+            clientStack.stop();
+        }
+        if (serverStack != null) {
+            serverStack.stop();
+        }
+    }
+
+    private SipStack createStack(String name, boolean mbean) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", name);
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        properties.setProperty("gov.nist.javax.sip.METRICS_MBEAN", Boolean.toString(mbean));
+        return sipFactory.createSipStack(properties);
+    }
+
+    private Request createOptions(long cseq) throws Exception {
+        SipURI fromUri = addressFactory.createSipURI("alice", "127.0.0.1");
+        FromHeader from = headerFactory.createFromHeader(addressFactory.createAddress(fromUri),
+                "12345");
+        SipURI toUri = addressFactory.createSipURI("bob", "127.0.0.1:" + SERVER_PORT);
+        ToHeader to = headerFactory.createToHeader(addressFactory.createAddress(toUri), null);
+        SipURI requestUri = addressFactory.createSipURI("bob", "127.0.0.1:" + SERVER_PORT);
+        ArrayList<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", CLIENT_PORT, "udp", null));
+        CSeqHeader cseqHeader = headerFactory.createCSeqHeader(cseq, Request.OPTIONS);
+        return messageFactory.createRequest(requestUri, Request.OPTIONS,
+                clientProvider.getNewCallId(), cseqHeader, from, to, vias,
+                headerFactory.createMaxForwardsHeader(70));
+    }
+
+    private void sendRequests() throws Exception {
+        for (int i = 1; i <= REQUESTS; i++) {
+            ClientTransaction ct = clientProvider.getNewClientTransaction(createOptions(i));
+            ct.sendRequest();
+        }
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (okResponses < REQUESTS && System.currentTimeMillis() < deadline) {
+                wait(500);
+            }
+        }
+        assertEquals(REQUESTS, okResponses);
+    }
+
+    public void testMessageCounts() throws Exception {
+        sendRequests();
+        StackMetricsSnapshot client = ((SipStackExt) clientStack).getMetricsSnapshot();
+        StackMetricsSnapshot server = ((SipStackExt) serverStack).getMetricsSnapshot();
+
+        assertEquals("metricsclient", client.getStackName());
+        assertTrue(client.getRequestsSent().get(Request.OPTIONS).longValue() >= REQUESTS);
+        assertEquals(0, client.getRequestsSent().get(Request.INVITE).longValue());
+        assertEquals(REQUESTS, client.getResponsesReceived().get("2xx").longValue()
+                - client.getRetransmissionsReceived());
+        assertEquals(client.getRequestsSent().get(Request.OPTIONS),
+                server.getRequestsReceived().get(Request.OPTIONS));
+        assertEquals(server.getResponsesSent().get("2xx"),
+                client.getResponsesReceived().get("2xx"));
+
+        // The client listener got the responses and the server listener the
+        // requests, followed by transaction terminated events.
+        assertTrue(client.getListenerTime().getCount() >= REQUESTS);
+        assertTrue(server.getListenerTime().getCount() >= REQUESTS);
+        assertEquals(REQUESTS, client.getTransactionDuration().getCount());
+        assertEquals(REQUESTS, server.getTransactionDuration().getCount());
+        assertEquals(REQUESTS, client.getClientTransactionCount());
+        assertEquals(0, client.getClientTransactionTimeouts());
+        assertEquals(0, server.getUdpQueueDepth());
+        assertEquals(0, server.getDialogCounts().get("CONFIRMED").intValue());
+    }
+
+    public void testParseErrors() throws Exception {
+        byte[] garbage = "OPTIONS\r\nVia: nothing\r\n\r\n".getBytes();
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            socket.send(new DatagramPacket(garbage, garbage.length,
+                    InetAddress.getByName("127.0.0.1"), SERVER_PORT));
+        } finally {
+            socket.close();
+        }
+        for (int i = 0; i < 40
+                && ((SipStackExt) serverStack).getMetricsSnapshot().getParseErrors() == 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, ((SipStackExt) serverStack).getMetricsSnapshot().getParseErrors());
+    }
+
+    public void testMBean() throws Exception {
+        sendRequests();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("gov.nist.javax.sip:type=StackMetrics,name=\"metricsserver\"");
+        assertTrue(server.isRegistered(name));
+        assertFalse(server.isRegistered(new ObjectName(
+                "gov.nist.javax.sip:type=StackMetrics,name=\"metricsclient\"")));
+
+        TabularData requests = (TabularData) server.getAttribute(name, "RequestsReceived");
+        CompositeData options = requests.get(new Object[] { Request.OPTIONS });
+        assertTrue(((Long) options.get("value")).longValue() >= REQUESTS);
+        TabularData listenerTime = (TabularData) server.getAttribute(name, "ListenerTimeMicros");
+        assertTrue(((Long) listenerTime.get(new Object[] { "count" }).get("value")).longValue()
+                >= REQUESTS);
+        assertEquals(Integer.valueOf(0), server.getAttribute(name, "EventQueueDepth"));
+
+        serverStack.stop();
+        serverStack = null;
+        assertFalse(server.isRegistered(name));
+    }
+}
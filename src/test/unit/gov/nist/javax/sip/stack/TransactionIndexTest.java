@@ -0,0 +1,177 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.SipListenerExt;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.stack.SIPClientTransaction;
+import gov.nist.javax.sip.stack.SIPTransactionStack;
+
+import java.util.ArrayList;
+import java.util.Properties;
+
+import javax.sip.ClientTransaction;
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.DialogTimeoutEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.SipFactory;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.EventHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.MaxForwardsHeader;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that NOTIFY and CANCEL requests are matched to their client
+ * transactions through the stack's indexes, and that removed transactions
+ * are no longer found.
+ */
+public class TransactionIndexTest extends TestCase {
+
+    private static final int PORT = 5096;
+
+    private AddressFactory addressFactory;
+
+    private MessageFactory messageFactory;
+
+    private HeaderFactory headerFactory;
+
+    private SipStack sipStack;
+
+    private SipProvider provider;
+
+    class Listener implements SipListenerExt {
+
+        public void processRequest(RequestEvent requestEvent) {
+        }
+
+        public void processResponse(ResponseEvent responseEvent) {
+        }
+
+        public void processTimeout(TimeoutEvent timeoutEvent) {
+        }
+
+        public void processIOException(IOExceptionEvent exceptionEvent) {
+        }
+
+        public void processTransactionTerminated(TransactionTerminatedEvent event) {
+        }
+
+        public void processDialogTerminated(DialogTerminatedEvent event) {
+        }
+
+        public void processDialogTimeout(DialogTimeoutEvent timeoutEvent) {
+        }
+    }
+
+    public void setUp() throws Exception {
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        addressFactory = sipFactory.createAddressFactory();
+        messageFactory = sipFactory.createMessageFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "transactionindex");
+        properties.setProperty("gov.nist.javax.sip.DELIVER_UNSOLICITED_NOTIFY", "true");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        sipStack = sipFactory.createSipStack(properties);
+        ListeningPoint lp = sipStack.createListeningPoint("127.0.0.1", PORT, "udp");
+        provider = sipStack.createSipProvider(lp);
+        provider.addSipListener(new Listener());
+    }
+
+    public void tearDown() throws Exception {
+        sipStack.stop();
+    }
+
+    private Request createRequest(String method, CallIdHeader callId, String fromTag,
+            String toTag) throws Exception {
+        SipURI fromUri = addressFactory.createSipURI("alice", "127.0.0.1");
+        FromHeader from = headerFactory.createFromHeader(
+                addressFactory.createAddress(fromUri), fromTag);
+        SipURI toUri = addressFactory.createSipURI("bob", "127.0.0.1:5060");
+        ToHeader to = headerFactory.createToHeader(addressFactory.createAddress(toUri), toTag);
+        ArrayList<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", PORT, "udp", null));
+        CSeqHeader cseq = headerFactory.createCSeqHeader(1L, method);
+        MaxForwardsHeader maxForwards = headerFactory.createMaxForwardsHeader(70);
+        Request request = messageFactory.createRequest(toUri, method, callId, cseq, from, to,
+                vias, maxForwards);
+        SipURI contactUri = addressFactory.createSipURI("alice", "127.0.0.1:" + PORT);
+        request.addHeader(headerFactory.createContactHeader(
+                addressFactory.createAddress(contactUri)));
+        return request;
+    }
+
+    private Request createSubscribe(CallIdHeader callId, String fromTag, String event)
+            throws Exception {
+        Request subscribe = createRequest(Request.SUBSCRIBE, callId, fromTag, null);
+        subscribe.addHeader(headerFactory.createEventHeader(event));
+        return subscribe;
+    }
+
+    private SIPRequest createNotify(String callId, String toTag, String event)
+            throws Exception {
+        Request notify = createRequest(Request.NOTIFY,
+                headerFactory.createCallIdHeader(callId), "bobtag", toTag);
+        EventHeader eventHeader = headerFactory.createEventHeader(event);
+        notify.addHeader(eventHeader);
+        return (SIPRequest) notify;
+    }
+
+    public void testNotifyMatchesSubscribe() throws Exception {
+        SIPTransactionStack stack = (SIPTransactionStack) sipStack;
+        CallIdHeader firstCallId = provider.getNewCallId();
+        CallIdHeader secondCallId = provider.getNewCallId();
+        ClientTransaction first = provider.getNewClientTransaction(
+                createSubscribe(firstCallId, "tag1", "presence"));
+        ClientTransaction second = provider.getNewClientTransaction(
+                createSubscribe(secondCallId, "tag2", "presence"));
+
+        assertSame(first, stack.findSubscribeTransaction(
+                createNotify(firstCallId.getCallId().toUpperCase(), "TAG1", "presence"), null));
+        assertSame(second, stack.findSubscribeTransaction(
+                createNotify(secondCallId.getCallId(), "tag2", "presence"), null));
+        assertNull(stack.findSubscribeTransaction(
+                createNotify(firstCallId.getCallId(), "tag2", "presence"), null));
+        assertNull(stack.findSubscribeTransaction(
+                createNotify(firstCallId.getCallId(), "tag1", "dialog"), null));
+
+        stack.removeTransaction((SIPClientTransaction) first);
+        assertNull(stack.findSubscribeTransaction(
+                createNotify(firstCallId.getCallId(), "tag1", "presence"), null));
+        assertSame(second, stack.findSubscribeTransaction(
+                createNotify(secondCallId.getCallId(), "tag2", "presence"), null));
+    }
+
+    public void testCancelMatchesInvite() throws Exception {
+        SIPTransactionStack stack = (SIPTransactionStack) sipStack;
+        ClientTransaction invite = provider.getNewClientTransaction(
+                createRequest(Request.INVITE, provider.getNewCallId(), "tag1", null));
+        ClientTransaction other = provider.getNewClientTransaction(
+                createRequest(Request.INVITE, provider.getNewCallId(), "tag2", null));
+
+        SIPRequest cancel = (SIPRequest) invite.createCancel();
+        assertSame(invite, stack.findCancelTransaction(cancel, false));
+        assertSame(other, stack.findCancelTransaction(
+                (SIPRequest) other.createCancel(), false));
+        assertNull(stack.findCancelTransaction(cancel, true));
+
+        stack.removeTransaction((SIPClientTransaction) invite);
+        assertNull(stack.findCancelTransaction(cancel, false));
+    }
+}
@@ -0,0 +1,196 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.SipListenerExt;
+import gov.nist.javax.sip.stack.SIPClientTransaction;
+
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import javax.sip.ClientTransaction;
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.DialogTimeoutEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.SipFactory;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the retransmissions (timer E) and the timeout (timer F) of a non
+ * INVITE client transaction sent to a peer that never answers, with the one
+ * shot timers and with the former timer ticks.
+ */
+public class TransactionTimersTest extends TestCase {
+
+    private static final int PORT = 5091;
+
+    private static final int PEER_PORT = 5092;
+
+    // Retransmit timer (T1) of the transactions, timer F fires after 64 * T1.
+    private static final int T1 = 50;
+
+    private AddressFactory addressFactory;
+
+    private MessageFactory messageFactory;
+
+    private HeaderFactory headerFactory;
+
+    private SipStack sipStack;
+
+    private SipProvider provider;
+
+    private volatile int timeouts;
+
+    class Listener implements SipListenerExt {
+
+        public void processRequest(RequestEvent requestEvent) {
+        }
+
+        public void processResponse(ResponseEvent responseEvent) {
+        }
+
+        public void processTimeout(TimeoutEvent timeoutEvent) {
+            timeouts++;
+        }
+
+        public void processIOException(IOExceptionEvent exceptionEvent) {
+        }
+
+        public void processTransactionTerminated(TransactionTerminatedEvent event) {
+        }
+
+        public void processDialogTerminated(DialogTerminatedEvent event) {
+        }
+
+        public void processDialogTimeout(DialogTimeoutEvent timeoutEvent) {
+        }
+    }
+
+    private void createStack(String transport, boolean timerTicks) throws Exception {
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        addressFactory = sipFactory.createAddressFactory();
+        messageFactory = sipFactory.createMessageFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "transactiontimers");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        properties.setProperty("gov.nist.javax.sip.TRANSACTION_TIMER_TICKS",
+                Boolean.toString(timerTicks));
+        sipStack = sipFactory.createSipStack(properties);
+        ListeningPoint lp = sipStack.createListeningPoint("127.0.0.1", PORT, transport);
+        provider = sipStack.createSipProvider(lp);
+        provider.addSipListener(new Listener());
+    }
+
+    public void tearDown() throws Exception {
+        if (sipStack != null) {
+            sipStack.stop();
+        }
+    }
+
+    private void sendMessage(String transport) throws Exception {
+        SipURI fromUri = addressFactory.createSipURI("alice", "127.0.0.1");
+        FromHeader from = headerFactory.createFromHeader(
+                addressFactory.createAddress(fromUri), "12345");
+        SipURI toUri = addressFactory.createSipURI("bob", "127.0.0.1:" + PEER_PORT);
+        toUri.setTransportParam(transport);
+        ToHeader to = headerFactory.createToHeader(addressFactory.createAddress(toUri), null);
+        ArrayList<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", PORT, transport, null));
+        CSeqHeader cseq = headerFactory.createCSeqHeader(1L, Request.MESSAGE);
+        Request request = messageFactory.createRequest(toUri, Request.MESSAGE,
+                provider.getNewCallId(), cseq, from, to, vias,
+                headerFactory.createMaxForwardsHeader(70));
+        ClientTransaction ct = provider.getNewClientTransaction(request);
+        ((SIPClientTransaction) ct).setRetransmitTimer(T1);
+        ct.sendRequest();
+    }
+
+    private int receiveDatagrams(DatagramSocket socket, long duration) throws Exception {
+        int count = 0;
+        long end = System.currentTimeMillis() + duration;
+        byte[] buffer = new byte[4096];
+        while (System.currentTimeMillis() < end) {
+            socket.setSoTimeout((int) Math.max(1, end - System.currentTimeMillis()));
+            try {
+                socket.receive(new DatagramPacket(buffer, buffer.length));
+                count++;
+            } catch (SocketTimeoutException ex) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    private void checkUdp(boolean timerTicks) throws Exception {
+        DatagramSocket peer = new DatagramSocket(PEER_PORT, InetAddress.getByName("127.0.0.1"));
+        try {
+            createStack("udp", timerTicks);
+            sendMessage("udp");
+            int sent = receiveDatagrams(peer, 64 * T1 + 1000);
+            // Sent at 0, 1, 3, 7 then every 8 ticks until 64 ticks.
+            assertTrue("Expected retransmissions, got " + sent, sent >= 6 && sent <= 12);
+            assertEquals(1, timeouts);
+        } finally {
+            peer.close();
+        }
+    }
+
+    public void testUdpRetransmissionsAndTimeout() throws Exception {
+        checkUdp(false);
+    }
+
+    public void testUdpRetransmissionsAndTimeoutWithTimerTicks() throws Exception {
+        checkUdp(true);
+    }
+
+    public void testTcpTimeoutWithoutRetransmissions() throws Exception {
+        ServerSocket peer = new ServerSocket(PEER_PORT, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            createStack("tcp", false);
+            sendMessage("tcp");
+            Socket socket = peer.accept();
+            socket.setSoTimeout(64 * T1 + 1000);
+            InputStream in = socket.getInputStream();
+            StringBuilder received = new StringBuilder();
+            byte[] buffer = new byte[4096];
+            try {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    received.append(new String(buffer, 0, n, "UTF-8"));
+                }
+            } catch (SocketTimeoutException ex) {
+            }
+            socket.close();
+            String text = received.toString();
+            assertEquals("Retransmitted over TCP", text.indexOf("MESSAGE sip:"),
+                    text.lastIndexOf("MESSAGE sip:"));
+            assertEquals(1, timeouts);
+        } finally {
+            peer.close();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.SipListenerExt;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Properties;
+
+import javax.sip.ClientTransaction;
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.DialogTimeoutEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.ServerTransaction;
+import javax.sip.SipFactory;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.Address;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.ContentTypeHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.MaxForwardsHeader;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import junit.framework.TestCase;
+
+/**
+ * Sends a burst of MESSAGE requests over UDP to a stack that reads its
+ * listening point with several receiver threads, with and without
+ * SO_REUSEPORT, and checks that they are all answered.
+ */
+public class UdpMultiReceiverTest extends TestCase {
+
+    private static final int SERVER_PORT = 5094;
+
+    private static final int CLIENT_PORT = 5095;
+
+    private static final int MESSAGES = 200;
+
+    private SipFactory sipFactory;
+
+    private AddressFactory addressFactory;
+
+    private MessageFactory messageFactory;
+
+    private HeaderFactory headerFactory;
+
+    private SipStack serverStack;
+
+    private SipStack clientStack;
+
+    private SipProvider clientProvider;
+
+    private final HashSet<Long> receivedSequence = new HashSet<Long>();
+
+    private int okResponses;
+
+    class Server implements SipListenerExt {
+
+        public void processRequest(RequestEvent requestEvent) {
+            Request request = requestEvent.getRequest();
+            try {
+                synchronized (receivedSequence) {
+                    receivedSequence.add(((CSeqHeader) request.getHeader(CSeqHeader.NAME))
+                            .getSeqNumber());
+                }
+                ServerTransaction st = ((SipProvider) requestEvent.getSource())
+                        .getNewServerTransaction(request);
+                st.sendResponse(messageFactory.createResponse(Response.OK, request));
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                fail("Unexpected exception " + ex);
+            }
+        }
+
+        public void processResponse(ResponseEvent responseEvent) {
+        }
+
+        public void processTimeout(TimeoutEvent timeoutEvent) {
+        }
+
+        public void processIOException(IOExceptionEvent exceptionEvent) {
+        }
+
+        public void processTransactionTerminated(TransactionTerminatedEvent event) {
+        }
+
+        public void processDialogTerminated(DialogTerminatedEvent event) {
+        }
+
+        public void processDialogTimeout(DialogTimeoutEvent timeoutEvent) {
+        }
+    }
+
+    class Client implements SipListenerExt {
+
+        public void processRequest(RequestEvent requestEvent) {
+        }
+
+        public void processResponse(ResponseEvent responseEvent) {
+            if (responseEvent.getResponse().getStatusCode() == Response.OK) {
+                synchronized (UdpMultiReceiverTest.this) {
+                    okResponses++;
+                    UdpMultiReceiverTest.this.notifyAll();
+                }
+            }
+        }
+
+        public void processTimeout(TimeoutEvent timeoutEvent) {
+        }
+
+        public void processIOException(IOExceptionEvent exceptionEvent) {
+        }
+
+        public void processTransactionTerminated(TransactionTerminatedEvent event) {
+        }
+
+        public void processDialogTerminated(DialogTerminatedEvent event) {
+        }
+
+        public void processDialogTimeout(DialogTimeoutEvent timeoutEvent) {
+        }
+    }
+
+    private SipStack createStack(String name, int receiverThreads, boolean reusePort)
+            throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", name);
+        properties.setProperty("gov.nist.javax.sip.THREAD_POOL_SIZE", "4");
+        properties.setProperty("gov.nist.javax.sip.UDP_RECEIVER_THREADS",
+                Integer.toString(receiverThreads));
+        properties.setProperty("gov.nist.javax.sip.UDP_REUSE_PORT", Boolean.toString(reusePort));
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        return sipFactory.createSipStack(properties);
+    }
+
+    public void setUp() throws Exception {
+        sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        addressFactory = sipFactory.createAddressFactory();
+        messageFactory = sipFactory.createMessageFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+    }
+
+    private void createStacks(boolean reusePort) throws Exception {
+        serverStack = createStack("udpserver", 4, reusePort);
+        ListeningPoint serverLp = serverStack.createListeningPoint("127.0.0.1", SERVER_PORT, "udp");
+        serverStack.createSipProvider(serverLp).addSipListener(new Server());
+
+        clientStack = createStack("udpclient", 1, false);
+        ListeningPoint clientLp = clientStack.createListeningPoint("127.0.0.1", CLIENT_PORT, "udp");
+        clientProvider = clientStack.createSipProvider(clientLp);
+        clientProvider.addSipListener(new Client());
+    }
+
+    public void tearDown() throws Exception {
+        if (clientStack != null) {
+            clientStack.stop();
+        }
+        if (serverStack != null) {
+            serverStack.stop();
+        }
+    }
+
+    private Request createMessage(CallIdHeader callId, long cseq) throws Exception {
+        SipURI fromUri = addressFactory.createSipURI("alice", "127.0.0.1");
+        Address fromAddress = addressFactory.createAddress(fromUri);
+        FromHeader from = headerFactory.createFromHeader(fromAddress, "12345");
+        SipURI toUri = addressFactory.createSipURI("bob", "127.0.0.1:" + SERVER_PORT);
+        ToHeader to = headerFactory.createToHeader(addressFactory.createAddress(toUri), null);
+        SipURI requestUri = addressFactory.createSipURI("bob", "127.0.0.1:" + SERVER_PORT);
+        requestUri.setTransportParam("udp");
+        ArrayList<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", CLIENT_PORT, "udp", null));
+        CSeqHeader cseqHeader = headerFactory.createCSeqHeader(cseq, Request.MESSAGE);
+        MaxForwardsHeader maxForwards = headerFactory.createMaxForwardsHeader(70);
+        Request request = messageFactory.createRequest(requestUri, Request.MESSAGE, callId,
+                cseqHeader, from, to, vias, maxForwards);
+        ContentTypeHeader contentType = headerFactory.createContentTypeHeader("text", "plain");
+        request.setContent("message " + cseq, contentType);
+        return request;
+    }
+
+    private void sendMessages() throws Exception {
+        for (int i = 1; i <= MESSAGES; i++) {
+            ClientTransaction ct = clientProvider.getNewClientTransaction(
+                    createMessage(clientProvider.getNewCallId(), i));
+            ct.sendRequest();
+        }
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + 20000;
+            while (okResponses < MESSAGES && System.currentTimeMillis() < deadline) {
+                wait(500);
+            }
+        }
+        assertEquals("All the requests should be answered", MESSAGES, okResponses);
+        synchronized (receivedSequence) {
+            assertEquals("Each request should be processed once", MESSAGES, receivedSequence.size());
+        }
+        boolean receiverThreadFound = false;
+        Thread[] threads = new Thread[Thread.activeCount() * 2];
+        int count = Thread.enumerate(threads);
+        for (int i = 0; i < count; i++) {
+            if (threads[i].getName().equals("UDPMessageProcessorThread-3")) {
+                receiverThreadFound = true;
+            }
+        }
+        assertTrue("There should be 4 receiver threads", receiverThreadFound);
+    }
+
+    public void testSharedSocket() throws Exception {
+        createStacks(false);
+        sendMessages();
+    }
+
+    public void testReusePort() throws Exception {
+        createStacks(true);
+        sendMessages();
+    }
+}
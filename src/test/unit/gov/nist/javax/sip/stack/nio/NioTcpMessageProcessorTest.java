@@ -0,0 +1,265 @@
+package test.unit.gov.nist.javax.sip.stack.nio;
+
+import gov.nist.javax.sip.SipListenerExt;
+import gov.nist.javax.sip.stack.NioMessageProcessorFactory;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+
+import javax.sip.ClientTransaction;
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.DialogTimeoutEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.ServerTransaction;
+import javax.sip.SipException;
+import javax.sip.SipFactory;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.Address;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.ContentTypeHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.MaxForwardsHeader;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import junit.framework.TestCase;
+
+/**
+ * Sends a burst of MESSAGE requests over TCP between two stacks that use the
+ * NIO message processor factory and checks that they are all answered, in
+ * order, without a thread being started per connection.
+ */
+public class NioTcpMessageProcessorTest extends TestCase {
+
+    private static final int SERVER_PORT = 5090;
+
+    private static final int CLIENT_PORT = 5091;
+
+    private static final int SILENT_PEER_PORT = 5088;
+
+    private static final int MESSAGES = 50;
+
+    private SipFactory sipFactory;
+
+    private AddressFactory addressFactory;
+
+    private MessageFactory messageFactory;
+
+    private HeaderFactory headerFactory;
+
+    private SipStack serverStack;
+
+    private SipStack clientStack;
+
+    private SipProvider clientProvider;
+
+    private final ArrayList<Long> receivedSequence = new ArrayList<Long>();
+
+    private int okResponses;
+
+    class Server implements SipListenerExt {
+
+        public void processRequest(RequestEvent requestEvent) {
+            Request request = requestEvent.getRequest();
+            try {
+                synchronized (receivedSequence) {
+                    receivedSequence.add(((CSeqHeader) request.getHeader(CSeqHeader.NAME))
+                            .getSeqNumber());
+                }
+                ServerTransaction st = ((SipProvider) requestEvent.getSource())
+                        .getNewServerTransaction(request);
+                st.sendResponse(messageFactory.createResponse(Response.OK, request));
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                fail("Unexpected exception " + ex);
+            }
+        }
+
+        public void processResponse(ResponseEvent responseEvent) {
+        }
+
+        public void processTimeout(TimeoutEvent timeoutEvent) {
+        }
+
+        public void processIOException(IOExceptionEvent exceptionEvent) {
+        }
+
+        public void processTransactionTerminated(TransactionTerminatedEvent event) {
+        }
+
+        public void processDialogTerminated(DialogTerminatedEvent event) {
+        }
+
+        public void processDialogTimeout(DialogTimeoutEvent timeoutEvent) {
+        }
+    }
+
+    class Client implements SipListenerExt {
+
+        public void processRequest(RequestEvent requestEvent) {
+        }
+
+        public void processResponse(ResponseEvent responseEvent) {
+            if (responseEvent.getResponse().getStatusCode() == Response.OK) {
+                synchronized (NioTcpMessageProcessorTest.this) {
+                    okResponses++;
+                    NioTcpMessageProcessorTest.this.notifyAll();
+                }
+            }
+        }
+
+        public void processTimeout(TimeoutEvent timeoutEvent) {
+            fail("Unexpected timeout");
+        }
+
+        public void processIOException(IOExceptionEvent exceptionEvent) {
+            fail("Unexpected IOException");
+        }
+
+        public void processTransactionTerminated(TransactionTerminatedEvent event) {
+        }
+
+        public void processDialogTerminated(DialogTerminatedEvent event) {
+        }
+
+        public void processDialogTimeout(DialogTimeoutEvent timeoutEvent) {
+        }
+    }
+
+    private SipStack createStack(String name) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", name);
+        properties.setProperty("gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY",
+                NioMessageProcessorFactory.class.getName());
+        properties.setProperty("gov.nist.javax.sip.NIO_SELECTOR_THREADS", "2");
+        properties.setProperty("gov.nist.javax.sip.NIO_DISPATCH_THREADS", "4");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        return sipFactory.createSipStack(properties);
+    }
+
+    public void setUp() throws Exception {
+        sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        addressFactory = sipFactory.createAddressFactory();
+        messageFactory = sipFactory.createMessageFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+
+        serverStack = createStack("nioserver");
+        ListeningPoint serverLp = serverStack.createListeningPoint("127.0.0.1", SERVER_PORT, "tcp");
+        serverStack.createSipProvider(serverLp).addSipListener(new Server());
+
+        clientStack = createStack("nioclient");
+        ListeningPoint clientLp = clientStack.createListeningPoint("127.0.0.1", CLIENT_PORT, "tcp");
+        clientProvider = clientStack.createSipProvider(clientLp);
+        clientProvider.addSipListener(new Client());
+    }
+
+    public void tearDown() throws Exception {
+        clientStack.stop();
+        serverStack.stop();
+    }
+
+    private Request createMessage(CallIdHeader callId, long cseq) throws Exception {
+        return createMessage(callId, cseq, SERVER_PORT);
+    }
+
+    private Request createMessage(CallIdHeader callId, long cseq, int port) throws Exception {
+        SipURI fromUri = addressFactory.createSipURI("alice", "127.0.0.1");
+        Address fromAddress = addressFactory.createAddress(fromUri);
+        FromHeader from = headerFactory.createFromHeader(fromAddress, "12345");
+        SipURI toUri = addressFactory.createSipURI("bob", "127.0.0.1:" + port);
+        ToHeader to = headerFactory.createToHeader(addressFactory.createAddress(toUri), null);
+        SipURI requestUri = addressFactory.createSipURI("bob", "127.0.0.1:" + port);
+        requestUri.setTransportParam("tcp");
+        ArrayList<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", CLIENT_PORT, "tcp", null));
+        CSeqHeader cseqHeader = headerFactory.createCSeqHeader(cseq, Request.MESSAGE);
+        MaxForwardsHeader maxForwards = headerFactory.createMaxForwardsHeader(70);
+        Request request = messageFactory.createRequest(requestUri, Request.MESSAGE, callId,
+                cseqHeader, from, to, vias, maxForwards);
+        ContentTypeHeader contentType = headerFactory.createContentTypeHeader("text", "plain");
+        request.setContent("message " + cseq, contentType);
+        return request;
+    }
+
+    public void testMessagesOverNio() throws Exception {
+        CallIdHeader callId = clientProvider.getNewCallId();
+        for (int i = 1; i <= MESSAGES; i++) {
+            ClientTransaction ct = clientProvider.getNewClientTransaction(createMessage(callId, i));
+            ct.sendRequest();
+        }
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (okResponses < MESSAGES && System.currentTimeMillis() < deadline) {
+                wait(500);
+            }
+        }
+        assertEquals("All the requests should be answered", MESSAGES, okResponses);
+        synchronized (receivedSequence) {
+            for (int i = 0; i < MESSAGES; i++) {
+                assertEquals("Requests should arrive in order", Long.valueOf(i + 1),
+                        receivedSequence.get(i));
+            }
+        }
+        Thread[] threads = new Thread[Thread.activeCount() * 2];
+        int count = Thread.enumerate(threads);
+        for (int i = 0; i < count; i++) {
+            assertFalse("No thread per connection expected",
+                    threads[i].getName().startsWith("TCPMessageChannelThread"));
+        }
+    }
+
+    /**
+     * The bytes waiting for a peer that does not read are limited, the
+     * connection is closed and the send fails once they exceed it.
+     */
+    public void testPeerThatDoesNotReadIsCutOff() throws Exception {
+        ServerSocket peer = new ServerSocket();
+        peer.setReceiveBufferSize(4096);
+        peer.bind(new InetSocketAddress("127.0.0.1", SILENT_PEER_PORT));
+        Socket socket = null;
+        try {
+            CallIdHeader callId = clientProvider.getNewCallId();
+            char[] body = new char[2048];
+            Arrays.fill(body, 'x');
+            ContentTypeHeader contentType = headerFactory.createContentTypeHeader("text",
+                    "plain");
+            boolean failed = false;
+            for (int i = 1; i <= 20000 && !failed; i++) {
+                Request request = createMessage(callId, i, SILENT_PEER_PORT);
+                request.setContent(new String(body), contentType);
+                try {
+                    clientProvider.sendRequest(request);
+                } catch (SipException ex) {
+                    failed = true;
+                }
+                if (socket == null) {
+                    socket = peer.accept();
+                }
+            }
+            assertTrue("The send should fail once the queue is full", failed);
+        } finally {
+            if (socket != null) {
+                socket.close();
+            }
+            peer.close();
+        }
+    }
+}
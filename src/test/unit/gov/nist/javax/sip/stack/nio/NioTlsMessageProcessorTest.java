@@ -0,0 +1,292 @@
+package test.unit.gov.nist.javax.sip.stack.nio;
+
+import gov.nist.javax.sip.SipListenerExt;
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.stack.NioMessageProcessorFactory;
+
+import java.util.ArrayList;
+import java.util.Properties;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.sip.ClientTransaction;
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.DialogTimeoutEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.ServerTransaction;
+import javax.sip.SipException;
+import javax.sip.SipFactory;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TlsSecurityPolicy;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.Address;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.ContentTypeHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.MaxForwardsHeader;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import junit.framework.TestCase;
+
+/**
+ * Sends a burst of MESSAGE requests over TLS between two stacks that use the
+ * NIO message processor factory and checks that they are all answered, in
+ * order, that the TLS security policy is consulted and that the handshake
+ * information is available to the transactions.
+ */
+public class NioTlsMessageProcessorTest extends TestCase {
+
+    private static final int SERVER_PORT = 5092;
+
+    private static final int CLIENT_PORT = 5093;
+
+    private static final int MESSAGES = 50;
+
+    private SipFactory sipFactory;
+
+    private AddressFactory addressFactory;
+
+    private MessageFactory messageFactory;
+
+    private HeaderFactory headerFactory;
+
+    private SipStack serverStack;
+
+    private SipStack clientStack;
+
+    private SipProvider clientProvider;
+
+    private final ArrayList<Long> receivedSequence = new ArrayList<Long>();
+
+    private int okResponses;
+
+    private volatile boolean serverCertificatesSeen;
+
+    private volatile boolean policyEnforced;
+
+    private volatile String clientCipherSuite;
+
+    private volatile boolean ioExceptionSeen;
+
+    class Server implements SipListenerExt {
+
+        public void processRequest(RequestEvent requestEvent) {
+            Request request = requestEvent.getRequest();
+            try {
+                synchronized (receivedSequence) {
+                    receivedSequence.add(((CSeqHeader) request.getHeader(CSeqHeader.NAME))
+                            .getSeqNumber());
+                }
+                ServerTransaction st = ((SipProvider) requestEvent.getSource())
+                        .getNewServerTransaction(request);
+                try {
+                    if (st.getPeerCertificates() != null && st.getPeerCertificates().length > 0) {
+                        serverCertificatesSeen = true;
+                    }
+                } catch (SSLPeerUnverifiedException ex) {
+                    // The client has no certificate.
+                }
+                st.sendResponse(messageFactory.createResponse(Response.OK, request));
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                fail("Unexpected exception " + ex);
+            }
+        }
+
+        public void processResponse(ResponseEvent responseEvent) {
+        }
+
+        public void processTimeout(TimeoutEvent timeoutEvent) {
+        }
+
+        public void processIOException(IOExceptionEvent exceptionEvent) {
+        }
+
+        public void processTransactionTerminated(TransactionTerminatedEvent event) {
+        }
+
+        public void processDialogTerminated(DialogTerminatedEvent event) {
+        }
+
+        public void processDialogTimeout(DialogTimeoutEvent timeoutEvent) {
+        }
+    }
+
+    class Client implements SipListenerExt {
+
+        public void processRequest(RequestEvent requestEvent) {
+        }
+
+        public void processResponse(ResponseEvent responseEvent) {
+            if (responseEvent.getResponse().getStatusCode() == Response.OK) {
+                clientCipherSuite = responseEvent.getClientTransaction().getCipherSuite();
+                synchronized (NioTlsMessageProcessorTest.this) {
+                    okResponses++;
+                    NioTlsMessageProcessorTest.this.notifyAll();
+                }
+            }
+        }
+
+        public void processTimeout(TimeoutEvent timeoutEvent) {
+            fail("Unexpected timeout");
+        }
+
+        public void processIOException(IOExceptionEvent exceptionEvent) {
+            ioExceptionSeen = true;
+        }
+
+        public void processTransactionTerminated(TransactionTerminatedEvent event) {
+        }
+
+        public void processDialogTerminated(DialogTerminatedEvent event) {
+        }
+
+        public void processDialogTimeout(DialogTimeoutEvent timeoutEvent) {
+        }
+    }
+
+    class Policy implements TlsSecurityPolicy {
+
+        public void enforceTlsPolicy(ClientTransaction transaction) throws SecurityException {
+            policyEnforced = true;
+        }
+    }
+
+    private SipStack createStack(String name, boolean withKeyStore) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", name);
+        properties.setProperty("gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY",
+                NioMessageProcessorFactory.class.getName());
+        properties.setProperty("gov.nist.javax.sip.NIO_SELECTOR_THREADS", "2");
+        properties.setProperty("gov.nist.javax.sip.NIO_DISPATCH_THREADS", "4");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        properties.setProperty("gov.nist.javax.sip.TLS_CLIENT_PROTOCOLS", "TLSv1.2");
+        if (withKeyStore) {
+            String keyStore = getClass().getResource("testkeys").getPath();
+            properties.setProperty("javax.net.ssl.keyStore", keyStore);
+            properties.setProperty("javax.net.ssl.trustStore", keyStore);
+            properties.setProperty("javax.net.ssl.keyStorePassword", "passphrase");
+            properties.setProperty("javax.net.ssl.keyStoreType", "jks");
+        }
+        return sipFactory.createSipStack(properties);
+    }
+
+    public void setUp() throws Exception {
+        sipFactory = SipFactory.getInstance();
+        sipFactory.resetFactory();
+        sipFactory.setPathName("gov.nist");
+        addressFactory = sipFactory.createAddressFactory();
+        messageFactory = sipFactory.createMessageFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+
+        serverStack = createStack("niotlsserver", true);
+        ListeningPoint serverLp = serverStack.createListeningPoint("127.0.0.1", SERVER_PORT, "tls");
+        serverStack.createSipProvider(serverLp).addSipListener(new Server());
+    }
+
+    private void createClient(boolean withKeyStore) throws Exception {
+        clientStack = createStack("niotlsclient", withKeyStore);
+        ((SipStackImpl) clientStack).setTlsSecurityPolicy(new Policy());
+        ListeningPoint clientLp = clientStack.createListeningPoint("127.0.0.1", CLIENT_PORT, "tls");
+        clientProvider = clientStack.createSipProvider(clientLp);
+        clientProvider.addSipListener(new Client());
+    }
+
+    public void tearDown() throws Exception {
+        if (clientStack != null) {
+            clientStack.stop();
+        }
+        serverStack.stop();
+    }
+
+    private Request createMessage(CallIdHeader callId, long cseq) throws Exception {
+        SipURI fromUri = addressFactory.createSipURI("alice", "127.0.0.1");
+        Address fromAddress = addressFactory.createAddress(fromUri);
+        FromHeader from = headerFactory.createFromHeader(fromAddress, "12345");
+        SipURI toUri = addressFactory.createSipURI("bob", "127.0.0.1:" + SERVER_PORT);
+        ToHeader to = headerFactory.createToHeader(addressFactory.createAddress(toUri), null);
+        SipURI requestUri = addressFactory.createSipURI("bob", "127.0.0.1:" + SERVER_PORT);
+        requestUri.setTransportParam("tls");
+        ArrayList<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", CLIENT_PORT, "tls", null));
+        CSeqHeader cseqHeader = headerFactory.createCSeqHeader(cseq, Request.MESSAGE);
+        MaxForwardsHeader maxForwards = headerFactory.createMaxForwardsHeader(70);
+        Request request = messageFactory.createRequest(requestUri, Request.MESSAGE, callId,
+                cseqHeader, from, to, vias, maxForwards);
+        ContentTypeHeader contentType = headerFactory.createContentTypeHeader("text", "plain");
+        request.setContent("message " + cseq, contentType);
+        return request;
+    }
+
+    private void sendMessages(int count) throws Exception {
+        CallIdHeader callId = clientProvider.getNewCallId();
+        for (int i = 1; i <= count; i++) {
+            ClientTransaction ct = clientProvider.getNewClientTransaction(createMessage(callId, i));
+            ct.sendRequest();
+        }
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (okResponses < count && System.currentTimeMillis() < deadline) {
+                wait(500);
+            }
+        }
+        assertEquals("All the requests should be answered", count, okResponses);
+    }
+
+    public void testMessagesOverNioTls() throws Exception {
+        createClient(true);
+        sendMessages(MESSAGES);
+        synchronized (receivedSequence) {
+            for (int i = 0; i < MESSAGES; i++) {
+                assertEquals("Requests should arrive in order", Long.valueOf(i + 1),
+                        receivedSequence.get(i));
+            }
+        }
+        assertTrue("The TLS security policy should be consulted", policyEnforced);
+        assertTrue("The server should see the client certificate", serverCertificatesSeen);
+        assertNotNull("The cipher suite should be known", clientCipherSuite);
+        assertFalse("Unexpected IOException", ioExceptionSeen);
+        Thread[] threads = new Thread[Thread.activeCount() * 2];
+        int count = Thread.enumerate(threads);
+        for (int i = 0; i < count; i++) {
+            assertFalse("No thread per connection expected",
+                    threads[i].getName().startsWith("TLSMessageChannelThread"));
+        }
+    }
+
+    /**
+     * Accepted connections require a client certificate, as they do with the
+     * blocking TLS message processor.
+     */
+    public void testClientWithoutCertificateIsRefused() throws Exception {
+        // The client trusts the server through the default SSL context of
+        // the JVM.
+        String keyStore = getClass().getResource("testkeys").getPath();
+        System.setProperty("javax.net.ssl.trustStore", keyStore);
+        System.setProperty("javax.net.ssl.trustStorePassword", "passphrase");
+        createClient(false);
+        try {
+            clientProvider.getNewClientTransaction(
+                    createMessage(clientProvider.getNewCallId(), 1)).sendRequest();
+        } catch (SipException ex) {
+            // the handshake failed before the request was sent
+        }
+        Thread.sleep(2000);
+        synchronized (receivedSequence) {
+            assertTrue("The server should not accept the request", receivedSequence.isEmpty());
+        }
+        assertEquals(0, okResponses);
+    }
+}
@@ -0,0 +1,119 @@
+package test.unit.gov.nist.javax.sip.stack.timers;
+
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.stack.SIPStackTimerTask;
+import gov.nist.javax.sip.stack.timers.SipTimer;
+import gov.nist.javax.sip.stack.timers.TimingWheelSipTimer;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sip.SipFactory;
+
+import junit.framework.TestCase;
+
+public class TimingWheelSipTimerTest extends TestCase {
+
+    private SipStackImpl sipStack;
+
+    private SipTimer timer;
+
+    static class CountingTask extends SIPStackTimerTask {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch latch;
+        volatile long firedAt;
+
+        CountingTask(int expectedRuns) {
+            latch = new CountDownLatch(expectedRuns);
+        }
+
+        public void runTask() {
+            firedAt = System.currentTimeMillis();
+            runs.incrementAndGet();
+            latch.countDown();
+        }
+    }
+
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "timingWheel");
+        properties.setProperty("gov.nist.javax.sip.TIMER_CLASS_NAME",
+                TimingWheelSipTimer.class.getName());
+        properties.setProperty("gov.nist.javax.sip.TIMER_WHEEL_TICK", "10");
+        // Small wheel so that the tests go round it several times.
+        properties.setProperty("gov.nist.javax.sip.TIMER_WHEEL_SIZE", "8");
+        properties.setProperty("gov.nist.javax.sip.TIMER_THREADS", "2");
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        sipStack = (SipStackImpl) sipFactory.createSipStack(properties);
+        timer = sipStack.getTimer();
+        assertTrue(timer instanceof TimingWheelSipTimer);
+    }
+
+    public void tearDown() {
+        sipStack.stop();
+        SipFactory.getInstance().resetFactory();
+    }
+
+    public void testSchedule() throws Exception {
+        CountingTask shortTask = new CountingTask(1);
+        CountingTask longTask = new CountingTask(1);
+        long start = System.currentTimeMillis();
+        timer.schedule(shortTask, 50);
+        timer.schedule(longTask, 300);
+        assertTrue(longTask.latch.await(2, TimeUnit.SECONDS));
+        assertTrue(shortTask.latch.await(0, TimeUnit.SECONDS));
+        assertTrue(shortTask.firedAt - start >= 40);
+        assertTrue(longTask.firedAt - start >= 290);
+        assertTrue("fired late " + (longTask.firedAt - start), longTask.firedAt - start < 500);
+        assertEquals(1, longTask.runs.get());
+    }
+
+    public void testCancel() throws Exception {
+        CountingTask cancelled = new CountingTask(1);
+        CountingTask other = new CountingTask(1);
+        timer.schedule(cancelled, 100);
+        timer.schedule(other, 150);
+        assertTrue(timer.cancel(cancelled));
+        assertFalse(timer.cancel(cancelled));
+        assertTrue(other.latch.await(2, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(0, cancelled.runs.get());
+        assertFalse(timer.cancel(other));
+    }
+
+    public void testFixedDelay() throws Exception {
+        CountingTask periodic = new CountingTask(5);
+        timer.scheduleWithFixedDelay(periodic, 0, 20);
+        assertTrue(periodic.latch.await(2, TimeUnit.SECONDS));
+        assertTrue(timer.cancel(periodic));
+        int runs = periodic.runs.get();
+        Thread.sleep(100);
+        assertTrue(periodic.runs.get() <= runs + 1);
+    }
+
+    public void testManyTasks() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(10000);
+        for (int i = 0; i < 10000; i++) {
+            timer.schedule(new SIPStackTimerTask() {
+                public void runTask() {
+                    latch.countDown();
+                }
+            }, 1 + i % 200);
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testStopped() {
+        sipStack.stop();
+        assertFalse(timer.isStarted());
+        try {
+            timer.schedule(new CountingTask(1), 10);
+            fail("Should not schedule on a stopped timer");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+}
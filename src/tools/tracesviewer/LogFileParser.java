@@ -9,6 +9,8 @@ import org.xml.sax.*;
 import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.SAXException;
 
+import gov.nist.javax.sip.stack.BinaryServerLog;
+
 import java.io.*;
 import java.util.*;
 
@@ -221,9 +223,13 @@ public class LogFileParser extends DefaultHandler {
     }
 
     /**
-     * Generate a file that can be digested by the trace viewer.
+     * Generate a file that can be digested by the trace viewer. The file is
+     * either an XML trace or a binary trace written by BinaryServerLog.
      */
     public Hashtable parseLogsFromFile(String logFileName) {
+        if (isBinaryLogFile(logFileName)) {
+            return parseLogsFromBinaryFile(logFileName);
+        }
         try {
 
             // FileWriter fw=new FileWriter(logFileName);
@@ -252,6 +258,102 @@ public class LogFileParser extends DefaultHandler {
         }
     }
 
+    /**
+     * Tells if a file is a binary trace written by BinaryServerLog.
+     */
+    public static boolean isBinaryLogFile(String logFileName) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(logFileName));
+            return in.readInt() == BinaryServerLog.MAGIC;
+        } catch (IOException ex) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a binary trace written by BinaryServerLog. A record cut short at
+     * the end of the file (the stack is still writing it) is ignored.
+     */
+    public Hashtable parseLogsFromBinaryFile(String logFileName) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(logFileName)));
+            if (in.readInt() != BinaryServerLog.MAGIC) {
+                throw new IOException("Not a binary trace: " + logFileName);
+            }
+            in.readShort();
+            logName = in.readUTF();
+            logDescription = in.readUTF();
+            auxInfo = in.readUTF();
+            if (auxInfo.length() == 0) {
+                auxInfo = null;
+            }
+            while (true) {
+                int tag = in.read();
+                if (tag == -1) {
+                    break;
+                }
+                long time = in.readLong();
+                if (tag == BinaryServerLog.EXCEPTION_RECORD) {
+                    in.readUTF();
+                    continue;
+                } else if (tag != BinaryServerLog.MESSAGE_RECORD) {
+                    throw new IOException("Bad record in " + logFileName);
+                }
+                long timeStamp = in.readLong();
+                int flags = in.readByte();
+                from = in.readUTF();
+                to = in.readUTF();
+                callId = in.readUTF();
+                transactionId = in.readUTF();
+                statusMessage = (flags & BinaryServerLog.STATUS_FLAG) != 0 ? in
+                        .readUTF() : null;
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                String text = new String(bytes, "UTF-8");
+                int eol = text.indexOf("\r\n");
+                firstLine = (eol == -1 ? text : text.substring(0, eol)).trim();
+                isSender = (flags & BinaryServerLog.SENDER_FLAG) != 0 ? "true"
+                        : "false";
+                messageTimeStamp = timeStamp != 0 ? String.valueOf(timeStamp)
+                        : null;
+                messageLog = new TracesMessage(from, to, String.valueOf(time),
+                        firstLine, text, statusMessage, transactionId,
+                        messageTimeStamp, null);
+
+                MessageLogList messageLogList = (MessageLogList) messageLogs
+                        .get(callId);
+                if (messageLogList == null) {
+                    messageLogList = new MessageLogList(new LogComparator());
+                    messageLogs.put(callId, messageLogList);
+                }
+                if (!messageLogList.contains(messageLog))
+                    messageLogList.add(messageLog);
+            }
+        } catch (EOFException ex) {
+            // last record not complete yet
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+        return messageLogs;
+    }
+
     public Hashtable parseLogsFromString(String logString) {
         StringBuffer sb = new StringBuffer();
         sb.append("<?xml version='1.0' encoding='us-ascii'?>\n").append(